@@ -36,14 +36,10 @@ package com.temenos.interaction.authorization.command;
  */
 
 import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 
-import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response.Status;
 
-import org.odata4j.expression.EntitySimpleProperty;
-import org.odata4j.producer.EntityQueryInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,8 +48,8 @@ import com.temenos.interaction.authorization.exceptions.AuthorizationException;
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.command.InteractionException;
-import com.temenos.interaction.odataext.odataparser.ODataParser;
 import com.temenos.interaction.odataext.odataparser.ODataParser.UnsupportedQueryOperationException;
+import com.temenos.interaction.odataext.odataparser.ODataQuery;
 import com.temenos.interaction.odataext.odataparser.data.AccessProfile;
 import com.temenos.interaction.odataext.odataparser.data.FieldName;
 import com.temenos.interaction.odataext.odataparser.data.RowFilters;
@@ -81,10 +77,11 @@ public class AuthorizationCommand extends AbstractAuthorizationCommand implement
 			LOGGER.info("    Key " + theKey + " = Value " + ctx.getQueryParameters().getFirst(theKey));
 		}
 
-		EntityQueryInfo queryInfo = ODataParser.getEntityQueryInfo(ctx);
+		// Parsed once here and shared with later commands and the producer
+		ODataQuery query = ODataQuery.get(ctx);
 
 		// Add authorization to context
-		applyAuthorization(ctx, new RowFilters(queryInfo.filter), queryInfo.select);
+		ODataQuery.set(ctx, applyAuthorization(ctx, query));
 		
 		// Set attributes indicating that authorization has not yet been done.
 		ctx.setAttribute(AuthorizationAttributes.FILTER_DONE_ATTRIBUTE, Boolean.FALSE);
@@ -94,23 +91,22 @@ public class AuthorizationCommand extends AbstractAuthorizationCommand implement
 	}
 
 	/**
-	 * This method will apply Authorization on InteractionContext for filtering
+	 * This method will apply Authorization to the query for filtering
 	 * data
 	 * 
 	 * @param ctx
-	 * @param oldFilter
-	 * @param oldSelect
+	 * @param query
+	 * @return the authorized query
 	 * @throws UnsupportedQueryOperationException
 	 */
-	private void applyAuthorization(InteractionContext ctx, RowFilters oldFilter,
-			List<EntitySimpleProperty> oldSelect) throws InteractionException {
+	private ODataQuery applyAuthorization(InteractionContext ctx, ODataQuery query) throws InteractionException {
 
 		// TODO When IRIS supports it the following line will become a call to an Authorization resource.
 		AccessProfile accessProfile = authorizationBean.getAccessProfile(ctx);
 		
 		RowFilters newList = accessProfile.getNewRowFilters();
 		try {
-			addRowFilter(ctx, newList, oldFilter);
+			query = addRowFilter(query, newList);
 		} catch (UnsupportedQueryOperationException e) {
 		    LOGGER.warn("Attempted to do unauthorized action", e);
 		    
@@ -118,49 +114,38 @@ public class AuthorizationCommand extends AbstractAuthorizationCommand implement
 		}
 
 		Set<FieldName> authSet = accessProfile.getFieldNames();
-		addColFilter(ctx, authSet, oldSelect);
+		return addColFilter(query, authSet);
 	}
 
-	private boolean addRowFilter(InteractionContext ctx, RowFilters newFilter, RowFilters oldFilter)
+	private ODataQuery addRowFilter(ODataQuery query, RowFilters newFilter)
 			throws UnsupportedQueryOperationException {
-		MultivaluedMap<String, String> queryParams = ctx.getQueryParameters();
+		RowFilters oldFilter = query.getRowFilters();
 
 		// Final list contains both sets of filters
-		if (null != oldFilter) {
-			// TODO Some additional work may be required to combine filters on
-			// the same column. What if "a > b" and
-			// "a = c"? For now include both and let the database decide how it
-			// handles tests conditions.
-		    oldFilter.addFilters(newFilter);
-		} 
-
-		// By the time we get here the target 'and' terms will be in newList.
-		if (oldFilter.isEmpty()) {
-			// No filtering, i.e. return everything. Delete any existing filter.
-			queryParams.remove(ODataParser.FILTER_KEY);
-		} else {
-			queryParams.putSingle(ODataParser.FILTER_KEY, ODataParser.toFilters(oldFilter));
-		}
-
-		// Return the entries specified by the filter.
-		return true;
+		// TODO Some additional work may be required to combine filters on
+		// the same column. What if "a > b" and
+		// "a = c"? For now include both and let the database decide how it
+		// handles tests conditions.
+		oldFilter.addFilters(newFilter);
+
+		// By the time we get here the target 'and' terms will be in oldFilter.
+		// An empty filter means no filtering, i.e. return everything.
+		return query.withFilter(oldFilter);
 	}
 
-	private void addColFilter(InteractionContext ctx, Set<FieldName> authSet, List<EntitySimpleProperty> oldSelect) {
-
-		MultivaluedMap<String, String> queryParams = ctx.getQueryParameters();
+	private ODataQuery addColFilter(ODataQuery query, Set<FieldName> authSet) {
 
 		// Get any existing select
-		Set<FieldName> oldSet = ODataParser.parseSelect(oldSelect);
+		Set<FieldName> oldSet = query.getFieldNames();
 
 		if (authSet.isEmpty()) {
 			// Empty authorization list means 'return all requested' i.e.
 			// don't modify existing $select parameter.
-			return;
+			return query;
 		} else {
 			if (oldSet.isEmpty()) {
 				// Empty oldlist means just return authorization list
-				queryParams.putSingle(ODataParser.SELECT_KEY, ODataParser.toSelect(authSet));
+				return query.withSelect(authSet);
 			} else {
 
 				// If we get here both sets contain entries. Final list is
@@ -175,7 +160,7 @@ public class AuthorizationCommand extends AbstractAuthorizationCommand implement
 
 				// By the time we get here the target select list will be
 				// in oldSet. Write the target list ... which may be empty
-				queryParams.putSingle(ODataParser.SELECT_KEY, ODataParser.toSelect(oldSet));
+				return query.withSelect(oldSet);
 			}
 		}
 	}
@@ -27,6 +27,9 @@ package com.temenos.interaction.jdbc.command;
  * #L%
  */
 
+import java.io.Closeable;
+import java.util.Properties;
+
 import javax.ws.rs.core.Response.Status;
 
 import org.slf4j.Logger;
@@ -36,12 +39,23 @@ import com.temenos.interaction.authorization.command.AuthorizationAttributes;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.command.InteractionException;
 import com.temenos.interaction.core.entity.Entity;
+import com.temenos.interaction.core.hypermedia.Action;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.Transition;
 import com.temenos.interaction.core.resource.CollectionResource;
+import com.temenos.interaction.core.web.RequestContext;
 import com.temenos.interaction.jdbc.producer.JdbcProducer;
 
 public class GETJdbcRecordsCommand implements JdbcCommand {
 	private final Logger logger = LoggerFactory.getLogger(GETJdbcRecordsCommand.class);
 
+	/**
+	 * View action property; "true" to read the rows as the response is
+	 * written rather than all of them up front.  The connection is then held
+	 * until the end of the request, and the response is not cached.
+	 */
+	public static final String STREAM = "jdbc.stream";
+
 	// Somewhere to store the producer.
 	JdbcProducer producer;
 
@@ -67,7 +81,23 @@ public class GETJdbcRecordsCommand implements JdbcCommand {
 		// Get data from JDBC
 		CollectionResource<Entity> result = null;
 		try {
-			result = producer.queryEntities(tableName, ctx, entityType);
+			RequestContext requestContext = RequestContext.getRequestContext();
+			if (null != requestContext && isStreamed(ctx.getCurrentState())) {
+				// Rows are read as the response is written. The connection is
+				// released at the end of the request whatever the response.
+				final CollectionResource<Entity> entities = producer.streamEntities(tableName, ctx, entityType);
+				requestContext.closeAfterRequest(new Closeable() {
+					@Override
+					public void close() {
+						entities.closeEntities();
+					}
+				});
+				result = entities;
+			} else {
+				// Read all the rows now, nothing would release the connection
+				// if the response is not written.
+				result = producer.queryEntities(tableName, ctx, entityType);
+			}
 		} catch (InteractionException e) {
 			logger.error("Jdbc query failed. " + e);
 
@@ -95,4 +125,23 @@ public class GETJdbcRecordsCommand implements JdbcCommand {
 
 		return Result.SUCCESS;
 	}
+
+	/*
+	 * Streaming is asked for by the state, and only allowed if no item is
+	 * embedded, as embedding makes requests while the rows are being read.
+	 */
+	private boolean isStreamed(ResourceState state) {
+		Action view = state.getViewAction();
+		Properties properties = view != null ? view.getProperties() : null;
+		if (properties == null || !Boolean.parseBoolean(properties.getProperty(STREAM))) {
+			return false;
+		}
+		for (Transition transition : state.getTransitions()) {
+			if (transition.getCommand().isEmbeddedForEach()) {
+				logger.warn("Not streaming " + state.getName() + ", its items embed resources");
+				return false;
+			}
+		}
+		return true;
+	}
 }
@@ -23,9 +23,14 @@ package com.temenos.interaction.jdbc.command;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.UriInfo;
@@ -38,9 +43,13 @@ import com.temenos.interaction.core.command.InteractionCommand.Result;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.entity.Entity;
 import com.temenos.interaction.core.entity.Metadata;
+import com.temenos.interaction.core.hypermedia.Action;
 import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.Transition;
 import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
+import com.temenos.interaction.core.resource.StreamedCollection;
+import com.temenos.interaction.core.web.RequestContext;
 import com.temenos.interaction.jdbc.producer.JdbcProducer;
 import com.temenos.interaction.odataext.odataparser.ODataParser;
 
@@ -131,4 +140,83 @@ public class TestGETJdbcRecordsCommand extends AbstractJdbcCommandTest {
 		// Should be one entity per row
 		assertEquals(TEST_ROW_COUNT, entityCount);		
 	}
+
+	/*
+	 * Test that within a request the rows of a state asking for it are
+	 * streamed and the connection is released at the end of the request even
+	 * if the response is not written.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testExecuteStreamedWithinRequest() throws Exception {
+		populateTestTable();
+		RequestContext requestContext = new RequestContext("http://localhost", "/rubbish", null);
+		InteractionContext ctx = executeWithinRequest(createState(true), requestContext);
+
+		CollectionResource<Entity> resources = (CollectionResource<Entity>) ctx.getResource();
+		assertTrue(resources.getEntities() instanceof StreamedCollection);
+		resources.getEntities().iterator().next();
+
+		// End of the request, nothing has written the response
+		requestContext.close();
+
+		// Only the row already read is left
+		assertEquals(1, resources.getEntities().size());
+	}
+
+	/*
+	 * Test that rows are read up front unless the state asks for streaming.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testExecuteNotStreamedByDefault() throws Exception {
+		populateTestTable();
+		InteractionContext ctx = executeWithinRequest(createState(false),
+				new RequestContext("http://localhost", "/rubbish", null));
+
+		CollectionResource<Entity> resources = (CollectionResource<Entity>) ctx.getResource();
+		assertFalse(resources.isStreamed());
+		assertEquals(TEST_ROW_COUNT, resources.getEntities().size());
+	}
+
+	/*
+	 * Test that rows are read up front if the items embed resources, as that
+	 * makes requests while the rows would be read.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testExecuteNotStreamedWithEmbeddedItems() throws Exception {
+		populateTestTable();
+		ResourceState state = createState(true);
+		ResourceState item = new ResourceState(TEST_TABLE_NAME, "item", new ArrayList<Action>(), "rubbish/{id}");
+		state.addTransition(new Transition.Builder().flags(Transition.FOR_EACH_EMBEDDED).method("GET").target(item).build());
+		InteractionContext ctx = executeWithinRequest(state, new RequestContext("http://localhost", "/rubbish", null));
+
+		CollectionResource<Entity> resources = (CollectionResource<Entity>) ctx.getResource();
+		assertFalse(resources.isStreamed());
+		assertEquals(TEST_ROW_COUNT, resources.getEntities().size());
+	}
+
+	private ResourceState createState(boolean stream) {
+		Properties properties = new Properties();
+		if (stream) {
+			properties.put(GETJdbcRecordsCommand.STREAM, "true");
+		}
+		List<Action> actions = new ArrayList<Action>();
+		actions.add(new Action("GETJdbcRecords", Action.TYPE.VIEW, properties));
+		return new ResourceState(TEST_TABLE_NAME, "rubbish", actions, "rubbish");
+	}
+
+	private InteractionContext executeWithinRequest(ResourceState state, RequestContext requestContext) throws Exception {
+		GETJdbcRecordsCommand command = new GETJdbcRecordsCommand(new JdbcProducer(dataSource));
+		InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class),
+				new MultivaluedMapImpl<String>(), new MultivaluedMapImpl<String>(), state, mock(Metadata.class));
+		RequestContext.setRequestContext(requestContext);
+		try {
+			assertEquals(Result.SUCCESS, command.execute(ctx));
+		} finally {
+			RequestContext.clearRequestContext();
+		}
+		return ctx;
+	}
 }
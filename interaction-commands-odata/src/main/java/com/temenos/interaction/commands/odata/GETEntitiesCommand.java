@@ -22,6 +22,7 @@ package com.temenos.interaction.commands.odata;
  */
 
 
+import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.QueryParam;
@@ -31,6 +32,8 @@ import javax.ws.rs.core.Response.Status;
 import org.odata4j.core.OEntity;
 import org.odata4j.edm.EdmEntitySet;
 import org.odata4j.exceptions.ODataProducerException;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.EntitySimpleProperty;
 import org.odata4j.producer.EntitiesResponse;
 import org.odata4j.producer.InlineCount;
 import org.odata4j.producer.ODataProducer;
@@ -45,6 +48,7 @@ import com.temenos.interaction.core.command.InteractionException;
 import com.temenos.interaction.core.command.InteractionProducerException;
 import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.odataext.entity.MetadataOData4j;
+import com.temenos.interaction.odataext.odataparser.ODataQuery;
 
 public class GETEntitiesCommand extends AbstractODataCommand implements InteractionCommand {
 	private final Logger logger = LoggerFactory.getLogger(GETEntitiesCommand.class);
@@ -106,36 +110,38 @@ public class GETEntitiesCommand extends AbstractODataCommand implements Interact
 		String skip = queryParams.getFirst("$skip");
 		String actionFilter = CommandHelper.getViewActionProperty(ctx, "filter");		//Filter defined as action property 
 		String filter = queryParams.getFirst("$filter");								//Query filter
-		if (filter == null 
-				&& actionFilter != null && !actionFilter.isEmpty()
-				&& !actionFilter.contains("{") && !actionFilter.contains("}")) {
-			filter = actionFilter;
-		}
-		String orderBy = queryParams.getFirst("$orderby");
 		String skipToken = queryParams.getFirst("$skiptoken");
 		String expand = queryParams.getFirst("$expand");
 		String actionSelect = CommandHelper.getViewActionProperty(ctx, "select");
         String select = queryParams.getFirst("$select");
-        
-        if (select == null 
-                && actionSelect != null && !actionSelect.isEmpty()
-                && !actionSelect.contains("{") && !actionSelect.contains("}")) {
-            select = actionSelect;
-        }
 		
 		Map<String, String> customOptions = CommandHelper.populateCustomOptionsMap(ctx);
 		
 		try {
+			// $filter, $select and $orderby as already parsed for this request, e.g. by authorization
+			ODataQuery query = ODataQuery.get(ctx);
+			BoolCommonExpression filterExpression = query.getFilter();
+			if (filter == null 
+					&& actionFilter != null && !actionFilter.isEmpty()
+					&& !actionFilter.contains("{") && !actionFilter.contains("}")) {
+				filterExpression = OptionsQueryParser.parseFilter(actionFilter);
+			}
+			List<EntitySimpleProperty> selectProperties = query.getSelect();
+	        if (select == null 
+	                && actionSelect != null && !actionSelect.isEmpty()
+	                && !actionSelect.contains("{") && !actionSelect.contains("}")) {
+	        	selectProperties = OptionsQueryParser.parseSelect(actionSelect);
+	        }
 			return new QueryInfo(
 					validateAndGetInlineCount(queryParams),
 					OptionsQueryParser.parseTop(top),
 					OptionsQueryParser.parseSkip(skip),
-					OptionsQueryParser.parseFilter(filter),
-					OptionsQueryParser.parseOrderBy(orderBy),
+					filterExpression,
+					query.getOrderByExpressions(),
 					OptionsQueryParser.parseSkipToken(skipToken),
 					customOptions,
 					OptionsQueryParser.parseExpand(expand),
-					OptionsQueryParser.parseSelect(select));
+					selectProperties);
 		} catch (RuntimeException e) {
 			// all runtime exceptions are due to failure in parsing the query options
 		    logger.error("Invalid query option in '" + queryParams + "'. Error: ", e);
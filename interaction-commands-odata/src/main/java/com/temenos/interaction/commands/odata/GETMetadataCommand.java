@@ -4,7 +4,7 @@ package com.temenos.interaction.commands.odata;
  * #%L
  * interaction-commands-odata
  * %%
- * Copyright (C) 2012 - 2013 Temenos Holdings N.V.
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
  * %%
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -22,17 +22,26 @@ package com.temenos.interaction.commands.odata;
  */
 
 
+import javax.ws.rs.core.HttpHeaders;
+
 import org.odata4j.edm.EdmDataServices;
 
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.MetaDataResource;
+import com.temenos.interaction.core.rim.HeaderHelper;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
 import com.temenos.interaction.odataext.entity.MetadataOData4j;
 
 /**
  * GET command for obtaining meta data defining either the
  * resource model or the service document. 
+ * <p>
+ * Once the document has been rendered for the current metadata its entity
+ * tag is set on the resource, so that a matching If-None-Match is answered
+ * with 304 Not Modified without rendering it again.  The identity and gzip
+ * encodings have different tags, the one the client holds is the one set.
  */
 public class GETMetadataCommand implements InteractionCommand {
 
@@ -59,13 +68,25 @@ public class GETMetadataCommand implements InteractionCommand {
 		if(resourceToProvide.equals("ServiceDocument")) {
 			EntityResource<EdmDataServices> sdr = 
 					CommandHelper.createServiceDocumentResource(metadataOData4j.getMetadata());
+			String baseUri = ctx.getUriInfo() != null ? String.valueOf(ctx.getUriInfo().getBaseUri()) : null;
+			setEntityTag(ctx, sdr, MetadataDocumentCache.serviceDocumentKey(baseUri));
 			ctx.setResource(sdr);
 		} else {
 			MetaDataResource<EdmDataServices> mdr = 
 					CommandHelper.createMetaDataResource(metadataOData4j.getMetadata());
+			setEntityTag(ctx, mdr, MetadataDocumentCache.METADATA);
 			ctx.setResource(mdr);
 		}
 		return Result.SUCCESS;
 	}
 
+	private void setEntityTag(InteractionContext ctx, EntityResource<EdmDataServices> resource, String documentKey) {
+		MetadataDocumentCache.Document document = metadataOData4j.getDocumentCache().get(documentKey);
+		if (document != null) {
+			String ifNoneMatch = HeaderHelper.getFirstHeader(ctx.getHeaders(), HttpHeaders.IF_NONE_MATCH);
+			String entityTag = document.getMatchingEntityTag(ifNoneMatch);
+			resource.setEntityTag(entityTag != null ? entityTag : document.getEntityTag());
+		}
+	}
+
 }
@@ -23,10 +23,14 @@ package com.temenos.interaction.commands.odata;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
@@ -43,14 +47,19 @@ import com.temenos.interaction.core.hypermedia.ResourceState;
 import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.MetaDataResource;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
 import com.temenos.interaction.odataext.entity.MetadataOData4j;
 
 public class TestGETMetadataCommand {
 
-	@SuppressWarnings("unchecked")
 	private InteractionContext createInteractionContext() {
+		return createInteractionContext(mock(HttpHeaders.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	private InteractionContext createInteractionContext(HttpHeaders headers) {
 		MultivaluedMap<String, String> pathParams = new MultivaluedMapImpl<String>();
-        InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), pathParams, mock(MultivaluedMap.class), mock(ResourceState.class), mock(Metadata.class));
+        InteractionContext ctx = new InteractionContext(mock(UriInfo.class), headers, pathParams, mock(MultivaluedMap.class), mock(ResourceState.class), mock(Metadata.class));
         return ctx;
 	}
 
@@ -82,6 +91,61 @@ public class TestGETMetadataCommand {
 		assertTrue(ctx.getResource() instanceof MetaDataResource);
 	}
 	
+	@Test
+	public void testEntityTagOfRenderedDocument() {
+		MetadataOData4j metadataOData4j = getMetadataOData4j(mock(Metadata.class));
+		GETMetadataCommand command = new GETMetadataCommand("Metadata", metadataOData4j);
+		InteractionContext ctx = createInteractionContext();
+		command.execute(ctx);
+		assertNull(ctx.getResource().getEntityTag());
+
+		MetadataDocumentCache cache = metadataOData4j.getDocumentCache();
+		MetadataDocumentCache.Document document = cache.put(MetadataDocumentCache.METADATA, cache.getVersion(), "<edmx/>".getBytes());
+		ctx = createInteractionContext();
+		command.execute(ctx);
+		assertEquals(document.getEntityTag(), ctx.getResource().getEntityTag());
+
+		// a changed model is rendered again before it has a tag
+		cache.invalidate();
+		ctx = createInteractionContext();
+		command.execute(ctx);
+		assertNull(ctx.getResource().getEntityTag());
+	}
+
+	@Test
+	public void testEntityTagOfGzipDocument() {
+		MetadataOData4j metadataOData4j = getMetadataOData4j(mock(Metadata.class));
+		GETMetadataCommand command = new GETMetadataCommand("Metadata", metadataOData4j);
+		MetadataDocumentCache cache = metadataOData4j.getDocumentCache();
+		MetadataDocumentCache.Document document = cache.put(MetadataDocumentCache.METADATA, cache.getVersion(), "<edmx/>".getBytes());
+		assertFalse(document.getEntityTag().equals(document.getGzipEntityTag()));
+
+		// the client holds the gzip encoding
+		HttpHeaders headers = mock(HttpHeaders.class);
+		when(headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(Collections.singletonList(document.getGzipEntityTag()));
+		InteractionContext ctx = createInteractionContext(headers);
+		command.execute(ctx);
+		assertEquals(document.getGzipEntityTag(), ctx.getResource().getEntityTag());
+
+		// the client holds the identity encoding
+		when(headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(Collections.singletonList(document.getEntityTag()));
+		ctx = createInteractionContext(headers);
+		command.execute(ctx);
+		assertEquals(document.getEntityTag(), ctx.getResource().getEntityTag());
+
+		// the client lists both, one of them weak
+		when(headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(Collections.singletonList("\"other\", W/" + document.getGzipEntityTag()));
+		ctx = createInteractionContext(headers);
+		command.execute(ctx);
+		assertEquals(document.getGzipEntityTag(), ctx.getResource().getEntityTag());
+
+		// the client holds something else
+		when(headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(Collections.singletonList("\"other\""));
+		ctx = createInteractionContext(headers);
+		command.execute(ctx);
+		assertEquals(document.getEntityTag(), ctx.getResource().getEntityTag());
+	}
+
 	private MetadataOData4j getMetadataOData4j(Metadata metadata) {
 		MetadataOData4j metadataOdata4j = 
 						new	MetadataOData4j(metadata, 
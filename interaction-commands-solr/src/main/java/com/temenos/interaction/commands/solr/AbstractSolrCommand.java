@@ -47,8 +47,8 @@ public abstract class AbstractSolrCommand {
 
 	public CollectionResource<Entity> buildCollectionResource(String entityName, SolrDocumentList docs) {
 		List<EntityResource<Entity>> results = new ArrayList<EntityResource<Entity>>();
-		long numFound = docs.getNumFound();
-		for (int i = 0; i < MAX_ENTITIES_RETURNED && i < numFound; i++) {
+		// the page holds fewer documents than were found when rows is limited
+		for (int i = 0; i < MAX_ENTITIES_RETURNED && i < docs.size(); i++) {
 			EntityProperties properties = new EntityProperties();
 			SolrDocument doc = docs.get(i);
 			Collection<String> fields = doc.getFieldNames();
@@ -32,9 +32,11 @@ package com.temenos.interaction.commands.solr;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
@@ -43,7 +45,6 @@ import javax.ws.rs.core.Response.Status;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrException;
@@ -55,8 +56,11 @@ import com.temenos.interaction.commands.solr.data.SolrConstants;
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.command.InteractionException;
+import com.temenos.interaction.core.entity.Entity;
 import com.temenos.interaction.core.entity.EntityProperties;
+import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.odataext.odataparser.ODataParser;
+import com.temenos.interaction.odataext.odataparser.ODataQuery;
 import com.temenos.interaction.odataext.odataparser.data.FieldName;
 import com.temenos.interaction.odataext.odataparser.data.RowFilter;
 
@@ -67,34 +71,80 @@ public class SolrSearchCommand extends AbstractSolrCommand implements Interactio
 	private static final String TEXT = "text";
 	private static final String COLON = ":";
 	private static final String STAR = "*";
+	// Company ids and core names, which become part of the core URL
+	private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_\\-]+");
+	// Separates the rows already returned from the cursor in a $skiptoken
+	private static final String SKIPTOKEN_SEPARATOR = ":";
+
+	// Roots of replicas to load balance across, null for solrRootURL only
+	private List<String> replicaRootURLs;
+	private SolrServerRegistry registry = SolrServerRegistry.getDefault();
+	// Unique key field used to page with a cursor, null to disable cursor paging
+	private String cursorKeyField;
 
 	/**
 	 * Instantiates a new select command.
 	 * 
-	 * For production we pass in, and connect to, the URL of an external server
-	 * for each search request.
-	 * 
-	 * In future we may introduce connection pooling.
+	 * For production we pass in, and connect to, the URL of an external server.
+	 * Connections are pooled by the default {@link SolrServerRegistry}.
 	 */
 	public SolrSearchCommand(String solrRootURL) {
 		this.solrRootURL = solrRootURL;
 	}
 
+	public SolrSearchCommand(String solrRootURL, SolrServerRegistry registry) {
+		this.solrRootURL = solrRootURL;
+		this.registry = registry;
+	}
+
+	/**
+	 * Instantiates a select command load balancing each search across the
+	 * replicas of the core found under each root URL.
+	 */
+	public SolrSearchCommand(List<String> replicaRootURLs, SolrServerRegistry registry) {
+		this.solrRootURL = replicaRootURLs.get(0);
+		this.replicaRootURLs = new ArrayList<String>(replicaRootURLs);
+		this.registry = registry;
+	}
+
 	protected SolrSearchCommand() {}
 
+	/**
+	 * Page through results with Solr's cursorMark rather than row offsets,
+	 * returning the next cursor as the collection's $skiptoken. Requires a
+	 * Solr 4.7 or later server.
+	 * @param cursorKeyField the core's unique key field, added to the sort
+	 * so the order is total as cursors require
+	 */
+	public void setCursorKeyField(String cursorKeyField) {
+		this.cursorKeyField = cursorKeyField;
+	}
+
 	@Override
 	public Result execute(InteractionContext ctx) throws InteractionException {
 		try {
-			URL coreURL = new URL(solrRootURL + "/" +  getCompanyId(ctx) + "_" + getCoreName(ctx));
-			// URL coreURL = new URL(solrRootURL + "/" + coreName);
+			String corePath = "/" + getCompanyId(ctx) + "_" + getCoreName(ctx);
+			if (replicaRootURLs != null) {
+				List<String> coreURLs = new ArrayList<String>();
+				for (String rootURL : replicaRootURLs) {
+					coreURLs.add(new URL(rootURL + corePath).toString());
+				}
+				logger.info("Connecting to external Solr servers " + coreURLs + ".");
+				return execute(ctx, registry.getServer(coreURLs));
+			}
+			URL coreURL = new URL(solrRootURL + corePath);
 			logger.info("Connecting to external Solr server " + coreURL + ".");
-			return execute(ctx, new HttpSolrServer(coreURL.toString()));
+			return execute(ctx, registry.getServer(coreURL.toString()));
 		} catch (MalformedURLException e) {
 			logger.error("Malformed URL when connecting to Solr Server. " + e);
 			throw new InteractionException(Status.BAD_REQUEST, "Malformed URL when connecting to Solr Server", e);
 		}
 	}
 
+	/**
+	 * Run the search against the supplied server, which is left open for the
+	 * caller to reuse or shut down.
+	 */
 	protected Result execute(InteractionContext ctx, SolrServer solrServer) throws InteractionException {
 		logQueryParameters(ctx.getQueryParameters());
 
@@ -114,7 +164,9 @@ public class SolrSearchCommand extends AbstractSolrCommand implements Interactio
 		    QueryResponse rsp = solrServer.query(query);
 			// SolrDocumentList list = rsp.getResults();
 
-			ctx.setResource(buildCollectionResource(getEntityName(ctx), rsp.getResults()));
+			CollectionResource<Entity> collection = buildCollectionResource(getEntityName(ctx), rsp.getResults());
+			collection.setSkipToken(getNextSkipToken(query, rsp, ctx.getQueryParameters()));
+			ctx.setResource(collection);
 	
 			// Indicate that database level filtering was successful.
 			ctx.setAttribute(AuthorizationAttributes.FILTER_DONE_ATTRIBUTE, Boolean.TRUE);
@@ -127,8 +179,6 @@ public class SolrSearchCommand extends AbstractSolrCommand implements Interactio
 			logger.error("An unexpected error occurred while querying Solr " + e);
 		}
 
-		solrServer.shutdown();
-
 		return res;
 	}
 
@@ -143,7 +193,11 @@ public class SolrSearchCommand extends AbstractSolrCommand implements Interactio
 
 	private String getCoreName(InteractionContext ctx) throws InteractionException {
 		if (ctx.getQueryParameters().containsKey(SolrConstants.SOLR_CORE_KEY)) {
-			return ctx.getQueryParameters().getFirst(SolrConstants.SOLR_CORE_KEY);
+			String coreName = ctx.getQueryParameters().getFirst(SolrConstants.SOLR_CORE_KEY);
+			if (null == coreName || !NAME.matcher(coreName).matches()) {
+				throw new InteractionException(Status.BAD_REQUEST, "Invalid core name");
+			}
+			return coreName;
 		}
 		return getEntityName(ctx);
 	}
@@ -153,6 +207,9 @@ public class SolrSearchCommand extends AbstractSolrCommand implements Interactio
 		if (null == companyName) {
 			throw new InteractionException(Status.BAD_REQUEST, "Missing company id");
 		}
+		if (!NAME.matcher(companyName).matches()) {
+			throw new InteractionException(Status.BAD_REQUEST, "Invalid company id");
+		}
 		return companyName;
 	}
 
@@ -185,26 +242,99 @@ public class SolrSearchCommand extends AbstractSolrCommand implements Interactio
 		// If returned fields have been limited by authorization set them
 		addSelect(query, queryParams);
 
+		// Page with a cursor if configured
+		addCursor(query, queryParams);
+
 		return (query);
 	}
 
+	/**
+	 * Cursors need a total order, so ties in relevance are broken on the
+	 * unique key. The first page starts a new cursor; later pages continue
+	 * from the $skiptoken returned with the previous page.
+	 * @param query
+	 * @param queryParams
+	 */
+	private void addCursor(SolrQuery query, MultivaluedMap<String, String> queryParams) {
+		if (cursorKeyField == null) {
+			return;
+		}
+		String cursorMark = getCursorMark(queryParams.getFirst(ODataQuery.SKIPTOKEN_KEY));
+		if (cursorMark == null || cursorMark.isEmpty()) {
+			cursorMark = SolrConstants.SOLR_CURSOR_MARK_START;
+		}
+		query.addSort("score", SolrQuery.ORDER.desc);
+		query.addSort(cursorKeyField, SolrQuery.ORDER.asc);
+		query.set(SolrConstants.SOLR_CURSOR_MARK_KEY, cursorMark);
+	}
+
+	/*
+	 * The $skiptoken is the number of rows returned by the earlier pages and
+	 * Solr's next cursor, so that $top limits the whole result rather than
+	 * each page. Solr returns the cursor it was given once there are no more
+	 * results.
+	 */
+	private String getNextSkipToken(SolrQuery query, QueryResponse rsp, MultivaluedMap<String, String> queryParams) {
+		String cursorMark = query.get(SolrConstants.SOLR_CURSOR_MARK_KEY);
+		if (cursorMark == null) {
+			return null;
+		}
+		Object nextCursorMark = rsp.getResponse().get(SolrConstants.SOLR_NEXT_CURSOR_MARK_KEY);
+		if (nextCursorMark == null || cursorMark.equals(nextCursorMark)) {
+			return null;
+		}
+		int returned = getRowsReturned(queryParams.getFirst(ODataQuery.SKIPTOKEN_KEY)) + rsp.getResults().size();
+		int top = getTop(queryParams);
+		if (top > 0 && returned >= top) {
+			return null;
+		}
+		return returned + SKIPTOKEN_SEPARATOR + nextCursorMark;
+	}
+
+	private static int getRowsReturned(String skipToken) {
+		int separator = skipToken == null ? -1 : skipToken.indexOf(SKIPTOKEN_SEPARATOR);
+		if (separator < 0) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(skipToken.substring(0, separator));
+		} catch (NumberFormatException nfe) {
+			return 0;
+		}
+	}
+
+	private static String getCursorMark(String skipToken) {
+		int separator = skipToken == null ? -1 : skipToken.indexOf(SKIPTOKEN_SEPARATOR);
+		return separator < 0 ? skipToken : skipToken.substring(separator + 1);
+	}
+
+	private static int getTop(MultivaluedMap<String, String> queryParams) {
+		try {
+			String topStr = queryParams.getFirst("$top");
+			return topStr == null || topStr.isEmpty() ? 0 : Integer.parseInt(topStr);
+		} catch (NumberFormatException nfe) {
+			// Do nothing and ignore as we have default value to use
+			return 0;
+		}
+	}
+
 	/**
 	 * By default SolrQuery only returns 10 rows. This is true even if more
      * rows are available. This method will check if user has provided its preference
      * using $top, otherwise use Solr Default
+	 * <p>
+	 * With cursor paging no more rows are asked for than are returned, as the
+	 * next cursor moves past every row Solr sends, nor than are left of $top
+	 * after the earlier pages.
 	 * @param query
 	 * @param queryParams
 	 */
 	private void addNumOfRows(SolrQuery query, MultivaluedMap<String, String> queryParams) {
-	    int top = 0;
-	   try {
-	       String topStr = queryParams.getFirst("$top");
-	       top = topStr == null || topStr.isEmpty() ? 0 : Integer.parseInt(topStr);
-	   } catch (NumberFormatException nfe) {
-	       // Do nothing and ignore as we have default value to use
-
-	   }
-	   if (top > 0) {
+	   int top = getTop(queryParams);
+	   if (top > 0 && cursorKeyField != null) {
+           int remaining = top - getRowsReturned(queryParams.getFirst(ODataQuery.SKIPTOKEN_KEY));
+           query.setRows(Math.max(0, Math.min(remaining, MAX_ENTITIES_RETURNED)));
+       } else if (top > 0) {
            query.setRows(top);
        } else {
            query.setRows(MAX_ENTITIES_RETURNED);
@@ -0,0 +1,210 @@
+package com.temenos.interaction.commands.solr;
+
+/*
+ * #%L
+ * interaction-commands-solr
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.HttpClient;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.impl.LBHttpSolrServer;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of Solr clients shared between search requests.
+ * <p>
+ * Hands out one {@link SolrServer} per core URL, or per set of replica core
+ * URLs, all sharing a single pooled http client.
+ * <p>
+ * Core URLs come from request parameters, so at most {@link #setMaxServers(int)}
+ * servers are kept; the least recently used one is shut down to make room.
+ * A request still using an evicted server completes, as the pooled client
+ * outlives it.
+ * <p>
+ * Connection limits and timeouts must be set before the first server is
+ * requested. The servers handed out must not be shut down by their users;
+ * call {@link #shutdown()} when the registry is no longer needed.
+ */
+public class SolrServerRegistry {
+
+	private final static Logger logger = LoggerFactory.getLogger(SolrServerRegistry.class);
+
+	private static final SolrServerRegistry DEFAULT_REGISTRY = new SolrServerRegistry();
+
+	// in access order, guarded by itself
+	private final LinkedHashMap<String, SolrServer> servers = new LinkedHashMap<String, SolrServer>(16, 0.75f, true);
+	private HttpClient httpClient;
+
+	private volatile int maxServers = 64;
+
+	private int maxConnections = 128;
+	private int maxConnectionsPerHost = 32;
+	private int connectionTimeout = 0;
+	private int socketTimeout = 0;
+
+	/**
+	 * @return the registry used by commands not configured with their own
+	 */
+	public static SolrServerRegistry getDefault() {
+		return DEFAULT_REGISTRY;
+	}
+
+	/**
+	 * Get the server for a core URL.
+	 */
+	public SolrServer getServer(String coreURL) {
+		SolrServer server = lookup(coreURL);
+		if (server == null) {
+			server = register(coreURL, new HttpSolrServer(coreURL, getHttpClient()));
+		}
+		return server;
+	}
+
+	/**
+	 * Get a server load balancing across the replicas of a core. A single
+	 * URL gives the same server as {@link #getServer(String)}.
+	 * @throws MalformedURLException if any URL is invalid
+	 */
+	public SolrServer getServer(List<String> replicaCoreURLs) throws MalformedURLException {
+		if (replicaCoreURLs.size() == 1) {
+			return getServer(replicaCoreURLs.get(0));
+		}
+		StringBuilder key = new StringBuilder();
+		for (String url : replicaCoreURLs) {
+			key.append(url).append('|');
+		}
+		SolrServer server = lookup(key.toString());
+		if (server == null) {
+			server = register(key.toString(), new LBHttpSolrServer(getHttpClient(),
+					replicaCoreURLs.toArray(new String[replicaCoreURLs.size()])));
+		}
+		return server;
+	}
+
+	private SolrServer lookup(String key) {
+		synchronized (servers) {
+			return servers.get(key);
+		}
+	}
+
+	private SolrServer register(String key, SolrServer server) {
+		List<Map.Entry<String, SolrServer>> evicted = new ArrayList<Map.Entry<String, SolrServer>>();
+		synchronized (servers) {
+			SolrServer existing = servers.get(key);
+			if (existing != null) {
+				// lost a race, the client is shared so only the load balancer needs stopping
+				server.shutdown();
+				return existing;
+			}
+			servers.put(key, server);
+			Iterator<Map.Entry<String, SolrServer>> eldest = servers.entrySet().iterator();
+			while (servers.size() > maxServers && eldest.hasNext()) {
+				evicted.add(eldest.next());
+				eldest.remove();
+			}
+		}
+		logger.info("Registered Solr server " + key);
+		for (Map.Entry<String, SolrServer> entry : evicted) {
+			logger.info("Evicted Solr server " + entry.getKey());
+			// the client is shared, so this only stops a load balancer's alive checks
+			entry.getValue().shutdown();
+		}
+		return server;
+	}
+
+	private synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			ModifiableSolrParams params = new ModifiableSolrParams();
+			params.set(HttpClientUtil.PROP_MAX_CONNECTIONS, maxConnections);
+			params.set(HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, maxConnectionsPerHost);
+			params.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, connectionTimeout);
+			params.set(HttpClientUtil.PROP_SO_TIMEOUT, socketTimeout);
+			httpClient = HttpClientUtil.createClient(params);
+		}
+		return httpClient;
+	}
+
+	/**
+	 * Stop all servers and close the pooled connections.
+	 */
+	public synchronized void shutdown() {
+		synchronized (servers) {
+			for (SolrServer server : servers.values()) {
+				server.shutdown();
+			}
+			servers.clear();
+		}
+		if (httpClient != null) {
+			httpClient.getConnectionManager().shutdown();
+			httpClient = null;
+		}
+	}
+
+	/**
+	 * @param maxServers servers kept before the least recently used is shut down
+	 */
+	public void setMaxServers(int maxServers) {
+		if (maxServers <= 0) {
+			throw new IllegalArgumentException("maxServers must be positive");
+		}
+		this.maxServers = maxServers;
+	}
+
+	/**
+	 * @return number of servers currently kept
+	 */
+	public int size() {
+		synchronized (servers) {
+			return servers.size();
+		}
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	/**
+	 * @param connectionTimeout milliseconds, zero for none
+	 */
+	public void setConnectionTimeout(int connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	/**
+	 * @param socketTimeout milliseconds, zero for none
+	 */
+	public void setSocketTimeout(int socketTimeout) {
+		this.socketTimeout = socketTimeout;
+	}
+}
@@ -36,4 +36,9 @@ public class SolrConstants {
     public static final String SOLR_SHARDS_TOLERANT_KEY = "shards.tolerant";
     public static final String SOLR_QUERY_KEY = "q";
     public static final String SOLR_COMPANY_NAME_KEY = "companyid";
+
+    // Deep paging, see Solr's CursorMarkParams (Solr 4.7 onwards)
+    public static final String SOLR_CURSOR_MARK_KEY = "cursorMark";
+    public static final String SOLR_NEXT_CURSOR_MARK_KEY = "nextCursorMark";
+    public static final String SOLR_CURSOR_MARK_START = "*";
 }
@@ -0,0 +1,221 @@
+package com.temenos.interaction.commands.solr;
+
+/*
+ * Unit tests for paging with a Solr cursor. The Solr server is mocked, since
+ * the embedded test server predates cursor support.
+ */
+
+/* 
+ * #%L
+ * interaction-commands-solr
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.temenos.interaction.commands.solr.data.SolrConstants;
+import com.temenos.interaction.core.MultivaluedMapImpl;
+import com.temenos.interaction.core.command.InteractionCommand.Result;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.entity.Entity;
+import com.temenos.interaction.core.entity.Metadata;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.resource.CollectionResource;
+import com.temenos.interaction.core.resource.EntityResource;
+
+public class SolrSearchCommandCursorTest {
+
+	private SolrSearchCommand command;
+	private InteractionContext ctx;
+	private MultivaluedMap<String, String> queryParams;
+	private SolrServer solrServer;
+
+	@Before
+	public void setup() {
+		command = new SolrSearchCommand();
+		command.setCursorKeyField("id");
+		queryParams = new MultivaluedMapImpl<String>();
+		ResourceState state = mock(ResourceState.class);
+		when(state.getEntityName()).thenReturn("Customer");
+		ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class),
+				new MultivaluedMapImpl<String>(), queryParams, state, mock(Metadata.class));
+		solrServer = mock(SolrServer.class);
+	}
+
+	private void mockResponse(String nextCursorMark) throws Exception {
+		when(solrServer.query(any(SolrParams.class))).thenReturn(createResponse(1111, 1, nextCursorMark));
+	}
+
+	private QueryResponse createResponse(int firstId, int rows, String nextCursorMark) {
+		SolrDocumentList docs = new SolrDocumentList();
+		for (int i = 0; i < rows; i++) {
+			SolrDocument doc = new SolrDocument();
+			doc.addField("id", Integer.toString(firstId + i));
+			docs.add(doc);
+		}
+		docs.setNumFound(100);
+		NamedList<Object> response = new NamedList<Object>();
+		response.add("response", docs);
+		response.add(SolrConstants.SOLR_NEXT_CURSOR_MARK_KEY, nextCursorMark);
+		return new QueryResponse(response, solrServer);
+	}
+
+	private SolrQuery executedQuery() throws Exception {
+		ArgumentCaptor<SolrParams> captor = ArgumentCaptor.forClass(SolrParams.class);
+		verify(solrServer).query(captor.capture());
+		return (SolrQuery) captor.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testFirstPage() throws Exception {
+		mockResponse("AoE/BTExMTE=");
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+
+		SolrQuery query = executedQuery();
+		assertEquals(SolrConstants.SOLR_CURSOR_MARK_START, query.get(SolrConstants.SOLR_CURSOR_MARK_KEY));
+		assertEquals("score desc,id asc", query.get("sort"));
+		CollectionResource<Entity> cr = (CollectionResource<Entity>) ctx.getResource();
+		assertEquals(1, cr.getEntities().size());
+		assertEquals("1:AoE/BTExMTE=", cr.getSkipToken());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testNextPage() throws Exception {
+		queryParams.add("$skiptoken", "1:AoE/BTExMTE=");
+		mockResponse("AoE/BTIyMjI=");
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+
+		assertEquals("AoE/BTExMTE=", executedQuery().get(SolrConstants.SOLR_CURSOR_MARK_KEY));
+		assertEquals("2:AoE/BTIyMjI=", ((CollectionResource<Entity>) ctx.getResource()).getSkipToken());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLastPage() throws Exception {
+		queryParams.add("$skiptoken", "2:AoE/BTIyMjI=");
+		mockResponse("AoE/BTIyMjI=");
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+
+		assertNull(((CollectionResource<Entity>) ctx.getResource()).getSkipToken());
+	}
+
+	/*
+	 * With $top above what a page holds no rows may be skipped: each page
+	 * asks for no more rows than it returns, and the next page starts after
+	 * the last of them. $top limits the rows of all the pages together.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testTopAboveMaxEntitiesPages() throws Exception {
+		int pageSize = AbstractSolrCommand.MAX_ENTITIES_RETURNED;
+		int top = 2 * pageSize + 20;
+		queryParams.add("$top", Integer.toString(top));
+		when(solrServer.query(any(SolrParams.class))).thenReturn(createResponse(0, pageSize, "page2"),
+				createResponse(pageSize, pageSize, "page3"), createResponse(2 * pageSize, 20, "page4"));
+
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+		CollectionResource<Entity> first = (CollectionResource<Entity>) ctx.getResource();
+		assertEquals(pageSize, first.getEntities().size());
+		assertEquals(pageSize + ":page2", first.getSkipToken());
+
+		queryParams.putSingle("$skiptoken", first.getSkipToken());
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+		CollectionResource<Entity> second = (CollectionResource<Entity>) ctx.getResource();
+		assertEquals(pageSize, second.getEntities().size());
+		assertEquals(2 * pageSize + ":page3", second.getSkipToken());
+
+		// the last page only asks for what is left of $top and has no next page
+		queryParams.putSingle("$skiptoken", second.getSkipToken());
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+		CollectionResource<Entity> third = (CollectionResource<Entity>) ctx.getResource();
+		assertEquals(20, third.getEntities().size());
+		assertNull(third.getSkipToken());
+
+		ArgumentCaptor<SolrParams> captor = ArgumentCaptor.forClass(SolrParams.class);
+		verify(solrServer, times(3)).query(captor.capture());
+		List<SolrParams> queries = captor.getAllValues();
+		assertEquals(Integer.valueOf(pageSize), ((SolrQuery) queries.get(0)).getRows());
+		assertEquals(SolrConstants.SOLR_CURSOR_MARK_START, queries.get(0).get(SolrConstants.SOLR_CURSOR_MARK_KEY));
+		assertEquals(Integer.valueOf(pageSize), ((SolrQuery) queries.get(1)).getRows());
+		assertEquals("page2", queries.get(1).get(SolrConstants.SOLR_CURSOR_MARK_KEY));
+		assertEquals(Integer.valueOf(20), ((SolrQuery) queries.get(2)).getRows());
+		assertEquals("page3", queries.get(2).get(SolrConstants.SOLR_CURSOR_MARK_KEY));
+
+		// every row of the pages is returned, none skipped
+		Set<String> ids = new HashSet<String>();
+		for (CollectionResource<Entity> page : Arrays.asList(first, second, third)) {
+			for (EntityResource<Entity> er : page.getEntities()) {
+				ids.add((String) er.getEntity().getProperties().getProperty("id").getValue());
+			}
+		}
+		assertEquals(top, ids.size());
+		assertTrue(ids.contains(Integer.toString(pageSize - 1)));
+		assertTrue(ids.contains(Integer.toString(pageSize)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testTopReachedOnPageBoundary() throws Exception {
+		int pageSize = AbstractSolrCommand.MAX_ENTITIES_RETURNED;
+		queryParams.add("$top", Integer.toString(pageSize));
+		when(solrServer.query(any(SolrParams.class))).thenReturn(createResponse(0, pageSize, "page2"));
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+
+		// Solr has more, but $top has been returned
+		assertNull(((CollectionResource<Entity>) ctx.getResource()).getSkipToken());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCursorDisabled() throws Exception {
+		command.setCursorKeyField(null);
+		mockResponse("AoE/BTExMTE=");
+		assertEquals(Result.SUCCESS, command.execute(ctx, solrServer));
+
+		assertNull(executedQuery().get(SolrConstants.SOLR_CURSOR_MARK_KEY));
+		assertNull(((CollectionResource<Entity>) ctx.getResource()).getSkipToken());
+	}
+}
@@ -38,6 +38,7 @@ import static org.mockito.Mockito.*;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.solr.client.solrj.SolrServer;
@@ -291,6 +292,29 @@ public class SolrSearchCommandTest extends AbstractSolrTest {
 
 	}
 
+	/**
+	 * Test that a core name which could reach outside the company's cores is
+	 * rejected before any server is registered for it.
+	 */
+	@Test
+	public void testInvalidCoreName() {
+		when(currentState.getEntityName()).thenReturn(ENTITY1_TYPE);
+
+		queryParams.add("q", "John");
+		pathParams.add("companyid", COMPANY_NAME);
+		queryParams.add("core", "../admin");
+		SolrServerRegistry registry = new SolrServerRegistry();
+		try {
+			new SolrSearchCommand("http://localhost:8983/solr", registry).execute(ctx);
+			fail("Invalid core name accepted");
+		} catch (InteractionException e) {
+			assertEquals(Status.BAD_REQUEST, e.getHttpStatus());
+			assertEquals(0, registry.size());
+		} finally {
+			registry.shutdown();
+		}
+	}
+
 	/**
 	 * May be called with 'q=' missing ... filtering on '$filter='
 	 */
@@ -0,0 +1,92 @@
+package com.temenos.interaction.commands.solr;
+
+/*
+ * Unit tests for the registry of shared Solr clients. No server is contacted.
+ */
+
+/* 
+ * #%L
+ * interaction-commands-solr
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.impl.LBHttpSolrServer;
+import org.junit.After;
+import org.junit.Test;
+
+public class SolrServerRegistryTest {
+
+	private SolrServerRegistry registry = new SolrServerRegistry();
+
+	@After
+	public void tearDown() {
+		registry.shutdown();
+	}
+
+	@Test
+	public void testServerReused() {
+		SolrServer server = registry.getServer("http://localhost:8983/solr/GB0010001_Customer");
+		assertTrue(server instanceof HttpSolrServer);
+		assertSame(server, registry.getServer("http://localhost:8983/solr/GB0010001_Customer"));
+		assertNotSame(server, registry.getServer("http://localhost:8983/solr/GB0010001_Account"));
+	}
+
+	@Test
+	public void testReplicasLoadBalanced() throws Exception {
+		SolrServer server = registry.getServer(Arrays.asList("http://host1:8983/solr/GB0010001_Customer",
+				"http://host2:8983/solr/GB0010001_Customer"));
+		assertTrue(server instanceof LBHttpSolrServer);
+		assertSame(server, registry.getServer(Arrays.asList("http://host1:8983/solr/GB0010001_Customer",
+				"http://host2:8983/solr/GB0010001_Customer")));
+	}
+
+	@Test
+	public void testSingleReplica() throws Exception {
+		SolrServer server = registry.getServer(Collections.singletonList("http://host1:8983/solr/GB0010001_Customer"));
+		assertSame(server, registry.getServer("http://host1:8983/solr/GB0010001_Customer"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		registry.setMaxServers(2);
+		SolrServer customer = registry.getServer("http://localhost:8983/solr/GB0010001_Customer");
+		SolrServer account = registry.getServer("http://localhost:8983/solr/GB0010001_Account");
+		assertSame(customer, registry.getServer("http://localhost:8983/solr/GB0010001_Customer"));
+		registry.getServer("http://localhost:8983/solr/GB0010001_Teller");
+		assertEquals(2, registry.size());
+		assertSame(customer, registry.getServer("http://localhost:8983/solr/GB0010001_Customer"));
+		assertNotSame(account, registry.getServer("http://localhost:8983/solr/GB0010001_Account"));
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	public void testShutdown() {
+		SolrServer server = registry.getServer("http://localhost:8983/solr/GB0010001_Customer");
+		registry.shutdown();
+		assertNotSame(server, registry.getServer("http://localhost:8983/solr/GB0010001_Customer"));
+	}
+}
@@ -44,6 +44,8 @@ import com.temenos.interaction.core.resource.EntityResource;
 /**
  * The Webhook command receives an Entity from the InteractionContext and POSTs
  * that entity to the configured URL with application/x-www-form-urlencoded Content-Type.
+ * When constructed with a {@link WebhookDispatcher} the entity is queued for
+ * delivery in the background and the command returns without waiting for the POST.
  * @author aphethean
  *
  */
@@ -51,15 +53,22 @@ public class WebhookCommand implements InteractionCommand {
 	private static final Logger LOGGER = LoggerFactory.getLogger(WebhookCommand.class);
 
 	private String url = null;
+	private WebhookDispatcher dispatcher = null;
 	
 	// TODO we should be able to pass the url from the RIM
 	public WebhookCommand(String url) {
 		this.url = url;
 	}
+
+	public WebhookCommand(String url, WebhookDispatcher dispatcher) {
+		this.url = url;
+		this.dispatcher = dispatcher;
+	}
 	
 	/**
 	 * @precondition url has been supplied
-	 * @postcondition Result.Success if {@link InteractionContext#getResource()} is successfully POSTed to url
+	 * @postcondition Result.Success if {@link InteractionContext#getResource()} is successfully POSTed to url,
+	 * or queued for delivery when a dispatcher is configured
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
@@ -77,6 +86,9 @@ public class WebhookCommand implements InteractionCommand {
 				properties = transform(entity);
 			}
 			String formData = getFormData(properties);
+			if (dispatcher != null) {
+				return dispatcher.dispatch(url, formData) ? Result.SUCCESS : Result.FAILURE;
+			}
 			try {
 			    LOGGER.info("POST " + url + " [" + formData + "]");
 				HttpClient client = new HttpClient();
@@ -0,0 +1,463 @@
+package com.temenos.interaction.commands.webhook;
+
+/*
+ * #%L
+ * interaction-commands-webhook
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Delivers webhook events in the background so that the interaction does not
+ * wait on the remote hook.
+ * <p>
+ * Events are held in a bounded in memory queue and POSTed by a pool of worker
+ * threads sharing one pooled http client. When batching is enabled events
+ * queued for the same url are coalesced into one POST of a JSON array, with
+ * one object holding the form fields of each event. A delivery that fails
+ * with an i/o error, a 5xx, 408 or 429 status is retried with exponential
+ * backoff; after the last attempt, or on any other status, the event is moved
+ * to a bounded dead letter queue.
+ * </p>
+ * Queued events are lost if the process stops.
+ */
+public class WebhookDispatcher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WebhookDispatcher.class);
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	public static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+	public static final String BATCH_CONTENT_TYPE = "application/json";
+
+	private final BlockingQueue<WebhookEvent> queue;
+	private final BlockingQueue<WebhookEvent> deadLetters;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final ScheduledExecutorService retryScheduler;
+	private final MultiThreadedHttpConnectionManager connectionManager;
+	private final HttpClient client;
+	private volatile boolean stopped = false;
+
+	private volatile int maxBatchSize = 1;
+	private volatile int maxAttempts = 5;
+	private volatile long initialBackoffMillis = 1000;
+	private volatile long maxBackoffMillis = 60000;
+
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong failedAttempts = new AtomicLong();
+	private final AtomicLong deadLettered = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong totalLatencyMillis = new AtomicLong();
+	private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+	/**
+	 * @param queueCapacity maximum number of events waiting for delivery
+	 * @param workerThreads number of threads delivering events
+	 */
+	public WebhookDispatcher(int queueCapacity, int workerThreads) {
+		if (queueCapacity <= 0 || workerThreads <= 0) {
+			throw new IllegalArgumentException("queueCapacity and workerThreads must be positive");
+		}
+		queue = new LinkedBlockingQueue<WebhookEvent>(queueCapacity);
+		deadLetters = new LinkedBlockingQueue<WebhookEvent>(queueCapacity);
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(workerThreads);
+		params.setMaxTotalConnections(workerThreads);
+		client = new HttpClient(connectionManager);
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "iris-webhook-retry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (int i = 0; i < workerThreads; i++) {
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					deliverLoop();
+				}
+			}, "iris-webhook-" + (i + 1));
+			t.setDaemon(true);
+			workers.add(t);
+			t.start();
+		}
+	}
+
+	/**
+	 * Queue form data for delivery to the url.
+	 * @return false if the queue is full or the dispatcher has been shut down
+	 */
+	public boolean dispatch(String url, String formData) {
+		if (stopped || !queue.offer(new WebhookEvent(url, formData))) {
+			rejected.incrementAndGet();
+			LOGGER.warn("Webhook queue full or dispatcher shut down, rejected POST " + url);
+			return false;
+		}
+		return true;
+	}
+
+	private void deliverLoop() {
+		List<WebhookEvent> events = new ArrayList<WebhookEvent>();
+		while (true) {
+			WebhookEvent first;
+			try {
+				first = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (first == null) {
+				if (stopped) {
+					return;
+				}
+				continue;
+			}
+			events.clear();
+			events.add(first);
+			if (maxBatchSize > 1) {
+				queue.drainTo(events, maxBatchSize - 1);
+			}
+			for (List<WebhookEvent> batch : coalesce(events, maxBatchSize)) {
+				deliver(batch);
+			}
+		}
+	}
+
+	/*
+	 * Group events by url, in the order each url was first seen, into
+	 * batches of at most maxBatchSize events.
+	 */
+	static List<List<WebhookEvent>> coalesce(List<WebhookEvent> events, int maxBatchSize) {
+		Map<String, List<WebhookEvent>> byUrl = new LinkedHashMap<String, List<WebhookEvent>>();
+		List<List<WebhookEvent>> batches = new ArrayList<List<WebhookEvent>>();
+		for (WebhookEvent event : events) {
+			List<WebhookEvent> batch = byUrl.get(event.getUrl());
+			if (batch == null || batch.size() >= maxBatchSize) {
+				batch = new ArrayList<WebhookEvent>();
+				byUrl.put(event.getUrl(), batch);
+				batches.add(batch);
+			}
+			batch.add(event);
+		}
+		return batches;
+	}
+
+	/*
+	 * A JSON array with an object for each event, holding its form fields.
+	 * A field repeated within an event becomes an array of its values.
+	 */
+	static String batchBody(List<WebhookEvent> batch) {
+		List<Map<String, Object>> body = new ArrayList<Map<String, Object>>(batch.size());
+		for (WebhookEvent event : batch) {
+			Map<String, Object> fields = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, List<String>> field : decodeForm(event.getFormData()).entrySet()) {
+				List<String> values = field.getValue();
+				fields.put(field.getKey(), values.size() == 1 ? values.get(0) : values);
+			}
+			body.add(fields);
+		}
+		try {
+			return JSON.writeValueAsString(body);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Map<String, List<String>> decodeForm(String formData) {
+		Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+		if (formData == null || formData.isEmpty()) {
+			return fields;
+		}
+		for (String pair : formData.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int eq = pair.indexOf('=');
+			String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+			String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+			List<String> values = fields.get(name);
+			if (values == null) {
+				values = new ArrayList<String>();
+				fields.put(name, values);
+			}
+			values.add(value);
+		}
+		return fields;
+	}
+
+	private static String decode(String encoded) {
+		try {
+			return URLDecoder.decode(encoded, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalArgumentException e) {
+			// malformed escape, pass it on as it is
+			return encoded;
+		}
+	}
+
+	/*
+	 * Failures worth trying again: no response, a server error, or the
+	 * server asking the client to wait.
+	 */
+	static boolean isRetryable(int status) {
+		return status < 0 || status >= 500 || status == 408 || status == 429;
+	}
+
+	private void deliver(List<WebhookEvent> batch) {
+		String url = batch.get(0).getUrl();
+		int status = -1;
+		PostMethod postMethod = new PostMethod(url);
+		try {
+			if (batch.size() == 1) {
+				postMethod.setRequestEntity(new StringRequestEntity(batch.get(0).getFormData(), CONTENT_TYPE, "UTF-8"));
+			} else {
+				postMethod.setRequestEntity(new StringRequestEntity(batchBody(batch), BATCH_CONTENT_TYPE, "UTF-8"));
+			}
+			status = client.executeMethod(postMethod);
+		} catch (Exception e) {
+			LOGGER.warn("Error POST " + url + " [" + batch.size() + " events]", e);
+		} finally {
+			postMethod.releaseConnection();
+		}
+		if (status >= 200 && status < 300) {
+			LOGGER.debug("POST {} [{} events] status [{}]", url, batch.size(), status);
+			long now = System.currentTimeMillis();
+			for (WebhookEvent event : batch) {
+				recordLatency(now - event.getCreated());
+			}
+			delivered.addAndGet(batch.size());
+		} else {
+			if (status > 0) {
+				LOGGER.warn("POST " + url + " [" + batch.size() + " events] failed with status [" + status + "]");
+			}
+			failedAttempts.incrementAndGet();
+			boolean retryable = isRetryable(status);
+			for (WebhookEvent event : batch) {
+				if (retryable) {
+					retry(event);
+				} else {
+					event.attempts.incrementAndGet();
+					deadLetter(event);
+				}
+			}
+		}
+	}
+
+	private void retry(final WebhookEvent event) {
+		int attempts = event.attempts.incrementAndGet();
+		if (attempts >= maxAttempts || stopped) {
+			deadLetter(event);
+			return;
+		}
+		long delay = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 30));
+		try {
+			retryScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!queue.offer(event)) {
+						deadLetter(event);
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shut down since stopped was read
+			deadLetter(event);
+		}
+	}
+
+	private void deadLetter(WebhookEvent event) {
+		deadLettered.incrementAndGet();
+		// the form data is request data, keep it out of the error log
+		String formData = event.getFormData();
+		LOGGER.error("Giving up POST " + event.getUrl() + " [" + (formData == null ? 0 : formData.length())
+				+ " chars of form data] after " + event.getAttempts() + " attempts");
+		LOGGER.debug("Undelivered POST {} form data [{}]", event.getUrl(), formData);
+		// keep the most recent dead letters
+		while (!deadLetters.offer(event)) {
+			deadLetters.poll();
+		}
+	}
+
+	private void recordLatency(long latency) {
+		totalLatencyMillis.addAndGet(latency);
+		long max = maxLatencyMillis.get();
+		while (latency > max && !maxLatencyMillis.compareAndSet(max, latency)) {
+			max = maxLatencyMillis.get();
+		}
+	}
+
+	/**
+	 * Stop accepting events, deliver those already queued and release the
+	 * connections. Pending retries are abandoned.
+	 * @param timeoutMillis time to wait for the queue to drain
+	 */
+	public void shutdown(long timeoutMillis) {
+		stopped = true;
+		retryScheduler.shutdownNow();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Thread t : workers) {
+			try {
+				t.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (Thread t : workers) {
+			t.interrupt();
+		}
+		if (!queue.isEmpty()) {
+			LOGGER.warn("Webhook dispatcher shut down with " + queue.size() + " undelivered events");
+		}
+		connectionManager.shutdown();
+	}
+
+	/**
+	 * Move the dead letters, oldest first, to the supplied collection.
+	 * @return number of events moved
+	 */
+	public int drainDeadLetters(Collection<? super WebhookEvent> to) {
+		return deadLetters.drainTo(to);
+	}
+
+	/**
+	 * @param maxBatchSize most events coalesced into one POST, 1 to disable batching
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+	}
+
+	/**
+	 * @param maxAttempts deliveries tried before an event is dead lettered
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * @param initialBackoffMillis delay before the first retry, doubled for each further retry
+	 */
+	public void setInitialBackoffMillis(long initialBackoffMillis) {
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	public void setConnectionTimeoutMillis(int timeout) {
+		connectionManager.getParams().setConnectionTimeout(timeout);
+	}
+
+	public void setSocketTimeoutMillis(int timeout) {
+		connectionManager.getParams().setSoTimeout(timeout);
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	public long getFailedAttemptCount() {
+		return failedAttempts.get();
+	}
+
+	public long getDeadLetterCount() {
+		return deadLettered.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return mean time from dispatch to successful delivery
+	 */
+	public long getAverageLatencyMillis() {
+		long count = delivered.get();
+		return count == 0 ? 0 : totalLatencyMillis.get() / count;
+	}
+
+	public long getMaxLatencyMillis() {
+		return maxLatencyMillis.get();
+	}
+
+	/**
+	 * An event waiting for, or given up on, delivery.
+	 */
+	public static class WebhookEvent {
+		private final String url;
+		private final String formData;
+		private final long created = System.currentTimeMillis();
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		WebhookEvent(String url, String formData) {
+			this.url = url;
+			this.formData = formData;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public String getFormData() {
+			return formData;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public int getAttempts() {
+			return attempts.get();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.temenos.interaction.commands.webhook;
+
+/*
+ * #%L
+ * interaction-commands-webhook
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.wink.client.MockHttpServer;
+import org.junit.Test;
+
+import com.temenos.interaction.commands.webhook.WebhookDispatcher.WebhookEvent;
+
+public class TestWebhookDispatcher {
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testCoalesce() {
+		WebhookEvent a1 = new WebhookEvent("http://a", "1");
+		WebhookEvent b1 = new WebhookEvent("http://b", "1");
+		WebhookEvent a2 = new WebhookEvent("http://a", "2");
+		WebhookEvent a3 = new WebhookEvent("http://a", "3");
+		List<List<WebhookEvent>> batches = WebhookDispatcher.coalesce(Arrays.asList(a1, b1, a2, a3), 2);
+		assertEquals(3, batches.size());
+		assertEquals(Arrays.asList(a1, a2), batches.get(0));
+		assertEquals(Arrays.asList(b1), batches.get(1));
+		assertEquals(Arrays.asList(a3), batches.get(2));
+	}
+
+	@Test
+	public void testBatchBody() {
+		WebhookEvent a1 = new WebhookEvent("http://a", "first_name=Bob&last_name=O%27Brien%22");
+		WebhookEvent a2 = new WebhookEvent("http://a", "tag=x&tag=y%0A&empty");
+		assertEquals("[{\"first_name\":\"Bob\",\"last_name\":\"O'Brien\\\"\"},{\"tag\":[\"x\",\"y\\n\"],\"empty\":\"\"}]",
+				WebhookDispatcher.batchBody(Arrays.asList(a1, a2)));
+	}
+
+	@Test
+	public void testIsRetryable() {
+		assertTrue(WebhookDispatcher.isRetryable(-1));
+		assertTrue(WebhookDispatcher.isRetryable(500));
+		assertTrue(WebhookDispatcher.isRetryable(503));
+		assertTrue(WebhookDispatcher.isRetryable(408));
+		assertTrue(WebhookDispatcher.isRetryable(429));
+		assertFalse(WebhookDispatcher.isRetryable(400));
+		assertFalse(WebhookDispatcher.isRetryable(404));
+		assertFalse(WebhookDispatcher.isRetryable(301));
+	}
+
+	@Test
+	public void testDispatch() throws Exception {
+		MockHttpServer httpServer = new MockHttpServer(freePort());
+		httpServer.startServer();
+		WebhookDispatcher dispatcher = new WebhookDispatcher(10, 1);
+		try {
+			assertTrue(dispatcher.dispatch("http://127.0.0.1:" + httpServer.getServerPort() + "/service", "first_name=Bob"));
+			for (int i = 0; i < 500 && dispatcher.getDeliveredCount() == 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, dispatcher.getDeliveredCount());
+			assertEquals(0, dispatcher.getQueueDepth());
+			assertEquals("POST", httpServer.getRequestMethod());
+			assertEquals("first_name=Bob", httpServer.getRequestContentAsString());
+		} finally {
+			dispatcher.shutdown(1000);
+			httpServer.stopServer();
+		}
+	}
+
+	@Test
+	public void testDeadLetter() throws InterruptedException {
+		WebhookDispatcher dispatcher = new WebhookDispatcher(10, 1);
+		dispatcher.setMaxAttempts(2);
+		dispatcher.setInitialBackoffMillis(10);
+		try {
+			// nothing listens on port 1
+			assertTrue(dispatcher.dispatch("http://127.0.0.1:1/service", "first_name=Bob"));
+			for (int i = 0; i < 500 && dispatcher.getDeadLetterCount() == 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, dispatcher.getDeadLetterCount());
+			assertEquals(2, dispatcher.getFailedAttemptCount());
+			List<WebhookEvent> deadLetters = new ArrayList<WebhookEvent>();
+			assertEquals(1, dispatcher.drainDeadLetters(deadLetters));
+			assertEquals("first_name=Bob", deadLetters.get(0).getFormData());
+			assertEquals(2, deadLetters.get(0).getAttempts());
+		} finally {
+			dispatcher.shutdown(1000);
+		}
+	}
+
+	@Test
+	public void testClientErrorNotRetried() throws Exception {
+		MockHttpServer httpServer = new MockHttpServer(freePort());
+		MockHttpServer.MockHttpServerResponse response = new MockHttpServer.MockHttpServerResponse();
+		response.setMockResponseCode(404);
+		httpServer.setMockHttpServerResponses(response);
+		httpServer.startServer();
+		WebhookDispatcher dispatcher = new WebhookDispatcher(10, 1);
+		dispatcher.setMaxAttempts(3);
+		dispatcher.setInitialBackoffMillis(10);
+		try {
+			assertTrue(dispatcher.dispatch("http://127.0.0.1:" + httpServer.getServerPort() + "/service", "first_name=Bob"));
+			for (int i = 0; i < 500 && dispatcher.getDeadLetterCount() == 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, dispatcher.getDeadLetterCount());
+			assertEquals(1, dispatcher.getFailedAttemptCount());
+			List<WebhookEvent> deadLetters = new ArrayList<WebhookEvent>();
+			assertEquals(1, dispatcher.drainDeadLetters(deadLetters));
+			assertEquals(1, deadLetters.get(0).getAttempts());
+		} finally {
+			dispatcher.shutdown(1000);
+			httpServer.stopServer();
+		}
+	}
+
+	@Test
+	public void testRejectedAfterShutdown() {
+		WebhookDispatcher dispatcher = new WebhookDispatcher(10, 1);
+		dispatcher.shutdown(1000);
+		assertFalse(dispatcher.dispatch("http://127.0.0.1:1/service", "first_name=Bob"));
+		assertEquals(1, dispatcher.getRejectedCount());
+	}
+}
@@ -0,0 +1,90 @@
+package com.temenos.interaction.core;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs one load per key at a time.  The first caller for a key runs the load on its
+ * own thread, callers arriving while it runs wait for and share its outcome.  Nothing
+ * is kept once the load has finished, caching the result is up to the caller.
+ */
+public class SingleFlight<K, V> {
+
+	// loads in progress by key
+	private final ConcurrentMap<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+	private final AtomicLong sharedLoads = new AtomicLong();
+
+	/**
+	 * Run the load, or wait for the load already in progress for the key.
+	 * @return the result of the load
+	 * @throws RuntimeException the runtime exception or error of the load,
+	 * or wrapping its checked exception or an interrupt while waiting
+	 */
+	public V load(K key, Callable<V> load) {
+		FutureTask<V> task = loading.get(key);
+		boolean owner = false;
+		if (task == null) {
+			FutureTask<V> newTask = new FutureTask<V>(load);
+			task = loading.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				owner = true;
+			}
+		}
+		if (owner) {
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+		} else {
+			sharedLoads.incrementAndGet();
+		}
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException("Failed to load [" + key + "]", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for [" + key + "]", e);
+		}
+	}
+
+	/**
+	 * @return number of callers that waited for a load already in progress
+	 */
+	public long getSharedLoadCount() {
+		return sharedLoads.get();
+	}
+}
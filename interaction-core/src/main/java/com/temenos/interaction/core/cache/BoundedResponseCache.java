@@ -0,0 +1,312 @@
+package com.temenos.interaction.core.cache;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Response cache with an upper bound on the number of entries.
+ * <p>
+ * Reads never take a lock; they only mark the entry as recently used.
+ * When a put takes the cache over its bound, entries are evicted using
+ * the CLOCK (second chance) approximation of LRU. Expired entries are
+ * dropped when read and, if a sweep interval is configured, by a
+ * background daemon thread.
+ * <p>
+ * The cache stores a copy of the {@link Response.ResponseBuilder} and
+ * hands out a fresh copy on every hit so that callers cannot modify the
+ * cached response.
+ */
+public class BoundedResponseCache implements Cache {
+	private static final Logger logger = LoggerFactory.getLogger(BoundedResponseCache.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private final int maxEntries;
+	private final ConcurrentMap<String, Entry> data;
+	private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<Entry>();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final ScheduledExecutorService sweeper;
+
+	// number of queue slots whose entry is no longer in the map
+	private final AtomicInteger stale = new AtomicInteger();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	public BoundedResponseCache() {
+		this(DEFAULT_MAX_ENTRIES, 0);
+	}
+
+	public BoundedResponseCache(int maxEntries) {
+		this(maxEntries, 0);
+	}
+
+	/**
+	 * @param maxEntries maximum number of responses held
+	 * @param sweepIntervalSeconds how often expired entries are removed
+	 * in the background, zero or less to only remove them when read
+	 */
+	public BoundedResponseCache(int maxEntries, int sweepIntervalSeconds) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.data = new ConcurrentHashMap<String, Entry>(Math.min(maxEntries, 1024));
+		if (sweepIntervalSeconds > 0) {
+			sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "iris-response-cache-sweeper");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			sweeper.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sweep(System.currentTimeMillis());
+				}
+			}, sweepIntervalSeconds, sweepIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			sweeper = null;
+		}
+		logger.debug("Bounded response cache initialized with " + maxEntries + " entries");
+	}
+
+	private boolean checkKey(Object key) {
+		if ( key == null ) {
+			logger.warn( "Attempt to cache null key" );
+			return false;
+		}
+		return true;
+	}
+
+	/** Insert a value into the cache.
+	 *  @param maxAge the entry will be invalid after this many seconds
+	 */
+	@Override
+	public void put(Object key, Response.ResponseBuilder value, int maxAge) {
+		put(key, value, maxAge, System.currentTimeMillis());
+	}
+
+	// logic without live time exposed for testing
+	void put(Object key, Response.ResponseBuilder value, int maxAge, long now) {
+		if ( !checkKey( key ) || value == null )
+			return;
+
+		Entry entry = new Entry(key.toString(), value.clone(), now + 1000L * maxAge);
+		Entry old = data.put(entry.key, entry);
+		if (old != null) {
+			old.removed = true;
+			stale.incrementAndGet();
+		}
+		clock.offer(entry);
+		if (data.size() > maxEntries) {
+			evict(now);
+		}
+		if (stale.get() > maxEntries) {
+			purgeStale(false);
+		}
+	}
+
+	/** Retrieve a value from the cache
+	 *  @return a copy of the value if present and valid
+	 */
+	@Override
+	public Response.ResponseBuilder get(Object key) {
+		return get(key, System.currentTimeMillis());
+	}
+
+	Response.ResponseBuilder get(Object key, long now) {
+		if ( !checkKey( key ) )
+			return null;
+
+		Entry entry = data.get(key.toString());
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (entry.expires <= now) {
+			if (remove(entry)) {
+				expirations.incrementAndGet();
+			}
+			misses.incrementAndGet();
+			return null;
+		}
+		entry.referenced = true;
+		hits.incrementAndGet();
+		return entry.value.clone();
+	}
+
+	/**
+	 * Remove all entries which have expired as of the provided timestamp.
+	 */
+	public void sweep(long now) {
+		for (Entry entry : data.values()) {
+			if (entry.expires <= now && remove(entry)) {
+				expirations.incrementAndGet();
+			}
+		}
+		purgeStale(true);
+	}
+
+	// drop queue slots belonging to replaced or removed entries
+	private void purgeStale(boolean wait) {
+		if (wait) {
+			evictionLock.lock();
+		} else if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			for (Iterator<Entry> it = clock.iterator(); it.hasNext();) {
+				if (it.next().removed) {
+					it.remove();
+					stale.decrementAndGet();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/*
+	 * Only one thread evicts at a time; others carry on and let the cache
+	 * briefly exceed its bound rather than queue up behind the lock.
+	 */
+	private void evict(long now) {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			while (data.size() > maxEntries) {
+				Entry candidate = clock.poll();
+				if (candidate == null) {
+					break;
+				}
+				if (candidate.removed) {
+					stale.decrementAndGet();
+					continue;
+				}
+				if (candidate.expires <= now) {
+					if (data.remove(candidate.key, candidate)) {
+						candidate.removed = true;
+						expirations.incrementAndGet();
+					}
+				} else if (candidate.referenced) {
+					candidate.referenced = false;
+					clock.offer(candidate);
+				} else if (data.remove(candidate.key, candidate)) {
+					candidate.removed = true;
+					evictions.incrementAndGet();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private boolean remove(Entry entry) {
+		if (data.remove(entry.key, entry)) {
+			entry.removed = true;
+			stale.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	public void removeAll() {
+		evictionLock.lock();
+		try {
+			for (Map.Entry<String, Entry> e : data.entrySet()) {
+				e.getValue().removed = true;
+			}
+			data.clear();
+			clock.clear();
+			stale.set(0);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Stop the background sweeper, if any.
+	 */
+	public void shutdown() {
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+		}
+	}
+
+	public int size() {
+		return data.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public long getExpirationCount() {
+		return expirations.get();
+	}
+
+	private static class Entry {
+		Entry(String k, Response.ResponseBuilder v, long e) {
+			key = k; value = v; expires = e;
+		}
+		final String key;
+		final Response.ResponseBuilder value;
+		final long expires;
+		volatile boolean referenced;
+		volatile boolean removed;
+	}
+}
@@ -0,0 +1,104 @@
+package com.temenos.interaction.core.command;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+/**
+ * Key of an {@link InteractionContext} attribute.  Keys are compared by identity,
+ * so a key is normally held in a constant by the code owning the attribute; the
+ * name is only used for diagnostics.
+ * <p>
+ * Attributes set and read by name use the keys returned by {@link #named(String)}.
+ * These are compared by name instead, so nothing needs to remember the names in use,
+ * and are distinct from any typed key of the same name.
+ *
+ * @param <T> type of the attribute value
+ */
+public final class AttributeKey<T> {
+
+	private final String name;
+	private final Class<T> type;
+	// compared by name rather than identity
+	private final boolean byName;
+
+	/**
+	 * @param name used for diagnostics
+	 * @param type of the attribute value
+	 */
+	public AttributeKey(String name, Class<T> type) {
+		this(name, type, false);
+	}
+
+	private AttributeKey(String name, Class<T> type, boolean byName) {
+		if (name == null || type == null)
+			throw new IllegalArgumentException("Attribute key needs a name and a type");
+		this.name = name;
+		this.type = type;
+		this.byName = byName;
+	}
+
+	/**
+	 * Get the key used for the attribute of this name.
+	 * @param name not null
+	 */
+	public static AttributeKey<Object> named(String name) {
+		return new AttributeKey<Object>(name, Object.class, true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * @return the value as the type of this key
+	 * @throws ClassCastException if the value is of another type
+	 */
+	public T cast(Object value) {
+		return type.cast(value);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!byName || !(obj instanceof AttributeKey)) {
+			return false;
+		}
+		AttributeKey<?> other = (AttributeKey<?>) obj;
+		return other.byName && name.equals(other.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return byName ? name.hashCode() : System.identityHashCode(this);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
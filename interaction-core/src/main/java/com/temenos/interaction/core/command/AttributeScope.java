@@ -0,0 +1,172 @@
+package com.temenos.interaction.core.command;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Attributes of one {@link InteractionContext}, layered over the attributes of the
+ * context it was created from.
+ * <p>
+ * Lookups fall through to the parent scope, changes are only made to this scope, so a
+ * child context sees its parent's attributes without affecting them.  Each scope holds
+ * its own attributes as an array of alternating keys and values, scanned by key
+ * identity, or by name for named keys; requests set few attributes so this is cheaper
+ * than a hash map.  The array
+ * is replaced on every change, which makes reads lock free and changes safe from any
+ * thread.
+ */
+final class AttributeScope {
+
+	// marks an attribute removed here but present in a parent
+	private static final Object REMOVED = new Object();
+	private static final Object[] EMPTY = new Object[0];
+
+	private static final AtomicReferenceFieldUpdater<AttributeScope, Object[]> ENTRIES =
+			AtomicReferenceFieldUpdater.newUpdater(AttributeScope.class, Object[].class, "entries");
+
+	private final AttributeScope parent;
+	private volatile Object[] entries = EMPTY;
+
+	/**
+	 * @param parent scope whose attributes are visible through this one, or null
+	 */
+	AttributeScope(AttributeScope parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * @return the outermost scope, shared by every context of the request
+	 */
+	AttributeScope getRoot() {
+		AttributeScope scope = this;
+		while (scope.parent != null) {
+			scope = scope.parent;
+		}
+		return scope;
+	}
+
+	Object get(AttributeKey<?> key) {
+		for (AttributeScope scope = this; scope != null; scope = scope.parent) {
+			Object[] e = scope.entries;
+			int i = indexOf(e, key);
+			if (i >= 0) {
+				Object value = e[i + 1];
+				return value == REMOVED ? null : value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Set or, with a null value, remove an attribute in this scope.
+	 */
+	void put(AttributeKey<?> key, Object value) {
+		Object stored = value;
+		if (value == null) {
+			stored = parent != null && parent.get(key) != null ? REMOVED : null;
+		}
+		while (true) {
+			Object[] current = entries;
+			Object[] updated = with(current, key, stored);
+			if (updated == current || ENTRIES.compareAndSet(this, current, updated)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Set an attribute in this scope unless it already has a value here or in a parent.
+	 * @return the existing value, or null if the value was set
+	 */
+	Object putIfAbsent(AttributeKey<?> key, Object value) {
+		while (true) {
+			Object[] current = entries;
+			Object existing = get(key);
+			if (existing != null) {
+				return existing;
+			}
+			if (ENTRIES.compareAndSet(this, current, with(current, key, value))) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the attributes visible through this scope
+	 */
+	Map<AttributeKey<?>, Object> snapshot() {
+		Map<AttributeKey<?>, Object> result = parent != null ? parent.snapshot() : new HashMap<AttributeKey<?>, Object>();
+		Object[] e = entries;
+		for (int i = 0; i < e.length; i += 2) {
+			AttributeKey<?> key = (AttributeKey<?>) e[i];
+			if (e[i + 1] == REMOVED) {
+				result.remove(key);
+			} else {
+				result.put(key, e[i + 1]);
+			}
+		}
+		return result;
+	}
+
+	private static int indexOf(Object[] e, Object key) {
+		for (int i = 0; i < e.length; i += 2) {
+			if (e[i] == key || key.equals(e[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Copy of the entries with the key set to the value, or removed for null;
+	 * the same array if that changes nothing.
+	 */
+	private static Object[] with(Object[] e, Object key, Object value) {
+		int i = indexOf(e, key);
+		if (i >= 0) {
+			if (e[i + 1] == value) {
+				return e;
+			}
+			if (value == null) {
+				Object[] result = new Object[e.length - 2];
+				System.arraycopy(e, 0, result, 0, i);
+				System.arraycopy(e, i + 2, result, i, e.length - i - 2);
+				return result;
+			}
+			Object[] result = e.clone();
+			result[i + 1] = value;
+			return result;
+		}
+		if (value == null) {
+			return e;
+		}
+		Object[] result = new Object[e.length + 2];
+		System.arraycopy(e, 0, result, 0, e.length);
+		result[e.length] = key;
+		result[e.length + 1] = value;
+		return result;
+	}
+}
@@ -4,7 +4,7 @@ package com.temenos.interaction.core.command;
  * #%L
  * interaction-core
  * %%
- * Copyright (C) 2012 - 2013 Temenos Holdings N.V.
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
  * %%
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -72,7 +72,8 @@ public class InteractionContext {
 
 	/* Command context */
 	private RESTResource resource;
-	private Map<String, Object> attributes = new HashMap<String, Object>();
+	// layered over the attributes of the context this one was created from
+	private final AttributeScope attributes;
 	private String preconditionIfMatch = null;
 	private List<String> preferredLanguages = new ArrayList<String>();
 	private final Map<String, String> responseHeaders = new HashMap<String, String>();
@@ -96,6 +97,7 @@ public class InteractionContext {
 		this.inQueryParameters = queryParameters;		
 		this.currentState = currentState;
 		this.metadata = metadata;
+		this.attributes = new AttributeScope(null);
 		assert pathParameters != null;
 		assert queryParameters != null;
 		assert metadata != null;
@@ -104,6 +106,7 @@ public class InteractionContext {
 	/**
 	 * Shallow copy constructor with extra parameters to override final attributes.
 	 * Note uriInfo not retained since responses produced will not be valid for original request.
+	 * The new context sees the attributes of the original, but attributes it sets are its own.
 	 * @param ctx interaction context
 	 * @param headers HttpHeaders
 	 * @param pathParameters new path parameters or null to not override
@@ -123,7 +126,51 @@ public class InteractionContext {
 		this.targetState = ctx.targetState;
 		this.linkUsed = ctx.linkUsed;
 		this.exception = ctx.exception;
-		this.attributes = ctx.attributes;
+		this.attributes = new AttributeScope(ctx.attributes);
+	}
+
+	/*
+	 * Full copy, see copy()
+	 */
+	private InteractionContext(InteractionContext ctx) {
+		this.uriInfo = ctx.uriInfo;
+		this.headers = ctx.headers;
+		this.pathParameters = ctx.pathParameters;
+		this.inQueryParameters = copyOf(ctx.inQueryParameters);
+		this.outQueryParameters = copyOf(ctx.outQueryParameters);
+		this.currentState = ctx.currentState;
+		this.metadata = ctx.metadata;
+
+		this.resource = ctx.resource;
+		this.targetState = ctx.targetState;
+		this.linkUsed = ctx.linkUsed;
+		this.exception = ctx.exception;
+		this.attributes = new AttributeScope(ctx.attributes);
+		this.preconditionIfMatch = ctx.preconditionIfMatch;
+		this.preferredLanguages = new ArrayList<String>(ctx.preferredLanguages);
+		this.responseHeaders.putAll(ctx.responseHeaders);
+	}
+
+	/**
+	 * Copy this context for a command executed alongside others.  The copy
+	 * sees the attributes of this context but sets its own, and has its own
+	 * resource, query parameters and response headers, so changes made through
+	 * it are not seen here; the attribute values themselves are shared.
+	 * @return a copy of this context for the same request
+	 */
+	public InteractionContext copy() {
+		return new InteractionContext(this);
+	}
+
+	private static MultivaluedMap<String, String> copyOf(MultivaluedMap<String, String> parameters) {
+		if (parameters == null) {
+			return null;
+		}
+		MultivaluedMap<String, String> copy = new MultivaluedMapImpl<String, String>();
+		for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue() != null ? new ArrayList<String>(entry.getValue()) : null);
+		}
+		return copy;
 	}
 
 	/**
@@ -261,7 +308,7 @@ public class InteractionContext {
      * @param value
      */
     public void setAttribute(String name, Object value) {
-    	attributes.put(name, value);
+    	attributes.put(AttributeKey.named(name), value);
     }
     
     /**
@@ -270,7 +317,54 @@ public class InteractionContext {
      * @return
      */
     public Object getAttribute(String name) {
-    	return attributes.get(name);
+    	return attributes.get(AttributeKey.named(name));
+    }
+
+    /**
+     * Remove an attribute from this interaction context.
+     * @param name
+     */
+    public void removeAttribute(String name) {
+    	attributes.put(AttributeKey.named(name), null);
+    }
+
+    /**
+     * Store an attribute in this interaction context, null to remove it.
+     * @param key
+     * @param value
+     */
+    public <T> void setAttribute(AttributeKey<T> key, T value) {
+    	attributes.put(key, value);
+    }
+
+    /**
+     * Retrieve an attribute from this interaction context, or the context it was created from.
+     * @param key
+     * @return the value or null
+     */
+    public <T> T getAttribute(AttributeKey<T> key) {
+    	return key.cast(attributes.get(key));
+    }
+
+    /**
+     * Store an attribute for the whole request, visible to every context created
+     * for it, unless the attribute is already set.  Use for objects shared
+     * between the sub-requests of a request, such as caches.
+     * @param key
+     * @param value not null
+     * @return the existing value, or null if the value was stored
+     */
+    public <T> T putRequestAttributeIfAbsent(AttributeKey<T> key, T value) {
+    	assert value != null;
+    	return key.cast(attributes.getRoot().putIfAbsent(key, value));
+    }
+
+    /**
+     * Take a snapshot of the attributes visible in this interaction context.
+     * @return attribute values by key
+     */
+    public Map<AttributeKey<?>, Object> getAttributes() {
+    	return attributes.snapshot();
     }
     
     /**
@@ -65,9 +65,9 @@ public class Metadata  {
 			if(resourceMetadataManager == null) {
 				resourceMetadataManager = new ResourceMetadataManager();
 			}
-			Metadata metadata = resourceMetadataManager.getMetadata(entityName);
+			Metadata metadata = resourceMetadataManager.getMetadataForEntity(entityName);
 			/*
-			 * Protect against null.
+			 * Protect against null, including entities no metadata defines.
 			 */
 			if (metadata == null){
 				return null;
@@ -117,6 +117,9 @@ public class Metadata  {
 	
 	public void unload( String entityName) {
 		entitiesMetadata.remove(entityName);
+		if (resourceMetadataManager != null) {
+			resourceMetadataManager.unload(entityName);
+		}
 	}
 
 	/*
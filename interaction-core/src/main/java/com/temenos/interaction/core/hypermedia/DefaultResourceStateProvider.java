@@ -138,9 +138,9 @@ public class DefaultResourceStateProvider implements ResourceStateProvider {
 
         String resourceStateId = getResourceStateId(httpMethod, url);
         if(resourceStateId == null) {
-            if(paths.get(url) != null) {
-                Set<String> allowedMethods = paths.get(url).keySet();
-                throw new MethodNotAllowedException(allowedMethods);
+            Map<String,String> methodToState = paths.get(url);
+            if(methodToState != null) {
+                throw new MethodNotAllowedException(methodToState.keySet());
             } else {
                 return null;
             }
@@ -159,10 +159,8 @@ public class DefaultResourceStateProvider implements ResourceStateProvider {
         if(methodToState != null) {
             resourceStateId = methodToState.get(httpMethod);
             if(resourceStateId == null) {
-                if(paths.get(url) != null) {
-                    Set<String> allowedMethods = paths.get(url).keySet();
-                    throw new MethodNotAllowedException(allowedMethods);
-                }
+                // the tree is copy on write so the map cannot change under us
+                throw new MethodNotAllowedException(methodToState.keySet());
             }
         } else {
             return null;
@@ -22,10 +22,8 @@ package com.temenos.interaction.core.hypermedia;
  */
 
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -58,14 +56,13 @@ public class HypermediaTemplateHelper {
 		//Parse source and target parameters from the transition's 'path' and 'originalPath' attributes respectively
 		MultivaluedMap<String, String> pathParameters = new MultivaluedMapImpl<String>();
 		String resourcePath = transition.getTarget().getPath();
-		String[] sourceParameters = getPathTemplateParameters(resourcePath);
-		String[] targetParameters = getPathTemplateParameters(resourcePath);
+		String[] parameters = getPathTemplateParameters(resourcePath);
 
 		//Apply transition properties to parameters
-		for(int i=0; i < sourceParameters.length; i++) {
-			Object paramValue = transitionProperties.get(sourceParameters[i]);
+		for(int i=0; i < parameters.length; i++) {
+			Object paramValue = transitionProperties.get(parameters[i]);
 			if(paramValue != null) {
-				pathParameters.putSingle(targetParameters[i], paramValue.toString());
+				pathParameters.putSingle(parameters[i], paramValue.toString());
 			}
 		}
 		return pathParameters;
@@ -76,12 +73,7 @@ public class HypermediaTemplateHelper {
 	 * a URI template. 
 	 */
 	public static String[] getPathTemplateParameters(String pathTemplate) {
-		List<String> params = new ArrayList<String>();
-		Matcher m = TEMPLATE_PATTERN.matcher(pathTemplate);
-		while(m.find()) {
-			params.add(m.group(1));
-		}
-		return params.toArray(new String[0]);
+		return UriTemplate.compile(pathTemplate).getParameterNames();
 	}
 
 	/**
@@ -93,20 +85,9 @@ public class HypermediaTemplateHelper {
 	 */
 	public static String templateReplace(String template, Map<String, Object> properties) {
 		String result = template;
-		Map<String, Object> normalizedProperties = null;
 		try {
 			if (template != null) {
-				Matcher m = TEMPLATE_PATTERN.matcher(template);
-				while(m.find()) {
-					String param = m.group(1);
-					if(null == normalizedProperties) {
-						normalizedProperties = HypermediaTemplateHelper.normalizeProperties(properties);
-					}
-					if (normalizedProperties.containsKey(param)) {
-						// replace template tokens
-						result = result.replaceAll(Pattern.quote("{"+param+"}"), Matcher.quoteReplacement(normalizedProperties.get(param).toString()));
-					}
-				}
+				result = UriTemplate.compile(template).expand(properties);
 			}
 		} catch (Exception e) {
 			LOGGER.error("An error occurred while replacing tokens in ["+template+"]", e);
@@ -22,14 +22,13 @@ package com.temenos.interaction.core.hypermedia;
  */
 
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,22 +38,58 @@ import org.slf4j.LoggerFactory;
 /**
  * This class provides a tree representation of a set of OData path template / http method tuples including handling path wildcards like /{id} and provides a
  * means of resolving a path to a path template allowing navigation from a path to an object associated with a given path template / http method tuple. 
+ * <p>
+ * The tree is immutable; {@link #put(String, String, String)} and {@link #remove(String, String)} copy the nodes along the
+ * modified path and publish the new root in a single volatile write, so lookups never take a lock and always see a consistent tree.
  *
  * @author mlambert
  */
 public class PathTree {
     private static final Pattern PATH_PARAMETER_PATTERN = Pattern.compile("(.*)(?:\\()(.*)(?:\\))$");    
     private final Logger logger = LoggerFactory.getLogger(PathTree.class);
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     
-    private class Node {
-        String segment;
-        Map<String, String> value = new HashMap<String,String>();
-        Map<String, Node> literals = new HashMap<String, Node>();
-        List<Node> variables = new LinkedList<Node>();
+    private static final Node[] NO_NODES = new Node[0];
+    
+    private static final class Node {
+        final String segment;
+        final Map<String, String> value;
+        final Map<String, Node> literals;
+        final Node[] variables;
+        
+        Node(String segment) {
+            this(segment, Collections.<String, String>emptyMap(), Collections.<String, Node>emptyMap(), NO_NODES);
+        }
+        
+        Node(String segment, Map<String, String> value, Map<String, Node> literals, Node[] variables) {
+            this.segment = segment;
+            this.value = value;
+            this.literals = literals;
+            this.variables = variables;
+        }
+        
+        Node withValue(Map<String, String> newValue) {
+            return new Node(segment, Collections.unmodifiableMap(newValue), literals, variables);
+        }
+        
+        Node withLiteral(Node child) {
+            Map<String, Node> newLiterals = new HashMap<String, Node>(literals);
+            newLiterals.put(child.segment, child);
+            return new Node(segment, value, Collections.unmodifiableMap(newLiterals), variables);
+        }
+        
+        Node withVariable(int index, Node child) {
+            Node[] newVariables;
+            if (index < variables.length) {
+                newVariables = variables.clone();
+            } else {
+                newVariables = Arrays.copyOf(variables, variables.length + 1);
+            }
+            newVariables[index] = child;
+            return new Node(segment, value, literals, newVariables);
+        }
     }
     
-    private Node root;
+    private volatile Node root;
     
     /**
      * Returns true if there are no OData paths in the tree otherwise false.
@@ -62,14 +97,7 @@ public class PathTree {
      * @return true if there are no OData paths in the tree otherwise false.
      */
     public boolean isEmpty() { 
-        Lock readLock = readWriteLock.readLock(); 
-        readLock.lock();
-        
-        try {
-            return root == null;   
-        } finally {
-            readLock.unlock();
-        }
+        return root == null;   
     }
     
     /**
@@ -92,29 +120,32 @@ public class PathTree {
     	
         LinkedList<String> segments = new LinkedList<String>(Arrays.asList(path.split("/")));
         
-        Lock writeLock = readWriteLock.writeLock(); 
-        writeLock.lock();
-
-        try {
-            if(root == null) {
+        synchronized (this) {
+            Node current = root;
+            if(current == null) {
                 // All paths will be relative to "/" so this we be the root
-                root = new Node();
-                String segment = "/";
-                root.segment = segment;
+                current = new Node("/");
             }
                     
             if(segments.isEmpty()) {
-                root.value.put(httpMethod, stateName);
+                root = current.withValue(putValue(current.value, httpMethod, stateName));
             } else {
                 segments.remove(0);
-                put(root, segments, httpMethod, stateName);    
+                root = put(current, segments, httpMethod, stateName);    
             }
-        } finally {
-            writeLock.unlock();
         }
     }
     
-    private void put(Node current, LinkedList<String> segments, String httpMethod, String stateName) {
+    private static Map<String, String> putValue(Map<String, String> value, String httpMethod, String stateName) {
+        Map<String, String> newValue = new HashMap<String, String>(value);
+        newValue.put(httpMethod, stateName);
+        return newValue;
+    }
+    
+    /*
+     * Returns a copy of current with the tuple added beneath it
+     */
+    private Node put(Node current, LinkedList<String> segments, String httpMethod, String stateName) {
         String segment = segments.remove(0);
         Node match = null;        
         boolean variableSegment = false;
@@ -131,10 +162,7 @@ public class PathTree {
                  * /myResource/{id}/modify; in future we may want to modify it to be /myResource/(/{id}/)/modify to reduce the chance of a collision 
                  * with another path such as /myResource/{other}/modify
                  */
-                if (tmpSegment.charAt(0) == '\'' && tmpSegment.charAt(tmpSegment.length() - 1) == '\'') {
-                    // There are ' at the start and end of the segment - drop them
-                    tmpSegment = tmpSegment.substring(1, tmpSegment.length() - 1);
-                }
+                tmpSegment = unquote(tmpSegment);
                 segments.addFirst(tmpSegment);
             }
 
@@ -149,81 +177,88 @@ public class PathTree {
         
         if(variableSegment) {
             // We are dealing with a variable segment - check if this node already has this variable child            
-            for(Node variable: current.variables) {
-                if(variable.segment.equals(segment)) {
-                    match = variable;
+            int index = 0;
+            for(; index < current.variables.length; index++) {
+                if(current.variables[index].segment.equals(segment)) {
+                    match = current.variables[index];
                     break;
                 }
             }
             
             if(match == null) {
-                match = new Node();
-                match.segment = segment;
-                current.variables.add(match);
+                match = new Node(segment);
                 
                 if(logger.isDebugEnabled()) {
-                    logger.debug("Adding " + match + " to " + segment);
+                    logger.debug("Adding " + segment + " to " + current.segment);
                 }
-            }            
-        }
-
-        if(!variableSegment) {
+            }
+            return current.withVariable(index, putBelow(match, segments, httpMethod, stateName));
+        } else {
             // We a dealing with a literal segment - check if this node already has this literal child
-            if(current.literals.containsKey(segment)) {
-                match = current.literals.get(segment);
-            } else {
-                match = new Node();
-                match.segment = segment;
-                current.literals.put(segment, match);
+            match = current.literals.get(segment);
+            
+            if(match == null) {
+                match = new Node(segment);
                 
                 if(logger.isDebugEnabled()) {
-                    logger.debug("Adding " + match + " to " + segment);
+                    logger.debug("Adding " + segment + " to " + current.segment);
                 }
             }
+            return current.withLiteral(putBelow(match, segments, httpMethod, stateName));
         }
-        
+    }
+    
+    private Node putBelow(Node match, LinkedList<String> segments, String httpMethod, String stateName) {
         if(segments.isEmpty()) {
-            match.value.put(httpMethod, stateName);
+            return match.withValue(putValue(match.value, httpMethod, stateName));
         } else {
-            put(match, segments, httpMethod, stateName);
+            return put(match, segments, httpMethod, stateName);
         }        
     }
     
+    private static String unquote(String segment) {
+        if (segment.length() > 1 && segment.charAt(0) == '\'' && segment.charAt(segment.length() - 1) == '\'') {
+            // There are ' at the start and end of the segment - drop them
+            return segment.substring(1, segment.length() - 1);
+        }
+        return segment;
+    }
+    
     /**
      * Gets the http method / state name pairs associated with the given OData path
      * 
      * @param path The OData path to look up
      * 
-     * @return The http method / state name pairs associated with the given OData path
+     * @return The http method / state name pairs associated with the given OData path, the map is read only
      */
     public Map<String,String> get(String path) {
+        List<Node> trail = find(root, path);
+        return trail == null ? null : trail.get(trail.size() - 1).value;
+    }
+    
+    /*
+     * Returns the nodes from the root to the node matching the path, or null if there is none.
+     */
+    private static List<Node> find(Node root, String path) {
         List<String> segments = new LinkedList<String>(Arrays.asList(path.split("/")));
         
-        String segment = "/";
+        if(root == null) {
+            return null;
+        }
         
-        Lock readLock = readWriteLock.readLock(); 
-        readLock.lock();
+        if(!segments.isEmpty()) {
+            segments.remove(0);
+        }
         
-        try {
-            if(root != null && root.segment != null && root.segment.equals(segment)) {
-                if(!segments.isEmpty()) {
-                    segments.remove(0);
-                }
-                
-                if(segments.isEmpty()) {
-                    return root.value;
-                } else {                
-                    return get(root, segments);
-                }
-            } else {
-                return null;
-            }            
-        } finally {
-            readLock.unlock();
+        List<Node> trail = new ArrayList<Node>();
+        trail.add(root);
+        if(segments.isEmpty() || find(root, segments, trail)) {
+            return trail;
         }
+        return null;
     }
-
-    private Map<String,String> get(Node current, List<String> segments) {
+    
+    private static boolean find(Node current, List<String> segments, List<Node> trail) {
         LinkedList<String> tmpSegments = new LinkedList<String>();
         tmpSegments.addAll(segments);
         String segment = tmpSegments.get(0);
@@ -243,33 +278,33 @@ public class PathTree {
             segment = matcher.group(1) == null ? "" : matcher.group(1);            
         }
         
-        if(current.literals.containsKey(segment)) {
-            if(tmpSegments.isEmpty()) {
-                return current.literals.get(segment).value;
-            } else {
-                return get(current.literals.get(segment), tmpSegments);
-            }
+        int depth = trail.size();
+        Node literal = current.literals.get(segment);
+        if(literal != null) {
+            trail.add(literal);
+            return tmpSegments.isEmpty() || find(literal, tmpSegments, trail);
         } else {
-        	Map<String,String> result = null;
-        	
         	if(tmpSegments.isEmpty()) {
-                if(current.variables.size() == 1) {
-                    return current.variables.get(0).value;
+                if(current.variables.length == 1) {
+                    trail.add(current.variables[0]);
+                    return true;
                 } else {
-                    return null;
+                    return false;
                 }
             } else {
                 for(Node variable: current.variables) {
+                    trail.add(variable);
                     
-                    result = get(variable, tmpSegments);
-                    
-                    if(result != null) {
-                        break;
+                    if(find(variable, tmpSegments, trail)) {
+                        return true;
                     }
+                    
+                    // backtrack
+                    trail.subList(depth, trail.size()).clear();
                 }            
             }
             
-            return result;
+            return false;
         }
     }
 
@@ -282,25 +317,33 @@ public class PathTree {
      * @param httpMethod
      *          The http method part of the tuple to remove from the tree          
      */    
-    public void remove(String path, String httpMethod) {
-        Lock writeLock = readWriteLock.writeLock(); 
-        writeLock.lock();
+    public synchronized void remove(String path, String httpMethod) {
+        List<Node> trail = find(root, path);
         
-        try {
-            Map<String,String> httpMethodToState = get(path);
-            
-            if(httpMethodToState == null) {
-                throw new IllegalArgumentException("Path not found (" + path + ")");
+        if(trail == null) {
+            throw new IllegalArgumentException("Path not found (" + path + ")");
+        }
+        
+        Node node = trail.get(trail.size() - 1);
+        if(!node.value.containsKey(httpMethod)) {
+            throw new IllegalArgumentException("Method (" + httpMethod + ") not found for path (" + path + ")");
+        }
+        
+        // Remove the http method given from the set of http methods associated with the url
+        Map<String, String> newValue = new HashMap<String, String>(node.value);
+        newValue.remove(httpMethod);
+        Node replacement = node.withValue(newValue);
+        
+        // Copy the ancestors, replacing the child on the trail with its copy
+        for(int i = trail.size() - 2; i >= 0; i--) {
+            Node parent = trail.get(i);
+            Node child = trail.get(i + 1);
+            if(parent.literals.get(child.segment) == child) {
+                replacement = parent.withLiteral(replacement);
             } else {
-                if(httpMethodToState.containsKey(httpMethod)) {
-                    // Remove the http method given from the set of http methods associated with the url
-                    httpMethodToState.remove(httpMethod);
-                } else {
-                    throw new IllegalArgumentException("Method (" + httpMethod + ") not found for path (" + path + ")");
-                }
+                replacement = parent.withVariable(Arrays.asList(parent.variables).indexOf(child), replacement);
             }
-        } finally {
-            writeLock.unlock();
-        }        
+        }
+        root = replacement;
     }    
-}
\ No newline at end of file
+}
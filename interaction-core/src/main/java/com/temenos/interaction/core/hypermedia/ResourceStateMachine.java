@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -45,7 +46,6 @@ import org.odata4j.core.OEntityKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.temenos.interaction.core.MapWithReadWriteLock;
 import com.temenos.interaction.core.MultivaluedMapImpl;
 import com.temenos.interaction.core.cache.Cache;
 import com.temenos.interaction.core.command.CommandController;
@@ -62,12 +62,18 @@ import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.MetaDataResource;
 import com.temenos.interaction.core.resource.RESTResource;
+import com.temenos.interaction.core.resource.StreamedCollection;
+import com.temenos.interaction.core.rim.EntityResourceRequestHandler;
 import com.temenos.interaction.core.rim.HTTPHypermediaRIM;
 import com.temenos.interaction.core.rim.ResourceRequestConfig;
 import com.temenos.interaction.core.rim.ResourceRequestHandler;
 import com.temenos.interaction.core.rim.ResourceRequestResult;
-import com.temenos.interaction.core.rim.SequentialResourceRequestHandler;
 import com.temenos.interaction.core.workflow.AbortOnErrorWorkflowStrategyCommand;
+import com.temenos.interaction.core.workflow.BulkheadWorkflowStrategyCommand;
+import com.temenos.interaction.core.workflow.CircuitBreakerWorkflowStrategyCommand;
+import com.temenos.interaction.core.workflow.ParallelWorkflowStrategyCommand;
+import com.temenos.interaction.core.workflow.RetryWorkflowStrategyCommand;
+import com.temenos.interaction.core.workflow.WorkflowPolicyRegistry;
 
 /**
  * A state machine that is responsible for creating the links (hypermedia) to
@@ -78,6 +84,7 @@ import com.temenos.interaction.core.workflow.AbortOnErrorWorkflowStrategyCommand
  */
 public class ResourceStateMachine {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ResourceStateMachine.class);
+	private static final Pattern RESOURCE_LOCATOR_ARG_PATTERN = Pattern.compile("\\{*([a-zA-Z0-9.]+)\\}*");
 
 	// members
 	ResourceState initial;
@@ -85,17 +92,16 @@ public class ResourceStateMachine {
 	Transformer transformer;
 	CommandController commandController;
 	Cache responseCache;
+	ResourceRequestHandler resourceRequestHandler;
 	ResourceStateProvider resourceStateProvider;
 	ResourceLocatorProvider resourceLocatorProvider;
 	ResourceParameterResolverProvider parameterResolverProvider;
 	
-	// optimised access
-	private Map<String, Transition> transitionsById = new MapWithReadWriteLock<String, Transition>();
-	private Map<String, Transition> transitionsByRel = new MapWithReadWriteLock<String, Transition>();
-	private Map<String, Set<String>> interactionsByPath = new MapWithReadWriteLock<String, Set<String>>();
-	private Map<String, Set<String>> interactionsByState = new MapWithReadWriteLock<String, Set<String>>();
-    private Map<String, Set<String>> resourceStateNamesByPath = new MapWithReadWriteLock<String, Set<String>>();
-	private Map<String, ResourceState> resourceStatesByName = new MapWithReadWriteLock<String, ResourceState>();
+	// optimised access, replaced as a whole by register / unregister
+	private volatile ResourceStateRegistry registry = ResourceStateRegistry.EMPTY;
+
+	// circuit breakers and bulkheads outlive the workflows built per request
+	private final WorkflowPolicyRegistry workflowPolicies = new WorkflowPolicyRegistry();
 
 	public ResourceStateMachine(ResourceState initialState) {
 		this(initialState, null, null, null);
@@ -114,6 +120,13 @@ public class ResourceStateMachine {
 		this(initialState, exceptionState, null, resourceLocatorProvider, null);
 	}
 
+	/*
+	 * The circuit breakers and bulkheads of the workflows built by this state machine.
+	 */
+	WorkflowPolicyRegistry getWorkflowPolicies() {
+		return workflowPolicies;
+	}
+
 	public CommandController getCommandController() {
 		return commandController;
 	}
@@ -130,19 +143,36 @@ public class ResourceStateMachine {
 		responseCache = cache;
 	}
 
+	/**
+	 * The handler used to get embedded resources, or null if
+	 * {@link HTTPHypermediaRIM} should use its default.
+	 */
+	public ResourceRequestHandler getResourceRequestHandler() {
+		return resourceRequestHandler;
+	}
+
+	public void setResourceRequestHandler(ResourceRequestHandler resourceRequestHandler) {
+		this.resourceRequestHandler = resourceRequestHandler;
+	}
+
 	// TODO support Event
 	public InteractionCommand determineAction(Event event, String resourcePath) {
 		List<Action> actions = new ArrayList<Action>();
-		Set<ResourceState> resourceStates = getResourceStatesByPath().get(resourcePath);
+		ResourceStateRegistry current = registry;
+		Set<ResourceState> resourceStates = lookupResourceStates(current, resourcePath);
 		for (ResourceState s : resourceStates) {
-			actions.addAll(determineActions(event, s));
+			actions.addAll(determineActions(current, event, s));
 		}
 		return buildWorkflow(event, actions);
 	}
 
 	public List<Action> determineActions(Event event, ResourceState state) {
+		return determineActions(registry, event, state);
+	}
+
+	private List<Action> determineActions(ResourceStateRegistry current, Event event, ResourceState state) {
 		List<Action> actions = new ArrayList<Action>();
-		Set<String> interactions = getInteractionByState().get(state.getName());
+		Set<String> interactions = current.getInteractionsByState().get(state.getName());
 		// TODO turn interactions into Events
 		if (interactions.contains(event.getMethod())) {
 			for (Action a : state.getActions()) {
@@ -163,21 +193,59 @@ public class ResourceStateMachine {
 	public InteractionCommand buildWorkflow(Event event, List<Action> actions) {
 		if (actions.size() > 0) {
 			AbortOnErrorWorkflowStrategyCommand workflow = new AbortOnErrorWorkflowStrategyCommand();
+			ParallelWorkflowStrategyCommand parallel = null;
 			for (Action action : actions) {
 				assert (action != null && event != null);
-				workflow.addCommand(getCommandController().fetchCommand(action.getName()));
+				InteractionCommand command = applyPolicies(action, getCommandController().fetchCommand(action.getName()));
+				if (command != null && ParallelWorkflowStrategyCommand.isParallel(action.getProperties())) {
+					// consecutive actions marked parallel run together, configured by the first
+					if (parallel == null) {
+						parallel = new ParallelWorkflowStrategyCommand();
+						parallel.configure(action.getProperties());
+						workflow.addCommand(parallel);
+					}
+					parallel.addCommand(command);
+				} else {
+					parallel = null;
+					workflow.addCommand(command);
+				}
 			}
 			return workflow;
 		}
 		return null;
 	}
 
+	/*
+	 * Wrap the command in the circuit breaker, bulkhead and retries configured in the action properties.
+	 * The bulkhead goes outside the circuit breaker so that requests it rejects do not count against
+	 * the circuit breaker, and the retries outermost so that no permit is held while backing off.
+	 */
+	private InteractionCommand applyPolicies(Action action, InteractionCommand command) {
+		Properties properties = action.getProperties();
+		if (command == null || properties == null) {
+			return command;
+		}
+		InteractionCommand result = command;
+		if (CircuitBreakerWorkflowStrategyCommand.isConfigured(properties)) {
+			result = new CircuitBreakerWorkflowStrategyCommand(result, workflowPolicies.getCircuitBreaker(action.getName(), properties));
+		}
+		if (BulkheadWorkflowStrategyCommand.isConfigured(properties)) {
+			result = new BulkheadWorkflowStrategyCommand(result, workflowPolicies.getBulkhead(action.getName(), properties),
+					BulkheadWorkflowStrategyCommand.getMaxWaitMillis(properties));
+		}
+		if (RetryWorkflowStrategyCommand.isConfigured(properties)) {
+			result = RetryWorkflowStrategyCommand.create(result, properties);
+		}
+		return result;
+	}
+
 	public ResourceState determineState(Event event, String resourcePath) {
 		ResourceState state = null;
-		Set<ResourceState> resourceStates = getResourceStatesByPath().get(resourcePath);
+		ResourceStateRegistry current = registry;
+		Set<ResourceState> resourceStates = lookupResourceStates(current, resourcePath);
 		if (resourceStates != null) {
 			for (ResourceState s : resourceStates) {
-				Set<String> interactions = getInteractionByState().get(s.getName());
+				Set<String> interactions = current.getInteractionsByState().get(s.getName());
 				if (interactions.contains(event.getMethod())) {
 					if (state == null || interactions.size() == 1 || !event.getMethod().equals("GET")) { // Avoid
 																											// overriding
@@ -276,20 +344,26 @@ public class ResourceStateMachine {
      *            method
      */
     public synchronized void registerAllStartingFromState(ResourceState state, String method) {
+        ResourceStateRegistry.Builder next = registry.edit();
+        registerAllStartingFromState(next, state, method);
+        registry = next.build();
+    }
+
+    private void registerAllStartingFromState(ResourceStateRegistry.Builder next, ResourceState state, String method) {
 
 		checkAndResolve(state);
         if (state == null) return;
-        populateAccessMaps(state, method);
+        populateAccessMaps(next, state, method);
 
 		// don't register any further if the current state was already processed
-		if(resourceStatesByName.containsKey(state.getName())) return;
+		if(next.resourceStatesByName().containsKey(state.getName())) return;
 
-		resourceStatesByName.put(state.getName(), state);
+		next.resourceStatesByName().put(state.getName(), state);
 
         // Register all target resources from this resource
         for (Transition tmpTransition : state.getTransitions()) {
             if(tmpTransition.getTarget() != null) {
-               	registerAllStartingFromState(tmpTransition.getTarget(), tmpTransition.getCommand().getMethod());
+               	registerAllStartingFromState(next, tmpTransition.getTarget(), tmpTransition.getCommand().getMethod());
             }
         }
     }
@@ -313,21 +387,28 @@ public class ResourceStateMachine {
      *            as multiple states can share the same path
 	 */
 	public synchronized void register(ResourceState state, String method) {
+		ResourceStateRegistry.Builder next = registry.edit();
+		register(next, state, method);
+		// publishes nothing if the state / method pair was already registered
+		registry = next.build();
+	}
+
+	private void register(ResourceStateRegistry.Builder next, ResourceState state, String method) {
 
 		checkAndResolve(state);
         if (state == null) return;
-		populateAccessMaps(state, method);
+		populateAccessMaps(next, state, method);
 
 		// don't register any further if the current state was already processed
-		if(resourceStatesByName.containsKey(state.getName())) return;
+		if(next.resourceStatesByName().containsKey(state.getName())) return;
 
-		resourceStatesByName.put(state.getName(), state);
+		next.resourceStatesByName().put(state.getName(), state);
 
 		// Register any embedded / foreach resources linked to this resource
         for (Transition tmpTransition : state.getTransitions()) {
             if(tmpTransition.getTarget() != null) {
                 if (tmpTransition.isAnyOfTypes(Transition.EMBEDDED, Transition.FOR_EACH, Transition.FOR_EACH_EMBEDDED)) {
-                    register(tmpTransition.getTarget(), tmpTransition.getCommand().getMethod());
+                    register(next, tmpTransition.getTarget(), tmpTransition.getCommand().getMethod());
                 }
             }
         }
@@ -337,49 +418,40 @@ public class ResourceStateMachine {
 	 * Maps should be populated for a state / method pair, even if the state was already
 	 * processed, since we can reach a state by different methods.
 	 */
-	private void populateAccessMaps(ResourceState state, String method) {
-        collectTransitionsByIdForState(state);
-        collectTransitionsByRelForState(state);
-        collectInteractionsByPathForState(state, method);
-        collectInteractionsByStateForState(state, method);
-        collectResourceStatesByPathForState(state);
+	private void populateAccessMaps(ResourceStateRegistry.Builder next, ResourceState state, String method) {
+        collectTransitionsByIdForState(next, state);
+        collectTransitionsByRelForState(next, state);
+        collectInteractionsByPathForState(next, state, method);
+        collectInteractionsByStateForState(next, state, method);
+        collectResourceStatesByPathForState(next, state);
 	}
 
 	/**
 	 * @param state
 	 */
-	private void collectResourceStatesByPathForState(ResourceState state) {
-		Set<String> resourceStateNames = resourceStateNamesByPath.get(state.getResourcePath());
-		if (resourceStateNames == null) {
-		    resourceStateNames = new HashSet<String>();
-		    resourceStateNamesByPath.put(state.getResourcePath(), resourceStateNames);
-		}
-
-		resourceStateNames.add(state.getName());
+	private void collectResourceStatesByPathForState(ResourceStateRegistry.Builder next, ResourceState state) {
+		next.resourceStateNamesByPath().add(state.getResourcePath(), state.getName());
 	}
 
 	/**
 	 * @param state
 	 * @param method
 	 */
-	private void collectInteractionsByStateForState(ResourceState state, String method) {
-		Set<String> stateInteractions = interactionsByState.get(state.getName());
-		if (stateInteractions == null) {
-			stateInteractions = new HashSet<String>();
-			interactionsByState.put(state.getName(), stateInteractions);
-		}
+	private void collectInteractionsByStateForState(ResourceStateRegistry.Builder registryBuilder, ResourceState state, String method) {
+		ResourceStateRegistry.SetDraft interactionsByState = registryBuilder.interactionsByState();
+		interactionsByState.ensure(state.getName());
 
 		if (!state.isPseudoState()) {
 			if (method != null) {
-				stateInteractions.add(method);
+				interactionsByState.add(state.getName(), method);
 			} else {
-				stateInteractions.add(HttpMethod.GET);
+				interactionsByState.add(state.getName(), HttpMethod.GET);
 			}
 		}
 		if (state.getActions() != null) {
 			for (Action action : state.getActions()) {
 				if (action.getMethod() != null) {
-					stateInteractions.add(action.getMethod());
+					interactionsByState.add(state.getName(), action.getMethod());
 				}
 			}
 		}
@@ -389,15 +461,10 @@ public class ResourceStateMachine {
 			for (Transition t : transitions) {
 				TransitionCommandSpec command = t.getCommand();
 
-				Set<String> tmpStateInteractions = interactionsByState.get(next.getName());
-
-				if (tmpStateInteractions == null) {
-					tmpStateInteractions = new HashSet<String>();
-                    interactionsByState.put(next.getName(), tmpStateInteractions);
-				}
+				interactionsByState.ensure(next.getName());
 
 				if (command.getMethod() != null && !command.isAutoTransition())
-                    tmpStateInteractions.add(command.getMethod());
+                    interactionsByState.add(next.getName(), command.getMethod());
 			}
 		}
 	}
@@ -406,24 +473,18 @@ public class ResourceStateMachine {
 	 * @param state
 	 * @param method
 	 */
-	private void collectInteractionsByPathForState(ResourceState state, String method) {
-		Set<String> pathInteractions = interactionsByPath.get(state.getPath());
-		if (pathInteractions == null) {
-			pathInteractions = new HashSet<String>();
-			interactionsByPath.put(state.getPath(), pathInteractions);
-		}
-
+	private void collectInteractionsByPathForState(ResourceStateRegistry.Builder next, ResourceState state, String method) {
 		if (method != null) {
-			pathInteractions.add(method);
+			next.interactionsByPath().add(state.getPath(), method);
 		} else {
-			pathInteractions.add(HttpMethod.GET);
+			next.interactionsByPath().add(state.getPath(), HttpMethod.GET);
 		}
 	}
 
 	/**
 	 * @param state
 	 */
-	private void collectTransitionsByRelForState(ResourceState state) {
+	private void collectTransitionsByRelForState(ResourceStateRegistry.Builder next, ResourceState state) {
 		for (Transition transition : state.getTransitions()) {
 			if (transition == null) {
 				LOGGER.debug("collectTransitionsByRel : null transition detected");
@@ -432,7 +493,7 @@ public class ResourceStateMachine {
 			} else if (transition.getTarget().getRel() == null) {
 				LOGGER.debug("collectTransitionsByRel : null relation detected");
 			} else {
-				transitionsByRel.put(transition.getTarget().getRel(), transition);
+				next.transitionsByRel().put(transition.getTarget().getRel(), transition);
 			}
 		}
 	}
@@ -440,9 +501,9 @@ public class ResourceStateMachine {
 	/**
 	 * @param state
 	 */
-	private void collectTransitionsByIdForState(ResourceState state) {
+	private void collectTransitionsByIdForState(ResourceStateRegistry.Builder next, ResourceState state) {
 		for (Transition transition : state.getTransitions()) {
-			transitionsById.put(transition.getId(), transition);
+			next.transitionsById().put(transition.getId(), transition);
 		}
 	}
 
@@ -466,41 +527,39 @@ public class ResourceStateMachine {
 	     if(state == null) return;
 
 		// don't do anything if the state is not registered
-		if(!resourceStatesByName.containsKey(state.getName())) return;
+		if(!registry.getResourceStatesByName().containsKey(state.getName())) return;
+
+		ResourceStateRegistry.Builder next = registry.edit();
 
         for (Transition transition : state.getTransitions()) {
 
 			// remove transitions originating in state for this method only
             if(transition.getCommand().getMethod() == method)
-                transitionsById.remove(transition.getId());
+                next.transitionsById().remove(transition.getId());
 
 	        // remove transitions originating in state for this method only
             if (transition.getTarget() != null) {
                 if(transition.getCommand().getMethod() == method)
-                    transitionsByRel.remove(transition.getTarget().getRel());
+                    next.transitionsByRel().remove(transition.getTarget().getRel());
             }
         }
 
         // Process interactions by path
-        final Set<String> pathInteractions = interactionsByPath.get(state.getPath());
-        if (pathInteractions != null)
-            pathInteractions.remove(method);
+        next.interactionsByPath().remove(state.getPath(), method);
 
 		// Process interactions by state
-        final Set<String> stateInteractions = interactionsByState.get(state.getName());
-        if (stateInteractions != null)
-            stateInteractions.remove(method);
+        next.interactionsByState().remove(state.getName(), method);
+        final Set<String> stateInteractions = next.interactionsByState().get(state.getName());
 
 		// only remove resources by path and by name if there are no methods associated with it
 		if(stateInteractions != null)
 			if(stateInteractions.isEmpty()) {
 		        // Process resource states by path
-		        final Set<String> pathStateNames = resourceStateNamesByPath.get(state.getResourcePath());
-		        if (pathStateNames != null) {
-		            pathStateNames.remove(state.getName());
-		        }
-		        resourceStatesByName.remove(state.getName());
+		        next.resourceStateNamesByPath().remove(state.getResourcePath(), state.getName());
+		        next.resourceStatesByName().remove(state.getName());
             }
+
+        registry = next.build();
 	}
 
 	public void setParameterResolverProvider(ResourceParameterResolverProvider parameterResolverProvider) {
@@ -519,8 +578,17 @@ public class ResourceStateMachine {
 		return transformer;
 	}
 
-    public synchronized Collection<ResourceState> getStates() {
-		return Collections.unmodifiableCollection(resourceStatesByName.values());
+    public Collection<ResourceState> getStates() {
+		return Collections.unmodifiableCollection(registry.getResourceStatesByName().values());
+	}
+
+	/**
+	 * Return the current registry of states, transitions and interactions; a
+	 * consistent snapshot that is not affected by later calls to register or
+	 * unregister.
+	 */
+	public ResourceStateRegistry getRegistry() {
+		return registry;
 	}
 
 	/**
@@ -530,7 +598,7 @@ public class ResourceStateMachine {
 	 * @return
 	 */
 	public Map<String, Set<String>> getInteractionByPath() {
-		return interactionsByPath;
+		return registry.getInteractionsByPath();
 	}
 
 	/**
@@ -540,7 +608,7 @@ public class ResourceStateMachine {
 	 * @return
 	 */
 	public Map<String, Set<String>> getInteractionByState() {
-		return interactionsByState;
+		return registry.getInteractionsByState();
 	}
 
 	/**
@@ -552,8 +620,9 @@ public class ResourceStateMachine {
 	public Set<String> getInteractions(ResourceState state) {
 		Set<String> interactions = null;
 		if (state != null) {
-		    assert (getStates().contains(state));
-			Map<String, Set<String>> interactionMap = getInteractionByPath();
+		    ResourceStateRegistry current = registry;
+		    assert (current.getResourceStatesByName().containsValue(state));
+			Map<String, Set<String>> interactionMap = current.getInteractionsByPath();
 			interactions = interactionMap.get(state.getPath());
 		}
 		return interactions;
@@ -569,7 +638,25 @@ public class ResourceStateMachine {
 		if (path == null) {
 			path = initial.getPath();
 		}
-		return getResourceStatesByPath().get(path);
+		return lookupResourceStates(registry, path);
+	}
+
+	/*
+	 * The states for one path, without building the map of every path
+	 */
+	private Set<ResourceState> lookupResourceStates(ResourceStateRegistry current, String path) {
+		Set<String> resourceStateNames = current.getResourceStateNamesByPath().get(path);
+		if (resourceStateNames == null) {
+			return null;
+		}
+		Set<ResourceState> resourceStates = new HashSet<ResourceState>();
+		for (String resourceStateName : resourceStateNames) {
+			ResourceState state = current.getResourceStatesByName().get(resourceStateName);
+			if (state != null) {
+				resourceStates.add(state);
+			}
+		}
+		return resourceStates;
 	}
 
 	/**
@@ -594,10 +681,14 @@ public class ResourceStateMachine {
 	 */
 	public Set<ResourceState> getResourceStatesForPathRegex(Pattern pattern) {
 		Set<ResourceState> matchingStates = new HashSet<ResourceState>();
-		for (String path : resourceStateNamesByPath.keySet()) {
+		ResourceStateRegistry current = registry;
+		for (String path : current.getResourceStateNamesByPath().keySet()) {
             Matcher m = pattern.matcher(path);
             if (m.matches()) {
-                matchingStates.addAll(getResourceStatesForPath(path));
+                Set<ResourceState> states = lookupResourceStates(current, path);
+                if (states != null) {
+                    matchingStates.addAll(states);
+                }
             }
         }
 		return matchingStates;
@@ -612,10 +703,11 @@ public class ResourceStateMachine {
 	 */
 	public Map<String, Set<ResourceState>> getResourceStatesByPath() {
         Map<String, Set<ResourceState>> stateMap = new HashMap<String, Set<ResourceState>>();
-        for (Entry<String, Set<String>> entry : resourceStateNamesByPath.entrySet()) {
+        ResourceStateRegistry current = registry;
+        for (Entry<String, Set<String>> entry : current.getResourceStateNamesByPath().entrySet()) {
             Set<ResourceState> resourceStateSet = new HashSet<ResourceState>();
             for(String resourceStateName : entry.getValue()) {
-                ResourceState state = resourceStatesByName.get(resourceStateName);
+                ResourceState state = current.getResourceStatesByName().get(resourceStateName);
                 if(state != null) resourceStateSet.add(state);
             }
             stateMap.put(entry.getKey(), resourceStateSet);
@@ -633,7 +725,17 @@ public class ResourceStateMachine {
 	public Map<String, Set<ResourceState>> getResourceStatesByPath(ResourceState begin) {
 		assert (begin != null);
 		
-		collectResourceStatesByPath(resourceStateNamesByPath, begin);
+		Map<String, Set<String>> reachable = new HashMap<String, Set<String>>();
+		collectResourceStatesByPath(reachable, begin);
+		synchronized (this) {
+			ResourceStateRegistry.Builder next = registry.edit();
+			for (Entry<String, Set<String>> entry : reachable.entrySet()) {
+				for (String name : entry.getValue()) {
+					next.resourceStateNamesByPath().add(entry.getKey(), name);
+				}
+			}
+			registry = next.build();
+		}
 		return getResourceStatesByPath();
 	}
 
@@ -699,7 +801,7 @@ public class ResourceStateMachine {
 	 * @return
 	 */
 	public Map<String, ResourceState> getResourceStateByName() {
-		return resourceStatesByName;
+		return registry.getResourceStatesByName();
 	}
 
 	/**
@@ -837,56 +939,27 @@ public class ResourceStateMachine {
 			 */
 			if (cs.isForEach() || cs.isEmbeddedForEach()) {
 				if (collectionResource != null) {
-					for (EntityResource<?> er : collectionResource.getEntities()) {
-						Collection<Link> eLinks = er.getLinks();
-						if (eLinks == null) {
-							eLinks = new ArrayList<Link>();
-						}
-						LinkGenerator linkGenerator = new LinkGeneratorImpl(this, transition, ctx);
-						Collection<Link> generatedLinks = linkGenerator.createLink(resourceProperties, ctx.getQueryParameters(), er.getEntity());
-
-						if (addLink(transition, ctx, er, rimHander)) {
-							eLinks.addAll(generatedLinks);
-						}
-
-						er.setLinks(eLinks);
-
-                        if (cs.isEmbeddedForEach()) {
-                            // Embedded resource
-				            MultivaluedMap<String, String> newPathParameters = new MultivaluedMapImpl<String>();
-				            newPathParameters.putAll(ctx.getPathParameters());
-
-                            EntityMetadata entityMetadata = metadata.getEntityMetadata(collectionResource
-                                    .getEntityName());
-				            List<String> ids = new ArrayList<String>();
-
-				            Object tmpObj = er.getEntity();
-
-                            if (tmpObj instanceof Entity) {
-                                EntityProperty prop = ((Entity) tmpObj).getProperties().getProperty(ids.get(0));
-				                ids.add(prop.getValue().toString());
-                            } else if (tmpObj instanceof OEntity) {
-                                OEntityKey entityKey = ((OEntity) tmpObj).getEntityKey();
-				                ids.add(entityKey.toKeyStringWithoutParentheses().replaceAll("'", ""));
-                            } else {
-                                try {
-    				                String fieldName = entityMetadata.getIdFields().get(0);
-                                    String methodName = "get" + fieldName.substring(0, 1).toUpperCase()
-                                            + fieldName.substring(1);
-                                    Method method = tmpObj.getClass().getMethod(methodName);
-                                    ids.add(method.invoke(tmpObj).toString());
-                                } catch (Exception e) {
-                                    LOGGER.warn("Failed to add record id while trying to embed current collection resource", e);
-                                }
-				            }
-
-                            newPathParameters.put("id", ids);
-
-                            InteractionContext tmpCtx = new InteractionContext(ctx, headers, newPathParameters,
-                                    ctx.getQueryParameters(), transition.getTarget());
-                            embedResources(rimHander, headers, tmpCtx, er);
-						}
+					// links are added to each item as it is read, so that a
+					// streamed collection is not read up front
+					final HTTPHypermediaRIM itemRimHandler = rimHander;
+					final InteractionContext itemCtx = ctx;
+					final Transition itemTransition = transition;
+					final MultivaluedMap<String, String> itemProperties = resourceProperties;
+					final CollectionResource<?> itemCollection = collectionResource;
+					final HttpHeaders itemHeaders = headers;
+					final Metadata itemMetadata = metadata;
+					// embedding makes a request for each item, which must not
+					// happen while the rows of a streamed collection are read
+					final boolean embed = cs.isEmbeddedForEach() && !collectionResource.isStreamed();
+					if (cs.isEmbeddedForEach() && !embed) {
+						LOGGER.warn("Not embedding [{}] into the items of a streamed collection", transition.getTarget().getName());
 					}
+					collectionResource.forEachEntity(new StreamedCollection.ReadListener<EntityResource<?>>() {
+						@Override
+						public void read(EntityResource<?> er) {
+							injectItemLinks(itemRimHandler, itemCtx, itemTransition, itemProperties, itemCollection, er, itemHeaders, itemMetadata, embed);
+						}
+					});
 				}
 			} else {
 				EntityResource<?> entityResource = null;
@@ -903,6 +976,62 @@ public class ResourceStateMachine {
 		return links;
 	}
 
+	/*
+	 * Add the links of a for each transition to an item of a collection, and
+	 * if asked to embed its resources.
+	 */
+	private void injectItemLinks(HTTPHypermediaRIM rimHander, InteractionContext ctx, Transition transition,
+			MultivaluedMap<String, String> resourceProperties, CollectionResource<?> collectionResource, EntityResource<?> er,
+			HttpHeaders headers, Metadata metadata, boolean embed) {
+		Collection<Link> eLinks = er.getLinks();
+		if (eLinks == null) {
+			eLinks = new ArrayList<Link>();
+		}
+		LinkGenerator linkGenerator = new LinkGeneratorImpl(this, transition, ctx);
+		Collection<Link> generatedLinks = linkGenerator.createLink(resourceProperties, ctx.getQueryParameters(), er.getEntity());
+
+		if (addLink(transition, ctx, er, rimHander)) {
+			eLinks.addAll(generatedLinks);
+		}
+
+		er.setLinks(eLinks);
+
+		if (embed) {
+			// Embedded resource
+			MultivaluedMap<String, String> newPathParameters = new MultivaluedMapImpl<String>();
+			newPathParameters.putAll(ctx.getPathParameters());
+
+			EntityMetadata entityMetadata = metadata.getEntityMetadata(collectionResource.getEntityName());
+			List<String> ids = new ArrayList<String>();
+
+			Object tmpObj = er.getEntity();
+
+			if (tmpObj instanceof Entity) {
+				EntityProperty prop = ((Entity) tmpObj).getProperties().getProperty(ids.get(0));
+				ids.add(prop.getValue().toString());
+			} else if (tmpObj instanceof OEntity) {
+				OEntityKey entityKey = ((OEntity) tmpObj).getEntityKey();
+				ids.add(entityKey.toKeyStringWithoutParentheses().replaceAll("'", ""));
+			} else {
+				try {
+					String fieldName = entityMetadata.getIdFields().get(0);
+					String methodName = "get" + fieldName.substring(0, 1).toUpperCase()
+							+ fieldName.substring(1);
+					Method method = tmpObj.getClass().getMethod(methodName);
+					ids.add(method.invoke(tmpObj).toString());
+				} catch (Exception e) {
+					LOGGER.warn("Failed to add record id while trying to embed current collection resource", e);
+				}
+			}
+
+			newPathParameters.put("id", ids);
+
+			InteractionContext tmpCtx = new InteractionContext(ctx, headers, newPathParameters,
+					ctx.getQueryParameters(), transition.getTarget());
+			embedResources(rimHander, headers, tmpCtx, er);
+		}
+	}
+
 	/**
 	 * Execute and return all the valid embedded links (target states) from the
 	 * supplied resource. Should be identical to
@@ -947,23 +1076,22 @@ public class ResourceStateMachine {
 
 			ResourceRequestConfig config = configBuilder.build();
 
-			Map<Transition, ResourceRequestResult> results = null;
-
-            if (resource instanceof EntityResource<?>
-                    && resourceRequestHandler instanceof SequentialResourceRequestHandler) {
-                /*
-                 * Handle cases where we may be embedding a resource that has
-                 * filter criteria whose values are contained in the current
-                 * resource's entity properties.
-				 */
-                Object tmpEntity = ((EntityResource) resource).getEntity();
-
-                results = ((SequentialResourceRequestHandler) resourceRequestHandler).getResources(rimHandler, headers,
+            /*
+             * Handle cases where we may be embedding a resource that has
+             * filter criteria whose values are contained in the current
+             * resource's entity properties.
+             */
+            Map<Transition, ResourceRequestResult> results;
+            if (resourceRequestHandler instanceof EntityResourceRequestHandler) {
+                Object tmpEntity = null;
+                if (resource instanceof EntityResource<?>) {
+                    tmpEntity = ((EntityResource<?>) resource).getEntity();
+                }
+                results = ((EntityResourceRequestHandler) resourceRequestHandler).getResources(rimHandler, headers,
                         ctx, null, tmpEntity, config);
-
-			} else {
-				results = resourceRequestHandler.getResources(rimHandler, headers, ctx, null, config);
-			}
+            } else {
+                results = resourceRequestHandler.getResources(rimHandler, headers, ctx, null, config);
+            }
 
 			if (config.getTransitions() != null && !config.getTransitions().isEmpty()
 					&& new HashSet(config.getTransitions()).size() != results.keySet().size()) {
@@ -979,7 +1107,8 @@ public class ResourceStateMachine {
 			}
 			for (Transition transition : results.keySet()) {
 				ResourceRequestResult result = results.get(transition);
-				if (Family.SUCCESSFUL.equals(Status.fromStatusCode(result.getStatus()).getFamily())) {
+				Status status = Status.fromStatusCode(result.getStatus());
+				if (status != null && Family.SUCCESSFUL.equals(status.getFamily())) {
 					resourceResults.put(transition, result.getResource());
 				} else {
 					LOGGER.error("Failed to embed resource for transition [{}]", transition.getId());
@@ -1023,11 +1152,11 @@ public class ResourceStateMachine {
 	}
 
 	public Map<String, Transition> getTransitionsById() {
-		return transitionsById;
+		return registry.getTransitionsById();
 	}
 
 	public Map<String, Transition> getTransitionsByRel() {
-		return transitionsByRel;
+		return registry.getTransitionsByRel();
 	}
 
 	/**
@@ -1131,11 +1260,9 @@ public class ResourceStateMachine {
 	private List<Object> getResourceAliases(Map<String, Object> transitionProperties,
 			DynamicResourceState dynamicResourceState, InteractionContext ctx) {
 		List<Object> aliases = new ArrayList<Object>();
-		
-		final Pattern pattern = Pattern.compile("\\{*([a-zA-Z0-9.]+)\\}*");
 
 		for (String resourceLocatorArg : dynamicResourceState.getResourceLocatorArgs()) {
-            Matcher matcher = pattern.matcher(resourceLocatorArg);
+            Matcher matcher = RESOURCE_LOCATOR_ARG_PATTERN.matcher(resourceLocatorArg);
             matcher.find();
             String key = matcher.group(1);
 
@@ -1261,6 +1388,7 @@ public class ResourceStateMachine {
 		private ResourceLocatorProvider resourceLocatorProvider;
 		private ResourceParameterResolverProvider parameterResolverProvider;
 		private Cache responseCache;
+		private ResourceRequestHandler resourceRequestHandler;
 
 		public Builder initial(ResourceState initial) {
 			this.initial = initial;
@@ -1302,6 +1430,11 @@ public class ResourceStateMachine {
 			return this;
 		}
 
+		public Builder resourceRequestHandler(ResourceRequestHandler resourceRequestHandler) {
+			this.resourceRequestHandler = resourceRequestHandler;
+			return this;
+		}
+
 		public ResourceStateMachine build() {
 			return new ResourceStateMachine(this);
 		}
@@ -1316,6 +1449,7 @@ public class ResourceStateMachine {
 		this.resourceLocatorProvider = builder.resourceLocatorProvider;
 		this.parameterResolverProvider = builder.parameterResolverProvider;
 		this.responseCache = builder.responseCache;
+		this.resourceRequestHandler = builder.resourceRequestHandler;
 		build();
 	}   
     
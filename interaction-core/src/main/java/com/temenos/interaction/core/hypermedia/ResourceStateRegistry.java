@@ -0,0 +1,271 @@
+package com.temenos.interaction.core.hypermedia;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the lookup maps of a {@link ResourceStateMachine}.
+ * <p>
+ * The state machine publishes a new registry each time states are registered or
+ * unregistered, so a request reading the registry once sees every map at the same
+ * version without taking any lock. The next version is prepared with a {@link Builder},
+ * which only copies the maps and sets that actually change.
+ */
+public final class ResourceStateRegistry {
+
+	static final ResourceStateRegistry EMPTY = new ResourceStateRegistry(
+			Collections.<String, Transition>emptyMap(),
+			Collections.<String, Transition>emptyMap(),
+			Collections.<String, Set<String>>emptyMap(),
+			Collections.<String, Set<String>>emptyMap(),
+			Collections.<String, Set<String>>emptyMap(),
+			Collections.<String, ResourceState>emptyMap());
+
+	private final Map<String, Transition> transitionsById;
+	private final Map<String, Transition> transitionsByRel;
+	private final Map<String, Set<String>> interactionsByPath;
+	private final Map<String, Set<String>> interactionsByState;
+	private final Map<String, Set<String>> resourceStateNamesByPath;
+	private final Map<String, ResourceState> resourceStatesByName;
+
+	private ResourceStateRegistry(Map<String, Transition> transitionsById,
+			Map<String, Transition> transitionsByRel,
+			Map<String, Set<String>> interactionsByPath,
+			Map<String, Set<String>> interactionsByState,
+			Map<String, Set<String>> resourceStateNamesByPath,
+			Map<String, ResourceState> resourceStatesByName) {
+		this.transitionsById = transitionsById;
+		this.transitionsByRel = transitionsByRel;
+		this.interactionsByPath = interactionsByPath;
+		this.interactionsByState = interactionsByState;
+		this.resourceStateNamesByPath = resourceStateNamesByPath;
+		this.resourceStatesByName = resourceStatesByName;
+	}
+
+	public Map<String, Transition> getTransitionsById() {
+		return transitionsById;
+	}
+
+	public Map<String, Transition> getTransitionsByRel() {
+		return transitionsByRel;
+	}
+
+	public Map<String, Set<String>> getInteractionsByPath() {
+		return interactionsByPath;
+	}
+
+	public Map<String, Set<String>> getInteractionsByState() {
+		return interactionsByState;
+	}
+
+	public Map<String, Set<String>> getResourceStateNamesByPath() {
+		return resourceStateNamesByPath;
+	}
+
+	public Map<String, ResourceState> getResourceStatesByName() {
+		return resourceStatesByName;
+	}
+
+	Builder edit() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Prepares the next version of a registry. Not thread safe; the state machine
+	 * only uses one while holding its lock.
+	 */
+	static final class Builder {
+		private final ResourceStateRegistry base;
+		private final Draft<Transition> transitionsById;
+		private final Draft<Transition> transitionsByRel;
+		private final SetDraft interactionsByPath;
+		private final SetDraft interactionsByState;
+		private final SetDraft resourceStateNamesByPath;
+		private final Draft<ResourceState> resourceStatesByName;
+
+		private Builder(ResourceStateRegistry base) {
+			this.base = base;
+			this.transitionsById = new Draft<Transition>(base.transitionsById);
+			this.transitionsByRel = new Draft<Transition>(base.transitionsByRel);
+			this.interactionsByPath = new SetDraft(base.interactionsByPath);
+			this.interactionsByState = new SetDraft(base.interactionsByState);
+			this.resourceStateNamesByPath = new SetDraft(base.resourceStateNamesByPath);
+			this.resourceStatesByName = new Draft<ResourceState>(base.resourceStatesByName);
+		}
+
+		Draft<Transition> transitionsById() {
+			return transitionsById;
+		}
+
+		Draft<Transition> transitionsByRel() {
+			return transitionsByRel;
+		}
+
+		SetDraft interactionsByPath() {
+			return interactionsByPath;
+		}
+
+		SetDraft interactionsByState() {
+			return interactionsByState;
+		}
+
+		SetDraft resourceStateNamesByPath() {
+			return resourceStateNamesByPath;
+		}
+
+		Draft<ResourceState> resourceStatesByName() {
+			return resourceStatesByName;
+		}
+
+		/**
+		 * @return the new registry, or the one this builder started from if nothing changed
+		 */
+		ResourceStateRegistry build() {
+			if (!transitionsById.changed() && !transitionsByRel.changed()
+					&& !interactionsByPath.changed() && !interactionsByState.changed()
+					&& !resourceStateNamesByPath.changed() && !resourceStatesByName.changed()) {
+				return base;
+			}
+			return new ResourceStateRegistry(transitionsById.publish(), transitionsByRel.publish(),
+					interactionsByPath.publish(), interactionsByState.publish(),
+					resourceStateNamesByPath.publish(), resourceStatesByName.publish());
+		}
+	}
+
+	/**
+	 * A map that is copied on its first change.
+	 */
+	static class Draft<V> {
+		private final Map<String, V> base;
+		private Map<String, V> copy;
+
+		Draft(Map<String, V> base) {
+			this.base = base;
+		}
+
+		V get(String key) {
+			return current().get(key);
+		}
+
+		boolean containsKey(String key) {
+			return current().containsKey(key);
+		}
+
+		void put(String key, V value) {
+			Map<String, V> current = current();
+			if (current.get(key) != value || !current.containsKey(key)) {
+				writable().put(key, value);
+			}
+		}
+
+		void remove(String key) {
+			if (current().containsKey(key)) {
+				writable().remove(key);
+			}
+		}
+
+		Map<String, V> current() {
+			return copy != null ? copy : base;
+		}
+
+		Map<String, V> writable() {
+			if (copy == null) {
+				copy = new HashMap<String, V>(base);
+			}
+			return copy;
+		}
+
+		boolean changed() {
+			return copy != null;
+		}
+
+		Map<String, V> publish() {
+			return copy != null ? Collections.unmodifiableMap(copy) : base;
+		}
+	}
+
+	/**
+	 * A map of sets where both the map and each set are copied on their first change.
+	 */
+	static class SetDraft extends Draft<Set<String>> {
+		// sets created by this draft, which may be changed in place
+		private final Set<Set<String>> owned = Collections.newSetFromMap(new IdentityHashMap<Set<String>, Boolean>());
+
+		SetDraft(Map<String, Set<String>> base) {
+			super(base);
+		}
+
+		/**
+		 * Make sure there is a set, possibly empty, for the key.
+		 */
+		void ensure(String key) {
+			if (get(key) == null) {
+				own(key);
+			}
+		}
+
+		void add(String key, String value) {
+			Set<String> values = get(key);
+			if (values == null || !values.contains(value)) {
+				own(key).add(value);
+			}
+		}
+
+		void remove(String key, String value) {
+			Set<String> values = get(key);
+			if (values != null && values.contains(value)) {
+				own(key).remove(value);
+			}
+		}
+
+		private Set<String> own(String key) {
+			Set<String> values = get(key);
+			if (values == null || !owned.contains(values)) {
+				values = values == null ? new HashSet<String>() : new HashSet<String>(values);
+				owned.add(values);
+				writable().put(key, values);
+			}
+			return values;
+		}
+
+		@Override
+		Map<String, Set<String>> publish() {
+			if (!changed()) {
+				return super.publish();
+			}
+			Map<String, Set<String>> copy = writable();
+			for (Map.Entry<String, Set<String>> entry : copy.entrySet()) {
+				if (owned.contains(entry.getValue())) {
+					entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+				}
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+	}
+}
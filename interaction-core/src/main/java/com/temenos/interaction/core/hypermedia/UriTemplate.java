@@ -0,0 +1,210 @@
+package com.temenos.interaction.core.hypermedia;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.odata4j.core.OCollection;
+
+/**
+ * A template such as <code>/Customers('{id}')/orders?since={date}</code> parsed
+ * once into alternating literal and parameter segments, so that it can be expanded
+ * without regular expressions.
+ * <p>
+ * Parameters are recognised exactly as {@link HypermediaTemplateHelper#TEMPLATE_PATTERN}
+ * recognises them. Compiled templates are immutable and shared through {@link #compile(String)}.
+ */
+public final class UriTemplate {
+
+	// templates come from the resource state model, so this is only a safety net
+	private static final int CACHE_LIMIT = 10000;
+	private static final ConcurrentMap<String, UriTemplate> compiled = new ConcurrentHashMap<String, UriTemplate>();
+
+	private final String template;
+	// literals[i] precedes parameters[i]; the last literal follows the last parameter
+	private final String[] literals;
+	private final String[] parameters;
+	// false when braces appear outside the parameter tokens, see expand
+	private final boolean regular;
+
+	private UriTemplate(String template) {
+		this.template = template;
+		List<String> literalList = new ArrayList<String>();
+		List<String> parameterList = new ArrayList<String>();
+		int literalStart = 0;
+		int from = 0;
+		while (from < template.length()) {
+			int open = template.indexOf('{', from);
+			if (open < 0) {
+				break;
+			}
+			int close = template.indexOf('}', open + 1);
+			if (close < 0) {
+				break;
+			}
+			if (containsLineTerminator(template, open + 1, close)) {
+				// '.' in the regex does not match line terminators, try the next '{'
+				from = open + 1;
+				continue;
+			}
+			literalList.add(template.substring(literalStart, open));
+			parameterList.add(template.substring(open + 1, close));
+			literalStart = close + 1;
+			from = close + 1;
+		}
+		literalList.add(template.substring(literalStart));
+		this.literals = literalList.toArray(new String[literalList.size()]);
+		this.parameters = parameterList.toArray(new String[parameterList.size()]);
+		boolean braces = false;
+		for (String literal : literals) {
+			braces |= literal.indexOf('{') >= 0 || literal.indexOf('}') >= 0;
+		}
+		for (String parameter : parameters) {
+			braces |= parameter.indexOf('{') >= 0;
+		}
+		this.regular = !braces;
+	}
+
+	private static boolean containsLineTerminator(String s, int begin, int end) {
+		for (int i = begin; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the compiled form of a template.
+	 * @param template not null
+	 */
+	public static UriTemplate compile(String template) {
+		UriTemplate result = compiled.get(template);
+		if (result == null) {
+			result = new UriTemplate(template);
+			if (compiled.size() >= CACHE_LIMIT) {
+				compiled.clear();
+			}
+			compiled.put(template, result);
+		}
+		return result;
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return the parameter names in the order they appear, including repeats
+	 */
+	public String[] getParameterNames() {
+		return parameters.clone();
+	}
+
+	public boolean hasParameters() {
+		return parameters.length > 0;
+	}
+
+	/**
+	 * Replace the parameters for which a property is supplied; others are left in place.
+	 * Properties holding an {@link OCollection} are addressed as described in
+	 * {@link HypermediaTemplateHelper#normalizeProperties(Map)}.
+	 * @return the expanded template, or the template itself if it has no parameters
+	 */
+	public String expand(Map<String, Object> properties) {
+		if (parameters.length == 0) {
+			return template;
+		}
+		StringBuilder sb = new StringBuilder(template.length() + 16 * parameters.length);
+		expand(properties, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * As {@link #expand(Map)}, appending to the supplied builder.
+	 * @throws NullPointerException if a parameter's property is present with a null value
+	 */
+	public void expand(Map<String, Object> properties, StringBuilder sb) {
+		int start = sb.length();
+		if (!regular || !expandSegments(properties, sb)) {
+			sb.setLength(start);
+			sb.append(expandByReplacement(properties));
+		}
+	}
+
+	/*
+	 * Single pass over the segments.  Gives up, returning false, if a value contains
+	 * a brace, since replacing token by token would also substitute inside the value.
+	 */
+	private boolean expandSegments(Map<String, Object> properties, StringBuilder sb) {
+		Map<String, Object> normalized = null;
+		for (int i = 0; i < parameters.length; i++) {
+			sb.append(literals[i]);
+			String param = parameters[i];
+			Object value;
+			boolean present;
+			// only names generated from collections contain '(', otherwise normalizing changes nothing
+			if (param.indexOf('(') < 0) {
+				value = properties.get(param);
+				present = (value != null || properties.containsKey(param)) && !(value instanceof OCollection);
+			} else {
+				if (normalized == null) {
+					normalized = HypermediaTemplateHelper.normalizeProperties(properties);
+				}
+				value = normalized.get(param);
+				present = value != null || normalized.containsKey(param);
+			}
+			if (present) {
+				String text = value.toString();
+				if (text.indexOf('{') >= 0) {
+					return false;
+				}
+				sb.append(text);
+			} else {
+				sb.append('{').append(param).append('}');
+			}
+		}
+		sb.append(literals[parameters.length]);
+		return true;
+	}
+
+	/*
+	 * Replace every occurrence of each token in turn, for templates with
+	 * stray or nested braces where the result depends on that order.
+	 */
+	private String expandByReplacement(Map<String, Object> properties) {
+		Map<String, Object> normalized = HypermediaTemplateHelper.normalizeProperties(properties);
+		String result = template;
+		for (String param : parameters) {
+			if (normalized.containsKey(param)) {
+				result = result.replace("{" + param + "}", normalized.get(param).toString());
+			}
+		}
+		return result;
+	}
+}
@@ -26,10 +26,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response.Status;
 
+import com.temenos.interaction.core.MultivaluedMapImpl;
 import com.temenos.interaction.core.command.CommandHelper;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.hypermedia.HypermediaTemplateHelper;
@@ -55,12 +57,25 @@ public class ResourceGETExpression implements Expression {
 	public final String state;
 	public final Transition transition;
 	public final Set<Transition> transitions = new HashSet<Transition>();
+	public final int cacheMaxAge;
+	private final ResourceGETResultCache sharedResults;
 	
 	public ResourceGETExpression(ResourceState target, Function function) {
+		this(target, function, 0);
+	}
+
+	/**
+	 * @param cacheMaxAge number of seconds the result of a GET may be reused by
+	 * other requests; only for idempotent targets whose status does not depend on
+	 * the caller. Zero to only reuse results within a request.
+	 */
+	public ResourceGETExpression(ResourceState target, Function function, int cacheMaxAge) {
 		this.function = function;
 		this.state = null;
 		this.transition = new Transition.Builder().method("GET").target(target).flags(Transition.EXPRESSION).build();
 		this.transitions.add(transition);
+		this.cacheMaxAge = cacheMaxAge;
+		this.sharedResults = cacheMaxAge > 0 ? new ResourceGETResultCache() : null;
 	}
 
 	// keep old way until 0.5.1
@@ -69,6 +84,8 @@ public class ResourceGETExpression implements Expression {
 		this.function = function;
 		this.state = state;
 		this.transition = null;
+		this.cacheMaxAge = 0;
+		this.sharedResults = null;
 	}
 	
 	public Function getFunction() {
@@ -110,22 +127,40 @@ public class ResourceGETExpression implements Expression {
 		EntityResource<?> entityResourceCopy = CommandHelper.createEntityResource(resolveEntityResource(resource, ctx.getResource()));
 		newCtx.setResource(entityResourceCopy);
 
-    	//Get the target resource
-		ResourceRequestConfig config = new ResourceRequestConfig.Builder()
-				.transition(ourTransition)
-				.injectLinks(false)
-				.embedResources(false)
-				.build();
-		Map<Transition, ResourceRequestResult> results = new SequentialResourceRequestHandler().getResources(rimHandler, null, newCtx, entityResourceCopy, config);
-		assert(results.values() != null && results.values().size() == 1);
-		ResourceRequestResult result = results.values().iterator().next();
+		//Reuse the status of an identical GET made earlier
+		String key = getCacheKey(hypermediaEngine, newCtx, ourTransition, target, entityResourceCopy);
+		ResourceGETResultCache requestResults = ResourceGETResultCache.forRequest(ctx);
+		long now = System.currentTimeMillis();
+		Integer status = requestResults.get(key, now);
+		if (status != null) {
+			ResourceGETResultCache.countSavedByRequestCache();
+		} else if (sharedResults != null && (status = sharedResults.get(key, now)) != null) {
+			ResourceGETResultCache.countSavedBySharedCache();
+			requestResults.put(key, status);
+		} else {
+	    	//Get the target resource
+			ResourceRequestConfig config = new ResourceRequestConfig.Builder()
+					.transition(ourTransition)
+					.injectLinks(false)
+					.embedResources(false)
+					.build();
+			Map<Transition, ResourceRequestResult> results = new SequentialResourceRequestHandler().getResources(rimHandler, null, newCtx, entityResourceCopy, config);
+			assert(results.values() != null && results.values().size() == 1);
+			ResourceRequestResult result = results.values().iterator().next();
+			ResourceGETResultCache.countRequest();
+			status = result.getStatus();
+			requestResults.put(key, status);
+			if (sharedResults != null) {
+				sharedResults.put(key, status, now + 1000L * cacheMaxAge, now);
+			}
+		}
 		
 		//Ignore the resource and its links, just interested in the result status
-		if (Status.OK.getStatusCode() == result.getStatus() 
+		if (Status.OK.getStatusCode() == status 
 				&& getFunction().equals(Function.OK)) {
 			return true;
 		}
-		if (Status.OK.getStatusCode() != result.getStatus() 
+		if (Status.OK.getStatusCode() != status 
 				&& getFunction().equals(Function.NOT_FOUND)) {
 			return true;
 		}
@@ -156,6 +191,36 @@ public class ResourceGETExpression implements Expression {
 		return null;
 	}
 	
+	/*
+	 * Identify the GET by its target state and all the parameters it is made with,
+	 * the path parameters and each transition property of the entity as
+	 * SequentialResourceRequestHandler passes them to the target, plus the query
+	 * parameters.  The target may use any of them, not just those in its path.
+	 */
+	private String getCacheKey(ResourceStateMachine hypermediaEngine, InteractionContext ctx, Transition transition, ResourceState target, EntityResource<?> entityResource) {
+		MultivaluedMap<String, String> targetParameters = new MultivaluedMapImpl<String>();
+		targetParameters.putAll(ctx.getPathParameters());
+		if (entityResource != null) {
+			Map<String, Object> transitionProperties = hypermediaEngine.getTransitionProperties(transition, entityResource.getEntity(), ctx.getPathParameters(), ctx.getQueryParameters());
+			for (String name : transitionProperties.keySet()) {
+				if (transitionProperties.get(name) != null) {
+					targetParameters.add(name, transitionProperties.get(name).toString());
+				}
+			}
+		}
+		StringBuilder key = new StringBuilder(target.getName());
+		for (String name : new TreeSet<String>(targetParameters.keySet())) {
+			key.append('|').append(name).append('=').append(targetParameters.get(name));
+		}
+		if (ctx.getQueryParameters() != null) {
+			key.append('?');
+			for (String name : new TreeSet<String>(ctx.getQueryParameters().keySet())) {
+				key.append(name).append('=').append(ctx.getQueryParameters().get(name)).append('&');
+			}
+		}
+		return key.toString();
+	}
+
 	/*
 	 * Obtain path parameters to use when accessing
 	 * a resource state on an expression.  
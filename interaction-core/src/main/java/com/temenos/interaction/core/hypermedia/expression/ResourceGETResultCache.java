@@ -0,0 +1,148 @@
+package com.temenos.interaction.core.hypermedia.expression;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.temenos.interaction.core.command.AttributeKey;
+import com.temenos.interaction.core.command.InteractionContext;
+
+/**
+ * Remembers the status returned by the GET issued when evaluating a
+ * {@link ResourceGETExpression}, so that evaluating the same expression
+ * against the same target and parameters does not repeat the request.
+ * <p>
+ * One cache is attached to each request through an {@link InteractionContext}
+ * attribute; expressions with a cache max age also keep a cache shared
+ * between requests.
+ */
+public class ResourceGETResultCache {
+
+	/** InteractionContext attribute holding the cache for the current request */
+	public static final AttributeKey<ResourceGETResultCache> REQUEST_CACHE_ATTRIBUTE =
+			new AttributeKey<ResourceGETResultCache>("ResourceGETResultCache", ResourceGETResultCache.class);
+
+	// bound on the shared cache, beyond which expired entries are purged
+	private static final int SHARED_PURGE_SIZE = 10000;
+
+	private static final AtomicLong requests = new AtomicLong();
+	private static final AtomicLong savedByRequestCache = new AtomicLong();
+	private static final AtomicLong savedBySharedCache = new AtomicLong();
+
+	private final ConcurrentMap<String, Entry> results = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Get the cache for the request the supplied context belongs to,
+	 * shared by every context created for the request.
+	 */
+	public static ResourceGETResultCache forRequest(InteractionContext ctx) {
+		ResourceGETResultCache cache = ctx.getAttribute(REQUEST_CACHE_ATTRIBUTE);
+		if (cache != null) {
+			return cache;
+		}
+		ResourceGETResultCache newCache = new ResourceGETResultCache();
+		cache = ctx.putRequestAttributeIfAbsent(REQUEST_CACHE_ATTRIBUTE, newCache);
+		return cache != null ? cache : newCache;
+	}
+
+	/**
+	 * @return the cached status, or null if absent or expired
+	 */
+	Integer get(String key, long now) {
+		Entry entry = results.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expires <= now) {
+			results.remove(key, entry);
+			return null;
+		}
+		return entry.status;
+	}
+
+	void put(String key, int status) {
+		results.put(key, new Entry(status, Long.MAX_VALUE));
+	}
+
+	void put(String key, int status, long expires, long now) {
+		if (results.size() >= SHARED_PURGE_SIZE) {
+			purge(now);
+		}
+		results.put(key, new Entry(status, expires));
+	}
+
+	private void purge(long now) {
+		for (Iterator<Entry> it = results.values().iterator(); it.hasNext();) {
+			if (it.next().expires <= now) {
+				it.remove();
+			}
+		}
+		if (results.size() >= SHARED_PURGE_SIZE) {
+			results.clear();
+		}
+	}
+
+	static void countRequest() {
+		requests.incrementAndGet();
+	}
+
+	static void countSavedByRequestCache() {
+		savedByRequestCache.incrementAndGet();
+	}
+
+	static void countSavedBySharedCache() {
+		savedBySharedCache.incrementAndGet();
+	}
+
+	/**
+	 * @return number of GET requests issued to evaluate expressions
+	 */
+	public static long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of GET requests saved by the per request cache
+	 */
+	public static long getSavedByRequestCacheCount() {
+		return savedByRequestCache.get();
+	}
+
+	/**
+	 * @return number of GET requests saved by caches shared between requests
+	 */
+	public static long getSavedBySharedCacheCount() {
+		return savedBySharedCache.get();
+	}
+
+	private static class Entry {
+		Entry(int s, long e) {
+			status = s; expires = e;
+		}
+		final int status;
+		final long expires;
+	}
+}
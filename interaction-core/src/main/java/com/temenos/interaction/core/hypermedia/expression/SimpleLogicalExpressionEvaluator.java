@@ -62,6 +62,10 @@ public class SimpleLogicalExpressionEvaluator implements Expression {
 	public Set<Transition> getTransitions() {
 		return transitions;
 	}
+
+	public List<Expression> getExpressions() {
+		return expressions;
+	}
 	
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
@@ -0,0 +1,731 @@
+package com.temenos.interaction.core.loader;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.interaction.core.hypermedia.Action;
+import com.temenos.interaction.core.hypermedia.CollectionResourceState;
+import com.temenos.interaction.core.hypermedia.DynamicResourceState;
+import com.temenos.interaction.core.hypermedia.LazyCollectionResourceState;
+import com.temenos.interaction.core.hypermedia.LazyResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.hypermedia.TransitionCommandSpec;
+import com.temenos.interaction.core.hypermedia.UriSpecification;
+import com.temenos.interaction.core.hypermedia.expression.Expression;
+import com.temenos.interaction.core.hypermedia.expression.ResourceGETExpression;
+import com.temenos.interaction.core.hypermedia.expression.SimpleLogicalExpressionEvaluator;
+
+/**
+ * Compiled form of the resource states defined by a Spring PRD file, so that
+ * they can be loaded without creating a Spring application context.
+ * <p>
+ * A snapshot holds the named states of one PRD file together with every state,
+ * transition, action and expression reachable from them. It is tied to the XML
+ * it was compiled from by the length and CRC32 of that XML, and is ignored when
+ * the XML has changed since. The layout is
+ * <pre>
+ * int magic, int version, long source length, int source crc,
+ * int payload length, int payload crc, payload
+ * </pre>
+ * where the payload is a table of strings followed by the states, referring to
+ * strings and to each other by index. Everything is read from a
+ * {@link ByteBuffer} so a snapshot file can be memory mapped.
+ * <p>
+ * Only graphs the Spring PRD generator produces can be compiled: states of the
+ * core types without a parent, transitions without a locator, action
+ * properties holding strings, and expressions built from
+ * {@link SimpleLogicalExpressionEvaluator} and {@link ResourceGETExpression}.
+ * Any other graph is rejected when compiling and the XML is used.
+ */
+public final class ResourceStateSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceStateSnapshot.class);
+
+    public static final String FILE_SUFFIX = ".snapshot";
+
+    static final int MAGIC = 0x49524953;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 28;
+
+    private static final int NULL = -1;
+
+    private static final byte KIND_STATE = 0;
+    private static final byte KIND_COLLECTION = 1;
+    private static final byte KIND_LAZY = 2;
+    private static final byte KIND_LAZY_COLLECTION = 3;
+    private static final byte KIND_DYNAMIC = 4;
+
+    private static final byte EXPRESSION_NONE = 0;
+    private static final byte EXPRESSION_RESOURCE_GET = 1;
+    private static final byte EXPRESSION_ALL_OF = 2;
+
+    private ResourceStateSnapshot() {
+    }
+
+    /**
+     * @param prdName file name of the PRD, e.g. IRIS-Customer-PRD.xml
+     * @return the file name of its snapshot, e.g. IRIS-Customer-PRD.snapshot
+     */
+    public static String getSnapshotName(String prdName) {
+        int dot = prdName.lastIndexOf('.');
+        return (dot > 0 ? prdName.substring(0, dot) : prdName) + FILE_SUFFIX;
+    }
+
+    /**
+     * Compile the states loaded from a PRD file.
+     * @param states the named states of the file, as returned by getBeansOfType
+     * @param source content of the PRD file the states were loaded from
+     * @throws IllegalArgumentException if the states cannot be represented in a snapshot
+     */
+    public static byte[] compile(Map<String, ResourceState> states, byte[] source) {
+        byte[] payload = new Writer().write(states);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + payload.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length);
+            out.writeInt(crc(source));
+            out.writeInt(payload.length);
+            out.writeInt(crc(payload));
+            out.write(payload);
+        } catch (IOException e) {
+            // writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Load the states held in a snapshot.
+     * @param snapshot positioned at the start of the snapshot
+     * @param source current content of the PRD file the snapshot was compiled from
+     * @return the named states, or null if the PRD file has changed since the snapshot was compiled
+     * @throws IOException if the snapshot is corrupt or of another version
+     */
+    public static Map<String, ResourceState> read(ByteBuffer snapshot, byte[] source) throws IOException {
+        try {
+            if (snapshot.getInt() != MAGIC) {
+                throw new IOException("Not a resource state snapshot");
+            }
+            int version = snapshot.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported resource state snapshot version " + version);
+            }
+            long sourceLength = snapshot.getLong();
+            int sourceCrc = snapshot.getInt();
+            if (sourceLength != source.length || sourceCrc != crc(source)) {
+                return null;
+            }
+            int payloadLength = snapshot.getInt();
+            int payloadCrc = snapshot.getInt();
+            if (payloadLength < 0 || payloadLength != snapshot.remaining()) {
+                throw new IOException("Truncated resource state snapshot");
+            }
+            ByteBuffer payload = snapshot.slice();
+            if (crc(payload.duplicate()) != payloadCrc) {
+                throw new IOException("Resource state snapshot checksum mismatch");
+            }
+            return new Reader(payload).read();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated resource state snapshot", e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt resource state snapshot", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt resource state snapshot", e);
+        }
+    }
+
+    /**
+     * Load the states from a snapshot file, memory mapping it.
+     * @return the named states, or null if there is no usable snapshot for the PRD file
+     */
+    public static Map<String, ResourceState> read(File snapshot, File source) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try {
+            Map<String, ResourceState> states;
+            try (RandomAccessFile file = new RandomAccessFile(snapshot, "r"); FileChannel channel = file.getChannel()) {
+                states = read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), readFully(new FileInputStream(source)));
+            }
+            if (states == null) {
+                LOGGER.info("Ignoring stale resource state snapshot " + snapshot.getAbsolutePath());
+            }
+            return states;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read resource state snapshot " + snapshot.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the states from the snapshot of a PRD file on the classpath.
+     * @return the named states, or null if there is no usable snapshot for the PRD file
+     */
+    public static Map<String, ResourceState> readFromClasspath(String prdName) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = ResourceStateSnapshot.class.getClassLoader();
+        }
+        String snapshotName = getSnapshotName(prdName);
+        InputStream snapshot = classLoader.getResourceAsStream(snapshotName);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = readFully(snapshot);
+            InputStream source = classLoader.getResourceAsStream(prdName);
+            if (source == null) {
+                return null;
+            }
+            Map<String, ResourceState> states = read(ByteBuffer.wrap(bytes), readFully(source));
+            if (states == null) {
+                LOGGER.info("Ignoring stale resource state snapshot classpath:" + snapshotName);
+            }
+            return states;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read resource state snapshot classpath:" + snapshotName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Compile the states loaded from a PRD file into a snapshot file. The
+     * snapshot is written to a temporary file first so that readers never see
+     * a partial snapshot.
+     * @return true if the snapshot was written
+     */
+    public static boolean write(Map<String, ResourceState> states, File source, File snapshot) {
+        File tmp = null;
+        try {
+            byte[] bytes = compile(states, readFully(new FileInputStream(source)));
+            tmp = File.createTempFile(snapshot.getName(), ".tmp", snapshot.getAbsoluteFile().getParentFile());
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                out.write(bytes);
+            }
+            try {
+                Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+            LOGGER.debug("Wrote resource state snapshot " + snapshot.getAbsolutePath());
+            return true;
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("Resource states of " + source.getName() + " cannot be compiled to a snapshot: " + e.getMessage());
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write resource state snapshot " + snapshot.getAbsolutePath(), e);
+            return false;
+        } finally {
+            if (tmp != null && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    // in chunks, a mapped buffer has no backing array
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Numbers every reachable state, then writes the constructor arguments of
+     * all states before their transitions and error states, so that a reader
+     * can create every state before linking them.
+     */
+    private static class Writer {
+        private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<ResourceState, Integer> stateIndex = new IdentityHashMap<ResourceState, Integer>();
+        private final List<ResourceState> states = new ArrayList<ResourceState>();
+
+        byte[] write(Map<String, ResourceState> named) {
+            for (ResourceState state : named.values()) {
+                add(state);
+            }
+            for (int i = 0; i < states.size(); i++) {
+                ResourceState state = states.get(i);
+                add(state.getErrorState());
+                for (Transition transition : state.getTransitions()) {
+                    add(transition.getTarget());
+                    addExpressionTargets(transition.getCommand().getEvaluation());
+                }
+            }
+
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(body);
+                out.writeInt(states.size());
+                for (ResourceState state : states) {
+                    writeState(out, state);
+                }
+                for (ResourceState state : states) {
+                    writeLinks(out, state);
+                }
+                out.writeInt(named.size());
+                for (Map.Entry<String, ResourceState> entry : named.entrySet()) {
+                    out.writeInt(string(entry.getKey()));
+                    out.writeInt(stateIndex.get(entry.getValue()));
+                }
+                out.flush();
+
+                ByteArrayOutputStream payload = new ByteArrayOutputStream(body.size() + 16 * strings.size());
+                DataOutputStream header = new DataOutputStream(payload);
+                header.writeInt(strings.size());
+                for (String s : strings) {
+                    byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                    header.writeInt(utf8.length);
+                    header.write(utf8);
+                }
+                header.flush();
+                body.writeTo(payload);
+                return payload.toByteArray();
+            } catch (IOException e) {
+                // writing to memory
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void add(ResourceState state) {
+            if (state != null && !stateIndex.containsKey(state)) {
+                kind(state);
+                stateIndex.put(state, states.size());
+                states.add(state);
+            }
+        }
+
+        private void addExpressionTargets(Expression expression) {
+            if (expression instanceof SimpleLogicalExpressionEvaluator) {
+                for (Expression e : ((SimpleLogicalExpressionEvaluator) expression).getExpressions()) {
+                    addExpressionTargets(e);
+                }
+            } else if (expression instanceof ResourceGETExpression && ((ResourceGETExpression) expression).transition != null) {
+                add(((ResourceGETExpression) expression).transition.getTarget());
+            }
+        }
+
+        private byte kind(ResourceState state) {
+            Class<?> type = state.getClass();
+            if (type == ResourceState.class) {
+                return KIND_STATE;
+            } else if (type == CollectionResourceState.class) {
+                return KIND_COLLECTION;
+            } else if (type == LazyResourceState.class) {
+                return KIND_LAZY;
+            } else if (type == LazyCollectionResourceState.class) {
+                return KIND_LAZY_COLLECTION;
+            } else if (type == DynamicResourceState.class) {
+                return KIND_DYNAMIC;
+            }
+            throw new IllegalArgumentException("unsupported resource state type " + type.getName() + " of [" + state.getName() + "]");
+        }
+
+        private void writeState(DataOutputStream out, ResourceState state) throws IOException {
+            byte kind = kind(state);
+            out.writeByte(kind);
+            if (state.getParent() != null) {
+                throw new IllegalArgumentException("resource state [" + state.getName() + "] has a parent");
+            }
+            switch (kind) {
+            case KIND_LAZY:
+            case KIND_LAZY_COLLECTION:
+                out.writeInt(string(state.getName()));
+                break;
+            case KIND_DYNAMIC:
+                DynamicResourceState dynamic = (DynamicResourceState) state;
+                if (!"DYNAMIC".equals(state.getPath()) || state.getActions() == null || !state.getActions().isEmpty()) {
+                    throw new IllegalArgumentException("dynamic resource state [" + state.getName() + "] has a path or actions");
+                }
+                out.writeInt(string(state.getEntityName()));
+                out.writeInt(string(state.getName()));
+                out.writeInt(string(dynamic.getResourceLocatorName()));
+                writeStrings(out, dynamic.getResourceLocatorArgs());
+                break;
+            default:
+                if (state.getPathIdParameter() != null && (kind == KIND_COLLECTION || state.getUriSpecification() != null)) {
+                    throw new IllegalArgumentException("resource state [" + state.getName() + "] has both a path id parameter and a uri specification");
+                }
+                out.writeInt(string(state.getEntityName()));
+                out.writeInt(string(state.getName()));
+                out.writeInt(string(state.getPath()));
+                out.writeInt(string(state.getPathIdParameter()));
+                writeStrings(out, state.getRels());
+                UriSpecification uriSpec = state.getUriSpecification();
+                out.writeBoolean(uriSpec != null);
+                if (uriSpec != null) {
+                    out.writeInt(string(uriSpec.getName()));
+                    out.writeInt(string(uriSpec.getTemplate()));
+                }
+                writeActions(out, state);
+                break;
+            }
+        }
+
+        private void writeActions(DataOutputStream out, ResourceState state) throws IOException {
+            List<Action> actions = state.getActions();
+            if (actions == null) {
+                out.writeInt(NULL);
+                return;
+            }
+            out.writeInt(actions.size());
+            for (Action action : actions) {
+                if (action.getClass() != Action.class) {
+                    throw new IllegalArgumentException("unsupported action type " + action.getClass().getName() + " in [" + state.getName() + "]");
+                }
+                out.writeInt(string(action.getName()));
+                out.writeInt(action.getType() != null ? action.getType().ordinal() : NULL);
+                out.writeInt(string(action.getMethod()));
+                out.writeInt(action.getMaxage());
+                Properties properties = action.getProperties();
+                if (properties == null) {
+                    out.writeInt(NULL);
+                    continue;
+                }
+                out.writeInt(properties.size());
+                for (Map.Entry<Object, Object> property : properties.entrySet()) {
+                    if (!(property.getKey() instanceof String) || !(property.getValue() instanceof String)) {
+                        throw new IllegalArgumentException("action [" + action.getName() + "] of [" + state.getName() + "] has a property that is not a string");
+                    }
+                    out.writeInt(string((String) property.getKey()));
+                    out.writeInt(string((String) property.getValue()));
+                }
+            }
+        }
+
+        private void writeLinks(DataOutputStream out, ResourceState state) throws IOException {
+            out.writeBoolean(state.isInitial());
+            out.writeBoolean(state.isException());
+            out.writeInt(state.getMaxAge());
+            out.writeInt(state.getErrorState() != null ? stateIndex.get(state.getErrorState()) : NULL);
+            List<Transition> transitions = state.getTransitions();
+            out.writeInt(transitions.size());
+            for (Transition transition : transitions) {
+                if (transition.getLocator() != null) {
+                    throw new IllegalArgumentException("transition [" + transition.getId() + "] has a resource locator");
+                }
+                TransitionCommandSpec command = transition.getCommand();
+                out.writeInt(stateIndex.get(transition.getTarget()));
+                out.writeInt(string(command.getMethod()));
+                out.writeInt(command.getFlags());
+                out.writeInt(string(transition.getLabel()));
+                out.writeInt(string(command.getLinkId()));
+                out.writeInt(string(transition.getSourceField()));
+                Map<String, String> uriParameters = command.getUriParameters();
+                if (uriParameters == null) {
+                    out.writeInt(NULL);
+                } else {
+                    out.writeInt(uriParameters.size());
+                    for (Map.Entry<String, String> parameter : uriParameters.entrySet()) {
+                        out.writeInt(string(parameter.getKey()));
+                        out.writeInt(string(parameter.getValue()));
+                    }
+                }
+                writeExpression(out, command.getEvaluation());
+            }
+        }
+
+        private void writeExpression(DataOutputStream out, Expression expression) throws IOException {
+            if (expression == null) {
+                out.writeByte(EXPRESSION_NONE);
+            } else if (expression.getClass() == ResourceGETExpression.class) {
+                ResourceGETExpression get = (ResourceGETExpression) expression;
+                if (get.transition == null) {
+                    throw new IllegalArgumentException("expression " + expression + " has no target state");
+                }
+                out.writeByte(EXPRESSION_RESOURCE_GET);
+                out.writeInt(stateIndex.get(get.transition.getTarget()));
+                out.writeInt(get.getFunction().ordinal());
+                out.writeInt(get.cacheMaxAge);
+            } else if (expression.getClass() == SimpleLogicalExpressionEvaluator.class) {
+                List<Expression> expressions = ((SimpleLogicalExpressionEvaluator) expression).getExpressions();
+                out.writeByte(EXPRESSION_ALL_OF);
+                out.writeInt(expressions.size());
+                for (Expression e : expressions) {
+                    writeExpression(out, e);
+                }
+            } else {
+                throw new IllegalArgumentException("unsupported expression type " + expression.getClass().getName());
+            }
+        }
+
+        private void writeStrings(DataOutputStream out, String[] values) throws IOException {
+            if (values == null) {
+                out.writeInt(NULL);
+                return;
+            }
+            out.writeInt(values.length);
+            for (String value : values) {
+                out.writeInt(string(value));
+            }
+        }
+
+        private int string(String s) {
+            if (s == null) {
+                return NULL;
+            }
+            Integer index = stringIndex.get(s);
+            if (index == null) {
+                index = strings.size();
+                stringIndex.put(s, index);
+                strings.add(s);
+            }
+            return index;
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer in;
+        private String[] strings;
+        private ResourceState[] states;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        Map<String, ResourceState> read() throws IOException {
+            strings = new String[count()];
+            byte[] utf8 = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = count();
+                if (length > utf8.length) {
+                    utf8 = new byte[Math.max(length, 2 * utf8.length)];
+                }
+                in.get(utf8, 0, length);
+                strings[i] = new String(utf8, 0, length, StandardCharsets.UTF_8);
+            }
+            states = new ResourceState[count()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = readState();
+            }
+            for (ResourceState state : states) {
+                readLinks(state);
+            }
+            int named = count();
+            Map<String, ResourceState> result = new LinkedHashMap<String, ResourceState>(named * 2);
+            for (int i = 0; i < named; i++) {
+                result.put(string(), state());
+            }
+            if (in.hasRemaining()) {
+                throw new IOException("Unexpected data at the end of the resource state snapshot");
+            }
+            return result;
+        }
+
+        private ResourceState readState() throws IOException {
+            byte kind = in.get();
+            switch (kind) {
+            case KIND_LAZY:
+                return new LazyResourceState(string());
+            case KIND_LAZY_COLLECTION:
+                return new LazyCollectionResourceState(string());
+            case KIND_DYNAMIC:
+                return new DynamicResourceState(string(), string(), string(), strings());
+            case KIND_STATE:
+            case KIND_COLLECTION:
+                String entityName = string();
+                String name = string();
+                String path = string();
+                String pathIdParameter = string();
+                String[] rels = strings();
+                UriSpecification uriSpec = in.get() != 0 ? new UriSpecification(string(), string()) : null;
+                List<Action> actions = readActions();
+                if (kind == KIND_COLLECTION) {
+                    return new CollectionResourceState(entityName, name, actions, path, rels, uriSpec);
+                } else if (pathIdParameter != null) {
+                    return new ResourceState(entityName, name, actions, path, pathIdParameter, rels);
+                }
+                return new ResourceState(entityName, name, actions, path, rels, uriSpec);
+            default:
+                throw new IOException("Unknown resource state kind " + kind);
+            }
+        }
+
+        private List<Action> readActions() throws IOException {
+            int count = nullableCount();
+            if (count == NULL) {
+                return null;
+            }
+            List<Action> actions = new ArrayList<Action>(count);
+            for (int i = 0; i < count; i++) {
+                String name = string();
+                int type = in.getInt();
+                String method = string();
+                int maxAge = in.getInt();
+                int size = nullableCount();
+                Properties properties = null;
+                if (size != NULL) {
+                    properties = new Properties();
+                    for (int p = 0; p < size; p++) {
+                        properties.setProperty(string(), string());
+                    }
+                }
+                Action action = new Action(name, type != NULL ? Action.TYPE.values()[type] : null, properties, method);
+                action.setMaxage(maxAge);
+                actions.add(action);
+            }
+            return actions;
+        }
+
+        private void readLinks(ResourceState state) throws IOException {
+            state.setInitial(in.get() != 0);
+            state.setException(in.get() != 0);
+            state.setMaxAge(in.getInt());
+            int errorState = in.getInt();
+            if (errorState != NULL) {
+                state.setErrorState(states[errorState]);
+            }
+            int transitions = count();
+            for (int i = 0; i < transitions; i++) {
+                Transition.Builder builder = new Transition.Builder()
+                        .target(state())
+                        .method(string())
+                        .flags(in.getInt())
+                        .label(string())
+                        .linkId(string())
+                        .sourceField(string());
+                int size = nullableCount();
+                if (size != NULL) {
+                    Map<String, String> uriParameters = new LinkedHashMap<String, String>(size * 2);
+                    for (int p = 0; p < size; p++) {
+                        uriParameters.put(string(), string());
+                    }
+                    builder.uriParameters(uriParameters);
+                }
+                builder.evaluation(readExpression());
+                state.addTransition(builder.build());
+            }
+        }
+
+        private Expression readExpression() throws IOException {
+            byte type = in.get();
+            switch (type) {
+            case EXPRESSION_NONE:
+                return null;
+            case EXPRESSION_RESOURCE_GET:
+                ResourceState target = state();
+                ResourceGETExpression.Function function = ResourceGETExpression.Function.values()[in.getInt()];
+                return new ResourceGETExpression(target, function, in.getInt());
+            case EXPRESSION_ALL_OF:
+                int count = count();
+                List<Expression> expressions = new ArrayList<Expression>(count);
+                for (int i = 0; i < count; i++) {
+                    expressions.add(readExpression());
+                }
+                return new SimpleLogicalExpressionEvaluator(expressions);
+            default:
+                throw new IOException("Unknown expression type " + type);
+            }
+        }
+
+        private int count() throws IOException {
+            int count = in.getInt();
+            if (count < 0 || count > in.remaining()) {
+                throw new IOException("Corrupt resource state snapshot");
+            }
+            return count;
+        }
+
+        private int nullableCount() throws IOException {
+            if (in.getInt(in.position()) == NULL) {
+                in.getInt();
+                return NULL;
+            }
+            return count();
+        }
+
+        private String string() {
+            int index = in.getInt();
+            return index == NULL ? null : strings[index];
+        }
+
+        private String[] strings() throws IOException {
+            int count = nullableCount();
+            if (count == NULL) {
+                return null;
+            }
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = string();
+            }
+            return values;
+        }
+
+        private ResourceState state() {
+            return states[in.getInt()];
+        }
+    }
+}
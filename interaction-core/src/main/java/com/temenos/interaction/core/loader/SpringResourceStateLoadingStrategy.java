@@ -36,7 +36,8 @@ import com.temenos.interaction.core.hypermedia.ResourceState;
 /**
  * Loads a list of ResourceState from a prd name, which should be a filename
  * without a path. This is for compatibility with the Spring class
- * ClassPathXmlApplicationContext.
+ * ClassPathXmlApplicationContext. A {@link ResourceStateSnapshot} next to the
+ * prd file on the classpath is used instead of the xml while it is up to date.
  *
  * @author kwieconkowski
  * @author andres
@@ -50,6 +51,13 @@ public class SpringResourceStateLoadingStrategy implements ResourceStateLoadingS
     @Override
     public List<ResourceStateResult> load(String nameOfSpringFile) {
         validateSpringNameOtherwiseThrowException(nameOfSpringFile);
+        Map<String, ResourceState> snapshot = ResourceStateSnapshot.readFromClasspath(nameOfSpringFile);
+
+        if (snapshot != null) {
+            LOGGER.info("Resource states loaded from snapshot of spring configuration xml: " + nameOfSpringFile);
+            return toResults(snapshot);
+        }
+
         ApplicationContext PrdAppCtx = loadSpringContext(nameOfSpringFile);
         
         if (PrdAppCtx == null) {
@@ -57,14 +65,20 @@ public class SpringResourceStateLoadingStrategy implements ResourceStateLoadingS
             return null;
         }
         
+        List<ResourceStateResult> resourceStates = toResults(PrdAppCtx.getBeansOfType(ResourceState.class));
+        
+        LOGGER.info("Resource states loaded from spring configuration xml: " + nameOfSpringFile);
+        
+        return resourceStates;
+    }
+
+    private List<ResourceStateResult> toResults(Map<String, ResourceState> beans) {
         List<ResourceStateResult> resourceStates = new ArrayList<ResourceStateResult>();
         
-        for (Map.Entry<String, ResourceState> springBean : PrdAppCtx.getBeansOfType(ResourceState.class).entrySet()) {
+        for (Map.Entry<String, ResourceState> springBean : beans.entrySet()) {
             resourceStates.add(new ResourceStateResult(springBean.getKey(), springBean.getValue()));
         }
         
-        LOGGER.info("Resource states loaded from spring configuration xml: " + nameOfSpringFile);
-        
         return resourceStates;
     }
 
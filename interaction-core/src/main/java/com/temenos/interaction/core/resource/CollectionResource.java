@@ -23,6 +23,7 @@ package com.temenos.interaction.core.resource;
 
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 
 import javax.ws.rs.core.GenericEntity;
@@ -56,6 +57,8 @@ public class CollectionResource<T> implements RESTResource {
     private String entityTag = null;
 	@XmlTransient
 	private Integer inlineCount;
+	@XmlTransient
+	private String skipToken;
 	
 	public CollectionResource() {}
 
@@ -85,6 +88,59 @@ public class CollectionResource<T> implements RESTResource {
 	public Collection<EntityResource<T>> getEntities() {
 		return entities;
 	}
+
+	/**
+	 * The entities for the final pass over this collection, normally by the
+	 * provider writing it.  Entities of a {@link StreamedCollection} are
+	 * then read without being kept in memory.
+	 */
+	@SuppressWarnings("unchecked")
+	public Iterable<EntityResource<T>> streamEntities() {
+		if (entities instanceof StreamedCollection) {
+			final StreamedCollection<EntityResource<T>> streamed = (StreamedCollection<EntityResource<T>>) entities;
+			return new Iterable<EntityResource<T>>() {
+				@Override
+				public Iterator<EntityResource<T>> iterator() {
+					return streamed.consume();
+				}
+			};
+		}
+		return entities;
+	}
+
+	/**
+	 * Call the listener with each entity of this collection.  Entities of a
+	 * {@link StreamedCollection} are passed to it as they are read, otherwise
+	 * they are all passed to it before this returns.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachEntity(StreamedCollection.ReadListener<? super EntityResource<T>> listener) {
+		if (entities instanceof StreamedCollection) {
+			((StreamedCollection<EntityResource<T>>) entities).addReadListener(listener);
+		} else if (entities != null) {
+			for (EntityResource<T> entity : entities) {
+				listener.read(entity);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the entities are a {@link StreamedCollection}, read
+	 * once as the response is written
+	 */
+	public boolean isStreamed() {
+		return entities instanceof StreamedCollection;
+	}
+
+	/**
+	 * Release whatever the entities are read from, if they are a
+	 * {@link StreamedCollection}.
+	 */
+	public void closeEntities() {
+		if (entities instanceof StreamedCollection) {
+			((StreamedCollection<?>) entities).close();
+		}
+	}
 	
 	@Override
 	public GenericEntity<CollectionResource<T>> getGenericEntity() {
@@ -159,4 +215,24 @@ public class CollectionResource<T> implements RESTResource {
 	public Integer getInlineCount() {
 		return this.inlineCount;
 	}
+
+	/**
+	 * Sets the token a client passes as $skiptoken to get the next page of
+	 * the collection.
+	 * 
+	 * @param skipToken
+	 *            next page token, or null if this is the last page
+	 */
+	public void setSkipToken(String skipToken) {
+		this.skipToken = skipToken;
+	}
+
+	/**
+	 * Returns the token for the next page of the collection.
+	 * 
+	 * @return skip token or null if there are no more pages
+	 */
+	public String getSkipToken() {
+		return this.skipToken;
+	}
 }
@@ -24,11 +24,18 @@ package com.temenos.interaction.core.resource;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.temenos.interaction.core.SingleFlight;
 import com.temenos.interaction.core.entity.Metadata;
 import com.temenos.interaction.core.entity.MetadataParser;
 import com.temenos.interaction.core.entity.vocabulary.TermFactory;
@@ -37,6 +44,12 @@ import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
 
 /**
  * This class provides EDM metadata for the current service.
+ * <p>
+ * Metadata for an entity is loaded from <code>metadata-&lt;Entity&gt;.xml</code>, or from
+ * <code>metadata.xml</code> when there is no such file.  Concurrent requests for the same
+ * file wait for a single parse, <code>metadata.xml</code> is only parsed once, and entity
+ * names that no metadata defines are remembered for a while, see {@link #getMetadataForEntity(String)}.
+ * Both are forgotten when an entity is {@link #unload(String) unloaded}.
  */
 public class ResourceMetadataManager {
 	
@@ -44,9 +57,27 @@ public class ResourceMetadataManager {
 	
 	private static final String METADATA_XML_FILE = "metadata.xml";
 
+	public static final long DEFAULT_UNKNOWN_ENTITY_TTL_MILLIS = 60000;
+	// bound on remembered unknown names, beyond which expired names are purged
+	private static final int UNKNOWN_ENTITY_PURGE_SIZE = 10000;
+
 	private Metadata metadata;
 	private TermFactory termFactory;
 	private ConfigLoader configLoader = new ConfigLoader();
+
+	// parses in progress by file name
+	private final SingleFlight<String, Metadata> loads = new SingleFlight<String, Metadata>();
+	// parsed metadata.xml, shared by every entity without its own file
+	private volatile Metadata defaultMetadata;
+	// moved on by unload, so that a parse started before is not kept
+	private final AtomicLong generation = new AtomicLong();
+	// entity names no metadata defines, with the time they are forgotten
+	private final ConcurrentMap<String, Long> unknownEntities = new ConcurrentHashMap<String, Long>();
+	private long unknownEntityTtlMillis = DEFAULT_UNKNOWN_ENTITY_TTL_MILLIS;
+
+	private final AtomicLong parses = new AtomicLong();
+	private final AtomicLong parseNanos = new AtomicLong();
+	private final AtomicLong unknownEntityHits = new AtomicLong();
 	
 	/**
 	 * Construct the metadata object
@@ -125,6 +156,27 @@ public class ResourceMetadataManager {
 		this.configLoader = configLoader;
 	}
 
+	/**
+	 * @param unknownEntityTtlMillis how long an entity name no metadata defines is
+	 * remembered, zero or less to look for it again every time
+	 */
+	public void setUnknownEntityTtlMillis(long unknownEntityTtlMillis) {
+		this.unknownEntityTtlMillis = unknownEntityTtlMillis;
+	}
+
+	/**
+	 * Forget what is known about an entity, as its metadata has changed: the
+	 * entity is looked for again even if no metadata defined it, and
+	 * <code>metadata.xml</code> is parsed again.
+	 */
+	public void unload(String entityName) {
+		generation.incrementAndGet();
+		if (entityName != null) {
+			unknownEntities.remove(entityName);
+		}
+		defaultMetadata = null;
+	}
+
 	/*
 	 * Parse the XML metadata file with the default Vocabulary Term Factory
 	 */
@@ -174,14 +226,118 @@ public class ResourceMetadataManager {
 			LOGGER.error("TermFactory Missing");
 			throw new RuntimeException("TermFactory Missing");
 		}
-		return parseMetadataXML(entityName, termFactory);
+		String metadataFilename = getMetadataFilename(entityName);
+		if (METADATA_XML_FILE.equals(metadataFilename)) {
+			Metadata result = defaultMetadata;
+			if (result != null) {
+				return result;
+			}
+		}
+		return load(metadataFilename);
+	}
+
+	/**
+	 * Get the metadata defining an entity.  Names that no metadata defines are
+	 * remembered for the configured time, during which they are not looked for again.
+	 * @return the metadata, or null if no metadata defines the entity
+	 */
+	public Metadata getMetadataForEntity(String entityName) {
+		return getMetadataForEntity(entityName, System.currentTimeMillis());
+	}
+
+	// logic without live time exposed for testing
+	Metadata getMetadataForEntity(String entityName, long now) {
+		if (entityName != null) {
+			Long expires = unknownEntities.get(entityName);
+			if (expires != null) {
+				if (expires > now) {
+					unknownEntityHits.incrementAndGet();
+					return null;
+				}
+				unknownEntities.remove(entityName, expires);
+			}
+		}
+		Metadata result = getMetadata(entityName);
+		if (result != null && result.getEntitiesMetadata().containsKey(entityName)) {
+			return result;
+		}
+		if (entityName != null && unknownEntityTtlMillis > 0) {
+			if (unknownEntities.size() >= UNKNOWN_ENTITY_PURGE_SIZE) {
+				purgeUnknownEntities(now);
+			}
+			unknownEntities.put(entityName, now + unknownEntityTtlMillis);
+			LOGGER.warn("No metadata defines entity [" + entityName + "], not looking again for " + unknownEntityTtlMillis + "ms");
+		}
+		return null;
+	}
+
+	private void purgeUnknownEntities(long now) {
+		for (Iterator<Long> it = unknownEntities.values().iterator(); it.hasNext();) {
+			if (it.next() <= now) {
+				it.remove();
+			}
+		}
+		if (unknownEntities.size() >= UNKNOWN_ENTITY_PURGE_SIZE) {
+			unknownEntities.clear();
+		}
+	}
+
+	/*
+	 * Parse a metadata file, or wait for the parse already in progress
+	 */
+	private Metadata load(final String metadataFilename) {
+		return loads.load(metadataFilename, new Callable<Metadata>() {
+			@Override
+			public Metadata call() {
+				long started = generation.get();
+				Metadata result = parseMetadataFile(metadataFilename, termFactory);
+				if (METADATA_XML_FILE.equals(metadataFilename) && started == generation.get()) {
+					defaultMetadata = result;
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * @return number of metadata files parsed
+	 */
+	public long getParseCount() {
+		return parses.get();
+	}
+
+	/**
+	 * @return total time spent parsing metadata files
+	 */
+	public long getParseTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(parseNanos.get());
+	}
+
+	/**
+	 * @return number of loads that waited for a parse already in progress
+	 */
+	public long getSharedLoadCount() {
+		return loads.getSharedLoadCount();
+	}
+
+	/**
+	 * @return number of lookups answered by the remembered unknown entity names
+	 */
+	public long getUnknownEntityHitCount() {
+		return unknownEntityHits.get();
 	}
 
-	
 	/*
 	 * Parse the XML entity metadata file
 	 */
 	protected Metadata parseMetadataXML(String entityName, TermFactory termFactory) {
+		return parseMetadataFile(getMetadataFilename(entityName), termFactory);
+	}
+
+	/*
+	 * The file defining an entity, metadata.xml if it has none of its own
+	 */
+	private String getMetadataFilename(String entityName) {
 		String metadataFilename;
 		
 		if(entityName == null ) {
@@ -196,12 +352,19 @@ public class ResourceMetadataManager {
             // Try to load default metadata file
             metadataFilename = METADATA_XML_FILE;
         }
-		
+		return metadataFilename;
+	}
+
+	private Metadata parseMetadataFile(String metadataFilename, TermFactory termFactory) {
+		long start = System.nanoTime();
 		try(InputStream is = configLoader.load(metadataFilename)) {			
 			return new MetadataParser(termFactory).parse(is);
 		} catch(Exception e) {
 			LOGGER.error("Failed to parse " + metadataFilename + ": ", e);
 			throw new RuntimeException("Failed to parse " + metadataFilename + ": ", e);
+		} finally {
+			parses.incrementAndGet();
+			parseNanos.addAndGet(System.nanoTime() - start);
 		}
 	}
 }
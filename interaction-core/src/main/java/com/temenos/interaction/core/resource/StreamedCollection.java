@@ -0,0 +1,73 @@
+package com.temenos.interaction.core.resource;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A collection whose elements are read from an open source, such as a
+ * database cursor, as they are iterated rather than held in memory up front.
+ * <p>
+ * Iterating the collection keeps the elements read so that it can be iterated
+ * again, for example once to add links and once more to serialise it.
+ * {@link #consume()} is for the final pass; elements it reads are not kept and
+ * the collection cannot be iterated after it.
+ * <p>
+ * Work to be done on each element, such as adding its links, is registered
+ * with {@link #addReadListener(ReadListener)} and done as each element is
+ * read, so that it does not force the whole collection to be read up front.
+ * <p>
+ * The source is released once all elements have been read.  Whoever stops
+ * short of that, normally because writing the response failed, must call
+ * {@link #close()}.
+ */
+public interface StreamedCollection<E> extends Collection<E>, Closeable {
+
+	/**
+	 * Called with each element of a {@link StreamedCollection} as it is read.
+	 */
+	public interface ReadListener<E> {
+		public void read(E element);
+	}
+
+	/**
+	 * Call the listener with each element read from now on, and straight
+	 * away with the elements already read and kept.  Listeners are called
+	 * in the order they were added.
+	 */
+	public void addReadListener(ReadListener<? super E> listener);
+
+	/**
+	 * Iterate the elements for the last time, without keeping them.
+	 * @throws IllegalStateException if the collection has already been consumed
+	 */
+	public Iterator<E> consume();
+
+	/**
+	 * Release the source.  Elements not yet read are no longer available.
+	 */
+	@Override
+	public void close();
+}
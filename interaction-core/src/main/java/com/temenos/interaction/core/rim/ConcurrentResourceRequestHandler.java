@@ -0,0 +1,181 @@
+package com.temenos.interaction.core.rim;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.interaction.core.command.HttpStatusTypes;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.resource.EntityResource;
+import com.temenos.interaction.core.web.RequestContext;
+
+/**
+ * <p>Get the target of each transition concurrently on an executor.</p>
+ * <p>The whole set of requests must complete within the configured timeout;
+ * any request still running at the deadline is cancelled and reported with a
+ * 504 status. If a request fails with an exception the remaining requests are
+ * cancelled and the exception is rethrown to the caller.</p>
+ * <p>Requests made from a thread already running one of our requests, or
+ * rejected by the executor, are run on the calling thread so nested embedding
+ * cannot exhaust the pool.</p>
+ * <p>Lazy transition targets are resolved on the calling thread before the
+ * requests are submitted, as the transitions are shared by every request.</p>
+ */
+public class ConcurrentResourceRequestHandler extends SequentialResourceRequestHandler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentResourceRequestHandler.class);
+
+	private static final ThreadLocal<Boolean> inWorker = new ThreadLocal<Boolean>();
+
+	private final ExecutorService executor;
+	private final long timeoutMillis;
+
+	/**
+	 * @param threads size of the pool used for requests
+	 * @param timeoutMillis time allowed for all requests of one call, zero or less to wait indefinitely
+	 */
+	public ConcurrentResourceRequestHandler(int threads, long timeoutMillis) {
+		this(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "iris-resource-request-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		}), timeoutMillis);
+	}
+
+	/**
+	 * @param executor used to run the requests
+	 * @param timeoutMillis time allowed for all requests of one call, zero or less to wait indefinitely
+	 */
+	public ConcurrentResourceRequestHandler(ExecutorService executor, long timeoutMillis) {
+		assert(executor != null);
+		this.executor = executor;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	public Map<Transition, ResourceRequestResult> getResources(final HTTPHypermediaRIM rimHandler, final HttpHeaders headers, final InteractionContext ctx, final EntityResource<?> resource, final Object entity, final ResourceRequestConfig config) {
+		assert(config != null);
+		assert(config.getTransitions() != null);
+		if (config.getTransitions().size() < 2 || Boolean.TRUE.equals(inWorker.get())) {
+			return super.getResources(rimHandler, headers, ctx, resource, entity, config);
+		}
+
+		final RequestContext requestContext = RequestContext.getRequestContext();
+		Map<Transition, Future<ResourceRequestResult>> futures = new LinkedHashMap<Transition, Future<ResourceRequestResult>>();
+		Map<Transition, ResourceRequestResult> resources = new HashMap<Transition, ResourceRequestResult>();
+		try {
+			for (final Transition t : config.getTransitions()) {
+				if (futures.containsKey(t) || resources.containsKey(t)) {
+					continue;
+				}
+				resolveTarget(rimHandler, t);
+				try {
+					futures.put(t, executor.submit(new Callable<ResourceRequestResult>() {
+						@Override
+						public ResourceRequestResult call() throws Exception {
+							RequestContext.setRequestContext(requestContext);
+							inWorker.set(Boolean.TRUE);
+							try {
+								return getResource(rimHandler, headers, ctx, resource, entity, config, t);
+							} finally {
+								inWorker.remove();
+								RequestContext.clearRequestContext();
+							}
+						}
+					}));
+				} catch (RejectedExecutionException ree) {
+					LOGGER.debug("Executor rejected request for transition [{}], running it on the calling thread", t.getId());
+					resources.put(t, getResource(rimHandler, headers, ctx, resource, entity, config, t));
+				}
+			}
+
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			for (Map.Entry<Transition, Future<ResourceRequestResult>> entry : futures.entrySet()) {
+				Future<ResourceRequestResult> future = entry.getValue();
+				try {
+					if (timeoutMillis > 0) {
+						resources.put(entry.getKey(), future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+					} else {
+						resources.put(entry.getKey(), future.get());
+					}
+				} catch (TimeoutException te) {
+					future.cancel(true);
+					LOGGER.warn("Request for transition [{}] did not complete within {}ms", entry.getKey().getId(), timeoutMillis);
+					resources.put(entry.getKey(), new ResourceRequestResult(HttpStatusTypes.GATEWAY_TIMEOUT.getStatusCode(), null));
+				}
+			}
+			return resources;
+		} catch (ExecutionException ee) {
+			cancel(futures);
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} catch (InterruptedException ie) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for resources", ie);
+		} catch (RuntimeException e) {
+			cancel(futures);
+			throw e;
+		}
+	}
+
+	private void cancel(Map<Transition, Future<ResourceRequestResult>> futures) {
+		for (Future<ResourceRequestResult> future : futures.values()) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Stop the executor used by this handler.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
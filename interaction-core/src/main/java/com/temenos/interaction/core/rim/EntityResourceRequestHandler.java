@@ -0,0 +1,47 @@
+package com.temenos.interaction.core.rim;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.resource.EntityResource;
+
+/**
+ * A {@link ResourceRequestHandler} able to take the query parameters of each
+ * request from the properties of an entity.
+ */
+public interface EntityResourceRequestHandler extends ResourceRequestHandler {
+
+	/**
+	 * As {@link #getResources(HTTPHypermediaRIM, HttpHeaders, InteractionContext, EntityResource, ResourceRequestConfig)}
+	 * where the query parameters of each request may be taken from the properties of an entity,
+	 * e.g. when embedding a resource with filter criteria from the current resource.
+	 * 
+	 * @param entity the entity supplying transition properties, or null
+	 */
+	public Map<Transition, ResourceRequestResult> getResources(HTTPHypermediaRIM rimHandler, HttpHeaders headers, InteractionContext ctx, EntityResource<?> resource, Object entity, ResourceRequestConfig config);
+}
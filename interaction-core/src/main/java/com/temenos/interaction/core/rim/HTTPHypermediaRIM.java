@@ -79,6 +79,7 @@ import com.temenos.interaction.core.hypermedia.TransitionCommandSpec;
 import com.temenos.interaction.core.hypermedia.expression.Expression;
 import com.temenos.interaction.core.hypermedia.validation.HypermediaValidator;
 import com.temenos.interaction.core.hypermedia.validation.LogicalConfigurationListener;
+import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.RESTResource;
 
@@ -166,7 +167,8 @@ public class HTTPHypermediaRIM implements HTTPResourceInteractionModel {
     public HTTPHypermediaRIM(HTTPHypermediaRIM parent, CommandController commandController,
             ResourceStateMachine hypermediaEngine, Metadata metadata, String currentPath, boolean printGraph) {
         this.parent = parent;
-        this.resourceRequestHandler = new SequentialResourceRequestHandler();
+        this.resourceRequestHandler = hypermediaEngine.getResourceRequestHandler() != null ? hypermediaEngine
+                .getResourceRequestHandler() : new SequentialResourceRequestHandler();
         this.commandController = commandController;
         this.hypermediaEngine = hypermediaEngine;
         this.metadata = metadata;
@@ -498,7 +500,7 @@ public class HTTPHypermediaRIM implements HTTPResourceInteractionModel {
                     String etag = ctx.getResource() != null ? ctx.getResource().getEntityTag() : null;
                     List<Transition> redirectTransitions = getTransitions(ctx, currentState, Transition.REDIRECT);
                     if (result == Result.SUCCESS) {
-                        if (etag != null && etag.equals(ifNoneMatch)) {
+                        if (HeaderHelper.entityTagMatches(ifNoneMatch, etag)) {
                             // Response etag matches IfNoneMatch precondition
                             status = Status.NOT_MODIFIED;
                         } else if (!redirectTransitions.isEmpty()) {
@@ -707,8 +709,13 @@ public class HTTPHypermediaRIM implements HTTPResourceInteractionModel {
             // If this was for a safe event, and there is a maxAge, apply it.
             cacheMaxAge = currentState.getMaxAge();
             if (cacheMaxAge > 0 && cacheable) {
-                cacheKey = ctx.getRequestUri();
-                LOGGER.info("Setting maxAge header {} for {} in state {}", currentState.getMaxAge(), cacheKey, currentState.getName());
+                if (resource instanceof CollectionResource<?> && ((CollectionResource<?>) resource).isStreamed()) {
+                    // the entities can only be written once
+                    LOGGER.debug("Not caching streamed collection in state {}", currentState.getName());
+                } else {
+                    cacheKey = ctx.getRequestUri();
+                }
+                LOGGER.info("Setting maxAge header {} for {} in state {}", currentState.getMaxAge(), ctx.getRequestUri(), currentState.getName());
                 
                 responseBuilder = HeaderHelper.maxAgeHeader(responseBuilder, cacheMaxAge);
             }
@@ -111,6 +111,30 @@ public class HeaderHelper {
     	return rb;
     }
     
+    /**
+     * Compare an entity tag with the tags listed in an If-None-Match header,
+     * using the weak comparison the header calls for.
+     * @param ifNoneMatch header value, a comma separated list of tags, may be null
+     * @param entityTag etag of the response
+     * @return true if the header lists the etag
+     */
+    public static boolean entityTagMatches(String ifNoneMatch, String entityTag) {
+    	if (ifNoneMatch == null || entityTag == null) {
+    		return false;
+    	}
+    	String opaqueTag = stripWeak(entityTag.trim());
+    	for (String tag : ifNoneMatch.split(",")) {
+    		if (stripWeak(tag.trim()).equals(opaqueTag)) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    private static String stripWeak(String entityTag) {
+    	return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    }
+
     public static ResponseBuilder maxAgeHeader(ResponseBuilder rb, int maxAge) {
     	return rb.header(HttpHeaders.CACHE_CONTROL, "max-age=" + maxAge );
     }
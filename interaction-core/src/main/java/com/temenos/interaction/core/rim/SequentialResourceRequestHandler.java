@@ -46,79 +46,94 @@ import com.temenos.interaction.core.resource.RESTResource;
  * <p>Simply iterate through the transitions and get each one in turn.</p>
  * @author aphethean
  */
-public class SequentialResourceRequestHandler implements ResourceRequestHandler {
+public class SequentialResourceRequestHandler implements EntityResourceRequestHandler {
 
 	@Override
 	public Map<Transition, ResourceRequestResult> getResources(HTTPHypermediaRIM rimHandler, HttpHeaders headers, InteractionContext ctx, EntityResource<?> resource, ResourceRequestConfig config) {
 		return getResources(rimHandler, headers, ctx, resource, null, config);
 	}
 
+	@Override
 	public Map<Transition, ResourceRequestResult> getResources(HTTPHypermediaRIM rimHandler, HttpHeaders headers, InteractionContext ctx, EntityResource<?> resource, Object entity, ResourceRequestConfig config) {	
 		assert(config != null);
 		assert(config.getTransitions() != null);
-		ResourceStateMachine hypermediaEngine = rimHandler.getHypermediaEngine();
 		Map<Transition, ResourceRequestResult> resources = new HashMap<Transition, ResourceRequestResult>(); 
 		for (Transition t : config.getTransitions()) {
-			String method = t.getCommand().getMethod();
-			if ((t.getCommand().getFlags() & Transition.AUTO) == Transition.AUTO) {
-				method = t.getCommand().getMethod();
-			}
-	    	Event event = new Event("", method);
-			// determine action
-	    	ResourceState targetState = t.getTarget();
-			if (targetState instanceof LazyResourceState || targetState instanceof LazyCollectionResourceState) {
-				targetState = rimHandler.getHypermediaEngine().getResourceStateProvider().getResourceState(targetState.getName());
-				t.setTarget(targetState);
-			}
-	    	
-	    	InteractionCommand action = hypermediaEngine.buildWorkflow(event, targetState.getActions());
-	    	
-			MultivaluedMap<String, String> newPathParameters = new MultivaluedMapImpl<String>();
-			newPathParameters.putAll(ctx.getPathParameters());
-			
-			if (resource != null) {
-				Map<String,Object> transitionProperties = hypermediaEngine.getTransitionProperties(t, ((EntityResource<?>)resource).getEntity(), ctx.getPathParameters(), ctx.getQueryParameters());
-				
-				for (String key : transitionProperties.keySet()) {
-					if (transitionProperties.get(key) != null) {
-						newPathParameters.add(key, transitionProperties.get(key).toString());
-					}
-				}				
-			}
+			resources.put(t, getResource(rimHandler, headers, ctx, resource, entity, config, t));
+		}
+		return resources;
+	}
+
+	/**
+	 * Get the target of a single transition.
+	 */
+	protected ResourceRequestResult getResource(HTTPHypermediaRIM rimHandler, HttpHeaders headers, InteractionContext ctx, EntityResource<?> resource, Object entity, ResourceRequestConfig config, Transition t) {
+		ResourceStateMachine hypermediaEngine = rimHandler.getHypermediaEngine();
+		String method = t.getCommand().getMethod();
+		if ((t.getCommand().getFlags() & Transition.AUTO) == Transition.AUTO) {
+			method = t.getCommand().getMethod();
+		}
+		Event event = new Event("", method);
+		// determine action
+		ResourceState targetState = resolveTarget(rimHandler, t);
+
+		InteractionCommand action = hypermediaEngine.buildWorkflow(event, targetState.getActions());
+
+		MultivaluedMap<String, String> newPathParameters = new MultivaluedMapImpl<String>();
+		newPathParameters.putAll(ctx.getPathParameters());
 
-			MultivaluedMap<String, String> newQueryParameters = new MultivaluedMapImpl<String>();
-			newQueryParameters.putAll(ctx.getQueryParameters());
-						
-			if (entity != null) {
-				/* Handle cases where we may be embedding a resource that has filter criteria whose values are contained in the current resource's 
-				 * entity properties.				
-				 */				
-				Map<String,Object> transitionProperties = hypermediaEngine.getTransitionProperties(t, entity, ctx.getPathParameters(), ctx.getQueryParameters());
-				
-				for (String key : transitionProperties.keySet()) {
-					if (transitionProperties.get(key) != null) {
-						newQueryParameters.add(key, transitionProperties.get(key).toString());
-					}
+		if (resource != null) {
+			Map<String,Object> transitionProperties = hypermediaEngine.getTransitionProperties(t, ((EntityResource<?>)resource).getEntity(), ctx.getPathParameters(), ctx.getQueryParameters());
+
+			for (String key : transitionProperties.keySet()) {
+				if (transitionProperties.get(key) != null) {
+					newPathParameters.add(key, transitionProperties.get(key).toString());
 				}
 			}
-			
-			
-	    	InteractionContext newCtx = new InteractionContext(ctx, null, newPathParameters, newQueryParameters, targetState);
-	    	newCtx.setResource(null);
-			Response response = rimHandler.handleRequest(headers, 
-					newCtx, 
-					event, 
-					action, 
-					resource, 
-					config,
-					true); 
-			RESTResource targetResource = null;
-			if (response.getEntity() != null) {
-				targetResource = (RESTResource) ((GenericEntity<?>) response.getEntity()).getEntity();
+		}
+
+		MultivaluedMap<String, String> newQueryParameters = new MultivaluedMapImpl<String>();
+		newQueryParameters.putAll(ctx.getQueryParameters());
+
+		if (entity != null) {
+			/* Handle cases where we may be embedding a resource that has filter criteria whose values are contained in the current resource's 
+			 * entity properties.				
+			 */				
+			Map<String,Object> transitionProperties = hypermediaEngine.getTransitionProperties(t, entity, ctx.getPathParameters(), ctx.getQueryParameters());
+
+			for (String key : transitionProperties.keySet()) {
+				if (transitionProperties.get(key) != null) {
+					newQueryParameters.add(key, transitionProperties.get(key).toString());
+				}
 			}
-			resources.put(t, new ResourceRequestResult(response.getStatus(), targetResource));
 		}
-		return resources;
+
+		InteractionContext newCtx = new InteractionContext(ctx, null, newPathParameters, newQueryParameters, targetState);
+		newCtx.setResource(null);
+		Response response = rimHandler.handleRequest(headers, 
+				newCtx, 
+				event, 
+				action, 
+				resource, 
+				config,
+				true); 
+		RESTResource targetResource = null;
+		if (response.getEntity() != null) {
+			targetResource = (RESTResource) ((GenericEntity<?>) response.getEntity()).getEntity();
+		}
+		return new ResourceRequestResult(response.getStatus(), targetResource);
+	}
+
+	/**
+	 * Replace a lazy target of the transition with the state it stands for.
+	 */
+	protected ResourceState resolveTarget(HTTPHypermediaRIM rimHandler, Transition t) {
+		ResourceState targetState = t.getTarget();
+		if (targetState instanceof LazyResourceState || targetState instanceof LazyCollectionResourceState) {
+			targetState = rimHandler.getHypermediaEngine().getResourceStateProvider().getResourceState(targetState.getName());
+			t.setTarget(targetState);
+		}
+		return targetState;
 	}
 
 }
@@ -36,18 +36,26 @@ package com.temenos.interaction.core.web;
  */
 
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * @author Mattias Hellborg Arthursson
  * @author Kalle Stenflo
  */
 public final class RequestContext {
 
+    private static final Logger logger = LoggerFactory.getLogger(RequestContext.class);
+
     public static final String HATEOAS_OPTIONS_HEADER = "x-jax-rs-hateoas-options";
     
     private final static ThreadLocal<RequestContext> currentContext = new ThreadLocal<RequestContext>();
@@ -70,6 +78,7 @@ public final class RequestContext {
     private final String verbosityHeader;
     private final Principal userPrincipal;
     private final Map<String, List<String>> headers = new HashMap<>();
+    private final List<Closeable> closeables = new ArrayList<>();
 
     public RequestContext(String basePath, String requestUri, String verbosityHeader) {
         this.basePath = basePath;
@@ -117,6 +126,34 @@ public final class RequestContext {
     	return this.userPrincipal;
     }
 
+    /**
+     * Close the supplied resource once the request has ended, whether or not
+     * a response was written.  Done by the {@link RequestContextFilter}.
+     *
+     * @param closeable resource held open for the response, e.g. a database cursor
+     */
+    public synchronized void closeAfterRequest(Closeable closeable) {
+        closeables.add(closeable);
+    }
+
+    /**
+     * Close the resources held open for the request, in reverse order.
+     */
+    public void close() {
+        List<Closeable> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(closeables);
+            closeables.clear();
+        }
+        for (int i = toClose.size() - 1; i >= 0; i--) {
+            try {
+                toClose.get(i).close();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to close resource at the end of the request", e);
+            }
+        }
+    }
+
     /**
      * Returns header entries for the specified header name
      * using case sensitive search.
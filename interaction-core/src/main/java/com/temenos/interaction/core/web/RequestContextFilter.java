@@ -93,7 +93,11 @@ public class RequestContextFilter implements Filter {
         try {
             chain.doFilter(request, response);
         } finally {
-            RequestContext.clearRequestContext();
+            try {
+                ctx.close();
+            } finally {
+                RequestContext.clearRequestContext();
+            }
         }
     }
 
@@ -0,0 +1,149 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.interaction.core.command.InteractionCommand;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
+
+/**
+ * <p>This command implements a workflow that limits concurrent executions.</p>
+ * At most the configured number of threads execute the wrapped command at once;
+ * a further request waits up to the configured time for one of them to finish
+ * and otherwise fails with 503 Service Unavailable.  This keeps a slow command
+ * from tying up every request thread.
+ * <p>A resource state can ask for a bulkhead through the properties of its action,
+ * {@value #MAX_CONCURRENT} and optionally {@value #MAX_WAIT}.</p>
+ */
+public class BulkheadWorkflowStrategyCommand implements InteractionCommand {
+	private final static Logger logger = LoggerFactory.getLogger(BulkheadWorkflowStrategyCommand.class);
+
+	public final static String MAX_CONCURRENT = "bulkhead.maxConcurrent";
+	public final static String MAX_WAIT = "bulkhead.maxWaitMillis";
+
+	private final InteractionCommand command;
+	private final Semaphore permits;
+	private final long maxWaitMillis;
+	private final AtomicLong rejections = new AtomicLong();
+
+	/**
+	 * @param command the command to limit
+	 * @param maxConcurrent number of concurrent executions allowed, further requests are rejected
+	 */
+	public BulkheadWorkflowStrategyCommand(InteractionCommand command, int maxConcurrent) {
+		this(command, new Semaphore(maxConcurrent), 0);
+	}
+
+	/**
+	 * @param command the command to limit
+	 * @param permits one permit per concurrent execution, may be shared by several commands
+	 * @param maxWaitMillis time a request waits for a permit before it is rejected
+	 */
+	public BulkheadWorkflowStrategyCommand(InteractionCommand command, Semaphore permits, long maxWaitMillis) {
+		if (command == null)
+			throw new IllegalArgumentException("No command supplied");
+		if (permits == null)
+			throw new IllegalArgumentException("No permits supplied");
+		this.command = command;
+		this.permits = permits;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	@Override
+	public Result execute(InteractionContext ctx) throws InteractionException {
+		if (!acquire()) {
+			rejections.incrementAndGet();
+			logger.info("iris_request rejected, bulkhead full");
+			throw new InteractionException(Status.SERVICE_UNAVAILABLE, "Too many concurrent requests");
+		}
+		try {
+			return command.execute(ctx);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private boolean acquire() throws InteractionException {
+		if (maxWaitMillis <= 0) {
+			return permits.tryAcquire();
+		}
+		try {
+			return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InteractionException(Status.SERVICE_UNAVAILABLE, "Interrupted waiting for bulkhead", e);
+		}
+	}
+
+	public InteractionCommand getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return number of executions that could start now
+	 */
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+
+	/**
+	 * @return number of requests rejected because the bulkhead was full
+	 */
+	public long getRejectionCount() {
+		return rejections.get();
+	}
+
+	/**
+	 * @return true if the properties configure a bulkhead
+	 */
+	public static boolean isConfigured(Properties properties) {
+		return properties != null && properties.containsKey(MAX_CONCURRENT);
+	}
+
+	/**
+	 * @return the number of concurrent executions configured in the properties
+	 */
+	public static int getMaxConcurrent(Properties properties) {
+		int maxConcurrent = (int) CircuitBreakerWorkflowStrategyCommand.getLong(properties, MAX_CONCURRENT, 0);
+		if (maxConcurrent <= 0)
+			throw new IllegalArgumentException("Property [" + MAX_CONCURRENT + "] must be positive");
+		return maxConcurrent;
+	}
+
+	/**
+	 * @return the time to wait for a permit configured in the properties
+	 */
+	public static long getMaxWaitMillis(Properties properties) {
+		return CircuitBreakerWorkflowStrategyCommand.getLong(properties, MAX_WAIT, 0);
+	}
+}
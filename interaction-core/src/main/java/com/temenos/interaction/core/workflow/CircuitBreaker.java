@@ -0,0 +1,51 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+/**
+ * <p>Decides whether calls to a dependency may proceed, from the outcome of
+ * earlier calls.</p>
+ * A call is made only if {@link #tryAcquirePermission()} returns true, and its
+ * outcome must then be reported with exactly one of {@link #onSuccess(long)}
+ * or {@link #onError(long)}.
+ */
+public interface CircuitBreaker {
+
+	/**
+	 * @return false if the call must not be made
+	 */
+	public boolean tryAcquirePermission();
+
+	/**
+	 * The permitted call completed; the dependency answered even if the
+	 * answer was a client error.
+	 * @param durationNanos time taken by the call
+	 */
+	public void onSuccess(long durationNanos);
+
+	/**
+	 * The permitted call failed because of the dependency.
+	 * @param durationNanos time taken by the call
+	 */
+	public void onError(long durationNanos);
+}
@@ -0,0 +1,163 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.Response.Status.Family;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.interaction.core.command.InteractionCommand;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
+
+/**
+ * <p>This command implements a workflow that stops calling a failing command.</p>
+ * The wrapped command is only executed while the {@link CircuitBreaker} permits it,
+ * otherwise the workflow fails straight away with 503 Service Unavailable.  The
+ * duration and outcome of each execution is reported to the circuit breaker; server
+ * errors and runtime exceptions count as failures.
+ * <p>A resource state can ask for a circuit breaker through the properties of its
+ * action, see {@link #createCircuitBreaker(String, Properties)}.</p>
+ */
+public class CircuitBreakerWorkflowStrategyCommand implements InteractionCommand {
+	private final static Logger logger = LoggerFactory.getLogger(CircuitBreakerWorkflowStrategyCommand.class);
+
+	public final static String WINDOW_SIZE = "circuitBreaker.windowSize";
+	public final static String MINIMUM_CALLS = "circuitBreaker.minimumCalls";
+	public final static String FAILURE_RATE_THRESHOLD = "circuitBreaker.failureRateThreshold";
+	public final static String SLOW_CALL_RATE_THRESHOLD = "circuitBreaker.slowCallRateThreshold";
+	public final static String SLOW_CALL_DURATION = "circuitBreaker.slowCallDurationMillis";
+	public final static String OPEN_DURATION = "circuitBreaker.openDurationMillis";
+	public final static String HALF_OPEN_CALLS = "circuitBreaker.halfOpenCalls";
+
+	private final static int DEFAULT_WINDOW_SIZE = 100;
+
+	private final InteractionCommand command;
+	private final CircuitBreaker circuitBreaker;
+	private final AtomicLong shortCircuits = new AtomicLong();
+
+	/**
+	 * @param command the command protected by the circuit breaker
+	 * @param circuitBreaker may be shared by several commands calling the same dependency
+	 */
+	public CircuitBreakerWorkflowStrategyCommand(InteractionCommand command, CircuitBreaker circuitBreaker) {
+		if (command == null)
+			throw new IllegalArgumentException("No command supplied");
+		if (circuitBreaker == null)
+			throw new IllegalArgumentException("No circuit breaker supplied");
+		this.command = command;
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	@Override
+	public Result execute(InteractionContext ctx) throws InteractionException {
+		if (!circuitBreaker.tryAcquirePermission()) {
+			shortCircuits.incrementAndGet();
+			logger.info("iris_request short circuited, circuit breaker open");
+			throw new InteractionException(Status.SERVICE_UNAVAILABLE, "Circuit breaker open");
+		}
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Result result = command.execute(ctx);
+			failed = false;
+			return result;
+		} catch (InteractionException ex) {
+			failed = Family.SERVER_ERROR.equals(ex.getHttpStatus().getFamily());
+			throw ex;
+		} finally {
+			if (failed) {
+				circuitBreaker.onError(System.nanoTime() - start);
+			} else {
+				circuitBreaker.onSuccess(System.nanoTime() - start);
+			}
+		}
+	}
+
+	public InteractionCommand getCommand() {
+		return command;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return number of executions refused by the circuit breaker
+	 */
+	public long getShortCircuitCount() {
+		return shortCircuits.get();
+	}
+
+	/**
+	 * @return true if the properties configure a circuit breaker
+	 */
+	public static boolean isConfigured(Properties properties) {
+		return properties != null
+				&& (properties.containsKey(FAILURE_RATE_THRESHOLD) || properties.containsKey(SLOW_CALL_RATE_THRESHOLD));
+	}
+
+	/**
+	 * Create a {@link RollingWindowCircuitBreaker} from action properties.  Setting
+	 * {@value #FAILURE_RATE_THRESHOLD} or {@value #SLOW_CALL_RATE_THRESHOLD} enables
+	 * the circuit breaker, the other properties default as in
+	 * {@link RollingWindowCircuitBreaker}.
+	 * @param name used in log messages
+	 */
+	public static RollingWindowCircuitBreaker createCircuitBreaker(String name, Properties properties) {
+		RollingWindowCircuitBreaker circuitBreaker = new RollingWindowCircuitBreaker(name,
+				(int) getLong(properties, WINDOW_SIZE, DEFAULT_WINDOW_SIZE));
+		if (properties.containsKey(MINIMUM_CALLS))
+			circuitBreaker.setMinimumCalls((int) getLong(properties, MINIMUM_CALLS, 0));
+		if (properties.containsKey(FAILURE_RATE_THRESHOLD))
+			circuitBreaker.setFailureRateThreshold((int) getLong(properties, FAILURE_RATE_THRESHOLD, 0));
+		if (properties.containsKey(SLOW_CALL_RATE_THRESHOLD))
+			circuitBreaker.setSlowCallRateThreshold((int) getLong(properties, SLOW_CALL_RATE_THRESHOLD, 0));
+		if (properties.containsKey(SLOW_CALL_DURATION))
+			circuitBreaker.setSlowCallDurationMillis(getLong(properties, SLOW_CALL_DURATION, 0));
+		if (properties.containsKey(OPEN_DURATION))
+			circuitBreaker.setOpenDurationMillis(getLong(properties, OPEN_DURATION, 0));
+		if (properties.containsKey(HALF_OPEN_CALLS))
+			circuitBreaker.setHalfOpenCalls((int) getLong(properties, HALF_OPEN_CALLS, 0));
+		return circuitBreaker;
+	}
+
+	/*
+	 * Action properties hold strings, or other objects when built in code
+	 */
+	static long getLong(Properties properties, String key, long defaultValue) {
+		Object value = properties.get(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value [" + value + "] for property [" + key + "]");
+		}
+	}
+}
@@ -0,0 +1,526 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.interaction.core.command.AttributeKey;
+import com.temenos.interaction.core.command.HttpStatusTypes;
+import com.temenos.interaction.core.command.InteractionCommand;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
+import com.temenos.interaction.core.resource.RESTResource;
+import com.temenos.interaction.core.web.RequestContext;
+
+/**
+ * <p>This command implements a workflow that executes independent commands concurrently.</p>
+ * Each command is executed against its own {@link InteractionContext#copy() copy} of the
+ * context, the last on the calling thread and the others on a shared executor.  When all
+ * have completed, or the timeout has passed, the changes each made to the resource, the
+ * attributes, the query parameters and the response headers are applied to the context in
+ * the order the commands were added:
+ * <ul>
+ * <li>only the commands that returned a result contribute, not those that threw an
+ * exception or were cancelled at the timeout</li>
+ * <li>a change is a new value (by identity for attributes) or a removed attribute, query
+ * parameter or header, compared
+ * with the context before the workflow started; changes made to the values themselves are not
+ * isolated and must be safe to make concurrently</li>
+ * <li>when commands change the same thing differently the later command wins and a
+ * warning is logged, or with {@link #setFailOnConflict(boolean)} the workflow fails with
+ * 500 Internal Server Error</li>
+ * </ul>
+ * <p>The outcome is combined in the same order, independently of which command finished
+ * first.  With {@link FailureMode#ANY_FAILURE} the workflow fails with the first failure,
+ * as {@link AbortOnErrorWorkflowStrategyCommand} would, except that the other commands still
+ * run.  With {@link FailureMode#ALL_FAILURE} it only fails when every command fails, with
+ * the first failure.  A failure is a result other than SUCCESS or CREATED, an
+ * {@link InteractionException}, or 504 Gateway Timeout for a command still running at
+ * the timeout.  Runtime exceptions cancel the other commands and are rethrown.</p>
+ * <p>Commands executed from a thread already running one of these workflows, or rejected
+ * by the executor, run on the calling thread so nesting cannot exhaust the pool.  A
+ * {@link RetryWorkflowStrategyCommand} is started with
+ * {@link RetryWorkflowStrategyCommand#executeAsync(InteractionContext)} instead, so no
+ * thread of the pool waits while it backs off.</p>
+ */
+public class ParallelWorkflowStrategyCommand implements InteractionCommand {
+	private final static Logger logger = LoggerFactory.getLogger(ParallelWorkflowStrategyCommand.class);
+
+	/** Action property marking commands that may run concurrently with their neighbours */
+	public final static String PARALLEL = "workflow.parallel";
+	/** Action property with the timeout in milliseconds, see {@link #configure(Properties)} */
+	public final static String TIMEOUT = "workflow.timeoutMillis";
+	/** Action property with the {@link FailureMode}, see {@link #configure(Properties)} */
+	public final static String FAILURE_MODE = "workflow.failureMode";
+	/** Action property, true to fail on conflicting changes, see {@link #configure(Properties)} */
+	public final static String FAIL_ON_CONFLICT = "workflow.failOnConflict";
+
+	public enum FailureMode {
+		/** fail if any command fails */
+		ANY_FAILURE,
+		/** fail only if all commands fail */
+		ALL_FAILURE
+	}
+
+	/** System property with the number of threads of the shared executor, twice the processors by default */
+	public final static String THREADS_PROPERTY = "iris.workflow.threads";
+	/** System property with the number of commands the shared executor queues before running them on the calling thread */
+	public final static String QUEUE_SIZE_PROPERTY = "iris.workflow.queueSize";
+	/** Time allowed for all commands unless configured otherwise */
+	public final static long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	private final static int DEFAULT_QUEUE_SIZE = 256;
+
+	private static volatile ExecutorService sharedExecutor;
+	private static final ThreadLocal<Boolean> inWorker = new ThreadLocal<Boolean>();
+
+	private final List<InteractionCommand> commands;
+	private ExecutorService executor;
+	private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	private FailureMode failureMode = FailureMode.ANY_FAILURE;
+	private boolean failOnConflict = false;
+
+	public ParallelWorkflowStrategyCommand() {
+		this.commands = new ArrayList<InteractionCommand>();
+	}
+
+	/**
+	 * Construct with a list of commands to execute.
+	 * @param commands
+	 * @invariant commands not null
+	 */
+	public ParallelWorkflowStrategyCommand(List<InteractionCommand> commands) {
+		if (commands == null)
+			throw new IllegalArgumentException("No commands supplied");
+		this.commands = commands;
+	}
+
+	public void addCommand(InteractionCommand command) {
+		if (command == null)
+			throw new IllegalArgumentException("No command supplied");
+		commands.add(command);
+	}
+
+	/**
+	 * @param executor used instead of the executor shared by all parallel workflows, which
+	 * is sized by the {@value #THREADS_PROPERTY} and {@value #QUEUE_SIZE_PROPERTY} system properties
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param timeoutMillis time allowed for all commands, {@value #DEFAULT_TIMEOUT_MILLIS} by
+	 * default, zero or less to wait indefinitely
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public void setFailureMode(FailureMode failureMode) {
+		if (failureMode == null)
+			throw new IllegalArgumentException("No failure mode supplied");
+		this.failureMode = failureMode;
+	}
+
+	/**
+	 * @param failOnConflict true to fail when commands change the same resource,
+	 * attribute or response header differently, false for the later command to win
+	 */
+	public void setFailOnConflict(boolean failOnConflict) {
+		this.failOnConflict = failOnConflict;
+	}
+
+	/**
+	 * @return true if the properties mark the action to run concurrently with its neighbours
+	 */
+	public static boolean isParallel(Properties properties) {
+		return properties != null && properties.get(PARALLEL) != null
+				&& Boolean.parseBoolean(properties.get(PARALLEL).toString().trim());
+	}
+
+	/**
+	 * Apply the {@value #TIMEOUT}, {@value #FAILURE_MODE} and {@value #FAIL_ON_CONFLICT}
+	 * action properties, where present.
+	 */
+	public void configure(Properties properties) {
+		if (properties == null)
+			return;
+		Object timeout = properties.get(TIMEOUT);
+		if (timeout != null) {
+			try {
+				setTimeoutMillis(Long.parseLong(timeout.toString().trim()));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value [" + timeout + "] for property [" + TIMEOUT + "]");
+			}
+		}
+		Object mode = properties.get(FAILURE_MODE);
+		if (mode != null) {
+			setFailureMode(FailureMode.valueOf(mode.toString().trim()));
+		}
+		Object conflict = properties.get(FAIL_ON_CONFLICT);
+		if (conflict != null) {
+			setFailOnConflict(Boolean.parseBoolean(conflict.toString().trim()));
+		}
+	}
+
+	@Override
+	public Result execute(InteractionContext ctx) throws InteractionException {
+		assert(commands.size() > 0) : "There must be at least one command in the workflow";
+		if (ctx == null)
+			throw new IllegalArgumentException("InteractionContext must be supplied");
+
+		Map<AttributeKey<?>, Object> attributes = ctx.getAttributes();
+		Map<String, String> headers = new HashMap<String, String>(ctx.getResponseHeaders());
+		Map<String, List<String>> queryParameters = snapshot(ctx.getQueryParameters());
+		Map<String, List<String>> outQueryParameters = snapshot(ctx.getOutQueryParameters());
+		RESTResource resource = ctx.getResource();
+
+		List<Branch> branches = new ArrayList<Branch>(commands.size());
+		for (InteractionCommand command : commands) {
+			branches.add(new Branch(command, ctx.copy()));
+		}
+		run(branches);
+
+		Merge merge = new Merge(ctx, attributes, headers, queryParameters, outQueryParameters, resource);
+		for (int i = 0; i < branches.size(); i++) {
+			Branch branch = branches.get(i);
+			if (branch.result != null) {
+				merge.apply(i, branch.ctx);
+			}
+		}
+		return combine(branches);
+	}
+
+	/*
+	 * The values are replaced rather than changed when merging, so a shallow copy will do
+	 */
+	private static Map<String, List<String>> snapshot(Map<String, List<String>> parameters) {
+		return parameters != null ? new HashMap<String, List<String>>(parameters) : null;
+	}
+
+	private void run(List<Branch> branches) throws InteractionException {
+		if (Boolean.TRUE.equals(inWorker.get())) {
+			for (Branch branch : branches) {
+				branch.runInline();
+			}
+			return;
+		}
+		final RequestContext requestContext = RequestContext.getRequestContext();
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(branches.size());
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		try {
+			// the calling thread would only wait, so it runs the last command itself
+			for (final Branch branch : branches.subList(0, branches.size() - 1)) {
+				if (branch.command instanceof RetryWorkflowStrategyCommand) {
+					// retries its command on its own executor, without holding a thread while backing off
+					futures.add(((RetryWorkflowStrategyCommand) branch.command).executeAsync(branch.ctx));
+					continue;
+				}
+				try {
+					futures.add(getExecutor().submit(new Callable<Result>() {
+						@Override
+						public Result call() throws Exception {
+							RequestContext.setRequestContext(requestContext);
+							inWorker.set(Boolean.TRUE);
+							try {
+								return branch.command.execute(branch.ctx);
+							} finally {
+								inWorker.remove();
+								RequestContext.clearRequestContext();
+							}
+						}
+					}));
+				} catch (RejectedExecutionException ree) {
+					logger.debug("Executor rejected command, running it on the calling thread");
+					futures.add(null);
+					branch.runInline();
+				}
+			}
+			futures.add(null);
+			branches.get(branches.size() - 1).runInline();
+
+			for (int i = 0; i < branches.size(); i++) {
+				Future<Result> future = futures.get(i);
+				if (future != null) {
+					branches.get(i).await(future, deadline);
+				}
+			}
+		} catch (RuntimeException e) {
+			cancel(futures);
+			throw e;
+		} catch (Error e) {
+			cancel(futures);
+			throw e;
+		}
+	}
+
+	private void cancel(List<Future<Result>> futures) {
+		for (Future<Result> future : futures) {
+			if (future != null) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private Result combine(List<Branch> branches) throws InteractionException {
+		Branch firstFailure = null;
+		Branch firstSuccess = null;
+		Result result = Result.SUCCESS;
+		for (Branch branch : branches) {
+			if (branch.failed()) {
+				if (firstFailure == null)
+					firstFailure = branch;
+			} else {
+				if (firstSuccess == null)
+					firstSuccess = branch;
+				if (result == Result.SUCCESS)
+					result = branch.result;
+			}
+		}
+		if (firstFailure != null && (failureMode == FailureMode.ANY_FAILURE || firstSuccess == null)) {
+			if (firstFailure.exception != null)
+				throw firstFailure.exception;
+			return firstFailure.result;
+		}
+		return result;
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor != null) {
+			return executor;
+		}
+		ExecutorService shared = sharedExecutor;
+		if (shared == null) {
+			synchronized (ParallelWorkflowStrategyCommand.class) {
+				shared = sharedExecutor;
+				if (shared == null) {
+					int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2);
+					int queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+					// a full queue rejects the command, which then runs on the calling thread
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+							new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "iris-workflow-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+					pool.allowCoreThreadTimeOut(true);
+					shared = pool;
+					sharedExecutor = shared;
+				}
+			}
+		}
+		return shared;
+	}
+
+	/*
+	 * One command, the context it runs against and its outcome
+	 */
+	private class Branch {
+		final InteractionCommand command;
+		final InteractionContext ctx;
+		Result result;
+		InteractionException exception;
+
+		Branch(InteractionCommand command, InteractionContext ctx) {
+			this.command = command;
+			this.ctx = ctx;
+		}
+
+		void runInline() {
+			try {
+				result = command.execute(ctx);
+			} catch (InteractionException e) {
+				exception = e;
+			}
+		}
+
+		void await(Future<Result> future, long deadline) {
+			try {
+				if (timeoutMillis > 0) {
+					result = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} else {
+					result = future.get();
+				}
+			} catch (TimeoutException te) {
+				future.cancel(true);
+				logger.warn("Command [{}] did not complete within {}ms", command, timeoutMillis);
+				exception = new InteractionException(HttpStatusTypes.GATEWAY_TIMEOUT, "Command did not complete in time");
+			} catch (ExecutionException ee) {
+				Throwable cause = ee.getCause();
+				if (cause instanceof InteractionException) {
+					exception = (InteractionException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				} else {
+					throw new RuntimeException(cause);
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for commands", ie);
+			}
+		}
+
+		boolean failed() {
+			return exception != null || (result != Result.SUCCESS && result != Result.CREATED);
+		}
+	}
+
+	/*
+	 * Applies the changes of each branch to the context, detecting conflicting changes
+	 */
+	private class Merge {
+		private final InteractionContext ctx;
+		private final Map<AttributeKey<?>, Object> attributes;
+		// attributes of the context as merged so far
+		private final Map<AttributeKey<?>, Object> merged;
+		private final Map<String, String> headers;
+		private final Map<String, List<String>> queryParameters;
+		private final Map<String, List<String>> outQueryParameters;
+		private final RESTResource resource;
+		// command that made each change so far
+		private final Map<AttributeKey<?>, Integer> attributeWriters = new HashMap<AttributeKey<?>, Integer>();
+		private final Map<String, Integer> headerWriters = new HashMap<String, Integer>();
+		private final Map<String, Integer> queryParameterWriters = new HashMap<String, Integer>();
+		private final Map<String, Integer> outQueryParameterWriters = new HashMap<String, Integer>();
+		private int resourceWriter = -1;
+
+		Merge(InteractionContext ctx, Map<AttributeKey<?>, Object> attributes, Map<String, String> headers,
+				Map<String, List<String>> queryParameters, Map<String, List<String>> outQueryParameters, RESTResource resource) {
+			this.ctx = ctx;
+			this.attributes = attributes;
+			this.merged = new HashMap<AttributeKey<?>, Object>(attributes);
+			this.headers = headers;
+			this.queryParameters = queryParameters;
+			this.outQueryParameters = outQueryParameters;
+			this.resource = resource;
+		}
+
+		void apply(int index, InteractionContext branch) throws InteractionException {
+			if (branch.getResource() != resource) {
+				if (resourceWriter >= 0 && ctx.getResource() != branch.getResource()) {
+					conflict("resource", resourceWriter, index);
+				}
+				ctx.setResource(branch.getResource());
+				resourceWriter = index;
+			}
+
+			Map<AttributeKey<?>, Object> branchAttributes = branch.getAttributes();
+			Set<AttributeKey<?>> keys = new HashSet<AttributeKey<?>>(attributes.keySet());
+			keys.addAll(branchAttributes.keySet());
+			for (AttributeKey<?> key : keys) {
+				Object value = branchAttributes.get(key);
+				if (value == attributes.get(key)) {
+					continue;
+				}
+				Integer writer = attributeWriters.get(key);
+				if (writer != null && value != merged.get(key)) {
+					conflict("attribute [" + key + "]", writer, index);
+				}
+				setAttribute(key, value);
+				merged.put(key, value);
+				attributeWriters.put(key, index);
+			}
+
+			merge("response header", headers, branch.getResponseHeaders(), ctx.getResponseHeaders(), headerWriters, index);
+			if (queryParameters != null) {
+				merge("query parameter", queryParameters, branch.getQueryParameters(), ctx.getQueryParameters(), queryParameterWriters, index);
+			}
+			if (outQueryParameters != null) {
+				merge("out query parameter", outQueryParameters, branch.getOutQueryParameters(), ctx.getOutQueryParameters(), outQueryParameterWriters, index);
+			}
+		}
+
+		/*
+		 * Apply the entries the branch added, changed or removed compared with the context before
+		 */
+		private <V> void merge(String what, Map<String, V> before, Map<String, V> branch, Map<String, V> target,
+				Map<String, Integer> writers, int index) throws InteractionException {
+			Set<String> names = new HashSet<String>(before.keySet());
+			names.addAll(branch.keySet());
+			for (String name : names) {
+				V value = branch.get(name);
+				if (equal(value, before.get(name)) && branch.containsKey(name) == before.containsKey(name)) {
+					continue;
+				}
+				Integer writer = writers.get(name);
+				if (writer != null && (!equal(target.get(name), value)
+						|| branch.containsKey(name) != target.containsKey(name))) {
+					conflict(what + " [" + name + "]", writer, index);
+				}
+				if (branch.containsKey(name)) {
+					target.put(name, value);
+				} else {
+					target.remove(name);
+				}
+				writers.put(name, index);
+			}
+		}
+
+		private void conflict(String what, int first, int second) throws InteractionException {
+			String message = "Commands " + first + " and " + second + " changed the " + what + " differently";
+			if (failOnConflict) {
+				throw new InteractionException(Status.INTERNAL_SERVER_ERROR, message);
+			}
+			logger.warn(message + ", using the change from command " + second);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void setAttribute(AttributeKey<?> key, Object value) {
+			ctx.setAttribute((AttributeKey<Object>) key, value);
+		}
+
+		private boolean equal(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
@@ -4,7 +4,7 @@ package com.temenos.interaction.core.workflow;
  * #%L
  * interaction-core
  * %%
- * Copyright (C) 2012 - 2013 Temenos Holdings N.V.
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
  * %%
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -22,6 +22,26 @@ package com.temenos.interaction.core.workflow;
  */
 
 
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.Response.Status.Family;
 
 import org.slf4j.Logger;
@@ -30,18 +50,55 @@ import org.slf4j.LoggerFactory;
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionContext;
 import com.temenos.interaction.core.command.InteractionException;
+import com.temenos.interaction.core.web.RequestContext;
 
 /**
  * <p>This command implements a workflow that will retry if there is an error.</p>
  * Commands are added to this workflow and then retried according to the retry count
  * and the incremental backoff (configured in milliseconds).
+ * <p>{@link #execute(InteractionContext)} makes every attempt on the calling thread and
+ * waits out the backoff there, so it holds the request thread until it is done; an
+ * interrupt ends the wait and no further attempt is made.  Only
+ * {@link #executeAsync(InteractionContext)} frees the request thread: a scheduler waits
+ * out the backoff and each attempt runs on a bounded executor.  The {@link RequestContext}
+ * of the calling thread is the only thread bound state carried over to the executor.</p>
+ * <p>Optionally the backoff is randomised (jitter), retries are limited to a
+ * share of the calls made through this command (retry budget), and attempts
+ * are only made while a {@link CircuitBreaker} permits them.</p>
+ * <p>A resource state can ask for retries through the properties of its action,
+ * {@value #MAX_RETRY_COUNT}, {@value #RETRY_INTERVAL} and optionally {@value #JITTER}.</p>
  * @author aphethean
  */
 public class RetryWorkflowStrategyCommand implements InteractionCommand {
 	private final static Logger logger = LoggerFactory.getLogger(RetryWorkflowStrategyCommand.class);
+
+	public final static String MAX_RETRY_COUNT = "retry.maxRetryCount";
+	public final static String RETRY_INTERVAL = "retry.retryIntervalMillis";
+	public final static String JITTER = "retry.jitter";
+
+	/** System property with the number of threads of the shared executor, twice the processors by default */
+	public final static String THREADS_PROPERTY = "iris.retry.threads";
+	/** System property with the number of attempts the shared executor queues before refusing them */
+	public final static String QUEUE_SIZE_PROPERTY = "iris.retry.queueSize";
+
+	private final static int DEFAULT_QUEUE_SIZE = 256;
+
+	private static volatile ScheduledExecutorService sharedScheduler;
+	private static volatile ExecutorService sharedExecutor;
+
 	private InteractionCommand command;
 	private int maxRetryCount;
 	private long maxRetryInterval;
+	private double jitter = 0;
+	private RetryBudget retryBudget;
+	private CircuitBreaker circuitBreaker;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService executor;
+	private final Random random = new Random();
+
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong shortCircuits = new AtomicLong();
+	private final AtomicLong giveUps = new AtomicLong();
 	
 	/**
 	 * Construct with a list of commands to execute.
@@ -59,44 +116,518 @@ public class RetryWorkflowStrategyCommand implements InteractionCommand {
 	}
 
 	/**
+	 * @param jitter fraction, between 0 and 1, of each backoff that is
+	 * randomly taken off so that clients do not retry in step; 0 by default
+	 */
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException("Jitter must be between 0 and 1");
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Limit retries to a share of the calls, so that a failing back end is
+	 * not sent several times its normal load. Unlimited by default.
+	 * @param retryRatio retries allowed per call made
+	 * @param reserve retries allowed before any calls have been made, and
+	 * the most that can be saved up
+	 */
+	public void setRetryBudget(double retryRatio, int reserve) {
+		this.retryBudget = new RetryBudget(retryRatio, reserve);
+	}
+
+	/**
+	 * @param circuitBreaker consulted before each attempt and told its outcome
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * @param scheduler waits out the backoff before each retry, only long enough
+	 * to hand the retry to the executor; a shared daemon thread by default
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param executor runs the attempts of {@link #executeAsync(InteractionContext)};
+	 * a shared daemon pool sized by the {@value #THREADS_PROPERTY} and
+	 * {@value #QUEUE_SIZE_PROPERTY} system properties by default.  When it refuses the
+	 * first attempt that runs on the calling thread, when it refuses a retry the
+	 * execution fails with the last error.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Execute the command on the calling thread, which is held while backing off.
 	 * @throws InteractionException 
 	 * if Family.SERVER_ERROR error then retry maxRetryCount times
-	 * and keep incremental interval according to maxRetryInterval 
+	 * and keep incremental interval according to maxRetryInterval; if interrupted
+	 * while backing off, the error of the last attempt with the interrupt status kept
 	 */
-	private Result commandExecute(InteractionContext ctx) throws InteractionException {
-		Result result = null;
-		int retryCount = -1;
-		while ( ( maxRetryCount - retryCount++ ) > -1 ) {
+	@Override
+	public Result execute(InteractionContext ctx) throws InteractionException {
+		assert(command != null);
+		if (ctx == null)
+			throw new IllegalArgumentException("InteractionContext must be supplied");
+
+		InteractionException lastException = null;
+		int retryCount = 0;
+		while (true) {
+			if (!permitted()) {
+				throw shortCircuit(lastException);
+			}
 			try {
-				result = command.execute(ctx);
-				break;
+				return executeOnce(ctx, retryCount);
 			} catch (InteractionException ex) {
-				if (Family.SERVER_ERROR.equals(ex.getHttpStatus().getFamily()) && retryCount < maxRetryCount ) {
-					long nextRetry = maxRetryInterval * (int)Math.pow(2,retryCount);
-						logger.info("iris_request maxRetryCount=" + String.valueOf(maxRetryCount) +
-								" maxRetryInterval=" + String.valueOf(maxRetryInterval) +
-								" retryingNumber=" + String.valueOf(retryCount) +
-								" nextRetryIn=" + String.valueOf(nextRetry) + " seconds");
-					try {
-						Thread.sleep(nextRetry);
-					} catch (InterruptedException e) {
-						logger.error("InterruptedException: ", e);
-					}
-				} else { throw ex; }
+				long nextRetry = nextRetry(ex, retryCount);
+				if (nextRetry < 0) {
+					throw ex;
+				}
+				lastException = ex;
+				retryCount++;
+				try {
+					TimeUnit.MILLISECONDS.sleep(nextRetry);
+				} catch (InterruptedException e) {
+					// stop retrying and let the caller see the interrupt
+					Thread.currentThread().interrupt();
+					giveUps.incrementAndGet();
+					throw ex;
+				}
 			}
 		}
-		return result;
 	}
-	
+
 	/**
-	 * @throws InteractionException 
+	 * Execute the command on the executor, retrying as {@link #execute(InteractionContext)}
+	 * would without holding the calling thread.
+	 * @return completes with the result, or fails with the {@link InteractionException}
+	 * or runtime exception of the last attempt; cancelling it cancels any pending retry
+	 * and returns once an attempt in progress has finished with the context
 	 */
-	@Override
-	public Result execute(InteractionContext ctx) throws InteractionException {
+	public Future<Result> executeAsync(InteractionContext ctx) {
 		assert(command != null);
 		if (ctx == null)
 			throw new IllegalArgumentException("InteractionContext must be supplied");
 
-		return commandExecute(ctx);
+		AsyncRetry retry = new AsyncRetry(ctx);
+		retry.submit(true);
+		return retry.result;
+	}
+
+	private boolean permitted() {
+		if (circuitBreaker == null || circuitBreaker.tryAcquirePermission()) {
+			return true;
+		}
+		shortCircuits.incrementAndGet();
+		logger.info("iris_request short circuited, circuit breaker open");
+		return false;
+	}
+
+	/*
+	 * The failure reported when the circuit breaker refuses an attempt: the
+	 * last failure if this would have been a retry, otherwise service unavailable.
+	 */
+	private InteractionException shortCircuit(InteractionException lastException) {
+		if (lastException != null) {
+			return lastException;
+		}
+		return new InteractionException(Status.SERVICE_UNAVAILABLE, "Circuit breaker open");
+	}
+
+	private Result executeOnce(InteractionContext ctx, int retryCount) throws InteractionException {
+		if (retryCount == 0 && retryBudget != null) {
+			retryBudget.deposit();
+		}
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Result result = command.execute(ctx);
+			failed = false;
+			return result;
+		} catch (InteractionException ex) {
+			failed = Family.SERVER_ERROR.equals(ex.getHttpStatus().getFamily());
+			throw ex;
+		} finally {
+			if (circuitBreaker != null) {
+				if (failed) {
+					circuitBreaker.onError(System.nanoTime() - start);
+				} else {
+					circuitBreaker.onSuccess(System.nanoTime() - start);
+				}
+			}
+		}
+	}
+
+	/*
+	 * @return milliseconds to wait before the next attempt, or -1 to give up
+	 */
+	private long nextRetry(InteractionException ex, int retryCount) {
+		if (!Family.SERVER_ERROR.equals(ex.getHttpStatus().getFamily())) {
+			return -1;
+		}
+		if (retryCount >= maxRetryCount) {
+			giveUps.incrementAndGet();
+			return -1;
+		}
+		if (retryBudget != null && !retryBudget.tryWithdraw()) {
+			giveUps.incrementAndGet();
+			logger.info("iris_request retry budget exhausted, not retrying");
+			return -1;
+		}
+		long nextRetry = maxRetryInterval * (long) Math.pow(2, retryCount);
+		if (jitter > 0) {
+			double r;
+			synchronized (random) {
+				r = random.nextDouble();
+			}
+			nextRetry -= (long) (nextRetry * jitter * r);
+		}
+		retries.incrementAndGet();
+		logger.info("iris_request maxRetryCount=" + String.valueOf(maxRetryCount) +
+				" maxRetryInterval=" + String.valueOf(maxRetryInterval) +
+				" retryingNumber=" + String.valueOf(retryCount) +
+				" nextRetryIn=" + String.valueOf(nextRetry) + " milliseconds");
+		return nextRetry;
+	}
+
+	private ScheduledExecutorService getScheduler() {
+		if (scheduler != null) {
+			return scheduler;
+		}
+		ScheduledExecutorService shared = sharedScheduler;
+		if (shared == null) {
+			synchronized (RetryWorkflowStrategyCommand.class) {
+				shared = sharedScheduler;
+				if (shared == null) {
+					// only hands retries to the executor, so one thread is enough
+					shared = Executors.newSingleThreadScheduledExecutor(daemonThreads("iris-retry-scheduler-"));
+					sharedScheduler = shared;
+				}
+			}
+		}
+		return shared;
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor != null) {
+			return executor;
+		}
+		ExecutorService shared = sharedExecutor;
+		if (shared == null) {
+			synchronized (RetryWorkflowStrategyCommand.class) {
+				shared = sharedExecutor;
+				if (shared == null) {
+					int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2);
+					int queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+					// attempts block on the command, so a full pool refuses them rather than growing
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+							new ArrayBlockingQueue<Runnable>(queueSize), daemonThreads("iris-retry-"));
+					pool.allowCoreThreadTimeOut(true);
+					shared = pool;
+					sharedExecutor = shared;
+				}
+			}
+		}
+		return shared;
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @return number of retries made
+	 */
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * @return number of attempts refused by the circuit breaker
+	 */
+	public long getShortCircuitCount() {
+		return shortCircuits.get();
+	}
+
+	/**
+	 * @return number of calls that failed with a retryable error but were not
+	 * retried, because the retries, the budget or the wait ran out
+	 */
+	public long getGiveUpCount() {
+		return giveUps.get();
+	}
+
+	public InteractionCommand getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return true if the properties configure retries
+	 */
+	public static boolean isConfigured(Properties properties) {
+		return properties != null && properties.containsKey(MAX_RETRY_COUNT);
+	}
+
+	/**
+	 * @return a command retrying the supplied command as configured in the properties
+	 */
+	public static RetryWorkflowStrategyCommand create(InteractionCommand command, Properties properties) {
+		int maxRetryCount = (int) CircuitBreakerWorkflowStrategyCommand.getLong(properties, MAX_RETRY_COUNT, 0);
+		if (maxRetryCount < 0)
+			throw new IllegalArgumentException("Property [" + MAX_RETRY_COUNT + "] must not be negative");
+		long retryInterval = CircuitBreakerWorkflowStrategyCommand.getLong(properties, RETRY_INTERVAL, 0);
+		RetryWorkflowStrategyCommand retry = new RetryWorkflowStrategyCommand(command, maxRetryCount, retryInterval);
+		Object jitter = properties.get(JITTER);
+		if (jitter != null) {
+			try {
+				retry.setJitter(Double.parseDouble(jitter.toString().trim()));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value [" + jitter + "] for property [" + JITTER + "]");
+			}
+		}
+		return retry;
+	}
+
+	/*
+	 * One asynchronous execution; each attempt runs on the executor and on failure
+	 * has the scheduler hand the next attempt to the executor.
+	 */
+	private class AsyncRetry implements Runnable {
+		private final InteractionContext ctx;
+		private final RequestContext requestContext = RequestContext.getRequestContext();
+		private final RetryFuture result = new RetryFuture();
+		private volatile InteractionException lastException;
+		private int retryCount = 0;
+
+		AsyncRetry(InteractionContext ctx) {
+			this.ctx = ctx;
+		}
+
+		/*
+		 * @param first the first attempt, submitted by the calling thread, which
+		 * runs it itself if the executor refuses it
+		 */
+		void submit(boolean first) {
+			try {
+				result.setPending(getExecutor().submit(this));
+			} catch (RejectedExecutionException e) {
+				if (first) {
+					logger.debug("Executor rejected attempt, running it on the calling thread");
+					run();
+				} else {
+					giveUps.incrementAndGet();
+					result.fail(lastException != null ? lastException : e);
+				}
+			} catch (RuntimeException e) {
+				giveUps.incrementAndGet();
+				result.fail(lastException != null ? lastException : e);
+			}
+		}
+
+		void schedule(long delay) {
+			try {
+				result.setPending(getScheduler().schedule(new Runnable() {
+					@Override
+					public void run() {
+						submit(false);
+					}
+				}, delay, TimeUnit.MILLISECONDS));
+			} catch (RuntimeException e) {
+				giveUps.incrementAndGet();
+				result.fail(lastException != null ? lastException : e);
+			}
+		}
+
+		@Override
+		public void run() {
+			if (!result.startAttempt()) {
+				return;
+			}
+			// an attempt refused by the executor runs on the calling thread, which already has it
+			boolean propagate = RequestContext.getRequestContext() != requestContext;
+			if (propagate) {
+				RequestContext.setRequestContext(requestContext);
+			}
+			try {
+				if (!permitted()) {
+					result.fail(shortCircuit(lastException));
+					return;
+				}
+				result.complete(executeOnce(ctx, retryCount));
+			} catch (InteractionException ex) {
+				long nextRetry = nextRetry(ex, retryCount);
+				if (nextRetry < 0) {
+					result.fail(ex);
+				} else {
+					lastException = ex;
+					retryCount++;
+					schedule(nextRetry);
+				}
+			} catch (RuntimeException e) {
+				result.fail(e);
+			} catch (Error e) {
+				result.fail(e);
+				throw e;
+			} finally {
+				if (propagate) {
+					RequestContext.clearRequestContext();
+				}
+				result.endAttempt();
+			}
+		}
+	}
+
+	private static class RetryFuture implements Future<Result> {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Result value;
+		private volatile Throwable failure;
+		private volatile boolean cancelled;
+		// the scheduled or submitted next attempt
+		private volatile Future<?> pending;
+		// held while an attempt runs, so that cancel can wait for it
+		private final ReentrantLock attempt = new ReentrantLock();
+		private volatile Thread runner;
+
+		/*
+		 * @return false if cancelled, otherwise the attempt may go ahead and
+		 * must be followed by endAttempt
+		 */
+		boolean startAttempt() {
+			attempt.lock();
+			if (cancelled) {
+				attempt.unlock();
+				return false;
+			}
+			runner = Thread.currentThread();
+			return true;
+		}
+
+		void endAttempt() {
+			runner = null;
+			attempt.unlock();
+		}
+
+		void setPending(Future<?> pending) {
+			this.pending = pending;
+			if (cancelled) {
+				pending.cancel(false);
+			}
+		}
+
+		void complete(Result value) {
+			this.value = value;
+			done.countDown();
+		}
+
+		void fail(Throwable failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (isDone()) {
+				return false;
+			}
+			cancelled = true;
+			Future<?> next = pending;
+			if (next != null) {
+				next.cancel(false);
+			}
+			Thread running = runner;
+			if (mayInterruptIfRunning && running != null) {
+				running.interrupt();
+			}
+			// the caller may reuse the context once this returns, so wait out an attempt in progress
+			attempt.lock();
+			attempt.unlock();
+			done.countDown();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Result get() throws InterruptedException, ExecutionException {
+			done.await();
+			return report();
+		}
+
+		@Override
+		public Result get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return report();
+		}
+
+		private Result report() throws ExecutionException {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return value;
+		}
+	}
+
+	/*
+	 * Token bucket in thousandths of a retry: each call adds the ratio, each
+	 * retry takes one.
+	 */
+	private static class RetryBudget {
+		private final long deposit;
+		private final long capacity;
+		private final AtomicLong balance;
+
+		RetryBudget(double retryRatio, int reserve) {
+			this.deposit = (long) (retryRatio * 1000);
+			this.capacity = reserve * 1000L;
+			this.balance = new AtomicLong(capacity);
+		}
+
+		void deposit() {
+			long current;
+			do {
+				current = balance.get();
+				if (current >= capacity) {
+					return;
+				}
+			} while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+		}
+
+		boolean tryWithdraw() {
+			long current;
+			do {
+				current = balance.get();
+				if (current < 1000) {
+					return false;
+				}
+			} while (!balance.compareAndSet(current, current - 1000));
+			return true;
+		}
 	}
 }
@@ -0,0 +1,219 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link CircuitBreaker} judging the dependency on its last calls.</p>
+ * The breaker opens when, over a window of the most recent calls, the share of
+ * failed calls or of slow calls reaches its threshold. While open every call is
+ * refused. Once the open duration has passed a few probe calls are let through
+ * (half open): if they all succeed quickly the breaker closes, otherwise it
+ * opens again.
+ */
+public class RollingWindowCircuitBreaker implements CircuitBreaker {
+	private final static Logger logger = LoggerFactory.getLogger(RollingWindowCircuitBreaker.class);
+
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	private final String name;
+	private final byte[] window;
+	private int minimumCalls = 20;
+	private int failureRateThreshold = 50;
+	private int slowCallRateThreshold = 100;
+	private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(60);
+	private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+	private int halfOpenCalls = 5;
+
+	private State state = State.CLOSED;
+	// position of the next outcome, number of outcomes held and how many were bad
+	private int next;
+	private int calls;
+	private int failures;
+	private int slowCalls;
+	private long openedAt;
+	private int probesPermitted;
+	private int probesSucceeded;
+
+	/**
+	 * @param name used in log messages
+	 * @param windowSize number of recent calls judged
+	 */
+	public RollingWindowCircuitBreaker(String name, int windowSize) {
+		if (windowSize <= 0)
+			throw new IllegalArgumentException("Window size must be positive");
+		this.name = name;
+		this.window = new byte[windowSize];
+	}
+
+	/**
+	 * @param minimumCalls calls needed in the window before the breaker can open
+	 */
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	/**
+	 * @param failureRateThreshold percentage of failed calls at which the breaker opens
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * @param slowCallRateThreshold percentage of slow calls at which the breaker opens
+	 */
+	public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	/**
+	 * @param slowCallDurationMillis calls taking at least this long are slow
+	 */
+	public void setSlowCallDurationMillis(long slowCallDurationMillis) {
+		this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDurationMillis);
+	}
+
+	/**
+	 * @param openDurationMillis time the breaker stays open before probing
+	 */
+	public void setOpenDurationMillis(long openDurationMillis) {
+		this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+	}
+
+	/**
+	 * @param halfOpenCalls probe calls that must succeed for the breaker to close
+	 */
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		this.halfOpenCalls = Math.max(1, halfOpenCalls);
+	}
+
+	public synchronized State getState() {
+		if (state == State.OPEN && nanoTime() - openedAt >= openDurationNanos) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	@Override
+	public synchronized boolean tryAcquirePermission() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (nanoTime() - openedAt < openDurationNanos) {
+				return false;
+			}
+			transition(State.HALF_OPEN);
+			// fall through to let this call be the first probe
+		case HALF_OPEN:
+		default:
+			if (probesPermitted < halfOpenCalls) {
+				probesPermitted++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void onSuccess(long durationNanos) {
+		record(durationNanos >= slowCallDurationNanos ? SLOW : 0);
+	}
+
+	@Override
+	public synchronized void onError(long durationNanos) {
+		record((byte) (FAILED | (durationNanos >= slowCallDurationNanos ? SLOW : 0)));
+	}
+
+	private void record(byte outcome) {
+		switch (state) {
+		case CLOSED:
+			add(outcome);
+			if (calls >= minimumCalls
+					&& (failures * 100 >= failureRateThreshold * calls || slowCalls * 100 >= slowCallRateThreshold * calls)) {
+				open();
+			}
+			break;
+		case HALF_OPEN:
+			if (outcome != 0) {
+				open();
+			} else if (++probesSucceeded >= halfOpenCalls) {
+				transition(State.CLOSED);
+			}
+			break;
+		default:
+			// outcome of a call permitted before the breaker opened
+			break;
+		}
+	}
+
+	private void add(byte outcome) {
+		if (calls == window.length) {
+			byte oldest = window[next];
+			failures -= oldest & FAILED;
+			slowCalls -= (oldest & SLOW) >> 1;
+		} else {
+			calls++;
+		}
+		window[next] = outcome;
+		failures += outcome & FAILED;
+		slowCalls += (outcome & SLOW) >> 1;
+		next = (next + 1) % window.length;
+	}
+
+	private void open() {
+		openedAt = nanoTime();
+		transition(State.OPEN);
+	}
+
+	private void transition(State newState) {
+		logger.info("Circuit breaker [" + name + "] " + state + " -> " + newState
+				+ " (" + failures + " failed, " + slowCalls + " slow of " + calls + " calls)");
+		state = newState;
+		probesPermitted = 0;
+		probesSucceeded = 0;
+		if (newState != State.OPEN) {
+			next = 0;
+			calls = 0;
+			failures = 0;
+			slowCalls = 0;
+		}
+	}
+
+	// time source, overridden in tests
+	long nanoTime() {
+		return System.nanoTime();
+	}
+}
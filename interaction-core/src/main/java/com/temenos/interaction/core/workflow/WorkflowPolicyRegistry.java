@@ -0,0 +1,107 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Holds the circuit breakers and bulkhead permits that outlive the workflows built
+ * for each request.  They are keyed by the name and properties of the action they are
+ * configured for, so an action reloaded with the same configuration carries on with
+ * the same state, and one reloaded with a changed configuration starts afresh.
+ */
+public class WorkflowPolicyRegistry {
+
+	private final ConcurrentMap<PolicyKey, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<PolicyKey, CircuitBreaker>();
+	private final ConcurrentMap<PolicyKey, Semaphore> bulkheads = new ConcurrentHashMap<PolicyKey, Semaphore>();
+
+	/**
+	 * @return the circuit breaker configured in the properties, created on first use
+	 */
+	public CircuitBreaker getCircuitBreaker(String actionName, Properties properties) {
+		CircuitBreaker circuitBreaker = circuitBreakers.get(new PolicyKey(actionName, properties));
+		if (circuitBreaker == null) {
+			circuitBreaker = CircuitBreakerWorkflowStrategyCommand.createCircuitBreaker(actionName, properties);
+			CircuitBreaker existing = circuitBreakers.putIfAbsent(PolicyKey.copyOf(actionName, properties), circuitBreaker);
+			if (existing != null) {
+				circuitBreaker = existing;
+			}
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return the permits of the bulkhead configured in the properties, created on first use
+	 */
+	public Semaphore getBulkhead(String actionName, Properties properties) {
+		Semaphore permits = bulkheads.get(new PolicyKey(actionName, properties));
+		if (permits == null) {
+			permits = new Semaphore(BulkheadWorkflowStrategyCommand.getMaxConcurrent(properties));
+			Semaphore existing = bulkheads.putIfAbsent(PolicyKey.copyOf(actionName, properties), permits);
+			if (existing != null) {
+				permits = existing;
+			}
+		}
+		return permits;
+	}
+
+	/*
+	 * Lookups use the properties as they are, stored keys a copy, so that
+	 * later changes to the properties do not change a key in the map.
+	 */
+	private static final class PolicyKey {
+		private final String actionName;
+		private final Map<Object, Object> properties;
+
+		PolicyKey(String actionName, Map<Object, Object> properties) {
+			this.actionName = actionName;
+			this.properties = properties;
+		}
+
+		static PolicyKey copyOf(String actionName, Properties properties) {
+			return new PolicyKey(actionName, new HashMap<Object, Object>(properties));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PolicyKey)) {
+				return false;
+			}
+			PolicyKey other = (PolicyKey) obj;
+			return actionName.equals(other.actionName) && properties.equals(other.properties);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * actionName.hashCode() + properties.hashCode();
+		}
+	}
+}
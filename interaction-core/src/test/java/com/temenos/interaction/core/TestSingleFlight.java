@@ -0,0 +1,125 @@
+package com.temenos.interaction.core;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestSingleFlight {
+
+	@Test
+	public void testConcurrentCallersShareLoad() throws Exception {
+		final SingleFlight<String, Object> loads = new SingleFlight<String, Object>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<Object> load = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				calls.incrementAndGet();
+				release.await(5, TimeUnit.SECONDS);
+				return new Object();
+			}
+		};
+		Callable<Object> caller = new Callable<Object>() {
+			@Override
+			public Object call() {
+				return loads.load("key", load);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Object> first = executor.submit(caller);
+			Future<Object> second = executor.submit(caller);
+			for (int i = 0; i < 500 && loads.getSharedLoadCount() == 0; i++) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			assertSame(first.get(), second.get());
+			assertEquals(1, calls.get());
+			assertEquals(1, loads.getSharedLoadCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testLoadRunsAgainOnceFinished() {
+		SingleFlight<String, Integer> loads = new SingleFlight<String, Integer>();
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<Integer> load = new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return calls.incrementAndGet();
+			}
+		};
+		assertEquals(Integer.valueOf(1), loads.load("key", load));
+		assertEquals(Integer.valueOf(2), loads.load("key", load));
+		assertEquals(0, loads.getSharedLoadCount());
+	}
+
+	@Test
+	public void testRuntimeExceptionRethrown() {
+		SingleFlight<String, Object> loads = new SingleFlight<String, Object>();
+		final IllegalStateException failure = new IllegalStateException();
+		try {
+			loads.load("key", new Callable<Object>() {
+				@Override
+				public Object call() {
+					throw failure;
+				}
+			});
+			fail("Expected exception");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	@Test
+	public void testCheckedExceptionWrapped() {
+		SingleFlight<String, Object> loads = new SingleFlight<String, Object>();
+		final Exception failure = new ExecutionException("failed", null);
+		try {
+			loads.load("key", new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					throw failure;
+				}
+			});
+			fail("Expected exception");
+		} catch (RuntimeException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+}
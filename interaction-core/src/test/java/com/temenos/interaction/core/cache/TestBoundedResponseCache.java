@@ -0,0 +1,129 @@
+package com.temenos.interaction.core.cache;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import org.junit.Test;
+
+public class TestBoundedResponseCache {
+
+	private ResponseBuilder mockBuilder() {
+		ResponseBuilder builder = mock(ResponseBuilder.class);
+		ResponseBuilder copy = mock(ResponseBuilder.class);
+		when(builder.clone()).thenReturn(copy);
+		when(copy.clone()).thenReturn(copy);
+		return builder;
+	}
+
+	@Test
+	public void testGetReturnsCopy() {
+		BoundedResponseCache cache = new BoundedResponseCache(10);
+		ResponseBuilder builder = mockBuilder();
+		cache.put("/test", builder, 60, 1000);
+		ResponseBuilder cached = cache.get("/test", 2000);
+		assertNotNull(cached);
+		assertSame(builder.clone(), cached);
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testExpiry() {
+		BoundedResponseCache cache = new BoundedResponseCache(10);
+		cache.put("/test", mockBuilder(), 1, 1000);
+		assertNotNull(cache.get("/test", 1999));
+		assertNull(cache.get("/test", 2000));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testNullKey() {
+		BoundedResponseCache cache = new BoundedResponseCache(10);
+		cache.put(null, mockBuilder(), 60, 1000);
+		assertNull(cache.get(null, 1000));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testBoundEvictsLeastRecentlyUsed() {
+		BoundedResponseCache cache = new BoundedResponseCache(3);
+		cache.put("/a", mockBuilder(), 60, 1000);
+		cache.put("/b", mockBuilder(), 60, 1000);
+		cache.put("/c", mockBuilder(), 60, 1000);
+		// touch a and c, so b is the first without a second chance
+		assertNotNull(cache.get("/a", 1000));
+		assertNotNull(cache.get("/c", 1000));
+		cache.put("/d", mockBuilder(), 60, 1000);
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get("/b", 1000));
+		assertNotNull(cache.get("/a", 1000));
+		assertNotNull(cache.get("/c", 1000));
+		assertNotNull(cache.get("/d", 1000));
+	}
+
+	@Test
+	public void testEvictionPrefersExpired() {
+		BoundedResponseCache cache = new BoundedResponseCache(2);
+		cache.put("/a", mockBuilder(), 1, 1000);
+		cache.put("/b", mockBuilder(), 60, 1000);
+		cache.put("/c", mockBuilder(), 60, 5000);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testSweep() {
+		BoundedResponseCache cache = new BoundedResponseCache(10);
+		cache.put("/a", mockBuilder(), 1, 1000);
+		cache.put("/b", mockBuilder(), 60, 1000);
+		cache.sweep(5000);
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get("/b", 5000));
+	}
+
+	@Test
+	public void testReplace() {
+		BoundedResponseCache cache = new BoundedResponseCache(2);
+		cache.put("/a", mockBuilder(), 60, 1000);
+		ResponseBuilder second = mockBuilder();
+		cache.put("/a", second, 60, 1000);
+		assertEquals(1, cache.size());
+		assertSame(second.clone(), cache.get("/a", 1000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBound() {
+		new BoundedResponseCache(0);
+	}
+}
@@ -23,7 +23,10 @@ package com.temenos.interaction.core.command;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 import java.util.ArrayList;
@@ -103,4 +106,99 @@ public class TestInteractionContext {
 		assertEquals(ctx.getAttribute("abc"), "test");
 		assertEquals(ctx.getAttribute("NextState"), "myNextState");		
 	}
+
+	private InteractionContext createContext() {
+		return new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), new MultivaluedMapImpl<String>(), new MultivaluedMapImpl<String>(), new ResourceState("entity", "initial_state", new ArrayList<Action>(), "/resource"), mock(Metadata.class));
+	}
+
+	@Test
+	public void testChildAttributes() {
+		InteractionContext parent = createContext();
+		parent.setAttribute("a", "parent");
+		parent.setAttribute("b", "parent");
+		InteractionContext child = new InteractionContext(parent, null, null, null, null);
+		assertEquals("parent", child.getAttribute("a"));
+
+		child.setAttribute("a", "child");
+		child.removeAttribute("b");
+		child.setAttribute("c", "child");
+		assertEquals("child", child.getAttribute("a"));
+		assertNull(child.getAttribute("b"));
+		assertEquals(2, child.getAttributes().size());
+		// the parent is unchanged
+		assertEquals("parent", parent.getAttribute("a"));
+		assertEquals("parent", parent.getAttribute("b"));
+		assertNull(parent.getAttribute("c"));
+
+		// later changes to the parent are visible unless overridden
+		parent.setAttribute("d", "parent");
+		parent.setAttribute("a", "changed");
+		assertEquals("parent", child.getAttribute("d"));
+		assertEquals("child", child.getAttribute("a"));
+	}
+
+	@Test
+	public void testTypedAttributes() {
+		AttributeKey<Integer> key = new AttributeKey<Integer>("count", Integer.class);
+		InteractionContext ctx = createContext();
+		ctx.setAttribute(key, 1);
+		ctx.setAttribute("count", "named");
+		assertEquals(Integer.valueOf(1), ctx.getAttribute(key));
+		assertEquals("named", ctx.getAttribute("count"));
+		assertNull(ctx.getAttribute(new AttributeKey<Integer>("count", Integer.class)));
+		ctx.setAttribute(key, null);
+		assertNull(ctx.getAttribute(key));
+	}
+
+	@Test
+	public void testNamedKeysComparedByName() {
+		assertEquals(AttributeKey.named("count"), AttributeKey.named("count"));
+		assertEquals(AttributeKey.named("count").hashCode(), AttributeKey.named("count").hashCode());
+		assertFalse(AttributeKey.named("count").equals(AttributeKey.named("other")));
+		assertFalse(AttributeKey.named("count").equals(new AttributeKey<Object>("count", Object.class)));
+		assertFalse(new AttributeKey<Object>("count", Object.class).equals(AttributeKey.named("count")));
+
+		InteractionContext ctx = createContext();
+		ctx.setAttribute(AttributeKey.named("count"), (Object) Integer.valueOf(1));
+		assertEquals(Integer.valueOf(1), ctx.getAttribute("count"));
+		assertTrue(ctx.getAttributes().containsKey(AttributeKey.named("count")));
+		ctx.removeAttribute("count");
+		assertNull(ctx.getAttribute(AttributeKey.named("count")));
+	}
+
+	@Test
+	public void testRequestAttribute() {
+		AttributeKey<Object> key = new AttributeKey<Object>("shared", Object.class);
+		InteractionContext parent = createContext();
+		InteractionContext child = new InteractionContext(parent, null, null, null, null);
+		InteractionContext sibling = new InteractionContext(parent, null, null, null, null);
+		Object value = new Object();
+		assertNull(child.putRequestAttributeIfAbsent(key, value));
+		assertSame(value, parent.getAttribute(key));
+		assertSame(value, sibling.getAttribute(key));
+		assertSame(value, sibling.putRequestAttributeIfAbsent(key, new Object()));
+	}
+
+	@Test
+	public void testConcurrentAttributes() throws InterruptedException {
+		final InteractionContext ctx = createContext();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100; i++) {
+						ctx.setAttribute(thread + "-" + i, i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(400, ctx.getAttributes().size());
+		assertEquals(Integer.valueOf(99), ctx.getAttribute("3-99"));
+	}
 }
@@ -124,4 +124,25 @@ public class PathTreeTest {
         
         pathTree.remove("/{id}/profile", "POST");
     }        
-}
\ No newline at end of file
+
+    @Test
+    public void testGetReturnsSnapshot() {
+        PathTree pathTree = new PathTree();
+        pathTree.put("/{id}/profile", "GET", "Profile Resource");
+
+        Map<String,String> before = pathTree.get("/{id}/profile");
+        pathTree.put("/{id}/profile", "PUT", "Upload Profile Resource");
+
+        // readers keep the version of the tree they looked up
+        assertEquals(1, before.size());
+        assertEquals(2, pathTree.get("/{id}/profile").size());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testGetIsReadOnly() {
+        PathTree pathTree = new PathTree();
+        pathTree.put("/{id}/profile", "GET", "Profile Resource");
+
+        pathTree.get("/123/profile").put("PUT", "Upload Profile Resource");
+    }
+}
@@ -0,0 +1,259 @@
+package com.temenos.interaction.core.hypermedia;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.temenos.interaction.core.MapWithReadWriteLock;
+
+/**
+ * Lookup throughput of a {@link ResourceStateMachine} with a few thousand states,
+ * with and without states being registered concurrently. The *Baseline benchmarks
+ * measure the same lookups done the way the state machine did them before its maps
+ * were published as one {@link ResourceStateRegistry}.
+ * <p>
+ * Not run by the build; run {@link #main(String[])} from the test classpath to
+ * measure with 1, 8 and 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceStateMachineBenchmark {
+
+	// sizes of the reload groups when not run from main
+	private static final int READERS = 7;
+	private static final int WRITERS = 1;
+
+	@Param({ "2000" })
+	int entities;
+
+	private ResourceStateMachine stateMachine;
+	private ResourceState[] states;
+	private String[] paths;
+	private String[] transitionIds;
+	private LockedMapLookup baseline;
+	private final Event get = new Event("GET", "GET");
+
+	@Setup
+	public void setup() {
+		ResourceState initial = new ResourceState("ServiceDocument", "ServiceDocument", new ArrayList<Action>(), "/");
+		states = new ResourceState[entities * 2];
+		paths = new String[entities * 2];
+		for (int i = 0; i < entities; i++) {
+			String entity = "Entity" + i;
+			ResourceState collection = new ResourceState(entity, entity + "s", new ArrayList<Action>(), "/" + entity + "s()");
+			ResourceState item = new ResourceState(entity, entity, new ArrayList<Action>(), "/" + entity + "s('{id}')");
+			initial.addTransition(new Transition.Builder().method("GET").target(collection).build());
+			collection.addTransition(new Transition.Builder().method("GET").target(item).build());
+			states[2 * i] = collection;
+			states[2 * i + 1] = item;
+			paths[2 * i] = collection.getPath();
+			paths[2 * i + 1] = item.getPath();
+		}
+		stateMachine = new ResourceStateMachine(initial);
+		transitionIds = stateMachine.getTransitionsById().keySet().toArray(new String[0]);
+		baseline = new LockedMapLookup();
+		for (ResourceState state : states) {
+			baseline.register(state, "GET");
+		}
+	}
+
+	/*
+	 * The lookup maps as they were: each map behind its own read/write lock,
+	 * written in place by register and unregister under the machine's lock, and
+	 * the map of every path to its states rebuilt for each lookup. The path's
+	 * set of names is replaced rather than changed in place, and a state caught
+	 * between unregister and register is skipped, so that readers cannot fail.
+	 */
+	static class LockedMapLookup {
+		private final Map<String, Set<String>> interactionsByState = new MapWithReadWriteLock<String, Set<String>>();
+		private final Map<String, Set<String>> resourceStateNamesByPath = new MapWithReadWriteLock<String, Set<String>>();
+		private final Map<String, ResourceState> resourceStatesByName = new MapWithReadWriteLock<String, ResourceState>();
+
+		synchronized void register(ResourceState state, String method) {
+			Set<String> interactions = interactionsByState.get(state.getName());
+			interactions = interactions == null ? new HashSet<String>() : new HashSet<String>(interactions);
+			interactions.add(method);
+			interactionsByState.put(state.getName(), interactions);
+			Set<String> names = resourceStateNamesByPath.get(state.getResourcePath());
+			names = names == null ? new HashSet<String>() : new HashSet<String>(names);
+			names.add(state.getName());
+			resourceStateNamesByPath.put(state.getResourcePath(), names);
+			resourceStatesByName.put(state.getName(), state);
+		}
+
+		synchronized void unregister(ResourceState state, String method) {
+			Set<String> interactions = new HashSet<String>(interactionsByState.get(state.getName()));
+			interactions.remove(method);
+			interactionsByState.put(state.getName(), interactions);
+			if (interactions.isEmpty()) {
+				Set<String> names = new HashSet<String>(resourceStateNamesByPath.get(state.getResourcePath()));
+				names.remove(state.getName());
+				resourceStateNamesByPath.put(state.getResourcePath(), names);
+				resourceStatesByName.remove(state.getName());
+			}
+		}
+
+		Map<String, Set<ResourceState>> getResourceStatesByPath() {
+			Map<String, Set<ResourceState>> stateMap = new HashMap<String, Set<ResourceState>>();
+			for (Entry<String, Set<String>> entry : resourceStateNamesByPath.entrySet()) {
+				Set<ResourceState> resourceStateSet = new HashSet<ResourceState>();
+				for (String resourceStateName : entry.getValue()) {
+					ResourceState state = resourceStatesByName.get(resourceStateName);
+					if (state != null) {
+						resourceStateSet.add(state);
+					}
+				}
+				stateMap.put(entry.getKey(), resourceStateSet);
+			}
+			return stateMap;
+		}
+
+		ResourceState determineState(Event event, String resourcePath) {
+			ResourceState state = null;
+			Set<ResourceState> resourceStates = getResourceStatesByPath().get(resourcePath);
+			if (resourceStates != null) {
+				for (ResourceState s : resourceStates) {
+					Set<String> interactions = interactionsByState.get(s.getName());
+					if (interactions != null && interactions.contains(event.getMethod())) {
+						if (state == null || interactions.size() == 1 || !event.getMethod().equals("GET")) {
+							state = s;
+						}
+					}
+				}
+			}
+			return state;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+
+		int next(int length) {
+			next = (next + 7) % length;
+			return next;
+		}
+	}
+
+	@Benchmark
+	public ResourceState determineState(Cursor cursor) {
+		return stateMachine.determineState(get, paths[cursor.next(paths.length)]);
+	}
+
+	@Benchmark
+	public ResourceState determineStateBaseline(Cursor cursor) {
+		return baseline.determineState(get, paths[cursor.next(paths.length)]);
+	}
+
+	@Benchmark
+	public Transition transitionById(Cursor cursor) {
+		return stateMachine.getTransitionsById().get(transitionIds[cursor.next(transitionIds.length)]);
+	}
+
+	@Benchmark
+	public Object interactionsByState(Cursor cursor) {
+		return stateMachine.getInteractionByState().get(states[cursor.next(states.length)].getName());
+	}
+
+	/*
+	 * The reload groups are sized from the number of threads in main,
+	 * with one thread reloading and the rest reading.
+	 */
+	@Benchmark
+	@Group("reload")
+	@GroupThreads(READERS)
+	public ResourceState determineStateWhileReloading(Cursor cursor) {
+		return stateMachine.determineState(get, paths[cursor.next(paths.length)]);
+	}
+
+	@Benchmark
+	@Group("reload")
+	@GroupThreads(WRITERS)
+	public void reload(Cursor cursor) {
+		// what the lazy loader does when a state has changed
+		ResourceState state = states[cursor.next(states.length)];
+		stateMachine.unregister(state, "GET");
+		stateMachine.register(state, "GET");
+	}
+
+	@Benchmark
+	@Group("reloadBaseline")
+	@GroupThreads(READERS)
+	public ResourceState determineStateWhileReloadingBaseline(Cursor cursor) {
+		return baseline.determineState(get, paths[cursor.next(paths.length)]);
+	}
+
+	@Benchmark
+	@Group("reloadBaseline")
+	@GroupThreads(WRITERS)
+	public void reloadBaseline(Cursor cursor) {
+		ResourceState state = states[cursor.next(states.length)];
+		baseline.unregister(state, "GET");
+		baseline.register(state, "GET");
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		String benchmark = ResourceStateMachineBenchmark.class.getSimpleName();
+		for (int threads : new int[] { 1, 8, 32 }) {
+			new Runner(new OptionsBuilder()
+					.include(benchmark)
+					.exclude(benchmark + "\\.reload")
+					.threads(threads)
+					.build()).run();
+			// a group needs a reader besides the writer, so a single thread is run as two
+			int readers = Math.max(1, threads - WRITERS);
+			new Runner(new OptionsBuilder()
+					.include(benchmark + "\\.reload")
+					.threadGroups(readers, WRITERS)
+					.threads(readers + WRITERS)
+					.build()).run();
+		}
+	}
+}
@@ -25,12 +25,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,15 +47,20 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.odata4j.core.OCollection;
 import org.odata4j.core.OCollections;
 import org.odata4j.core.OComplexObject;
@@ -67,6 +77,7 @@ import com.temenos.interaction.core.command.CommandController;
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionCommand.Result;
 import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
 import com.temenos.interaction.core.command.MapBasedCommandController;
 import com.temenos.interaction.core.entity.Entity;
 import com.temenos.interaction.core.entity.EntityMetadata;
@@ -82,8 +93,13 @@ import com.temenos.interaction.core.hypermedia.validation.HypermediaValidator;
 import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.RESTResource;
+import com.temenos.interaction.core.resource.StreamedCollection;
+import com.temenos.interaction.core.rim.ConcurrentResourceRequestHandler;
 import com.temenos.interaction.core.rim.HTTPHypermediaRIM;
 import com.temenos.interaction.core.web.RequestContext;
+import com.temenos.interaction.core.workflow.BulkheadWorkflowStrategyCommand;
+import com.temenos.interaction.core.workflow.CircuitBreaker;
+import com.temenos.interaction.core.workflow.CircuitBreakerWorkflowStrategyCommand;
 
 
 public class TestResourceStateMachine {
@@ -790,6 +806,37 @@ public class TestResourceStateMachine {
         assertTrue(stateMachine.getResourceStateByName().containsKey(samePathState.getName()));
     }
 
+    @Test
+    public void testRegistrySnapshots() {
+        String entityName = "Note";
+        ResourceState initialState = new ResourceState(entityName, "notes", new ArrayList<Action>(), "/notes");
+        ResourceState noteState = new ResourceState(entityName, "note", new ArrayList<Action>(), "/notes('{id}')");
+        initialState.addTransition(new Transition.Builder().method("GET").target(noteState).build());
+
+        ResourceStateMachine stateMachine = new ResourceStateMachine(initialState);
+        ResourceStateRegistry before = stateMachine.getRegistry();
+
+        // registering what is already registered publishes nothing
+        stateMachine.register(noteState, "GET");
+        assertSame(before, stateMachine.getRegistry());
+
+        ResourceState noteCopyState = new ResourceState(entityName, "noteCopy", new ArrayList<Action>(), "/notes('{id}')/copy");
+        stateMachine.register(noteCopyState, "POST");
+
+        // the earlier snapshot is unaffected
+        assertEquals(2, before.getResourceStatesByName().size());
+        assertFalse(before.getInteractionsByState().containsKey("noteCopy"));
+        assertEquals(3, stateMachine.getRegistry().getResourceStatesByName().size());
+        assertTrue(stateMachine.getInteractionByState().get("noteCopy").contains("POST"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRegistryIsReadOnly() {
+        ResourceState initialState = new ResourceState("Note", "notes", new ArrayList<Action>(), "/notes");
+        ResourceStateMachine stateMachine = new ResourceStateMachine(initialState);
+        stateMachine.getInteractionByState().get("notes").add("DELETE");
+    }
+
     @Test
     public void testRegisterRegularTransitions() {
         String entityName = "Note";
@@ -1780,6 +1827,46 @@ public class TestResourceStateMachine {
         assertEquals("GET", links.get(5).getMethod());
     }
 
+    /*
+     * Embedding the items of a collection makes a request for each, which must
+     * not happen while the rows of a streamed collection are being read.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetLinksStreamedCollectionItemsNotEmbedded() {
+        String NOTE_ENTITY = "NOTE";
+        CollectionResourceState notesResource = new CollectionResourceState(NOTE_ENTITY, "collection", new ArrayList<Action>(), "/notes");
+        ResourceState noteResource = new ResourceState(NOTE_ENTITY, "item", new ArrayList<Action>(), "/notes/{noteId}", "item".split(" "));
+        notesResource.addTransition(new Transition.Builder().flags(Transition.FOR_EACH_EMBEDDED).method("GET").target(noteResource).uriParameters(new HashMap<String, String>()).build());
+        // the items of the collection, passed to the listeners as they are read
+        final List<EntityResource<Object>> entities = new ArrayList<EntityResource<Object>>();
+        entities.add(new EntityResource<Object>(createTestNote("1")));
+        entities.add(new EntityResource<Object>(createTestNote("2")));
+        StreamedCollection<EntityResource<Object>> streamed = mock(StreamedCollection.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                StreamedCollection.ReadListener<EntityResource<Object>> listener = (StreamedCollection.ReadListener<EntityResource<Object>>) invocation.getArguments()[0];
+                for (EntityResource<Object> entity : entities) {
+                    listener.read(entity);
+                }
+                return null;
+            }
+        }).when(streamed).addReadListener(any(StreamedCollection.ReadListener.class));
+        CollectionResource<Object> testResponseEntity = new CollectionResource<Object>("notes", streamed);
+
+        ResourceStateMachine stateMachine = new ResourceStateMachine(notesResource, new BeanTransformer());
+        HTTPHypermediaRIM rimHandler = spy(mockRIMHandler(stateMachine));
+        stateMachine.injectLinks(rimHandler, createMockInteractionContext(notesResource), testResponseEntity, mock(HttpHeaders.class), mock(Metadata.class));
+
+        // each item has its link, but nothing was requested to embed in it
+        assertEquals(1, entities.get(0).getLinks().size());
+        assertEquals("/baseuri/notes/1", entities.get(0).getLinks().iterator().next().getHref());
+        assertEquals(1, entities.get(1).getLinks().size());
+        assertEquals("/baseuri/notes/2", entities.get(1).getLinks().iterator().next().getHref());
+        verify(rimHandler, never()).getResourceRequestHandler();
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testGetLinkToCollectionResource() {
@@ -2116,6 +2203,44 @@ public class TestResourceStateMachine {
         assertEquals("PROFILE", resources.get(2).getEntityName());
     }
 
+    @Test
+    public void testEmbedMultipleResourcesConcurrently() {
+        String ENTITY = "ENTITY";
+        List<Action> mockActions = new ArrayList<Action>();
+        mockActions.add(new Action("found", Action.TYPE.VIEW, null));
+        ResourceState parentResource = new ResourceState(ENTITY, "parentResource", new ArrayList<Action>(), "/path");
+        ResourceState childResource1 = new ResourceState("PROFILE", "childResource1", mockActions, "/root/profile", "profile".split(" "));
+        ResourceState childResource2 = new ResourceState("PREFERENCE", "childResource2", mockActions, "/root/preferences", "preferences".split(" "));
+        parentResource.addTransition(new Transition.Builder().flags(Transition.EMBEDDED).method("GET").target(childResource1).build());
+        parentResource.addTransition(new Transition.Builder().flags(Transition.EMBEDDED).method("GET").target(childResource2).build());
+
+        EntityResource<Object> testResponseEntity = new EntityResource<Object>(ENTITY, createTestNote("rootobject"));
+
+        ConcurrentResourceRequestHandler handler = new ConcurrentResourceRequestHandler(2, 10000);
+        try {
+            ResourceStateMachine stateMachine = new ResourceStateMachine.Builder()
+                    .initial(parentResource)
+                    .transformer(new BeanTransformer())
+                    .resourceRequestHandler(handler)
+                    .build();
+            HTTPHypermediaRIM rimHandler = mockRIMHandler(stateMachine);
+            assertSame(handler, rimHandler.getResourceRequestHandler());
+            InteractionContext mockCtx = createMockInteractionContext(parentResource);
+            stateMachine.injectLinks(rimHandler, mockCtx, testResponseEntity, mock(HttpHeaders.class), mock(Metadata.class));
+            Map<Transition, RESTResource> embeddedResources = stateMachine.embedResources(rimHandler, mock(HttpHeaders.class), mockCtx, testResponseEntity);
+
+            assertEquals(2, embeddedResources.size());
+            Set<String> entityNames = new HashSet<String>();
+            for (RESTResource resource : embeddedResources.values()) {
+                entityNames.add(resource.getEntityName());
+            }
+            assertTrue(entityNames.contains("PROFILE"));
+            assertTrue(entityNames.contains("PREFERENCE"));
+        } finally {
+            handler.shutdown();
+        }
+    }
+
     @Test
     public void testDetermineAction() {
         String ENTITY_NAME = "";
@@ -2177,6 +2302,44 @@ public class TestResourceStateMachine {
 
     }
 
+    @Test
+    public void testDetermineActionPoliciesHeldByRegistry() throws InteractionException {
+        Properties properties = new Properties();
+        properties.put(BulkheadWorkflowStrategyCommand.MAX_CONCURRENT, "2");
+        properties.put(CircuitBreakerWorkflowStrategyCommand.FAILURE_RATE_THRESHOLD, "50");
+        Action action = new Action("CreateEntity", Action.TYPE.ENTRY, properties);
+        ResourceState initial = new ResourceState("", "initial", new ArrayList<Action>(), "/entity");
+        List<Action> actions = new ArrayList<Action>();
+        actions.add(action);
+        ResourceState created = new ResourceState(initial, "created", actions, "/created");
+        initial.addTransition(new Transition.Builder().method("POST").target(created).build());
+
+        ResourceStateMachine sm = new ResourceStateMachine(initial);
+        CommandController mockCommandController = mock(CommandController.class);
+        when(mockCommandController.fetchCommand(anyString())).thenReturn(mock(InteractionCommand.class));
+        sm.setCommandController(mockCommandController);
+
+        // the workflow takes its permits from the registry of the state machine
+        Semaphore bulkhead = sm.getWorkflowPolicies().getBulkhead("CreateEntity", properties);
+        assertEquals(2, bulkhead.availablePermits());
+        bulkhead.acquireUninterruptibly(2);
+        try {
+            sm.determineAction(new Event("POST", "POST"), "/entity/created").execute(mock(InteractionContext.class));
+            fail("Expected the bulkhead to reject the request");
+        } catch (InteractionException e) {
+            assertEquals(Status.SERVICE_UNAVAILABLE, e.getHttpStatus());
+        } finally {
+            bulkhead.release(2);
+        }
+
+        // an action reloaded with the same properties carries on with the same state
+        CircuitBreaker circuitBreaker = sm.getWorkflowPolicies().getCircuitBreaker("CreateEntity", properties);
+        Properties reloaded = new Properties();
+        reloaded.putAll(properties);
+        assertSame(bulkhead, sm.getWorkflowPolicies().getBulkhead("CreateEntity", reloaded));
+        assertSame(circuitBreaker, sm.getWorkflowPolicies().getCircuitBreaker("CreateEntity", reloaded));
+    }
+
     @Test
     public void testDetermineState() {
         String ENTITY_NAME = "";
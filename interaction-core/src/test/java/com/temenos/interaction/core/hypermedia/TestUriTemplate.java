@@ -0,0 +1,82 @@
+package com.temenos.interaction.core.hypermedia;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestUriTemplate {
+
+	@Test
+	public void testCompileIsShared() {
+		assertSame(UriTemplate.compile("/Customers('{id}')"), UriTemplate.compile("/Customers('{id}')"));
+	}
+
+	@Test
+	public void testParameterNames() {
+		assertArrayEquals(new String[] {"companyid", "id", "id"},
+				UriTemplate.compile("/{companyid}/Customers('{id}')/{id}").getParameterNames());
+		assertFalse(UriTemplate.compile("/Customers").hasParameters());
+	}
+
+	@Test
+	public void testExpand() {
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("id", "1$2");
+		properties.put("companyid", "GB0010001");
+		assertEquals("/GB0010001/Customers('1$2')/{other}",
+				UriTemplate.compile("/{companyid}/Customers('{id}')/{other}").expand(properties));
+	}
+
+	@Test
+	public void testExpandValueContainingToken() {
+		// each token is replaced in turn, so a value may introduce a later token
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("a", "{b}");
+		properties.put("b", "B");
+		assertEquals("B/B", UriTemplate.compile("{a}/{b}").expand(properties));
+	}
+
+	@Test
+	public void testExpandNestedBraces() {
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("", "E");
+		assertEquals("/E}{xE", UriTemplate.compile("/{}}{x{}").expand(properties));
+	}
+
+	@Test
+	public void testExpandIntoBuilder() {
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("id", "123");
+		StringBuilder sb = new StringBuilder("http://localhost");
+		UriTemplate.compile("/Customers('{id}')").expand(properties, sb);
+		assertEquals("http://localhost/Customers('123')", sb.toString());
+	}
+}
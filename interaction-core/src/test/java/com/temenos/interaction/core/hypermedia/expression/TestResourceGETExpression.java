@@ -22,6 +22,7 @@ package com.temenos.interaction.core.hypermedia.expression;
  */
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -43,6 +44,7 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.temenos.interaction.core.MultivaluedMapImpl;
 import com.temenos.interaction.core.command.CommandController;
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionCommand.Result;
@@ -54,10 +56,12 @@ import com.temenos.interaction.core.entity.EntityMetadata;
 import com.temenos.interaction.core.entity.Metadata;
 import com.temenos.interaction.core.hypermedia.Action;
 import com.temenos.interaction.core.hypermedia.Action.TYPE;
+import com.temenos.interaction.core.hypermedia.BeanTransformer;
 import com.temenos.interaction.core.hypermedia.ResourceState;
 import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
 import com.temenos.interaction.core.hypermedia.Transition;
 import com.temenos.interaction.core.hypermedia.expression.ResourceGETExpression.Function;
+import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.rim.HTTPHypermediaRIM;
 import com.temenos.interaction.core.web.RequestContext;
 
@@ -139,7 +143,7 @@ public class TestResourceGETExpression {
 		expressions.add(new ResourceGETExpression(pwaiting, Function.NOT_FOUND));
 		initial.addTransition(new Transition.Builder().method("PUT").target(paymentDetails).uriParameters(uriLinkageMap).flags(transitionFlags).evaluation(new SimpleLogicalExpressionEvaluator(expressions)).label("Make a payment").build());
 
-		return new ResourceStateMachine(initial);
+		return new ResourceStateMachine(initial, new BeanTransformer());
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -159,6 +163,81 @@ public class TestResourceGETExpression {
 		assertTrue("We did a GET on 'pwaiting' and it was NOT_FOUND(404), therefore NOT_FOUND link condition evaluates to 'true'", result2);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRepeatedEvaluationWithinRequest() {
+		HTTPHypermediaRIM rimHandler = mockRimHandler();
+		ResourceStateMachine rsm = rimHandler.getHypermediaEngine();
+		rsm.setCommandController(mockCommandController());
+		InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), mock(MultivaluedMap.class), mock(MultivaluedMap.class), rsm.getInitial(), mock(Metadata.class));
+
+		long requests = ResourceGETResultCache.getRequestCount();
+		long saved = ResourceGETResultCache.getSavedByRequestCacheCount();
+		ResourceGETExpression rgeOK = new ResourceGETExpression(rsm.getResourceStateByName("pwaiting"), Function.OK);
+		ResourceGETExpression rgeNOT_FOUND = new ResourceGETExpression(rsm.getResourceStateByName("pwaiting"), Function.NOT_FOUND);
+		assertFalse(rgeOK.evaluate(rimHandler, ctx, null));
+		assertTrue(rgeNOT_FOUND.evaluate(rimHandler, ctx, null));
+		assertFalse(rgeOK.evaluate(rimHandler, ctx, null));
+		assertEquals(1, ResourceGETResultCache.getRequestCount() - requests);
+		assertEquals(2, ResourceGETResultCache.getSavedByRequestCacheCount() - saved);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSharedResultAcrossRequests() {
+		HTTPHypermediaRIM rimHandler = mockRimHandler();
+		ResourceStateMachine rsm = rimHandler.getHypermediaEngine();
+		rsm.setCommandController(mockCommandController());
+		ResourceGETExpression rgeNOT_FOUND = new ResourceGETExpression(rsm.getResourceStateByName("pwaiting"), Function.NOT_FOUND, 60);
+
+		long requests = ResourceGETResultCache.getRequestCount();
+		long saved = ResourceGETResultCache.getSavedBySharedCacheCount();
+		for (int i = 0; i < 3; i++) {
+			InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), mock(MultivaluedMap.class), mock(MultivaluedMap.class), rsm.getInitial(), mock(Metadata.class));
+			assertTrue(rgeNOT_FOUND.evaluate(rimHandler, ctx, null));
+		}
+		assertEquals(1, ResourceGETResultCache.getRequestCount() - requests);
+		assertEquals(2, ResourceGETResultCache.getSavedBySharedCacheCount() - saved);
+	}
+
+	/*
+	 * The GET is made with every property of the entity, not just those in the
+	 * path of the target, so entities that differ in any of them do not share
+	 * a result.
+	 */
+	@Test
+	public void testEntitiesDifferingOutsidePathNotShared() {
+		HTTPHypermediaRIM rimHandler = mockRimHandler();
+		ResourceStateMachine rsm = rimHandler.getHypermediaEngine();
+		rsm.setCommandController(mockCommandController());
+		InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), new MultivaluedMapImpl<String>(), new MultivaluedMapImpl<String>(), rsm.getInitial(), mock(Metadata.class));
+
+		long requests = ResourceGETResultCache.getRequestCount();
+		ResourceGETExpression rgeNOT_FOUND = new ResourceGETExpression(rsm.getResourceStateByName("pwaiting"), Function.NOT_FOUND);
+		assertTrue(rgeNOT_FOUND.evaluate(rimHandler, ctx, new EntityResource<Object>(new Booking("1", "open"))));
+		assertTrue(rgeNOT_FOUND.evaluate(rimHandler, ctx, new EntityResource<Object>(new Booking("1", "closed"))));
+		assertTrue(rgeNOT_FOUND.evaluate(rimHandler, ctx, new EntityResource<Object>(new Booking("1", "closed"))));
+		assertEquals(2, ResourceGETResultCache.getRequestCount() - requests);
+	}
+
+	public static class Booking {
+		private final String bookingId;
+		private final String status;
+
+		public Booking(String bookingId, String status) {
+			this.bookingId = bookingId;
+			this.status = status;
+		}
+
+		public String getBookingId() {
+			return bookingId;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	@Ignore
@@ -0,0 +1,211 @@
+package com.temenos.interaction.core.loader;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.temenos.interaction.core.hypermedia.Action;
+import com.temenos.interaction.core.hypermedia.CollectionResourceState;
+import com.temenos.interaction.core.hypermedia.DynamicResourceState;
+import com.temenos.interaction.core.hypermedia.LazyResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.hypermedia.UriSpecification;
+import com.temenos.interaction.core.hypermedia.expression.Expression;
+import com.temenos.interaction.core.hypermedia.expression.ResourceGETExpression;
+import com.temenos.interaction.core.hypermedia.expression.SimpleLogicalExpressionEvaluator;
+
+public class TestResourceStateSnapshot {
+    private static final byte[] SOURCE = "<beans/>".getBytes(StandardCharsets.UTF_8);
+
+    private Map<String, ResourceState> createStates() {
+        Properties properties = new Properties();
+        properties.setProperty("filter", "code eq '{code}'");
+        List<Action> actions = new ArrayList<Action>();
+        Action view = new Action("GETEntities", Action.TYPE.VIEW, properties);
+        view.setMaxage(30);
+        actions.add(view);
+        actions.add(new Action("CreateEntity", Action.TYPE.ENTRY, null, "POST"));
+        ResourceState error = new ResourceState("Error", "error", new ArrayList<Action>(), "/error");
+        CollectionResourceState customers = new CollectionResourceState("Customer", "customers", actions, "/Customers()",
+                null, new UriSpecification("customers", "/Customers()"), error);
+        customers.setInitial(true);
+        customers.setMaxAge(60);
+
+        Map<String, String> uriParameters = new LinkedHashMap<String, String>();
+        uriParameters.put("id", "{code}");
+        List<Expression> expressions = new ArrayList<Expression>();
+        expressions.add(new ResourceGETExpression(new LazyResourceState("Customer_notes"), ResourceGETExpression.Function.OK, 5));
+        customers.addTransition(new Transition.Builder()
+                .target(new LazyResourceState("Customer_customer"))
+                .method("GET")
+                .flags(Transition.FOR_EACH)
+                .label("customer")
+                .linkId("123")
+                .uriParameters(uriParameters)
+                .evaluation(new SimpleLogicalExpressionEvaluator(expressions))
+                .build());
+        customers.addTransition(new Transition.Builder()
+                .target(new DynamicResourceState("Customer", "dynamic", "locator", "arg1", "arg2"))
+                .method("GET")
+                .sourceField("ref")
+                .build());
+        customers.addTransition(new Transition.Builder()
+                .target(error)
+                .flags(Transition.AUTO)
+                .build());
+
+        Map<String, ResourceState> states = new LinkedHashMap<String, ResourceState>();
+        states.put("Customer_customers", customers);
+        states.put("Customer_error", error);
+        return states;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] snapshot = ResourceStateSnapshot.compile(createStates(), SOURCE);
+        Map<String, ResourceState> states = ResourceStateSnapshot.read(ByteBuffer.wrap(snapshot), SOURCE);
+        assertNotNull(states);
+        assertEquals(Arrays.asList("Customer_customers", "Customer_error"), new ArrayList<String>(states.keySet()));
+
+        ResourceState customers = states.get("Customer_customers");
+        assertEquals(CollectionResourceState.class, customers.getClass());
+        assertEquals("Customer", customers.getEntityName());
+        assertEquals("/Customers()", customers.getPath());
+        assertArrayEquals(new String[] { "collection" }, customers.getRels());
+        assertEquals("/Customers()", customers.getUriSpecification().getTemplate());
+        assertTrue(customers.isInitial());
+        assertFalse(customers.isException());
+        assertEquals(60, customers.getMaxAge());
+        // shared instances stay shared
+        assertSame(states.get("Customer_error"), customers.getErrorState());
+
+        assertEquals(2, customers.getActions().size());
+        Action view = customers.getActions().get(0);
+        assertEquals("GETEntities", view.getName());
+        assertEquals(Action.TYPE.VIEW, view.getType());
+        assertEquals(30, view.getMaxage());
+        assertEquals("code eq '{code}'", view.getProperties().getProperty("filter"));
+        Action entry = customers.getActions().get(1);
+        assertEquals("POST", entry.getMethod());
+        assertNull(entry.getProperties());
+
+        List<Transition> transitions = customers.getTransitions();
+        assertEquals(3, transitions.size());
+        Transition toCustomer = transitions.get(0);
+        assertSame(customers, toCustomer.getSource());
+        assertEquals(LazyResourceState.class, toCustomer.getTarget().getClass());
+        assertEquals("Customer_customer", toCustomer.getTarget().getName());
+        assertEquals("GET", toCustomer.getCommand().getMethod());
+        assertEquals(Transition.FOR_EACH, toCustomer.getCommand().getFlags());
+        assertEquals("customer", toCustomer.getLabel());
+        assertEquals("123", toCustomer.getLinkId());
+        Map<String, String> expectedParameters = new HashMap<String, String>();
+        expectedParameters.put("id", "{code}");
+        assertEquals(expectedParameters, toCustomer.getCommand().getUriParameters());
+        SimpleLogicalExpressionEvaluator evaluation = (SimpleLogicalExpressionEvaluator) toCustomer.getCommand().getEvaluation();
+        ResourceGETExpression expression = (ResourceGETExpression) evaluation.getExpressions().get(0);
+        assertEquals("Customer_notes", expression.getState());
+        assertEquals(ResourceGETExpression.Function.OK, expression.getFunction());
+        assertEquals(5, expression.cacheMaxAge);
+
+        DynamicResourceState dynamic = (DynamicResourceState) transitions.get(1).getTarget();
+        assertEquals("locator", dynamic.getResourceLocatorName());
+        assertArrayEquals(new String[] { "arg1", "arg2" }, dynamic.getResourceLocatorArgs());
+        assertEquals("ref", transitions.get(1).getSourceField());
+
+        assertSame(customers.getErrorState(), transitions.get(2).getTarget());
+        assertNull(transitions.get(2).getCommand().getMethod());
+    }
+
+    @Test
+    public void testStaleSource() throws IOException {
+        byte[] snapshot = ResourceStateSnapshot.compile(createStates(), SOURCE);
+        assertNull(ResourceStateSnapshot.read(ByteBuffer.wrap(snapshot), "<beans />".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptSnapshot() throws IOException {
+        byte[] snapshot = ResourceStateSnapshot.compile(createStates(), SOURCE);
+        snapshot[snapshot.length - 3] ^= 0x55;
+        ResourceStateSnapshot.read(ByteBuffer.wrap(snapshot), SOURCE);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshot() throws IOException {
+        byte[] snapshot = ResourceStateSnapshot.compile(createStates(), SOURCE);
+        ResourceStateSnapshot.read(ByteBuffer.wrap(Arrays.copyOf(snapshot, snapshot.length - 1)), SOURCE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedState() {
+        ResourceState parent = new ResourceState("Customer", "customer", new ArrayList<Action>(), "/Customer");
+        Map<String, ResourceState> states = new HashMap<String, ResourceState>();
+        states.put("Customer_pseudo", new ResourceState(parent, "pseudo", new ArrayList<Action>()));
+        ResourceStateSnapshot.compile(states, SOURCE);
+    }
+
+    @Test
+    public void testWriteAndReadFile() throws IOException {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+        File source = new File(dir, "IRIS-Customer-PRD.xml");
+        Files.write(source.toPath(), SOURCE);
+        File snapshot = new File(dir, ResourceStateSnapshot.getSnapshotName(source.getName()));
+        try {
+            assertEquals("IRIS-Customer-PRD.snapshot", snapshot.getName());
+            assertNull(ResourceStateSnapshot.read(snapshot, source));
+            assertTrue(ResourceStateSnapshot.write(createStates(), source, snapshot));
+            Map<String, ResourceState> states = ResourceStateSnapshot.read(snapshot, source);
+            assertNotNull(states);
+            assertEquals(3, states.get("Customer_customers").getTransitions().size());
+
+            // changing the xml makes the snapshot stale
+            Files.write(source.toPath(), "<beans></beans>".getBytes(StandardCharsets.UTF_8));
+            assertNull(ResourceStateSnapshot.read(snapshot, source));
+        } finally {
+            snapshot.delete();
+            source.delete();
+            dir.delete();
+        }
+    }
+}
@@ -22,11 +22,22 @@ package com.temenos.interaction.core.resource;
  */
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
@@ -61,4 +72,116 @@ public class TestResourceMetadataManager {
 		Metadata metadata = mdProducer.getMetadata("CustomerInfo");
 		assertNotNull(metadata);
 	}
+
+	/*
+	 * Serves metadata.xml from metadata-CountryList.xml, counting lookups and
+	 * holding loads until released
+	 */
+	private static class CountingConfigLoader extends ConfigLoader {
+		final AtomicInteger lookups = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		CountingConfigLoader(boolean hold) {
+			if (!hold) {
+				release.countDown();
+			}
+		}
+
+		@Override
+		public boolean isExist(String filename) {
+			lookups.incrementAndGet();
+			return "metadata.xml".equals(filename) || super.isExist(filename);
+		}
+
+		@Override
+		public InputStream load(String filename) throws Exception {
+			release.await(5, TimeUnit.SECONDS);
+			return super.load("metadata.xml".equals(filename) ? "metadata-CountryList.xml" : filename);
+		}
+	}
+
+	@Test
+	public void testConcurrentLoadsParseOnce() throws Exception {
+		final ResourceMetadataManager mdProducer = new ResourceMetadataManager();
+		CountingConfigLoader configLoader = new CountingConfigLoader(true);
+		mdProducer.setConfigLoader(configLoader);
+		Callable<Metadata> load = new Callable<Metadata>() {
+			@Override
+			public Metadata call() {
+				return mdProducer.getMetadata("CustomerInfo");
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Metadata> first = executor.submit(load);
+			Future<Metadata> second = executor.submit(load);
+			for (int i = 0; i < 500 && mdProducer.getSharedLoadCount() == 0; i++) {
+				Thread.sleep(10);
+			}
+			configLoader.release.countDown();
+			assertSame(first.get(), second.get());
+			assertEquals(1, mdProducer.getParseCount());
+			assertEquals(1, mdProducer.getSharedLoadCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDefaultMetadataParsedOnce() {
+		ResourceMetadataManager mdProducer = new ResourceMetadataManager();
+		mdProducer.setConfigLoader(new CountingConfigLoader(false));
+		Metadata metadata = mdProducer.getMetadata("Airline");
+		assertNotNull(metadata.getEntityMetadata("CountryList"));
+		assertSame(metadata, mdProducer.getMetadata("Flight"));
+		assertEquals(1, mdProducer.getParseCount());
+	}
+
+	@Test
+	public void testUnknownEntityRemembered() {
+		ResourceMetadataManager mdProducer = new ResourceMetadataManager();
+		CountingConfigLoader configLoader = new CountingConfigLoader(false);
+		mdProducer.setConfigLoader(configLoader);
+		mdProducer.setUnknownEntityTtlMillis(1000);
+		assertNull(mdProducer.getMetadataForEntity("Airline", 0));
+		int lookups = configLoader.lookups.get();
+		assertNull(mdProducer.getMetadataForEntity("Airline", 999));
+		assertEquals(lookups, configLoader.lookups.get());
+		assertEquals(1, mdProducer.getUnknownEntityHitCount());
+
+		// looked for again once forgotten
+		assertNull(mdProducer.getMetadataForEntity("Airline", 1000));
+		assertEquals(lookups + 1, configLoader.lookups.get());
+		assertEquals(1, mdProducer.getParseCount());
+		assertNotNull(mdProducer.getMetadataForEntity("CountryList", 1000));
+	}
+
+	@Test
+	public void testUnloadForgetsUnknownEntity() {
+		ResourceMetadataManager mdProducer = new ResourceMetadataManager();
+		CountingConfigLoader configLoader = new CountingConfigLoader(false);
+		mdProducer.setConfigLoader(configLoader);
+		mdProducer.setUnknownEntityTtlMillis(60000);
+		assertNull(mdProducer.getMetadataForEntity("Airline", 0));
+		int lookups = configLoader.lookups.get();
+
+		// as the dynamic loader does when metadata-Airline.xml is deployed
+		new Metadata(mdProducer).unload("Airline");
+		assertNull(mdProducer.getMetadataForEntity("Airline", 1));
+		assertEquals(lookups + 1, configLoader.lookups.get());
+		assertEquals(0, mdProducer.getUnknownEntityHitCount());
+	}
+
+	@Test
+	public void testUnloadDropsDefaultMetadata() {
+		ResourceMetadataManager mdProducer = new ResourceMetadataManager();
+		mdProducer.setConfigLoader(new CountingConfigLoader(false));
+		Metadata metadata = mdProducer.getMetadata("Airline");
+		mdProducer.unload("Airline");
+		Metadata reloaded = mdProducer.getMetadata("Airline");
+		assertNotSame(metadata, reloaded);
+		assertNotNull(reloaded.getEntityMetadata("CountryList"));
+		assertEquals(2, mdProducer.getParseCount());
+		assertSame(reloaded, mdProducer.getMetadata("Flight"));
+	}
 }
@@ -0,0 +1,237 @@
+package com.temenos.interaction.core.rim;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.temenos.interaction.core.command.HttpStatusTypes;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.hypermedia.Action;
+import com.temenos.interaction.core.hypermedia.LazyResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
+import com.temenos.interaction.core.hypermedia.ResourceStateProvider;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.resource.EntityResource;
+
+public class TestConcurrentResourceRequestHandler {
+
+	/*
+	 * Runs the request registered for the name of each transition's target
+	 * instead of going through the RIM.
+	 */
+	private static class StubHandler extends ConcurrentResourceRequestHandler {
+		private final Map<String, Callable<ResourceRequestResult>> requests = new ConcurrentHashMap<String, Callable<ResourceRequestResult>>();
+		private final Map<String, ResourceState> targets = new ConcurrentHashMap<String, ResourceState>();
+		private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+		StubHandler(ExecutorService executor, long timeoutMillis) {
+			super(executor, timeoutMillis);
+		}
+
+		@Override
+		protected ResourceRequestResult getResource(HTTPHypermediaRIM rimHandler, HttpHeaders headers, InteractionContext ctx, EntityResource<?> resource, Object entity, ResourceRequestConfig config, Transition t) {
+			threads.add(Thread.currentThread());
+			targets.put(t.getTarget().getName(), t.getTarget());
+			try {
+				return requests.get(t.getTarget().getName()).call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static Callable<ResourceRequestResult> ok() {
+		return new Callable<ResourceRequestResult>() {
+			@Override
+			public ResourceRequestResult call() {
+				return new ResourceRequestResult(200, null);
+			}
+		};
+	}
+
+	private static Callable<ResourceRequestResult> blockUntilInterrupted(final CountDownLatch started, final CountDownLatch interrupted) {
+		return new Callable<ResourceRequestResult>() {
+			@Override
+			public ResourceRequestResult call() {
+				started.countDown();
+				try {
+					new CountDownLatch(1).await();
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return new ResourceRequestResult(200, null);
+			}
+		};
+	}
+
+	private static Transition createTransition(ResourceState target) {
+		return new Transition.Builder().method("GET").target(target).build();
+	}
+
+	private static Transition createTransition(String targetName) {
+		return createTransition(new ResourceState("ENTITY", targetName, new ArrayList<Action>(), "/" + targetName));
+	}
+
+	private static ResourceRequestConfig createConfig(Transition... transitions) {
+		ResourceRequestConfig.Builder builder = new ResourceRequestConfig.Builder();
+		for (Transition t : transitions) {
+			builder.transition(t);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void testDeadlineGatewayTimeout() throws Exception {
+		StubHandler handler = new StubHandler(Executors.newFixedThreadPool(2), 100);
+		try {
+			Transition profile = createTransition("profile");
+			Transition preferences = createTransition("preferences");
+			CountDownLatch interrupted = new CountDownLatch(1);
+			handler.requests.put("profile", ok());
+			handler.requests.put("preferences", blockUntilInterrupted(new CountDownLatch(1), interrupted));
+
+			Map<Transition, ResourceRequestResult> results = handler.getResources(mock(HTTPHypermediaRIM.class), null, null, null, null, createConfig(profile, preferences));
+			assertEquals(200, results.get(profile).getStatus());
+			assertEquals(HttpStatusTypes.GATEWAY_TIMEOUT.getStatusCode(), results.get(preferences).getStatus());
+			// the request still running at the deadline is cancelled
+			assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		} finally {
+			handler.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailureCancelsSiblings() throws Exception {
+		StubHandler handler = new StubHandler(Executors.newFixedThreadPool(2), 10000);
+		try {
+			Transition profile = createTransition("profile");
+			Transition preferences = createTransition("preferences");
+			final CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch interrupted = new CountDownLatch(1);
+			final IllegalStateException failure = new IllegalStateException("profile failed");
+			handler.requests.put("profile", new Callable<ResourceRequestResult>() {
+				@Override
+				public ResourceRequestResult call() throws Exception {
+					// fail once the other request is running
+					started.await();
+					throw failure;
+				}
+			});
+			handler.requests.put("preferences", blockUntilInterrupted(started, interrupted));
+
+			try {
+				handler.getResources(mock(HTTPHypermediaRIM.class), null, null, null, null, createConfig(profile, preferences));
+				fail("Expected the failure to be rethrown");
+			} catch (IllegalStateException e) {
+				assertSame(failure, e);
+			}
+			assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		} finally {
+			handler.shutdown();
+		}
+	}
+
+	@Test
+	public void testRejectedRequestsRunOnCallingThread() {
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		// a shut down executor rejects everything submitted to it
+		executor.shutdown();
+		StubHandler handler = new StubHandler(executor, 10000);
+		Transition profile = createTransition("profile");
+		Transition preferences = createTransition("preferences");
+		handler.requests.put("profile", ok());
+		handler.requests.put("preferences", ok());
+
+		Map<Transition, ResourceRequestResult> results = handler.getResources(mock(HTTPHypermediaRIM.class), null, null, null, null, createConfig(profile, preferences));
+		assertEquals(200, results.get(profile).getStatus());
+		assertEquals(200, results.get(preferences).getStatus());
+		assertEquals(Collections.singleton(Thread.currentThread()), handler.threads);
+	}
+
+	@Test
+	public void testLazyTargetsResolvedOnCallingThread() {
+		final ResourceState profileState = new ResourceState("ENTITY", "profile", new ArrayList<Action>(), "/profile");
+		final ResourceState preferencesState = new ResourceState("ENTITY", "preferences", new ArrayList<Action>(), "/preferences");
+		final Set<Thread> resolvingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+		ResourceStateProvider provider = mock(ResourceStateProvider.class);
+		when(provider.getResourceState("profile")).thenAnswer(new Answer<ResourceState>() {
+			@Override
+			public ResourceState answer(InvocationOnMock invocation) {
+				resolvingThreads.add(Thread.currentThread());
+				return profileState;
+			}
+		});
+		when(provider.getResourceState("preferences")).thenAnswer(new Answer<ResourceState>() {
+			@Override
+			public ResourceState answer(InvocationOnMock invocation) {
+				resolvingThreads.add(Thread.currentThread());
+				return preferencesState;
+			}
+		});
+		ResourceStateMachine hypermediaEngine = mock(ResourceStateMachine.class);
+		when(hypermediaEngine.getResourceStateProvider()).thenReturn(provider);
+		HTTPHypermediaRIM rimHandler = mock(HTTPHypermediaRIM.class);
+		when(rimHandler.getHypermediaEngine()).thenReturn(hypermediaEngine);
+
+		StubHandler handler = new StubHandler(Executors.newFixedThreadPool(2), 10000);
+		try {
+			Transition profile = createTransition(new LazyResourceState("profile"));
+			Transition preferences = createTransition(new LazyResourceState("preferences"));
+			handler.requests.put("profile", ok());
+			handler.requests.put("preferences", ok());
+
+			handler.getResources(rimHandler, null, null, null, null, createConfig(profile, preferences));
+			// the shared transitions are only changed on the calling thread
+			assertEquals(Collections.singleton(Thread.currentThread()), resolvingThreads);
+			assertSame(profileState, handler.targets.get("profile"));
+			assertSame(preferencesState, handler.targets.get("preferences"));
+		} finally {
+			handler.shutdown();
+		}
+	}
+}
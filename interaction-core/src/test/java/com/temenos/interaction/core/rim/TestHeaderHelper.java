@@ -25,8 +25,10 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
@@ -132,6 +134,17 @@ public class TestHeaderHelper {
 		assertEquals("ABCDEFG", r.getMetadata().getFirst(HttpHeaders.ETAG));
 	}
 
+	@Test
+	public void testEntityTagMatches() {
+		assertTrue(HeaderHelper.entityTagMatches("\"ABC\"", "\"ABC\""));
+		assertTrue(HeaderHelper.entityTagMatches("\"XYZ\", \"ABC\"", "\"ABC\""));
+		assertTrue(HeaderHelper.entityTagMatches("W/\"ABC\"", "\"ABC\""));
+		assertTrue(HeaderHelper.entityTagMatches("\"ABC\"", "W/\"ABC\""));
+		assertFalse(HeaderHelper.entityTagMatches("\"XYZ\", \"ABCD\"", "\"ABC\""));
+		assertFalse(HeaderHelper.entityTagMatches(null, "\"ABC\""));
+		assertFalse(HeaderHelper.entityTagMatches("\"ABC\"", null));
+	}
+
 	@Test
 	public void testEtagNull() {
 		Response r = HeaderHelper.etagHeader(Response.ok(), null).build();
@@ -44,9 +44,11 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -72,6 +74,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.temenos.interaction.core.MultivaluedMapHelper;
 import com.temenos.interaction.core.MultivaluedMapImpl;
+import com.temenos.interaction.core.cache.BoundedResponseCache;
 import com.temenos.interaction.core.command.CommandController;
 import com.temenos.interaction.core.command.CommandHelper;
 import com.temenos.interaction.core.command.GETExceptionCommand;
@@ -100,9 +103,11 @@ import com.temenos.interaction.core.hypermedia.Transition;
 import com.temenos.interaction.core.hypermedia.expression.Expression;
 import com.temenos.interaction.core.hypermedia.expression.ResourceGETExpression;
 import com.temenos.interaction.core.hypermedia.expression.SimpleLogicalExpressionEvaluator;
+import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.RESTResource;
 import com.temenos.interaction.core.resource.ResourceTypeHelper;
+import com.temenos.interaction.core.resource.StreamedCollection;
 import com.temenos.interaction.core.web.RequestContext;
 
 @RunWith(PowerMockRunner.class)
@@ -1969,6 +1974,20 @@ public class TestResponseHTTPHypermediaRIM {
 		assertNull("Should not have a response body", ge);
 	}
 	
+	/*
+	 * Test to ensure we return a 304 Not modified if the etag of the response is one of
+	 * the etags listed on the request's If-None-Match header.
+	 */
+	@Test
+	public void testBuildResponseWith304NotModifiedTagList() {
+		HttpHeaders httpHeaders = mock(HttpHeaders.class);
+		when(httpHeaders.getRequestHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(Collections.singletonList("\"XYZ\", \"ABCDEFG\""));
+
+		Response response = getMockResponse(getEntityMockCommand("TestEntity", new EntityProperties(), "\"ABCDEFG\""), null, httpHeaders);
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+		assertNull("Should not have a response body", response.getEntity());
+	}
+
 	/*
 	 * Test to ensure we return a 200 Success if the etag of the response is not the same
 	 * as the etag on the request's If-None-Match header.
@@ -2005,6 +2024,58 @@ public class TestResponseHTTPHypermediaRIM {
 			fail("Response body is not an entity resource type.");
 		}
 	}
+
+	/*
+	 * Test that a collection is answered from the response cache on a repeated
+	 * GET, unless it is streamed as its entities can only be written once.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRepeatedGETStreamedCollectionNotCached() throws Exception {
+		InteractionCommand listCommand = mockCollectionCommand(new ArrayList<EntityResource<Entity>>());
+		getCachedCollection(listCommand);
+		verify(listCommand, times(1)).execute(any(InteractionContext.class));
+
+		InteractionCommand streamCommand = mockCollectionCommand(mock(StreamedCollection.class));
+		Response response = getCachedCollection(streamCommand);
+		verify(streamCommand, times(2)).execute(any(InteractionContext.class));
+		// the client may still cache it
+		assertNotNull(response.getMetadata().getFirst(HttpHeaders.CACHE_CONTROL));
+	}
+
+	private InteractionCommand mockCollectionCommand(final Collection<EntityResource<Entity>> entities) throws InteractionException {
+		InteractionCommand command = mock(InteractionCommand.class);
+		when(command.execute(any(InteractionContext.class))).thenAnswer(new Answer<Result>() {
+			@Override
+			public Result answer(InvocationOnMock invocation) {
+				InteractionContext ctx = (InteractionContext) invocation.getArguments()[0];
+				ctx.setResource(new CollectionResource<Entity>("entities", entities));
+				return Result.SUCCESS;
+			}
+		});
+		return command;
+	}
+
+	/*
+	 * GET a cacheable collection twice, returning the second response
+	 */
+	private Response getCachedCollection(InteractionCommand command) throws Exception {
+		CommandController mockCommandController = mock(CommandController.class);
+		when(mockCommandController.fetchCommand("GET")).thenReturn(command);
+		CollectionResourceState initialState = new CollectionResourceState("entity", "state", mockActions(), "/entities");
+		initialState.setInitial(true);
+		initialState.setMaxAge(60);
+		ResourceStateMachine hypermediaEngine = new ResourceStateMachine(initialState);
+		hypermediaEngine.setCache(new BoundedResponseCache(10));
+		HTTPHypermediaRIM rim = new HTTPHypermediaRIM(mockCommandController, hypermediaEngine, createMockMetadata());
+		UriInfo uriInfo = mockEmptyUriInfo();
+		when(uriInfo.getRequestUri()).thenReturn(new URI("http://localhost/baseuri/entities"));
+
+		assertEquals(Status.OK.getStatusCode(), rim.get(mock(HttpHeaders.class), "id", uriInfo).getStatus());
+		Response response = rim.get(mock(HttpHeaders.class), "id", uriInfo);
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		return response;
+	}
 	
 	/*
 	 * This test is for a POST request that creates a new resource, and returns
@@ -0,0 +1,174 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Test;
+
+import com.temenos.interaction.core.command.InteractionCommand;
+import com.temenos.interaction.core.command.InteractionCommand.Result;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
+
+public class TestBulkheadWorkflowStrategyCommand {
+
+	// holds its caller until released
+	private static class BlockingCommand implements InteractionCommand {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public Result execute(InteractionContext ctx) throws InteractionException {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Result.SUCCESS;
+		}
+	}
+
+	private Thread executeInBackground(final InteractionCommand command) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					command.execute(mock(InteractionContext.class));
+				} catch (InteractionException e) {
+					// not expected
+				}
+			}
+		});
+		t.start();
+		return t;
+	}
+
+	@Test
+	public void testRejectsWhenFull() throws Exception {
+		BlockingCommand command = new BlockingCommand();
+		BulkheadWorkflowStrategyCommand w = new BulkheadWorkflowStrategyCommand(command, 1);
+		Thread t = executeInBackground(w);
+		assertTrue(command.entered.await(5, TimeUnit.SECONDS));
+		assertEquals(0, w.getAvailablePermits());
+		try {
+			w.execute(mock(InteractionContext.class));
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(Status.SERVICE_UNAVAILABLE, e.getHttpStatus());
+		}
+		assertEquals(1, w.getRejectionCount());
+
+		command.release.countDown();
+		t.join(5000);
+		assertEquals(1, w.getAvailablePermits());
+		assertEquals(Result.SUCCESS, w.execute(mock(InteractionContext.class)));
+	}
+
+	@Test
+	public void testWaitsForPermit() throws Exception {
+		BlockingCommand command = new BlockingCommand();
+		BulkheadWorkflowStrategyCommand w = new BulkheadWorkflowStrategyCommand(command, new Semaphore(1), 5000);
+		Thread t = executeInBackground(w);
+		assertTrue(command.entered.await(5, TimeUnit.SECONDS));
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					// release anyway
+				}
+				command.release.countDown();
+			}
+		}).start();
+		assertEquals(Result.SUCCESS, w.execute(mock(InteractionContext.class)));
+		t.join(5000);
+		assertEquals(0, w.getRejectionCount());
+	}
+
+	@Test
+	public void testReleasesOnException() throws InteractionException {
+		InteractionCommand command = mock(InteractionCommand.class);
+		when(command.execute(any(InteractionContext.class))).thenThrow(new InteractionException(Status.INTERNAL_SERVER_ERROR));
+		BulkheadWorkflowStrategyCommand w = new BulkheadWorkflowStrategyCommand(command, 1);
+		try {
+			w.execute(mock(InteractionContext.class));
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(Status.INTERNAL_SERVER_ERROR, e.getHttpStatus());
+		}
+		assertEquals(1, w.getAvailablePermits());
+	}
+
+	@Test
+	public void testSharedPermits() throws Exception {
+		Semaphore permits = new Semaphore(1);
+		BlockingCommand command = new BlockingCommand();
+		BulkheadWorkflowStrategyCommand w1 = new BulkheadWorkflowStrategyCommand(command, permits, 0);
+		BulkheadWorkflowStrategyCommand w2 = new BulkheadWorkflowStrategyCommand(mock(InteractionCommand.class), permits, 0);
+		Thread t = executeInBackground(w1);
+		assertTrue(command.entered.await(5, TimeUnit.SECONDS));
+		try {
+			w2.execute(mock(InteractionContext.class));
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(Status.SERVICE_UNAVAILABLE, e.getHttpStatus());
+		}
+		command.release.countDown();
+		t.join(5000);
+	}
+
+	@Test
+	public void testProperties() {
+		Properties properties = new Properties();
+		assertFalse(BulkheadWorkflowStrategyCommand.isConfigured(properties));
+		properties.put(BulkheadWorkflowStrategyCommand.MAX_CONCURRENT, "10");
+		assertTrue(BulkheadWorkflowStrategyCommand.isConfigured(properties));
+		assertEquals(10, BulkheadWorkflowStrategyCommand.getMaxConcurrent(properties));
+		assertEquals(0, BulkheadWorkflowStrategyCommand.getMaxWaitMillis(properties));
+		properties.put(BulkheadWorkflowStrategyCommand.MAX_WAIT, "250");
+		assertEquals(250, BulkheadWorkflowStrategyCommand.getMaxWaitMillis(properties));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxConcurrent() {
+		Properties properties = new Properties();
+		properties.put(BulkheadWorkflowStrategyCommand.MAX_CONCURRENT, "0");
+		BulkheadWorkflowStrategyCommand.getMaxConcurrent(properties);
+	}
+}
@@ -0,0 +1,256 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Test;
+
+import com.temenos.interaction.core.command.InteractionCommand;
+import com.temenos.interaction.core.command.InteractionCommand.Result;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
+import com.temenos.interaction.core.workflow.RollingWindowCircuitBreaker.State;
+
+public class TestCircuitBreakerWorkflowStrategyCommand {
+
+	private static class ManualClockCircuitBreaker extends RollingWindowCircuitBreaker {
+		long now = 0;
+
+		ManualClockCircuitBreaker(int windowSize) {
+			super("test", windowSize);
+		}
+
+		@Override
+		long nanoTime() {
+			return now;
+		}
+
+		void advanceMillis(long millis) {
+			now += TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	@Test
+	public void testOpensOnFailureRate() {
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(4);
+		cb.setFailureRateThreshold(50);
+		cb.onSuccess(0);
+		cb.onError(0);
+		cb.onSuccess(0);
+		assertEquals(State.CLOSED, cb.getState());
+		cb.onError(0);
+		assertEquals(State.OPEN, cb.getState());
+		assertFalse(cb.tryAcquirePermission());
+	}
+
+	@Test
+	public void testMinimumCalls() {
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(5);
+		cb.setFailureRateThreshold(50);
+		for (int i = 0; i < 4; i++) {
+			cb.onError(0);
+		}
+		assertEquals(State.CLOSED, cb.getState());
+		cb.onError(0);
+		assertEquals(State.OPEN, cb.getState());
+	}
+
+	@Test
+	public void testWindowForgetsOldCalls() {
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(4);
+		cb.setMinimumCalls(4);
+		cb.setFailureRateThreshold(75);
+		cb.onError(0);
+		cb.onError(0);
+		cb.onSuccess(0);
+		cb.onSuccess(0);
+		// the failures leave the window
+		cb.onSuccess(0);
+		cb.onSuccess(0);
+		cb.onError(0);
+		cb.onError(0);
+		assertEquals(State.CLOSED, cb.getState());
+		// three of the last four calls failed, five of all eight
+		cb.onError(0);
+		assertEquals(State.OPEN, cb.getState());
+	}
+
+	@Test
+	public void testOpensOnSlowCallRate() {
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(2);
+		cb.setSlowCallDurationMillis(100);
+		cb.setSlowCallRateThreshold(100);
+		cb.onSuccess(millis(150));
+		assertEquals(State.CLOSED, cb.getState());
+		cb.onSuccess(millis(99));
+		assertEquals(State.CLOSED, cb.getState());
+		cb.onSuccess(millis(100));
+		cb.onSuccess(millis(200));
+		assertEquals(State.CLOSED, cb.getState());
+
+		cb = new ManualClockCircuitBreaker(2);
+		cb.setMinimumCalls(2);
+		cb.setSlowCallDurationMillis(100);
+		cb.setSlowCallRateThreshold(100);
+		cb.onSuccess(millis(150));
+		cb.onSuccess(millis(100));
+		assertEquals(State.OPEN, cb.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbesClose() {
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(1);
+		cb.setOpenDurationMillis(1000);
+		cb.setHalfOpenCalls(2);
+		cb.onError(0);
+		assertFalse(cb.tryAcquirePermission());
+		cb.advanceMillis(1000);
+		assertEquals(State.HALF_OPEN, cb.getState());
+		assertTrue(cb.tryAcquirePermission());
+		assertTrue(cb.tryAcquirePermission());
+		// only the probes are let through
+		assertFalse(cb.tryAcquirePermission());
+		cb.onSuccess(0);
+		assertEquals(State.HALF_OPEN, cb.getState());
+		cb.onSuccess(0);
+		assertEquals(State.CLOSED, cb.getState());
+		assertTrue(cb.tryAcquirePermission());
+	}
+
+	@Test
+	public void testHalfOpenProbeFailureReopens() {
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(1);
+		cb.setOpenDurationMillis(1000);
+		cb.onError(0);
+		cb.advanceMillis(1000);
+		assertTrue(cb.tryAcquirePermission());
+		cb.onError(0);
+		assertEquals(State.OPEN, cb.getState());
+		assertFalse(cb.tryAcquirePermission());
+		cb.advanceMillis(999);
+		assertFalse(cb.tryAcquirePermission());
+		cb.advanceMillis(1);
+		assertTrue(cb.tryAcquirePermission());
+	}
+
+	@Test
+	public void testShortCircuit() throws InteractionException {
+		InteractionCommand command = mock(InteractionCommand.class);
+		when(command.execute(any(InteractionContext.class))).thenThrow(new InteractionException(Status.INTERNAL_SERVER_ERROR));
+		InteractionContext ctx = mock(InteractionContext.class);
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(2);
+		CircuitBreakerWorkflowStrategyCommand w = new CircuitBreakerWorkflowStrategyCommand(command, cb);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				w.execute(ctx);
+				fail("Expected exception");
+			} catch (InteractionException e) {
+				assertEquals(Status.INTERNAL_SERVER_ERROR, e.getHttpStatus());
+			}
+		}
+		try {
+			w.execute(ctx);
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(Status.SERVICE_UNAVAILABLE, e.getHttpStatus());
+		}
+		verify(command, times(2)).execute(ctx);
+		assertEquals(1, w.getShortCircuitCount());
+	}
+
+	@Test
+	public void testClientErrorIsNotFailure() throws InteractionException {
+		InteractionCommand command = mock(InteractionCommand.class);
+		when(command.execute(any(InteractionContext.class))).thenThrow(new InteractionException(Status.NOT_FOUND));
+		InteractionContext ctx = mock(InteractionContext.class);
+		ManualClockCircuitBreaker cb = new ManualClockCircuitBreaker(10);
+		cb.setMinimumCalls(1);
+		CircuitBreakerWorkflowStrategyCommand w = new CircuitBreakerWorkflowStrategyCommand(command, cb);
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				w.execute(ctx);
+				fail("Expected exception");
+			} catch (InteractionException e) {
+				assertEquals(Status.NOT_FOUND, e.getHttpStatus());
+			}
+		}
+		assertEquals(State.CLOSED, cb.getState());
+	}
+
+	@Test
+	public void testSuccess() throws InteractionException {
+		InteractionCommand command = mock(InteractionCommand.class);
+		when(command.execute(any(InteractionContext.class))).thenReturn(Result.SUCCESS);
+		CircuitBreakerWorkflowStrategyCommand w = new CircuitBreakerWorkflowStrategyCommand(command, new RollingWindowCircuitBreaker("test", 10));
+		assertEquals(Result.SUCCESS, w.execute(mock(InteractionContext.class)));
+	}
+
+	@Test
+	public void testCreateFromProperties() {
+		Properties properties = new Properties();
+		assertFalse(CircuitBreakerWorkflowStrategyCommand.isConfigured(properties));
+		properties.put(CircuitBreakerWorkflowStrategyCommand.FAILURE_RATE_THRESHOLD, "50");
+		properties.put(CircuitBreakerWorkflowStrategyCommand.MINIMUM_CALLS, "2");
+		properties.put(CircuitBreakerWorkflowStrategyCommand.WINDOW_SIZE, "2");
+		assertTrue(CircuitBreakerWorkflowStrategyCommand.isConfigured(properties));
+
+		RollingWindowCircuitBreaker cb = CircuitBreakerWorkflowStrategyCommand.createCircuitBreaker("test", properties);
+		cb.onSuccess(0);
+		assertEquals(State.CLOSED, cb.getState());
+		cb.onError(0);
+		assertEquals(State.OPEN, cb.getState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidProperty() {
+		Properties properties = new Properties();
+		properties.put(CircuitBreakerWorkflowStrategyCommand.FAILURE_RATE_THRESHOLD, "half");
+		CircuitBreakerWorkflowStrategyCommand.createCircuitBreaker("test", properties);
+	}
+}
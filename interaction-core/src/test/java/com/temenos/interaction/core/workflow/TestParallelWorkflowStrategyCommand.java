@@ -0,0 +1,327 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.Properties;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.Test;
+
+import com.temenos.interaction.core.MultivaluedMapImpl;
+import com.temenos.interaction.core.command.AttributeKey;
+import com.temenos.interaction.core.command.HttpStatusTypes;
+import com.temenos.interaction.core.command.InteractionCommand;
+import com.temenos.interaction.core.command.InteractionCommand.Result;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.command.InteractionException;
+import com.temenos.interaction.core.entity.Metadata;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.resource.RESTResource;
+
+public class TestParallelWorkflowStrategyCommand {
+
+	@SuppressWarnings("unchecked")
+	private InteractionContext createContext() {
+		return new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), mock(MultivaluedMap.class), mock(MultivaluedMap.class), mock(ResourceState.class), mock(Metadata.class));
+	}
+
+	private InteractionCommand setAttribute(final String name, final Object value) {
+		return new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				ctx.setAttribute(name, value);
+				return Result.SUCCESS;
+			}
+		};
+	}
+
+	private InteractionCommand returning(final Result result) {
+		return new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				return result;
+			}
+		};
+	}
+
+	private InteractionCommand throwing(final Status status) {
+		return new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) throws InteractionException {
+				throw new InteractionException(status);
+			}
+		};
+	}
+
+	@Test
+	public void testCommandsRunConcurrently() throws InteractionException {
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		InteractionCommand waitForOther = new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				try {
+					barrier.await(5, TimeUnit.SECONDS);
+					return Result.SUCCESS;
+				} catch (Exception e) {
+					return Result.FAILURE;
+				}
+			}
+		};
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(waitForOther);
+		w.addCommand(waitForOther);
+		assertEquals(Result.SUCCESS, w.execute(createContext()));
+	}
+
+	@Test
+	public void testChangesMerged() throws InteractionException {
+		final RESTResource resource = mock(RESTResource.class);
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				ctx.setAttribute("a", "1");
+				ctx.getResponseHeaders().put("X-A", "1");
+				return Result.SUCCESS;
+			}
+		});
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				// each command sees only its own changes
+				assertNull(ctx.getAttribute("a"));
+				ctx.setResource(resource);
+				ctx.removeAttribute("old");
+				return Result.SUCCESS;
+			}
+		});
+		InteractionContext ctx = createContext();
+		ctx.setAttribute("old", "0");
+		assertEquals(Result.SUCCESS, w.execute(ctx));
+		assertEquals("1", ctx.getAttribute("a"));
+		assertEquals("1", ctx.getResponseHeaders().get("X-A"));
+		assertSame(resource, ctx.getResource());
+		assertFalse(ctx.getAttributes().containsKey(AttributeKey.named("old")));
+	}
+
+	@Test
+	public void testQueryParametersMerged() throws InteractionException {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				ctx.getQueryParameters().add("$filter", "b eq 1");
+				return Result.SUCCESS;
+			}
+		});
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				// each command has its own query parameters
+				assertEquals("a eq 1", ctx.getQueryParameters().getFirst("$filter"));
+				assertEquals(1, ctx.getQueryParameters().get("$filter").size());
+				ctx.getQueryParameters().putSingle("$select", "a");
+				return Result.SUCCESS;
+			}
+		});
+		MultivaluedMap<String, String> queryParameters = new MultivaluedMapImpl<String>();
+		queryParameters.add("$filter", "a eq 1");
+		InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), new MultivaluedMapImpl<String>(), queryParameters, mock(ResourceState.class), mock(Metadata.class));
+		assertEquals(Result.SUCCESS, w.execute(ctx));
+		assertSame(queryParameters, ctx.getQueryParameters());
+		assertEquals(2, queryParameters.get("$filter").size());
+		assertEquals("a", queryParameters.getFirst("$select"));
+	}
+
+	@Test
+	public void testCallingThreadRunsLastCommand() throws InteractionException {
+		final AtomicReference<Thread> first = new AtomicReference<Thread>();
+		final AtomicReference<Thread> last = new AtomicReference<Thread>();
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				first.set(Thread.currentThread());
+				return Result.SUCCESS;
+			}
+		});
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				last.set(Thread.currentThread());
+				return Result.SUCCESS;
+			}
+		});
+		assertEquals(Result.SUCCESS, w.execute(createContext()));
+		assertNotSame(Thread.currentThread(), first.get());
+		assertSame(Thread.currentThread(), last.get());
+	}
+
+	@Test
+	public void testConflictLaterCommandWins() throws InteractionException {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(setAttribute("x", "first"));
+		w.addCommand(setAttribute("x", "second"));
+		InteractionContext ctx = createContext();
+		w.execute(ctx);
+		assertEquals("second", ctx.getAttribute("x"));
+	}
+
+	@Test
+	public void testSameChangeIsNotConflict() throws InteractionException {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.setFailOnConflict(true);
+		w.addCommand(setAttribute("x", "same"));
+		w.addCommand(setAttribute("x", "same"));
+		InteractionContext ctx = createContext();
+		w.execute(ctx);
+		assertEquals("same", ctx.getAttribute("x"));
+	}
+
+	@Test
+	public void testFailOnConflict() {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.setFailOnConflict(true);
+		w.addCommand(setAttribute("x", "first"));
+		w.addCommand(setAttribute("x", "second"));
+		try {
+			w.execute(createContext());
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(Status.INTERNAL_SERVER_ERROR, e.getHttpStatus());
+		}
+	}
+
+	@Test
+	public void testAnyFailure() throws InteractionException {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(returning(Result.SUCCESS));
+		w.addCommand(returning(Result.INVALID_REQUEST));
+		w.addCommand(returning(Result.FAILURE));
+		assertEquals(Result.INVALID_REQUEST, w.execute(createContext()));
+
+		w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(returning(Result.SUCCESS));
+		w.addCommand(throwing(Status.NOT_FOUND));
+		try {
+			w.execute(createContext());
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(Status.NOT_FOUND, e.getHttpStatus());
+		}
+	}
+
+	@Test
+	public void testAllFailure() throws InteractionException {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.setFailureMode(ParallelWorkflowStrategyCommand.FailureMode.ALL_FAILURE);
+		w.addCommand(throwing(Status.NOT_FOUND));
+		w.addCommand(returning(Result.CREATED));
+		assertEquals(Result.CREATED, w.execute(createContext()));
+
+		w = new ParallelWorkflowStrategyCommand();
+		w.setFailureMode(ParallelWorkflowStrategyCommand.FailureMode.ALL_FAILURE);
+		w.addCommand(returning(Result.FAILURE));
+		w.addCommand(throwing(Status.NOT_FOUND));
+		assertEquals(Result.FAILURE, w.execute(createContext()));
+	}
+
+	@Test
+	public void testTimeout() throws InteractionException {
+		InteractionCommand slow = new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) {
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				ctx.setAttribute("slow", "done");
+				return Result.SUCCESS;
+			}
+		};
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.setTimeoutMillis(100);
+		w.setFailureMode(ParallelWorkflowStrategyCommand.FailureMode.ALL_FAILURE);
+		w.addCommand(slow);
+		w.addCommand(setAttribute("fast", "done"));
+		InteractionContext ctx = createContext();
+		assertEquals(Result.SUCCESS, w.execute(ctx));
+		assertEquals("done", ctx.getAttribute("fast"));
+		assertNull(ctx.getAttribute("slow"));
+
+		w.setFailureMode(ParallelWorkflowStrategyCommand.FailureMode.ANY_FAILURE);
+		try {
+			w.execute(createContext());
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertEquals(HttpStatusTypes.GATEWAY_TIMEOUT, e.getHttpStatus());
+		}
+	}
+
+	@Test
+	public void testFailedCommandChangesDiscarded() {
+		ParallelWorkflowStrategyCommand w = new ParallelWorkflowStrategyCommand();
+		w.addCommand(new InteractionCommand() {
+			@Override
+			public Result execute(InteractionContext ctx) throws InteractionException {
+				ctx.setAttribute("x", "partial");
+				throw new InteractionException(Status.INTERNAL_SERVER_ERROR);
+			}
+		});
+		InteractionContext ctx = createContext();
+		try {
+			w.execute(ctx);
+			fail("Expected exception");
+		} catch (InteractionException e) {
+			assertNull(ctx.getAttribute("x"));
+		}
+	}
+
+	@Test
+	public void testProperties() {
+		Properties properties = new Properties();
+		assertFalse(ParallelWorkflowStrategyCommand.isParallel(properties));
+		properties.put(ParallelWorkflowStrategyCommand.PARALLEL, "true");
+		assertTrue(ParallelWorkflowStrategyCommand.isParallel(properties));
+		properties.put(ParallelWorkflowStrategyCommand.TIMEOUT, "100");
+		properties.put(ParallelWorkflowStrategyCommand.FAILURE_MODE, "ALL_FAILURE");
+		new ParallelWorkflowStrategyCommand().configure(properties);
+	}
+}
@@ -21,16 +21,38 @@ package com.temenos.interaction.core.workflow;
  * #L%
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.ws.rs.core.Response.Status;
 
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.temenos.interaction.core.command.InteractionCommand;
 import com.temenos.interaction.core.command.InteractionCommand.Result;
@@ -114,4 +136,324 @@ public class TestRetryWorkflowStrategyCommand {
 		assertTrue(exceptionThrown);
 		verify(mockCommand, times(1)).execute(any(InteractionContext.class));		
 	}
+
+	@Test
+	public void testCommandsRetryExecutionAsync() throws Exception {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class)))
+			.thenThrow(new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"))
+			.thenReturn(Result.SUCCESS);
+		
+		InteractionContext mockContext = mock(InteractionContext.class);
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 200);
+		Future<Result> future = w.executeAsync(mockContext);
+		assertFalse("returns before backing off", future.isDone());
+		assertEquals(Result.SUCCESS, future.get(5, TimeUnit.SECONDS));
+		verify(mockCommand, times(2)).execute(mockContext);
+		assertEquals(1, w.getRetryCount());
+	}
+	
+	@Test
+	public void testCommandsRetryExecutionAsyncFailure() throws Exception {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenThrow(
+				new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"));
+		
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 2, 1);
+		try {
+			w.executeAsync(mock(InteractionContext.class)).get(5, TimeUnit.SECONDS);
+			fail("Expected failure");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InteractionException);
+		}
+		verify(mockCommand, times(3)).execute(any(InteractionContext.class));
+		assertEquals(2, w.getRetryCount());
+		assertEquals(1, w.getGiveUpCount());
+	}
+	
+	@Test
+	public void testRetryBudget() throws InteractionException {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenThrow(
+				new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"));
+		
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		w.setRetryBudget(0.1, 2);
+		try {
+			w.execute(mock(InteractionContext.class));
+			fail("Expected failure");
+		} catch (InteractionException e) {
+			// only the reserve of 2 retries was available
+		}
+		verify(mockCommand, times(3)).execute(any(InteractionContext.class));
+		assertEquals(2, w.getRetryCount());
+		assertEquals(1, w.getGiveUpCount());
+	}
+	
+	@Test
+	public void testCircuitBreakerShortCircuit() throws InteractionException {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		CircuitBreaker breaker = mock(CircuitBreaker.class);
+		when(breaker.tryAcquirePermission()).thenReturn(false);
+		
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		w.setCircuitBreaker(breaker);
+		try {
+			w.execute(mock(InteractionContext.class));
+			fail("Expected failure");
+		} catch (InteractionException e) {
+			assertEquals(Status.SERVICE_UNAVAILABLE, e.getHttpStatus());
+		}
+		verify(mockCommand, times(0)).execute(any(InteractionContext.class));
+		assertEquals(1, w.getShortCircuitCount());
+	}
+	
+	@Test
+	public void testCircuitBreakerOutcomes() throws InteractionException {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class)))
+			.thenThrow(new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"))
+			.thenThrow(new InteractionException(Status.BAD_REQUEST, "Test Exception"));
+		CircuitBreaker breaker = mock(CircuitBreaker.class);
+		when(breaker.tryAcquirePermission()).thenReturn(true);
+		
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		w.setCircuitBreaker(breaker);
+		try {
+			w.execute(mock(InteractionContext.class));
+			fail("Expected failure");
+		} catch (InteractionException e) {
+			assertEquals(Status.BAD_REQUEST, e.getHttpStatus());
+		}
+		// the client error is a response from the dependency, not a failure of it
+		verify(breaker, times(1)).onError(anyLong());
+		verify(breaker, times(1)).onSuccess(anyLong());
+	}
+
+	@Test
+	public void testRetryRunsOnCallingThread() throws InteractionException {
+		final AtomicReference<Thread> retryThread = new AtomicReference<Thread>();
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class)))
+			.thenThrow(new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"))
+			.thenAnswer(new Answer<Result>() {
+				@Override
+				public Result answer(InvocationOnMock invocation) {
+					retryThread.set(Thread.currentThread());
+					return Result.SUCCESS;
+				}
+			});
+		
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		assertEquals(Result.SUCCESS, w.execute(mock(InteractionContext.class)));
+		assertSame(Thread.currentThread(), retryThread.get());
+	}
+	
+	@Test
+	public void testInterruptStopsRetrying() throws Exception {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenThrow(
+				new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"));
+		final RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 60000);
+		final AtomicReference<InteractionException> thrown = new AtomicReference<InteractionException>();
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		Thread caller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					w.execute(mock(InteractionContext.class));
+				} catch (InteractionException e) {
+					thrown.set(e);
+					interrupted.set(Thread.currentThread().isInterrupted());
+				}
+			}
+		});
+		caller.start();
+		// wait for the first attempt to fail and the backoff to start
+		long deadline = System.currentTimeMillis() + 5000;
+		while (w.getRetryCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		caller.interrupt();
+		caller.join(5000);
+		assertFalse(caller.isAlive());
+		assertEquals(Status.INTERNAL_SERVER_ERROR, thrown.get().getHttpStatus());
+		assertTrue("keeps the interrupt status", interrupted.get());
+		assertEquals(1, w.getGiveUpCount());
+		verify(mockCommand, times(1)).execute(any(InteractionContext.class));
+	}
+	
+	@Test
+	public void testCancelWaitsForAttemptInProgress() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenAnswer(new Answer<Result>() {
+			@Override
+			public Result answer(InvocationOnMock invocation) throws Exception {
+				started.countDown();
+				release.await();
+				throw new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception");
+			}
+		});
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		final Future<Result> future = w.executeAsync(mock(InteractionContext.class));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				future.cancel(false);
+				cancelled.countDown();
+			}
+		}).start();
+		assertFalse("waits for the attempt", cancelled.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+		assertTrue(future.isCancelled());
+		// the failed attempt is not retried
+		Thread.sleep(50);
+		verify(mockCommand, times(1)).execute(any(InteractionContext.class));
+	}
+	
+	@Test
+	public void testRejectedFirstAttemptRunsOnCallingThread() throws Exception {
+		final AtomicReference<Thread> attemptThread = new AtomicReference<Thread>();
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenAnswer(new Answer<Result>() {
+			@Override
+			public Result answer(InvocationOnMock invocation) {
+				attemptThread.set(Thread.currentThread());
+				return Result.SUCCESS;
+			}
+		});
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		w.setExecutor(new RejectingExecutor());
+		Future<Result> future = w.executeAsync(mock(InteractionContext.class));
+		assertTrue(future.isDone());
+		assertEquals(Result.SUCCESS, future.get());
+		assertSame(Thread.currentThread(), attemptThread.get());
+	}
+	
+	@Test
+	public void testRejectedRetryGivesUp() throws Exception {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenThrow(
+				new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"));
+		RetryWorkflowStrategyCommand w = 
+				new RetryWorkflowStrategyCommand(mockCommand, 3, 1);
+		w.setExecutor(new RejectingExecutor());
+		try {
+			w.executeAsync(mock(InteractionContext.class)).get(5, TimeUnit.SECONDS);
+			fail("Expected failure");
+		} catch (ExecutionException e) {
+			assertEquals(Status.INTERNAL_SERVER_ERROR, ((InteractionException) e.getCause()).getHttpStatus());
+		}
+		verify(mockCommand, times(1)).execute(any(InteractionContext.class));
+		assertEquals(1, w.getGiveUpCount());
+	}
+	
+	@Test
+	public void testCancelCancelsPendingRetry() throws Exception {
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenThrow(
+				new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"));
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			RetryWorkflowStrategyCommand w = 
+					new RetryWorkflowStrategyCommand(mockCommand, 3, 60000);
+			w.setScheduler(scheduler);
+			Future<Result> future = w.executeAsync(mock(InteractionContext.class));
+			// wait for the first attempt to fail and the retry to be scheduled
+			long deadline = System.currentTimeMillis() + 5000;
+			while (((ThreadPoolExecutor) scheduler).getQueue().isEmpty() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, ((ThreadPoolExecutor) scheduler).getQueue().size());
+			assertTrue(future.cancel(false));
+			assertTrue(future.isCancelled());
+			try {
+				future.get();
+				fail("Expected cancellation");
+			} catch (CancellationException e) {
+				// cancelled
+			}
+			assertTrue(((Future<?>) ((ThreadPoolExecutor) scheduler).getQueue().peek()).isCancelled());
+			verify(mockCommand, times(1)).execute(any(InteractionContext.class));
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testCreateFromProperties() throws InteractionException {
+		Properties properties = new Properties();
+		assertFalse(RetryWorkflowStrategyCommand.isConfigured(properties));
+		properties.put(RetryWorkflowStrategyCommand.MAX_RETRY_COUNT, "2");
+		properties.put(RetryWorkflowStrategyCommand.RETRY_INTERVAL, "1");
+		assertTrue(RetryWorkflowStrategyCommand.isConfigured(properties));
+		
+		InteractionCommand mockCommand = mock(InteractionCommand.class);
+		when(mockCommand.execute(any(InteractionContext.class))).thenThrow(
+				new InteractionException(Status.INTERNAL_SERVER_ERROR, "Test Exception"));
+		RetryWorkflowStrategyCommand w = RetryWorkflowStrategyCommand.create(mockCommand, properties);
+		try {
+			w.execute(mock(InteractionContext.class));
+			fail("Expected failure");
+		} catch (InteractionException e) {
+			assertEquals(Status.INTERNAL_SERVER_ERROR, e.getHttpStatus());
+		}
+		verify(mockCommand, times(3)).execute(any(InteractionContext.class));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateInvalidJitter() {
+		Properties properties = new Properties();
+		properties.put(RetryWorkflowStrategyCommand.MAX_RETRY_COUNT, "2");
+		properties.put(RetryWorkflowStrategyCommand.JITTER, "lots");
+		RetryWorkflowStrategyCommand.create(mock(InteractionCommand.class), properties);
+	}
+
+	/*
+	 * An executor that is always full
+	 */
+	private static class RejectingExecutor extends AbstractExecutorService {
+		@Override
+		public void execute(Runnable command) {
+			throw new RejectedExecutionException();
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return null;
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return false;
+		}
+	}
 }
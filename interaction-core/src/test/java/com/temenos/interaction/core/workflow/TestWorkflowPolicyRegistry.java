@@ -0,0 +1,74 @@
+package com.temenos.interaction.core.workflow;
+
+/*
+ * #%L
+ * interaction-core
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+
+public class TestWorkflowPolicyRegistry {
+
+	private Properties createProperties(String maxConcurrent) {
+		Properties properties = new Properties();
+		properties.put(BulkheadWorkflowStrategyCommand.MAX_CONCURRENT, maxConcurrent);
+		properties.put(CircuitBreakerWorkflowStrategyCommand.FAILURE_RATE_THRESHOLD, "50");
+		return properties;
+	}
+
+	@Test
+	public void testSameActionSharesPolicies() {
+		WorkflowPolicyRegistry registry = new WorkflowPolicyRegistry();
+		Semaphore bulkhead = registry.getBulkhead("GETEntities", createProperties("2"));
+		CircuitBreaker circuitBreaker = registry.getCircuitBreaker("GETEntities", createProperties("2"));
+		assertEquals(2, bulkhead.availablePermits());
+		assertSame(bulkhead, registry.getBulkhead("GETEntities", createProperties("2")));
+		assertSame(circuitBreaker, registry.getCircuitBreaker("GETEntities", createProperties("2")));
+	}
+
+	@Test
+	public void testChangedPropertiesGetNewPolicies() {
+		WorkflowPolicyRegistry registry = new WorkflowPolicyRegistry();
+		Semaphore bulkhead = registry.getBulkhead("GETEntities", createProperties("2"));
+		CircuitBreaker circuitBreaker = registry.getCircuitBreaker("GETEntities", createProperties("2"));
+		Semaphore changed = registry.getBulkhead("GETEntities", createProperties("3"));
+		assertNotSame(bulkhead, changed);
+		assertEquals(3, changed.availablePermits());
+		assertNotSame(circuitBreaker, registry.getCircuitBreaker("GETEntities", createProperties("3")));
+		// another action with the same properties
+		assertNotSame(bulkhead, registry.getBulkhead("GETEntity", createProperties("2")));
+	}
+
+	@Test
+	public void testKeyUnaffectedByLaterChanges() {
+		WorkflowPolicyRegistry registry = new WorkflowPolicyRegistry();
+		Properties properties = createProperties("2");
+		Semaphore bulkhead = registry.getBulkhead("GETEntities", properties);
+		properties.put(BulkheadWorkflowStrategyCommand.MAX_CONCURRENT, "5");
+		assertSame(bulkhead, registry.getBulkhead("GETEntities", createProperties("2")));
+	}
+}
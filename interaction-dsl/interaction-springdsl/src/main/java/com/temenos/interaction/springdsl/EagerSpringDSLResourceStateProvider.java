@@ -33,6 +33,16 @@ import org.springframework.core.io.support.ResourcePatternResolver;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.temenos.interaction.core.loader.ResourceStateLoadingStrategy.ResourceStateResult;
 
@@ -42,6 +52,11 @@ import static com.temenos.interaction.core.loader.ResourceStateLoadingStrategy.R
  * cache strategies, as well as loading strategies (although the only loading
  * strategy that makes sense here is a Spring one).
  * 
+ * PRD files are loaded in parallel on a pool of loader threads, so the loading
+ * strategy and the cache must be thread safe when more than one thread is used.
+ * A PRD file that cannot be loaded is either skipped or, with
+ * {@link FailurePolicy#FAIL_FAST}, stops the provider from being created.
+ * 
  * The class currently extends SpringDSLResourceStateProvider for code re-usage.
  * This is a temporary solution until major re-factoring is done. 
  * 
@@ -52,20 +67,50 @@ import static com.temenos.interaction.core.loader.ResourceStateLoadingStrategy.R
 public class EagerSpringDSLResourceStateProvider extends SpringDSLResourceStateProvider {
     private final Logger logger = LoggerFactory.getLogger(EagerSpringDSLResourceStateProvider.class);
 
+    /**
+     * What to do when a PRD file cannot be loaded.
+     */
+    public enum FailurePolicy {
+        /** log the failure and load the remaining files */
+        CONTINUE,
+        /** stop loading and fail with an IllegalStateException */
+        FAIL_FAST
+    }
+
     private final CacheExtended<String, ResourceState> cache;
     private final String antStylePattern;
     private Set<String> PRDconfigurationFileSources;
     private ResourceStateLoadingStrategy<String> loadingStrategy;
+    private final int loaderThreads;
+    private final FailurePolicy failurePolicy;
+
+    private final AtomicInteger loadedPrdFiles = new AtomicInteger();
+    private final AtomicInteger failedPrdFiles = new AtomicInteger();
+    private volatile long loadTimeMillis;
 
     public EagerSpringDSLResourceStateProvider(String antStylePattern, ResourceStateLoadingStrategy<String> loadingStrategy, CacheExtended<String, ResourceState> cache) {
         this(antStylePattern, loadingStrategy, cache, null);
     }
 
     public EagerSpringDSLResourceStateProvider(String antStylePattern, ResourceStateLoadingStrategy<String> loadingStrategy, CacheExtended<String, ResourceState> cache, Properties beanMap) {
+        this(antStylePattern, loadingStrategy, cache, beanMap, Runtime.getRuntime().availableProcessors(), FailurePolicy.CONTINUE);
+    }
+
+    /**
+     * @param loaderThreads number of PRD files loaded at the same time, one to load them on the calling thread
+     * @param failurePolicy what to do when a PRD file cannot be loaded
+     */
+    public EagerSpringDSLResourceStateProvider(String antStylePattern, ResourceStateLoadingStrategy<String> loadingStrategy, CacheExtended<String, ResourceState> cache, Properties beanMap,
+            int loaderThreads, FailurePolicy failurePolicy) {
         super(beanMap);
+        if (loaderThreads < 1) {
+            throw new IllegalArgumentException("loaderThreads must be positive");
+        }
         this.antStylePattern = antStylePattern;
         this.loadingStrategy = loadingStrategy;
         this.cache = cache;
+        this.loaderThreads = loaderThreads;
+        this.failurePolicy = failurePolicy;
         PRDconfigurationFileSources = new LinkedHashSet();
         discoverAllPrdFilesNames();
         loadAllResourceStates();
@@ -156,12 +201,122 @@ public class EagerSpringDSLResourceStateProvider extends SpringDSLResourceStateP
     /* Reload resource states from prd files (clear old ones from cache before) */
     private synchronized void loadAllResourceStates() {
         cache.removeAll();
+        loadedPrdFiles.set(0);
+        failedPrdFiles.set(0);
+        long start = System.nanoTime();
+        List<String> prdNames = new ArrayList<String>(PRDconfigurationFileSources);
+        int threads = Math.min(loaderThreads, prdNames.size());
+        AtomicInteger done = new AtomicInteger();
+
+        if (threads <= 1) {
+            for (String locationOfPRD : prdNames) {
+                if (!loadPrdAndRecordProgress(locationOfPRD, done, prdNames.size())) {
+                    failFast(locationOfPRD);
+                }
+            }
+        } else {
+            loadInParallel(prdNames, threads, done);
+        }
+        loadTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info(String.format("Loaded %d PRD files in %dms using %d threads, %d failed",
+                loadedPrdFiles.get(), loadTimeMillis, Math.max(threads, 1), failedPrdFiles.get()));
+    }
+
+    private void loadInParallel(List<String> prdNames, int threads, final AtomicInteger done) {
+        final int total = prdNames.size();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "iris-prd-loader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            CompletionService<String> completion = new ExecutorCompletionService<String>(executor);
+            List<Future<String>> futures = new ArrayList<Future<String>>(total);
+            for (final String locationOfPRD : prdNames) {
+                futures.add(completion.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        // the name of the file on failure
+                        return loadPrdAndRecordProgress(locationOfPRD, done, total) ? null : locationOfPRD;
+                    }
+                }));
+            }
+            for (int i = 0; i < total; i++) {
+                String failed = completion.take().get();
+                if (failed != null && failurePolicy == FailurePolicy.FAIL_FAST) {
+                    // stop the files still waiting to be loaded
+                    for (Future<String> future : futures) {
+                        future.cancel(true);
+                    }
+                    failFast(failed);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading PRD configuration xml files", e);
+        } catch (ExecutionException e) {
+            // loadPrdAndRecordProgress does not throw
+            throw new IllegalStateException("Failed to load PRD configuration xml files", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean loadPrdAndRecordProgress(String prdName, AtomicInteger done, int total) {
+        boolean loaded;
+        try {
+            loaded = loadResourceStatesFromPRD(prdName);
+        } catch (RuntimeException e) {
+            logger.error("Failed to load PRD file: " + prdName, e);
+            loaded = false;
+        }
+        (loaded ? loadedPrdFiles : failedPrdFiles).incrementAndGet();
+        int count = done.incrementAndGet();
+        if (count % Math.max(1, total / 10) == 0 || count == total) {
+            logger.info(String.format("Processed %d of %d PRD files", count, total));
+        }
+        return loaded;
+    }
 
-        for (String locationOfPRD : PRDconfigurationFileSources) {
-            loadResourceStatesFromPRD(locationOfPRD);
+    private void failFast(String prdName) {
+        if (failurePolicy == FailurePolicy.FAIL_FAST) {
+            throw new IllegalStateException("Failed to load PRD file: " + prdName);
         }
     }
 
+    /**
+     * @return number of PRD files discovered by the ant style pattern
+     */
+    public int getPrdFileCount() {
+        return PRDconfigurationFileSources.size();
+    }
+
+    /**
+     * @return number of PRD files loaded so far
+     */
+    public int getLoadedPrdFileCount() {
+        return loadedPrdFiles.get();
+    }
+
+    /**
+     * @return number of PRD files that could not be loaded
+     */
+    public int getFailedPrdFileCount() {
+        return failedPrdFiles.get();
+    }
+
+    /**
+     * @return time taken by the last load of all PRD files
+     */
+    public long getLoadTimeMillis() {
+        return loadTimeMillis;
+    }
+
     private String discoverNameOfPrdByUsingResourceStateName(String resourceStateName, boolean oldFormat) {
         String pathToPRD = null;
         String newResourceStateName = resourceStateName;
@@ -0,0 +1,82 @@
+package com.temenos.interaction.springdsl;
+
+/*
+ * #%L
+ * interaction-springdsl
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.loader.ResourceStateSnapshot;
+
+/**
+ * Build time compiler of {@link ResourceStateSnapshot}s. Each argument is a
+ * PRD file or a directory of PRD files, and the snapshot of each file is
+ * written next to it.
+ */
+public class ResourceStateSnapshotCompiler {
+	private static final Logger logger = LoggerFactory.getLogger(ResourceStateSnapshotCompiler.class);
+
+	private static final FilenameFilter PRD_FILES = new FilenameFilter() {
+		@Override
+		public boolean accept(File dir, String name) {
+			return name.startsWith("IRIS-") && name.endsWith("-PRD.xml");
+		}
+	};
+
+	/**
+	 * @return the number of snapshots written
+	 */
+	public int compile(File prd) {
+		if (prd.isDirectory()) {
+			int count = 0;
+			File[] files = prd.listFiles(PRD_FILES);
+			if (files != null) {
+				for (File file : files) {
+					count += compile(file);
+				}
+			}
+			return count;
+		}
+		FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(new String[] { prd.toURI().toString() });
+		try {
+			Map<String, ResourceState> states = context.getBeansOfType(ResourceState.class);
+			File snapshot = new File(prd.getAbsoluteFile().getParentFile(), ResourceStateSnapshot.getSnapshotName(prd.getName()));
+			return ResourceStateSnapshot.write(states, prd, snapshot) ? 1 : 0;
+		} finally {
+			context.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		ResourceStateSnapshotCompiler compiler = new ResourceStateSnapshotCompiler();
+		int count = 0;
+		for (String arg : args) {
+			count += compiler.compile(new File(arg));
+		}
+		logger.info("Compiled " + count + " resource state snapshots");
+	}
+}
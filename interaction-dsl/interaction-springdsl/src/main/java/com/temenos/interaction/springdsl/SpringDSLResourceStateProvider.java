@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -41,11 +42,13 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 
+import com.temenos.interaction.core.SingleFlight;
 import com.temenos.interaction.core.hypermedia.Event;
 import com.temenos.interaction.core.hypermedia.MethodNotAllowedException;
 import com.temenos.interaction.core.hypermedia.PathTree;
 import com.temenos.interaction.core.hypermedia.ResourceState;
 import com.temenos.interaction.core.hypermedia.ResourceStateProvider;
+import com.temenos.interaction.core.loader.ResourceStateSnapshot;
 import com.temenos.interaction.core.resource.ConfigLoader;
 
 public class SpringDSLResourceStateProvider implements ResourceStateProvider, DynamicRegistrationResourceStateProvider {
@@ -53,10 +56,15 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 
 	private ConcurrentMap<String, ResourceState> resources = new ConcurrentHashMap<String, ResourceState>();
 
+	// loads in progress, so that concurrent requests for a cold state wait for one load
+	private final SingleFlight<String, ResourceState> loads = new SingleFlight<String, ResourceState>();
+
 	protected StateRegisteration stateRegisteration;
 	
 	private ConfigLoader configLoader = new ConfigLoader();
 
+	private boolean writeSnapshots = false;
+
     /**
      * Map of ResourceState bean names, to paths.
      */
@@ -97,6 +105,15 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 		this.configLoader = configLoader;
 	}
 
+	/**
+	 * Compile a {@link ResourceStateSnapshot} next to each PRD file loaded from
+	 * the IRIS resource directory, so that later loads do not need Spring.
+	 * Snapshots that are up to date are always used, whether or not this is set.
+	 */
+	public void setWriteSnapshots(boolean writeSnapshots) {
+		this.writeSnapshots = writeSnapshots;
+	}
+
 	protected void initialise() {
 		if (initialised)
 			return;
@@ -210,13 +227,7 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 
 				if (result == null) {
 					// Resource state has not already been loaded so attempt to load it
-					ResourceStateLoad newState = new ResourceStateLoad(resourceStateName);
-					newState.load();
-					if ( newState.isLoaded() ) {
-						result = newState.loaded();						
-					} else {
-						logger.error( newState.toString() );
-					}
+					result = load(resourceStateName);
 				}
 			}
 		} catch (BeansException e) {
@@ -226,6 +237,36 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 		return result;
 	}
 
+	/*
+	 * Load a resource state, or wait for the load already in progress
+	 */
+	private ResourceState load(final String resourceStateName) {
+		return loads.load(resourceStateName, new Callable<ResourceState>() {
+			@Override
+			public ResourceState call() {
+				// loaded meanwhile with another state of the same file
+				ResourceState result = resources.get(resourceStateName);
+				if (result != null) {
+					return result;
+				}
+				ResourceStateLoad newState = new ResourceStateLoad(resourceStateName);
+				newState.load();
+				if ( newState.isLoaded() ) {
+					return newState.loaded();
+				}
+				logger.error( newState.toString() );
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return number of requests for a state that waited for a load already in progress
+	 */
+	public long getSharedLoadCount() {
+		return loads.getSharedLoadCount();
+	}
+
 	@Override
 	public ResourceState determineState(Event event, String resourcePath) {
 		initialise();
@@ -337,10 +378,10 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 
 			String beanXml = "IRIS-" + tmpResourceName + "-PRD.xml";
 
-			// Attempt to create Spring context based on current resource filename pattern
-			ApplicationContext context = createApplicationContext(beanXml);
+			// Attempt to load the resource states based on current resource filename pattern
+			Map<String, ResourceState> states = loadResourceStates(beanXml);
 
-			if (context == null) {
+			if (states == null) {
 				// Failed to create Spring context using current resource filename pattern so use old pattern
 				int pos = tmpResourceName.lastIndexOf("_");
 
@@ -348,10 +389,10 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 					tmpResourceName = tmpResourceName.substring(0, pos);
 					beanXml = "IRIS-" + tmpResourceName + "-PRD.xml";
 
-					context = createApplicationContext(beanXml);
+					states = loadResourceStates(beanXml);
 
-					if (context != null) {
-						// Successfully created Spring context using old resource filename pattern
+					if (states != null) {
+						// Successfully loaded resource states using old resource filename pattern
 
 						// Convert resource state name to old resource name format
 						pos = tmpResourceStateName.lastIndexOf("-");
@@ -367,14 +408,12 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 				}
 			}
 
-			if(context != null) {
-				result = loadAllResourceStatesFromFile(context, tmpResourceStateName);
+			if(states != null) {
+				result = loadAllResourceStatesFromFile(states, tmpResourceStateName);
 			}
 		}
 
-		private ResourceState loadAllResourceStatesFromFile(ApplicationContext context, String resourceState) {
-			Map<String,ResourceState> tmpResources = context.getBeansOfType(ResourceState.class);
-
+		private ResourceState loadAllResourceStatesFromFile(Map<String,ResourceState> tmpResources, String resourceState) {
 			// Save all the loaded resources into the main resource state cache
 			resources.putAll(tmpResources);
 
@@ -389,11 +428,13 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 
 
 		/**
+		 * Load the resource states from the snapshot of the file if it is up
+		 * to date, otherwise from the file itself.
 		 * @param beanXml the filename to locate
-		 * @return a Spring ApplicationContext
+		 * @return the resource states by bean name, or null if the file was not found
 		 */
-		private ApplicationContext createApplicationContext(String beanXml) {
-			ApplicationContext result = null;
+		private Map<String, ResourceState> loadResourceStates(String beanXml) {
+			Map<String, ResourceState> result = null;
 
 			String irisResourceDirPath = configLoader.getIrisConfigDirPath();
 			
@@ -401,8 +442,12 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 				// Try and load the resource from the classpath
 				String description = "classpath:" + beanXml;
 				attempts.add(description);
-				result = new ClassPathXmlApplicationContext(new String[] {beanXml});
-				if ( result != null ) foundFile = description;
+				result = ResourceStateSnapshot.readFromClasspath(beanXml);
+				if ( result == null ) {
+					ApplicationContext context = new ClassPathXmlApplicationContext(new String[] {beanXml});
+					result = context.getBeansOfType(ResourceState.class);
+				}
+				foundFile = description;
 			} else {
 				// Try and load the resource from the file system as a resource directory has been specified
 				File irisResourceDir = new File(irisResourceDirPath);
@@ -423,7 +468,17 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
 					if(file.exists()) {
 						// Only attempt to create an application context if the file exists
 						foundFile = path;
-						result = new FileSystemXmlApplicationContext( new String[] { path });
+						File snapshot = new File(irisResourceDir, ResourceStateSnapshot.getSnapshotName(beanXml));
+						result = ResourceStateSnapshot.read(snapshot, file);
+						if (result == null) {
+							ApplicationContext context = new FileSystemXmlApplicationContext( new String[] { path });
+							result = context.getBeansOfType(ResourceState.class);
+							if (writeSnapshots) {
+								ResourceStateSnapshot.write(result, file, snapshot);
+							}
+						} else {
+							logger.debug("Loaded resource states of " + beanXml + " from snapshot");
+						}
 					}
 				} else {
 					logger.error("Invalid IRIS resource directory path: " + irisResourceDir.getAbsolutePath());
@@ -439,9 +494,9 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
     public ResourceState getResourceState(String httpMethod, String url) throws MethodNotAllowedException {
         String resourceStateId = getResourceStateId(httpMethod, url);
         if(resourceStateId == null) {
-            if(pathTree.get(url) != null) {
-                Set<String> allowedMethods = pathTree.get(url).keySet();
-                throw new MethodNotAllowedException(allowedMethods);
+            Map<String,String> methodToState = pathTree.get(url);
+            if(methodToState != null) {
+                throw new MethodNotAllowedException(methodToState.keySet());
             } else {
                 return null;
             }
@@ -460,10 +515,8 @@ public class SpringDSLResourceStateProvider implements ResourceStateProvider, Dy
         if(methodToState != null) {
             resourceStateId = methodToState.get(httpMethod);
             if(resourceStateId == null) {
-                if(pathTree.get(url) != null) {
-                    Set<String> allowedMethods = pathTree.get(url).keySet();
-                    throw new MethodNotAllowedException(allowedMethods);
-                }
+                // the tree is copy on write so the map cannot change under us
+                throw new MethodNotAllowedException(methodToState.keySet());
             }
         } else {
             return null;
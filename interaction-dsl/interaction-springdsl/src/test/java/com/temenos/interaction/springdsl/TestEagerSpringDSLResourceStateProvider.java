@@ -27,6 +27,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -41,6 +42,7 @@ import com.temenos.interaction.core.cache.CacheExtended;
 import com.temenos.interaction.core.hypermedia.ResourceState;
 import com.temenos.interaction.core.hypermedia.ResourceStateProvider;
 import com.temenos.interaction.core.loader.ResourceStateLoadingStrategy;
+import com.temenos.interaction.core.loader.ResourceStateLoadingStrategy.ResourceStateResult;
 import com.temenos.interaction.core.loader.SpringResourceStateLoadingStrategy;
 
 /**
@@ -117,6 +119,47 @@ public class TestEagerSpringDSLResourceStateProvider extends TestSpringDSLResour
         assertEquals("SimpleModel_Home_home", statesByPath.get("/test").toArray()[0]);
     }
 
+    @Test
+    public void testParallelLoadContinuesAfterFailure() {
+        EagerSpringDSLResourceStateProvider rsp = new EagerSpringDSLResourceStateProvider("classpath*:/**/IRIS-*-PRD.xml",
+                new FailingLoadingStrategy("IRIS-SimpleModel_Home_TestTransition-PRD.xml"), new CacheConcurrentImpl(), null,
+                4, EagerSpringDSLResourceStateProvider.FailurePolicy.CONTINUE);
+        assertEquals(1, rsp.getFailedPrdFileCount());
+        assertEquals(rsp.getPrdFileCount() - 1, rsp.getLoadedPrdFileCount());
+        assertNotNull(rsp.getResourceState("SimpleModel_Home_home"));
+        assertNull(rsp.getResourceState("SimpleModel_Home_TestTransition"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParallelLoadFailFast() {
+        new EagerSpringDSLResourceStateProvider("classpath*:/**/IRIS-*-PRD.xml",
+                new FailingLoadingStrategy("IRIS-SimpleModel_Home_TestTransition-PRD.xml"), new CacheConcurrentImpl(), null,
+                4, EagerSpringDSLResourceStateProvider.FailurePolicy.FAIL_FAST);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSequentialLoadFailFast() {
+        new EagerSpringDSLResourceStateProvider("classpath*:/**/IRIS-*-PRD.xml",
+                new FailingLoadingStrategy("IRIS-SimpleModel_Home_TestTransition-PRD.xml"), new CacheConcurrentImpl(), null,
+                1, EagerSpringDSLResourceStateProvider.FailurePolicy.FAIL_FAST);
+    }
+
+    private static class FailingLoadingStrategy extends SpringResourceStateLoadingStrategy {
+        private final String failingPrd;
+
+        FailingLoadingStrategy(String failingPrd) {
+            this.failingPrd = failingPrd;
+        }
+
+        @Override
+        public List<ResourceStateResult> load(String nameOfSpringFile) {
+            if (failingPrd.equals(nameOfSpringFile)) {
+                throw new IllegalStateException("broken " + nameOfSpringFile);
+            }
+            return super.load(nameOfSpringFile);
+        }
+    }
+
     private EagerSpringDSLResourceStateProvider getDefaultClass() {
         return getDefaultClass(null);
     }
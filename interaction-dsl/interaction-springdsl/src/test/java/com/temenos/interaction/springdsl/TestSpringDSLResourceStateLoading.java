@@ -0,0 +1,113 @@
+package com.temenos.interaction.springdsl;
+
+/*
+ * #%L
+ * interaction-springdsl
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.resource.ConfigLoader;
+
+/**
+ * Loading of cold states by the lazy {@link SpringDSLResourceStateProvider}.
+ */
+public class TestSpringDSLResourceStateLoading {
+
+    @Test
+    public void testConcurrentGetResourceStateLoadsOnce() throws Exception {
+        final SpringDSLResourceStateProvider rsp = new SpringDSLResourceStateProvider();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ResourceState>> results = new ArrayList<Future<ResourceState>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<ResourceState>() {
+                    @Override
+                    public ResourceState call() throws Exception {
+                        start.await();
+                        return rsp.getResourceState("SimpleModel_Home_TestTransition");
+                    }
+                }));
+            }
+            start.countDown();
+            ResourceState first = results.get(0).get();
+            assertNotNull(first);
+            // every caller gets the state of the one load
+            for (Future<ResourceState> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGetResourceStateFromSnapshot() throws Exception {
+        File dir = Files.createTempDirectory("iris").toFile();
+        File prd = new File(dir, "IRIS-SimpleModel_Home_TestTransition-PRD.xml");
+        File snapshot = new File(dir, "IRIS-SimpleModel_Home_TestTransition-PRD.snapshot");
+        try (InputStream in = getClass().getResourceAsStream("/IRIS-SimpleModel_Home_TestTransition-PRD.xml")) {
+            Files.copy(in, prd.toPath());
+        }
+        try {
+            ConfigLoader configLoader = new ConfigLoader();
+            configLoader.setIrisConfigDirPath(dir.getAbsolutePath());
+
+            // the first load compiles the snapshot
+            SpringDSLResourceStateProvider writer = new SpringDSLResourceStateProvider();
+            writer.setConfigLoader(configLoader);
+            writer.setWriteSnapshots(true);
+            assertNotNull(writer.getResourceState("SimpleModel_Home_TestTransition"));
+            assertTrue(snapshot.exists());
+
+            SpringDSLResourceStateProvider reader = new SpringDSLResourceStateProvider();
+            reader.setConfigLoader(configLoader);
+            ResourceState actual = reader.getResourceState("SimpleModel_Home_TestTransition");
+            assertEquals("TestTransition", actual.getName());
+            List<Transition> transitions = actual.getTransitions();
+            assertEquals(1, transitions.size());
+            assertEquals("SimpleModel_Home_home", transitions.get(0).getTarget().getName());
+            assertEquals("link to home", transitions.get(0).getLabel());
+        } finally {
+            snapshot.delete();
+            prd.delete();
+            dir.delete();
+        }
+    }
+}
@@ -31,14 +31,12 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response.Status;
 
-import org.odata4j.producer.EntityQueryInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -53,15 +51,16 @@ import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.jdbc.ServerMode;
 import com.temenos.interaction.jdbc.exceptions.JdbcException;
+import com.temenos.interaction.jdbc.producer.sql.ColumnTypesCache;
 import com.temenos.interaction.jdbc.producer.sql.ColumnTypesMap;
 import com.temenos.interaction.jdbc.producer.sql.SqlBuilder;
 import com.temenos.interaction.jdbc.producer.sql.SqlBuilderFactory;
+import com.temenos.interaction.jdbc.producer.sql.SqlCommand;
 import com.temenos.interaction.odataext.odataparser.ODataParser;
 import com.temenos.interaction.odataext.odataparser.ODataParser.UnsupportedQueryOperationException;
+import com.temenos.interaction.odataext.odataparser.ODataQuery;
 import com.temenos.interaction.odataext.odataparser.data.AccessProfile;
-import com.temenos.interaction.odataext.odataparser.data.FieldName;
 import com.temenos.interaction.odataext.odataparser.data.OrderBy;
-import com.temenos.interaction.odataext.odataparser.data.RowFilters;
 
 public class JdbcProducer {
     // Somewhere to store connection
@@ -73,6 +72,13 @@ public class JdbcProducer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JdbcProducer.class);
 
+    // Rows fetched per round trip when streaming entities.
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    // Table metadata read once rather than per query.
+    private ColumnTypesCache columnTypesCache = new ColumnTypesCache();
+
     /*
      * Constructor called when a DataSource object to be obtained from Jndi.
      */
@@ -110,6 +116,17 @@ public class JdbcProducer {
         return template.queryForRowSet(command);
     }
 
+    /*
+     * Query method for parameterized SQL commands. Executed as a prepared
+     * statement so that commands differing only in their parameters share a
+     * plan. Reusing the statement itself across queries is left to the
+     * statement cache of the driver or connection pool, which is keyed by the
+     * command text.
+     */
+    public SqlRowSet query(SqlCommand command) {
+        return template.queryForRowSet(command.getSql(), command.getParameters().toArray());
+    }
+
     /*
      * Query method for interaction context parameters returning collection of
      * entities.
@@ -120,6 +137,27 @@ public class JdbcProducer {
         return buildCollectionResource(returnEntityType, rowSet);
     }
 
+    /*
+     * Query method for interaction context parameters returning a collection of
+     * entities read from the database as the collection is iterated.
+     * 
+     * Rows are read through a forward only cursor, fetchSize at a time, and
+     * only kept if the entities are iterated more than once before the final
+     * pass made through CollectionResource.streamEntities(). The connection is
+     * held until all rows have been read; a caller that does not read them all
+     * must call CollectionResource.closeEntities().
+     */
+    public CollectionResource<Entity> streamEntities(String tableName, InteractionContext ctx, String returnEntityType)
+            throws UnsupportedQueryOperationException, JdbcException, Exception {
+        SqlCommand sqlCommand = buildCommand(tableName, null, ctx);
+        LOGGER.info("Jdbc producer about to stream \"" + sqlCommand + "\"");
+        ResultSetEntities entities = new ResultSetEntities(getDataSource(), sqlCommand, fetchSize, returnEntityType);
+
+        // Note: This line looks a bit odd but the {} at the end is required.
+        return new CollectionResource<Entity>(entities) {
+        };
+    }
+
     /*
      * Query method for interaction context parameters returning a single
      * entity.
@@ -139,6 +177,19 @@ public class JdbcProducer {
      */
     public SqlRowSet query(String tableName, String key, InteractionContext ctx)
             throws UnsupportedQueryOperationException, JdbcException, Exception {
+        SqlCommand sqlCommand = buildCommand(tableName, key, ctx);
+
+        LOGGER.info("Jdbc producer about to execute \"" + sqlCommand + "\"");
+
+        // Execute the SQL command
+        return query(sqlCommand);
+    }
+
+    /*
+     * Build the SQL command for interaction context parameters.
+     */
+    private SqlCommand buildCommand(String tableName, String key, InteractionContext ctx)
+            throws UnsupportedQueryOperationException, JdbcException, Exception {
         // Not much point selecting from a null table
         if (null == tableName) {
             LOGGER.error("Jdbc producer cannot select from null table.");
@@ -148,41 +199,59 @@ public class JdbcProducer {
         // Get column types from Jdbc. We need these both for constructing the
         // command and processing it's result set.
         // We need the primary key for row ordering.
-        ColumnTypesMap colTypesMap = new ColumnTypesMap(this, tableName, true);
+        ColumnTypesMap colTypesMap = columnTypesCache.get(this, tableName);
 
         // Unpack the commands $filter and $select terms.
-        AccessProfile accessProfile = getAccessProfile(ctx);
+        ODataQuery query = ODataQuery.get(ctx);
+        AccessProfile accessProfile = new AccessProfile(query.getRowFilters(), query.getFieldNames());
 
         // Get top and skip parameters (null if not specified).
         MultivaluedMap<String, String> queryParams = ctx.getQueryParameters();
         String top = queryParams.getFirst(ODataParser.TOP_KEY);
         String skip = queryParams.getFirst(ODataParser.SKIP_KEY);
 
-        List<OrderBy> orderBy = ODataParser.parseOrderBy(queryParams.getFirst(ODataParser.ORDERBY_KEY));
+        List<OrderBy> orderBy = query.getOrderBy();
 
         // Build an SQL command from an appropriate builder
         SqlBuilder sqlBuilder = SqlBuilderFactory.getSqlBuilder(tableName, key, accessProfile, colTypesMap, top, skip,
                 orderBy, serverMode);
-        String sqlCommand = sqlBuilder.getCommand();
-
-        LOGGER.info("Jdbc producer about to execute \"" + sqlCommand + "\"");
-
-        // Execute the SQL command
-        return query(sqlCommand);
+        return sqlBuilder.getParameterizedCommand();
     }
 
     public DataSource getDataSource() {
         return template.getDataSource();
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public ColumnTypesCache getColumnTypesCache() {
+        return columnTypesCache;
+    }
+
+    /*
+     * Replace the table metadata cache, e.g. with one shared between producers
+     * or with a time to live.
+     */
+    public void setColumnTypesCache(ColumnTypesCache columnTypesCache) {
+        this.columnTypesCache = columnTypesCache;
+    }
+
+    /*
+     * Read the metadata of the given tables now rather than on their first
+     * query. Intended to be configured at startup.
+     */
+    public void setPreloadTables(List<String> tableNames) {
+        columnTypesCache.preload(this, tableNames);
+    }
+
     /*
-     * Unpack a contexts $filter and $select terms.
+     * Set the number of rows fetched per round trip when streaming entities.
+     * Zero or less leaves it to the driver.
      */
-    private AccessProfile getAccessProfile(InteractionContext ctx) throws UnsupportedQueryOperationException {
-        EntityQueryInfo queryInfo = ODataParser.getEntityQueryInfo(ctx);
-        RowFilters filters = new RowFilters(queryInfo.filter);
-        Set<FieldName> selects = ODataParser.parseSelect(queryInfo.select);
-        return new AccessProfile(filters, selects);
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
     }
 
     /*
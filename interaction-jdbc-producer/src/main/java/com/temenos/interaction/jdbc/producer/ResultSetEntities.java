@@ -0,0 +1,276 @@
+package com.temenos.interaction.jdbc.producer;
+
+/*
+ * #%L
+ * interaction-jdbc-producer
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import com.temenos.interaction.core.entity.Entity;
+import com.temenos.interaction.core.entity.EntityProperties;
+import com.temenos.interaction.core.entity.EntityProperty;
+import com.temenos.interaction.core.resource.EntityResource;
+import com.temenos.interaction.core.resource.StreamedCollection;
+import com.temenos.interaction.jdbc.exceptions.JdbcException;
+import com.temenos.interaction.jdbc.producer.sql.SqlCommand;
+
+/*
+ * Entities read from an open forward only result set as they are iterated.
+ * 
+ * Holds a connection until every row has been read or it is closed.
+ */
+final class ResultSetEntities extends AbstractCollection<EntityResource<Entity>> implements
+        StreamedCollection<EntityResource<Entity>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultSetEntities.class);
+
+    private final DataSource dataSource;
+    private final String entityType;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+    private String[] columnNames;
+
+    // Rows handed out by iterator(), so that the collection can be iterated
+    // again.
+    private final List<EntityResource<Entity>> kept = new ArrayList<EntityResource<Entity>>();
+    // Called with each row as it is read.
+    private final List<ReadListener<? super EntityResource<Entity>>> listeners = new ArrayList<ReadListener<? super EntityResource<Entity>>>();
+    // Row read ahead by hasNext() but not yet handed out.
+    private EntityResource<Entity> ahead;
+    private boolean exhausted = false;
+    private boolean streamed = false;
+
+    /*
+     * Execute the command. The connection is released if this fails.
+     */
+    ResultSetEntities(DataSource dataSource, SqlCommand sqlCommand, int fetchSize, String entityType) {
+        this.dataSource = dataSource;
+        this.entityType = entityType;
+        connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            statement = connection.prepareStatement(sqlCommand.getSql(), ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+            List<Object> parameters = sqlCommand.getParameters();
+            for (int i = 0; i < parameters.size(); i++) {
+                StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, parameters.get(i));
+            }
+            resultSet = statement.executeQuery();
+
+            // Extract the returned column names. May be a subset of the ones
+            // requested.
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            columnNames = new String[metaData.getColumnCount()];
+            for (int i = 0; i < columnNames.length; i++) {
+                columnNames[i] = metaData.getColumnLabel(i + 1);
+            }
+        } catch (SQLException ex) {
+            close();
+            throw new JdbcException(Status.INTERNAL_SERVER_ERROR, "Could not execute query. ", ex);
+        }
+    }
+
+    @Override
+    public Iterator<EntityResource<Entity>> iterator() {
+        checkNotStreamed();
+        return new Iterator<EntityResource<Entity>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < kept.size() || readAhead();
+            }
+
+            @Override
+            public EntityResource<Entity> next() {
+                if (index < kept.size()) {
+                    return kept.get(index++);
+                }
+                if (!readAhead()) {
+                    throw new NoSuchElementException();
+                }
+                kept.add(take());
+                return kept.get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<EntityResource<Entity>> consume() {
+        checkNotStreamed();
+        streamed = true;
+        final Iterator<EntityResource<Entity>> keptIterator = kept.iterator();
+        return new Iterator<EntityResource<Entity>>() {
+            @Override
+            public boolean hasNext() {
+                return keptIterator.hasNext() || readAhead();
+            }
+
+            @Override
+            public EntityResource<Entity> next() {
+                if (keptIterator.hasNext()) {
+                    return keptIterator.next();
+                }
+                if (!readAhead()) {
+                    throw new NoSuchElementException();
+                }
+                return take();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /*
+     * Reads any remaining rows, which are kept from then on.
+     */
+    @Override
+    public int size() {
+        checkNotStreamed();
+        while (readAhead()) {
+            kept.add(take());
+        }
+        return kept.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        checkNotStreamed();
+        return kept.isEmpty() && !readAhead();
+    }
+
+    @Override
+    public void addReadListener(ReadListener<? super EntityResource<Entity>> listener) {
+        checkNotStreamed();
+        for (EntityResource<Entity> entityResource : kept) {
+            listener.read(entityResource);
+        }
+        if (null != ahead) {
+            listener.read(ahead);
+        }
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        exhausted = true;
+        try {
+            if (null != resultSet) {
+                resultSet.close();
+            }
+            if (null != statement) {
+                statement.close();
+            }
+        } catch (SQLException ex) {
+            LOGGER.warn("Could not close result set.", ex);
+        } finally {
+            resultSet = null;
+            statement = null;
+            if (null != connection) {
+                DataSourceUtils.releaseConnection(connection, dataSource);
+                connection = null;
+            }
+        }
+    }
+
+    private void checkNotStreamed() {
+        if (streamed) {
+            throw new IllegalStateException("Entities have already been streamed");
+        }
+    }
+
+    /*
+     * Make sure the next row, if there is one, has been read. The connection is
+     * released after the last row or a failure.
+     */
+    private boolean readAhead() {
+        if (null == ahead && !exhausted) {
+            try {
+                if (resultSet.next()) {
+                    EntityResource<Entity> entityResource = buildEntityResource();
+                    for (ReadListener<? super EntityResource<Entity>> listener : listeners) {
+                        listener.read(entityResource);
+                    }
+                    ahead = entityResource;
+                } else {
+                    close();
+                }
+            } catch (SQLException ex) {
+                close();
+                throw new JdbcException(Status.INTERNAL_SERVER_ERROR, "Could not read row. ", ex);
+            } catch (RuntimeException ex) {
+                close();
+                throw ex;
+            }
+        }
+        return null != ahead;
+    }
+
+    private EntityResource<Entity> take() {
+        EntityResource<Entity> result = ahead;
+        ahead = null;
+        return result;
+    }
+
+    private EntityResource<Entity> buildEntityResource() throws SQLException {
+        EntityProperties properties = new EntityProperties();
+
+        // For all columns in this row.
+        for (int i = 0; i < columnNames.length; i++) {
+            Object value = resultSet.getObject(i + 1);
+
+            // Only return non null values
+            if (null != value) {
+                properties.setProperty(new EntityProperty(columnNames[i], value));
+            }
+        }
+        Entity entity = new Entity(entityType, properties);
+        return new EntityResource<Entity>(entity.getName(), entity);
+    }
+}
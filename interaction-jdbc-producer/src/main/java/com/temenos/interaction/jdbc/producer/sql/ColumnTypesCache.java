@@ -0,0 +1,206 @@
+package com.temenos.interaction.jdbc.producer.sql;
+
+/*
+ * #%L
+ * interaction-jdbc-producer
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.interaction.jdbc.exceptions.JdbcException;
+import com.temenos.interaction.jdbc.producer.JdbcProducer;
+
+/*
+ * Cache of ColumnTypesMaps keyed by data source and table.
+ * 
+ * Reading column types and the primary key costs several round trips on a
+ * borrowed connection, so it is done once per table rather than per query.
+ */
+public class ColumnTypesCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColumnTypesCache.class);
+
+    // Time to live of an entry. Zero or less to keep entries until invalidated.
+    private final long timeToLiveMillis;
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /*
+     * Cache whose entries are kept until invalidated.
+     */
+    public ColumnTypesCache() {
+        this(0);
+    }
+
+    /*
+     * Cache whose entries are read again once older than timeToLiveMillis.
+     */
+    public ColumnTypesCache(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /*
+     * Get the column types and primary key of a table, reading them from the
+     * producer's data source if not cached.
+     */
+    public ColumnTypesMap get(JdbcProducer producer, String tableName) throws SQLException, JdbcException {
+        return get(producer, tableName, System.currentTimeMillis());
+    }
+
+    // Logic without live time exposed for testing.
+    ColumnTypesMap get(JdbcProducer producer, String tableName, long now) throws SQLException, JdbcException {
+        Key key = new Key(producer.getDataSource(), tableName);
+        Entry entry = entries.get(key);
+        if (null != entry) {
+            if (!entry.isExpired(now)) {
+                hits.incrementAndGet();
+                return entry.map;
+            }
+            if (entries.remove(key, entry)) {
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+
+        // Concurrent misses on one table may each read it; the last one wins.
+        ColumnTypesMap map = new ColumnTypesMap(producer, tableName, true);
+        entries.put(key, new Entry(map, timeToLiveMillis > 0 ? now + timeToLiveMillis : Long.MAX_VALUE));
+        return map;
+    }
+
+    /*
+     * Read the given tables ahead of the first query on them. Tables that
+     * cannot be read are logged and skipped.
+     */
+    public void preload(JdbcProducer producer, Collection<String> tableNames) {
+        for (String tableName : tableNames) {
+            try {
+                get(producer, tableName);
+            } catch (Exception ex) {
+                LOGGER.warn("Could not preload column types for table \"" + tableName + "\".", ex);
+            }
+        }
+    }
+
+    /*
+     * Forget a table, e.g. after its definition has changed.
+     */
+    public void invalidate(DataSource dataSource, String tableName) {
+        if (null != entries.remove(new Key(dataSource, tableName))) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /*
+     * Forget every table of a data source.
+     */
+    public void invalidate(DataSource dataSource) {
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext();) {
+            if (it.next().dataSource == dataSource) {
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    // Number of times the metadata had to be read from the database.
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /*
+     * Data sources are compared by identity, they rarely override equals().
+     */
+    private static final class Key {
+        final DataSource dataSource;
+        final String tableName;
+
+        Key(DataSource dataSource, String tableName) {
+            this.dataSource = dataSource;
+            this.tableName = tableName;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return dataSource == key.dataSource && tableName.equals(key.tableName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(dataSource) + tableName.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final ColumnTypesMap map;
+        final long expires;
+
+        Entry(ColumnTypesMap map, long expires) {
+            this.map = map;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return expires <= now;
+        }
+    }
+}
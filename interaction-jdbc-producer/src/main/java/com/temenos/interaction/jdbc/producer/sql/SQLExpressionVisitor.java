@@ -37,7 +37,9 @@ import org.odata4j.expression.ConcatMethodCallExpression;
 import org.odata4j.expression.DateTimeLiteral;
 import org.odata4j.expression.DateTimeOffsetLiteral;
 import org.odata4j.expression.DayMethodCallExpression;
+import org.odata4j.expression.DecimalLiteral;
 import org.odata4j.expression.DivExpression;
+import org.odata4j.expression.DoubleLiteral;
 import org.odata4j.expression.EndsWithMethodCallExpression;
 import org.odata4j.expression.EntitySimpleProperty;
 import org.odata4j.expression.EqExpression;
@@ -46,6 +48,8 @@ import org.odata4j.expression.GeExpression;
 import org.odata4j.expression.GtExpression;
 import org.odata4j.expression.HourMethodCallExpression;
 import org.odata4j.expression.IndexOfMethodCallExpression;
+import org.odata4j.expression.Int64Literal;
+import org.odata4j.expression.IntegralLiteral;
 import org.odata4j.expression.IsofExpression;
 import org.odata4j.expression.LeExpression;
 import org.odata4j.expression.LengthMethodCallExpression;
@@ -62,6 +66,7 @@ import org.odata4j.expression.ParenExpression;
 import org.odata4j.expression.ReplaceMethodCallExpression;
 import org.odata4j.expression.RoundMethodCallExpression;
 import org.odata4j.expression.SecondMethodCallExpression;
+import org.odata4j.expression.SingleLiteral;
 import org.odata4j.expression.StartsWithMethodCallExpression;
 import org.odata4j.expression.StringLiteral;
 import org.odata4j.expression.SubExpression;
@@ -87,6 +92,18 @@ public class SQLExpressionVisitor extends PrintExpressionVisitor {
     private SQLExpressionNode rootNode = new SQLExpressionNode();
     private SQLExpressionNode currentNode = rootNode;
 
+    // Where literal values go when building a parameterized command. If null
+    // they are written into the command text.
+    private final SqlParameters parameters;
+
+    public SQLExpressionVisitor() {
+        this(null);
+    }
+
+    SQLExpressionVisitor(SqlParameters parameters) {
+        this.parameters = parameters;
+    }
+
     @Override
     public String toString() {
         // Print out the expression tree
@@ -266,10 +283,47 @@ public class SQLExpressionVisitor extends PrintExpressionVisitor {
         currentNode.setIsBracketed();
     }
 
+    /*
+     * Append a literal value as a parameter marker, or as the given text when
+     * not building a parameterized command.
+     */
+    private void appendLiteral(Object value, String text) {
+        if (null != parameters) {
+            append(parameters.add(value));
+        } else {
+            append(text);
+        }
+    }
+
     // Literal strings may contain spaces or dots. So single quote.
     @Override
     public void visit(StringLiteral expr) {
-        appendFormatted("'%s'", expr.getValue());
+        appendLiteral(expr.getValue(), String.format("'%s'", expr.getValue()));
+    }
+
+    @Override
+    public void visit(IntegralLiteral expr) {
+        appendLiteral(expr.getValue(), String.valueOf(expr.getValue()));
+    }
+
+    @Override
+    public void visit(Int64Literal expr) {
+        appendLiteral(expr.getValue(), String.valueOf(expr.getValue()));
+    }
+
+    @Override
+    public void visit(DecimalLiteral expr) {
+        appendLiteral(expr.getValue(), String.valueOf(expr.getValue()));
+    }
+
+    @Override
+    public void visit(DoubleLiteral expr) {
+        appendLiteral(expr.getValue(), String.valueOf(expr.getValue()));
+    }
+
+    @Override
+    public void visit(SingleLiteral expr) {
+        appendLiteral(expr.getValue(), String.valueOf(expr.getValue()));
     }
 
     @Override
@@ -387,7 +441,7 @@ public class SQLExpressionVisitor extends PrintExpressionVisitor {
 
         // Print it out.
         String timeStampStr = timeStamp.toString();
-        appendFormatted("'%s'", timeStampStr);
+        appendLiteral(timeStamp, String.format("'%s'", timeStampStr));
     }
 
     @Override
@@ -72,6 +72,10 @@ public abstract class SqlBuilder {
 
     protected static final Logger LOGGER = LoggerFactory.getLogger(SqlBuilder.class);
 
+    // Bind values of the command being built by getParameterizedCommand(),
+    // null when values are written into the command text.
+    private SqlParameters parameters;
+
     /**
      * @param tableName
      * @param keyValue
@@ -247,7 +251,7 @@ public abstract class SqlBuilder {
         }
 
         // Create an OData4j visitor and use it to print out the filters. 
-        SQLExpressionVisitor v = new SQLExpressionVisitor();
+        SQLExpressionVisitor v = new SQLExpressionVisitor(parameters);
         filters.getOData4jExpression().visit(v);
         String parameters = v.toString();
         if (!parameters.isEmpty()) {
@@ -358,14 +362,14 @@ public abstract class SqlBuilder {
             } else {
                 addWhere(builder);
             }
-            builder.append(" \"" + INNER_RN_NAME + "\" <= " + maxRow);
+            builder.append(" \"" + INNER_RN_NAME + "\" <= " + bindValue(maxRow));
         }
     }
 
     private void addSkip(StringBuilder builder) {
         if (null != skip) {
             addWhere(builder);
-            builder.append(" \"" + INNER_RN_NAME + "\" > " + skip);
+            builder.append(" \"" + INNER_RN_NAME + "\" > " + bindValue(Integer.parseInt(skip)));
         }
     }
 
@@ -377,6 +381,17 @@ public abstract class SqlBuilder {
         return INNER_RN_NAME;
     }
 
+    /*
+     * Utility for builders to add a value to the command. Returns the text to
+     * append in its place.
+     */
+    protected String bindValue(Object value) {
+        if (null != parameters) {
+            return parameters.add(value);
+        }
+        return String.valueOf(value);
+    }
+
     /**
      * Returns the SQL Statement as String
      * 
@@ -384,6 +399,23 @@ public abstract class SqlBuilder {
      */
     public abstract String getCommand();
 
+    /**
+     * Returns the SQL Statement with a '?' in place of each literal value, and
+     * of the $top and $skip row numbers, along with the values to bind to
+     * them. As getCommand() adds the key to the access profile's filters only
+     * one of the two should be called on a builder.
+     * 
+     * @return
+     */
+    public SqlCommand getParameterizedCommand() {
+        parameters = new SqlParameters();
+        try {
+            return parameters.toCommand(getCommand());
+        } finally {
+            parameters = null;
+        }
+    }
+
     /**
      * Sets the compatibility mode
      */
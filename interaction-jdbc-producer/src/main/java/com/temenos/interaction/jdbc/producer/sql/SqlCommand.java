@@ -0,0 +1,62 @@
+package com.temenos.interaction.jdbc.producer.sql;
+
+/*
+ * #%L
+ * interaction-jdbc-producer
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * A SQL command with '?' placeholders and the values bound to them.
+ * 
+ * Commands built from requests that differ only in their values have the same
+ * text, so the database, and any statement cache in the driver or connection
+ * pool, can reuse one plan for all of them.
+ */
+public final class SqlCommand {
+    private final String sql;
+    private final List<Object> parameters;
+
+    public SqlCommand(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(new ArrayList<Object>(parameters));
+    }
+
+    /*
+     * The command text, with a '?' for each parameter.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /*
+     * Values for the placeholders in the order they appear in the text.
+     */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+}
@@ -0,0 +1,74 @@
+package com.temenos.interaction.jdbc.producer.sql;
+
+/*
+ * #%L
+ * interaction-jdbc-producer
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.Response.Status;
+
+import com.temenos.interaction.jdbc.exceptions.JdbcException;
+
+/*
+ * Collects bind values while a SqlBuilder builds a parameterized command.
+ * 
+ * Each value is represented in the command text by a numbered marker rather
+ * than a '?' because relations such as INDEXOF reorder their arguments. Once
+ * the text is complete the markers are replaced, in the order they appear,
+ * and the values are listed in that same order.
+ */
+class SqlParameters {
+
+    // Literals are bound rather than written, so this cannot appear otherwise.
+    private static final char MARKER = '\u0000';
+
+    private final List<Object> values = new ArrayList<Object>();
+
+    /*
+     * Add a value, returning the marker to write in its place.
+     */
+    String add(Object value) {
+        values.add(value);
+        return MARKER + Integer.toString(values.size() - 1) + MARKER;
+    }
+
+    /*
+     * Replace the markers in the finished text by placeholders.
+     */
+    SqlCommand toCommand(String text) {
+        StringBuilder sql = new StringBuilder(text.length());
+        List<Object> bound = new ArrayList<Object>(values.size());
+        int from = 0;
+        int start;
+        while ((start = text.indexOf(MARKER, from)) >= 0) {
+            int end = text.indexOf(MARKER, start + 1);
+            if (end < 0) {
+                throw new JdbcException(Status.INTERNAL_SERVER_ERROR, "Unterminated parameter in SQL command.");
+            }
+            sql.append(text, from, start).append('?');
+            bound.add(values.get(Integer.parseInt(text.substring(start + 1, end))));
+            from = end + 1;
+        }
+        sql.append(text, from, text.length());
+        return new SqlCommand(sql.toString(), bound);
+    }
+}
@@ -98,7 +98,7 @@ public class MSSQLBuilder extends SqlBuilder {
             skipAsInt = SKIP_ROWS_DEFAULT;
             LOGGER.warn("Invalid value provided to skip rows", nfe);
         }
-        builder.append(" OFFSET " + skipAsInt + " ROWS");
+        builder.append(" OFFSET " + bindValue(skipAsInt) + " ROWS");
     }
 
     private void addTop(StringBuilder builder) {
@@ -110,6 +110,6 @@ public class MSSQLBuilder extends SqlBuilder {
             maxRow = MAX_ROWS_DEFAULT;
             LOGGER.warn("Invalid value provided to fetch top rows", nfe);
         }
-        builder.append(" FETCH NEXT " + maxRow + " ROWS ONLY");
+        builder.append(" FETCH NEXT " + bindValue(maxRow) + " ROWS ONLY");
     }
 }
\ No newline at end of file
@@ -23,12 +23,16 @@ package com.temenos.interaction.jdbc.producer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import javax.naming.Context;
@@ -49,6 +53,7 @@ import com.temenos.interaction.core.entity.Metadata;
 import com.temenos.interaction.core.hypermedia.ResourceState;
 import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
+import com.temenos.interaction.core.resource.StreamedCollection;
 import com.temenos.interaction.jdbc.ServerMode;
 import com.temenos.interaction.jdbc.exceptions.JdbcException;
 import com.temenos.interaction.odataext.odataparser.ODataParser;
@@ -418,6 +423,117 @@ public class TestJdbcProducer extends AbstractJdbcProducerTest {
         assertEquals(TEST_ROW_COUNT, entityCount);
     }
 
+    /**
+     * Test streaming a collection of entities. A first pass keeps the rows it
+     * reads, the final pass reads the rest without keeping them.
+     */
+    @Test
+    public void testIrisStreamEntities() throws Exception {
+        // Populate the database.
+        populateTestTable();
+
+        JdbcProducer producer = new JdbcProducer(dataSource);
+        producer.setFetchSize(2);
+
+        // Build up an InteractionContext
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        MultivaluedMap<String, String> pathParams = new MultivaluedMapImpl<String>();
+        InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), pathParams,
+                queryParams, mock(ResourceState.class), mock(Metadata.class));
+
+        String expectedType = "returnEntityType";
+        CollectionResource<Entity> entities = producer.streamEntities(TEST_TABLE_NAME, ctx, expectedType);
+        assertFalse(entities.getEntities().isEmpty());
+
+        // Read part of the rows, as when adding links.
+        Iterator<EntityResource<Entity>> firstPass = entities.getEntities().iterator();
+        EntityResource<Entity> first = firstPass.next();
+
+        int entityCount = 0;
+        for (EntityResource<Entity> entityResource : entities.streamEntities()) {
+            if (0 == entityCount) {
+                assertSame(first, entityResource);
+            }
+            Entity actualEntity = entityResource.getEntity();
+            assertEquals(expectedType, actualEntity.getName());
+            assertEquals(TEST_KEY_DATA + entityCount, actualEntity.getProperties().getProperty(KEY_FIELD_NAME)
+                    .getValue());
+            assertEquals(TEST_INTEGER_DATA + entityCount, actualEntity.getProperties().getProperty(INTEGER_FIELD_NAME)
+                    .getValue());
+            entityCount++;
+        }
+        assertEquals(TEST_ROW_COUNT, entityCount);
+
+        try {
+            entities.getEntities().iterator();
+            fail("Streamed entities should not be iterated again");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        entities.closeEntities();
+    }
+
+    /**
+     * Test closing streamed entities before they have all been read.
+     */
+    @Test
+    public void testIrisStreamEntitiesClosed() throws Exception {
+        populateTestTable();
+        JdbcProducer producer = new JdbcProducer(dataSource);
+
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        MultivaluedMap<String, String> pathParams = new MultivaluedMapImpl<String>();
+        InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), pathParams,
+                queryParams, mock(ResourceState.class), mock(Metadata.class));
+
+        CollectionResource<Entity> entities = producer.streamEntities(TEST_TABLE_NAME, ctx, "returnEntityType");
+        Iterator<EntityResource<Entity>> iterator = entities.getEntities().iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        entities.closeEntities();
+
+        // Only the row already read is left.
+        assertEquals(1, entities.getEntities().size());
+    }
+
+    /**
+     * Test that read listeners see each row as it is read, including rows
+     * already read when they are added.
+     */
+    @Test
+    public void testIrisStreamEntitiesReadListener() throws Exception {
+        populateTestTable();
+        JdbcProducer producer = new JdbcProducer(dataSource);
+        producer.setFetchSize(2);
+
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        MultivaluedMap<String, String> pathParams = new MultivaluedMapImpl<String>();
+        InteractionContext ctx = new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class), pathParams,
+                queryParams, mock(ResourceState.class), mock(Metadata.class));
+
+        CollectionResource<Entity> entities = producer.streamEntities(TEST_TABLE_NAME, ctx, "returnEntityType");
+        EntityResource<Entity> first = entities.getEntities().iterator().next();
+
+        final List<EntityResource<Entity>> read = new ArrayList<EntityResource<Entity>>();
+        entities.forEachEntity(new StreamedCollection.ReadListener<EntityResource<Entity>>() {
+            @Override
+            public void read(EntityResource<Entity> element) {
+                read.add(element);
+            }
+        });
+        // Only the row already read so far.
+        assertEquals(1, read.size());
+        assertSame(first, read.get(0));
+
+        int entityCount = 0;
+        for (EntityResource<Entity> entityResource : entities.streamEntities()) {
+            assertSame(read.get(entityCount), entityResource);
+            entityCount++;
+        }
+        assertEquals(TEST_ROW_COUNT, entityCount);
+        assertEquals(TEST_ROW_COUNT, read.size());
+    }
+
     /**
      * Test access to database using Iris parameters with a $select term.
      */
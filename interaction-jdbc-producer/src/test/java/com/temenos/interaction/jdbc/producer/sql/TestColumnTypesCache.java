@@ -0,0 +1,96 @@
+package com.temenos.interaction.jdbc.producer.sql;
+
+/* 
+ * #%L
+ * interaction-jdbc-producer
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.temenos.interaction.jdbc.producer.AbstractJdbcProducerTest;
+import com.temenos.interaction.jdbc.producer.JdbcProducer;
+
+/**
+ * Test ColumnTypesCache class.
+ */
+public class TestColumnTypesCache extends AbstractJdbcProducerTest {
+
+	@Test
+	public void testReadOnce() throws Exception {
+		populateTestTable();
+		JdbcProducer producer = new JdbcProducer(dataSource);
+		ColumnTypesCache cache = new ColumnTypesCache();
+
+		ColumnTypesMap map = cache.get(producer, TEST_TABLE_NAME);
+		assertEquals(KEY_FIELD_NAME, map.getPrimaryKeyName());
+		assertSame(map, cache.get(producer, TEST_TABLE_NAME));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testTimeToLive() throws Exception {
+		populateTestTable();
+		JdbcProducer producer = new JdbcProducer(dataSource);
+		ColumnTypesCache cache = new ColumnTypesCache(1000);
+
+		ColumnTypesMap map = cache.get(producer, TEST_TABLE_NAME, 1000);
+		assertSame(map, cache.get(producer, TEST_TABLE_NAME, 1999));
+		assertNotSame(map, cache.get(producer, TEST_TABLE_NAME, 2000));
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		populateTestTable();
+		JdbcProducer producer = new JdbcProducer(dataSource);
+		ColumnTypesCache cache = new ColumnTypesCache();
+
+		ColumnTypesMap map = cache.get(producer, TEST_TABLE_NAME);
+		cache.invalidate(producer.getDataSource(), TEST_TABLE_NAME);
+		assertEquals(0, cache.size());
+		assertNotSame(map, cache.get(producer, TEST_TABLE_NAME));
+
+		cache.invalidate(producer.getDataSource());
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getInvalidationCount());
+	}
+
+	@Test
+	public void testPreload() throws Exception {
+		populateTestTable();
+		JdbcProducer producer = new JdbcProducer(dataSource);
+
+		// Unknown tables are skipped.
+		producer.setPreloadTables(Arrays.asList(TEST_TABLE_NAME, "missing"));
+		ColumnTypesCache cache = producer.getColumnTypesCache();
+		assertEquals(1, cache.size());
+
+		cache.get(producer, TEST_TABLE_NAME);
+		assertEquals(1, cache.getHitCount());
+	}
+}
@@ -28,6 +28,7 @@ import static org.mockito.Mockito.mock;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -46,6 +47,7 @@ import com.temenos.interaction.jdbc.SqlRelation;
 import com.temenos.interaction.jdbc.producer.sql.ColumnTypesMap;
 import com.temenos.interaction.jdbc.producer.sql.SqlBuilder;
 import com.temenos.interaction.jdbc.producer.sql.SqlBuilderFactory;
+import com.temenos.interaction.jdbc.producer.sql.SqlCommand;
 import com.temenos.interaction.odataext.odataparser.data.AccessProfile;
 import com.temenos.interaction.odataext.odataparser.data.FieldName;
 import com.temenos.interaction.odataext.odataparser.data.OrderBy;
@@ -274,6 +276,41 @@ public class TestMSSQLBuilder {
                 + "OFFSET 3 ROWS FETCH NEXT 2 ROWS ONLY", actualCommand);
     }
 
+    /**
+     * Test a parameterized command with a key, $filter, $top and $skip.
+     */
+    @Test
+    public void testGetParameterizedCommand() {
+
+        // Build up an access profile
+        RowFilters filters = new RowFilters("col2 " + SqlRelation.LE.getoDataString() + " 10");
+        Set<FieldName> selects = new HashSet<FieldName>();
+        AccessProfile accessProfile = new AccessProfile(filters, selects);
+
+        // Build up some column metadata with a primary key
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        map.put("col1", java.sql.Types.VARCHAR);
+        map.put("col2", java.sql.Types.INTEGER);
+        ColumnTypesMap columnTypesMap = new ColumnTypesMap(map, "col1");
+
+        // Create the builder
+        SqlBuilder builder = null;
+        try {
+            builder = SqlBuilderFactory.getSqlBuilder(TEST_TABLE_NAME, "aKeyValue", accessProfile, columnTypesMap, "2",
+                    "3", null, ServerMode.MSSQL);
+        } catch (Exception e) {
+            fail();
+        }
+
+        // Get the command.
+        SqlCommand actualCommand = builder.getParameterizedCommand();
+
+        assertEquals("SELECT * FROM \"" + TEST_TABLE_NAME
+                + "\" WHERE \"col2\"<=? AND \"col1\"=? ORDER BY \"col1\" OFFSET ? ROWS FETCH NEXT ? ROWS ONLY",
+                actualCommand.getSql());
+        assertEquals(Arrays.<Object> asList(10, "aKeyValue", 3, 2), actualCommand.getParameters());
+    }
+
     /**
      * Test a command with bracketed $filter
      */
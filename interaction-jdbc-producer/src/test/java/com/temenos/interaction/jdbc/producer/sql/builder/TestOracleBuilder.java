@@ -29,6 +29,7 @@ import static org.mockito.Mockito.mock;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -46,6 +47,7 @@ import com.temenos.interaction.jdbc.SqlRelation;
 import com.temenos.interaction.jdbc.producer.sql.ColumnTypesMap;
 import com.temenos.interaction.jdbc.producer.sql.SqlBuilder;
 import com.temenos.interaction.jdbc.producer.sql.SqlBuilderFactory;
+import com.temenos.interaction.jdbc.producer.sql.SqlCommand;
 import com.temenos.interaction.odataext.odataparser.data.AccessProfile;
 import com.temenos.interaction.odataext.odataparser.data.FieldName;
 import com.temenos.interaction.odataext.odataparser.data.OrderBy;
@@ -211,6 +213,78 @@ public class TestOracleBuilder {
                 + " WHERE \"rn\" > 3 AND \"rn\" <= 5", actualCommand);
     }
     
+    /**
+     * Test a parameterized command with a key, $filter, $top and $skip.
+     */
+    @Test
+    public void testGetParameterizedCommand() {
+
+        // Build up an access profile. The string value would end the literal
+        // if it were written into the command.
+        RowFilters filters = new RowFilters("col2 " + SqlRelation.GT.getoDataString() + " 4");
+        filters.addFilters("col3 " + SqlRelation.NE.getoDataString() + " 'it''s'");
+        Set<FieldName> selects = new HashSet<FieldName>();
+        AccessProfile accessProfile = new AccessProfile(filters, selects);
+
+        // Build up some column metadata with a primary key
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        map.put("col1", java.sql.Types.VARCHAR);
+        map.put("col2", java.sql.Types.INTEGER);
+        map.put("col3", java.sql.Types.VARCHAR);
+        ColumnTypesMap columnTypesMap = new ColumnTypesMap(map, "col1");
+
+        // Create the builder
+        OracleBuilder builder = null;
+        try {
+            builder = new OracleBuilder(TEST_TABLE_NAME, "aKeyValue", accessProfile, columnTypesMap, "2", "3", null);
+        } catch (Exception e) {
+            fail();
+        }
+
+        // Get the command.
+        SqlCommand actualCommand = builder.getParameterizedCommand();
+
+        assertEquals("SELECT * FROM ( SELECT inner_tab.*, ROWNUM \"rn\" FROM (" + " SELECT * FROM \"" + TEST_TABLE_NAME
+                + "\" WHERE \"col2\">? AND \"col3\"<>? AND \"col1\"=? ORDER BY \"col1\" ) inner_tab )"
+                + " WHERE \"rn\" > ? AND \"rn\" <= ?", actualCommand.getSql());
+        assertEquals(Arrays.<Object> asList(4, "it's", "aKeyValue", 3, 5), actualCommand.getParameters());
+    }
+
+    /**
+     * Test parameters are listed in the order they appear when a function
+     * reorders its arguments.
+     */
+    @Test
+    public void testGetParameterizedCommandReordered() {
+
+        // Build up an access profile
+        RowFilters filters = new RowFilters("col1 " + SqlRelation.EQ.getoDataString() + " "
+                + SqlRelation.INDEXOF.getoDataString() + "('abc','b')");
+        Set<FieldName> selects = new HashSet<FieldName>();
+        AccessProfile accessProfile = new AccessProfile(filters, selects);
+
+        // Build up some column metadata with a primary key
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        map.put("col1", java.sql.Types.INTEGER);
+        ColumnTypesMap columnTypesMap = new ColumnTypesMap(map, "col1");
+
+        // Create the builder
+        SqlBuilder builder = null;
+        try {
+            builder = SqlBuilderFactory.getSqlBuilder(TEST_TABLE_NAME, null, accessProfile, columnTypesMap, null, null,
+                    null, ServerMode.ORACLE);
+        } catch (Exception e) {
+            fail();
+        }
+
+        // Get the command.
+        SqlCommand actualCommand = builder.getParameterizedCommand();
+
+        assertEquals("SELECT * FROM \"" + TEST_TABLE_NAME + "\" WHERE \"col1\"=CHARINDEX(?, ?) ORDER BY \"col1\"",
+                actualCommand.getSql());
+        assertEquals(Arrays.<Object> asList("b", "abc"), actualCommand.getParameters());
+    }
+
     /**
      * Test a command with bracketed $filter
      */
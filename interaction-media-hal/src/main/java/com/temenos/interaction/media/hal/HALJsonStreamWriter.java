@@ -0,0 +1,379 @@
+package com.temenos.interaction.media.hal;
+
+/*
+ * #%L
+ * interaction-media-hal
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.odata4j.core.OEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.temenos.interaction.core.entity.Entity;
+import com.temenos.interaction.core.hypermedia.Link;
+import com.temenos.interaction.core.hypermedia.Transition;
+import com.temenos.interaction.core.resource.CollectionResource;
+import com.temenos.interaction.core.resource.EntityResource;
+import com.temenos.interaction.core.resource.RESTResource;
+import com.temenos.interaction.core.resource.ResourceTypeHelper;
+
+/**
+ * Writes the HAL+JSON rendering of a {@link RESTResource} straight to the
+ * response as it walks the resource, rather than first building a halbuilder
+ * Representation tree and rendering that to a String.
+ * <p>
+ * The output is the same document halbuilder's JSON renderer produces for the
+ * tree {@link HALProvider} would otherwise build: links grouped by rel with a
+ * lone self link written as an object, properties in name order, and embedded
+ * resources and collection items grouped by rel.  Only the property map of the
+ * entity being written is held in memory, so a large collection costs one
+ * item at a time.
+ * <p>
+ * One writer per response; not thread safe.
+ */
+final class HALJsonStreamWriter {
+	private static final Logger logger = LoggerFactory.getLogger(HALJsonStreamWriter.class);
+
+	// shared as the codec for property values, configuration is never changed
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	// as halbuilder decides whether a link is a URI template
+	private static final Pattern TEMPLATE = Pattern.compile("\\{.+?\\}");
+
+	private static final String SELF = "self";
+	private static final String ITEM = "item";
+
+	private final HALProvider provider;
+	private final JsonGenerator generator;
+
+	HALJsonStreamWriter(HALProvider provider, Writer writer) throws IOException {
+		this.provider = provider;
+		this.generator = MAPPER.getFactory().createGenerator(writer);
+		// the entity stream belongs to the container
+		this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	/**
+	 * Write the resource and flush the underlying writer.
+	 * @param id the self link of the resource if it does not have one
+	 */
+	void write(URI id, RESTResource resource, Class<?> type, Type genericType) throws IOException, URISyntaxException {
+		checkWriteable(type, genericType);
+		generator.writeStartObject();
+		writeResource(id.toString(), resource, type, genericType);
+		generator.writeEndObject();
+		generator.close();
+	}
+
+	private void checkWriteable(Class<?> type, Type genericType) {
+		if (!ResourceTypeHelper.isType(type, genericType, EntityResource.class)
+				&& !ResourceTypeHelper.isType(type, genericType, CollectionResource.class))
+			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+	}
+
+	/*
+	 * The fields of one resource, within an object the caller has opened.
+	 */
+	private void writeResource(String id, RESTResource resource, Class<?> type, Type genericType) throws IOException, URISyntaxException {
+		if (resource.getGenericEntity() == null) {
+			logger.warn("Resource with URI {} has null genericEntity--no output produced", id);
+			writeLinks(id, null, null, true);
+			return;
+		}
+		if (genericType == null)
+			genericType = resource.getGenericEntity().getType();
+		if (type == null)
+			type = resource.getGenericEntity().getRawType();
+
+		Collection<Link> links = resource.getLinks();
+		Link selfLink = provider.findSelfLink(links);
+		writeLinks(selfLink != null ? selfLink.getHref() : id, links, selfLink, true);
+
+		EmbeddedWriter embedded = new EmbeddedWriter();
+		if (ResourceTypeHelper.isType(type, genericType, EntityResource.class, OEntity.class)) {
+			@SuppressWarnings("unchecked")
+			EntityResource<OEntity> er = (EntityResource<OEntity>) resource;
+			Map<String, Object> propertyMap = new HashMap<String, Object>();
+			provider.buildFromOEntity(propertyMap, er.getEntity(), er.getEntityName());
+			writeProperties(propertyMap);
+			writeEmbedded(embedded, resource, links, null);
+		} else if (ResourceTypeHelper.isType(type, genericType, EntityResource.class, Entity.class)) {
+			@SuppressWarnings("unchecked")
+			EntityResource<Entity> er = (EntityResource<Entity>) resource;
+			Map<String, Object> propertyMap = new HashMap<String, Object>();
+			provider.buildFromEntity(propertyMap, er.getEntity(), er.getEntityName());
+			writeProperties(propertyMap);
+			writeEmbedded(embedded, resource, links, null);
+		} else if (ResourceTypeHelper.isType(type, genericType, EntityResource.class)) {
+			EntityResource<?> er = (EntityResource<?>) resource;
+			Map<String, Object> propertyMap = new HashMap<String, Object>();
+			if (er.getEntity() != null) {
+				provider.buildFromBean(propertyMap, er.getEntity(), er.getEntityName());
+			}
+			writeProperties(propertyMap);
+			writeEmbedded(embedded, resource, links, null);
+		} else if (ResourceTypeHelper.isType(type, genericType, CollectionResource.class, OEntity.class)) {
+			@SuppressWarnings("unchecked")
+			CollectionResource<OEntity> cr = (CollectionResource<OEntity>) resource;
+			Map<String, Object> propertyMap = new HashMap<String, Object>();
+			if (cr.getInlineCount() != null) {
+				propertyMap.put("count", cr.getInlineCount().toString());
+			}
+			writeProperties(propertyMap);
+			writeEmbedded(embedded, resource, links, ITEM);
+			try {
+				for (EntityResource<OEntity> er : cr.streamEntities()) {
+					Map<String, Object> itemProperties = new HashMap<String, Object>();
+					provider.buildFromOEntity(itemProperties, er.getEntity(), cr.getEntityName());
+					embedded.start(ITEM);
+					writeLinks(null, er.getLinks(), null, true);
+					writeProperties(itemProperties);
+					embedded.end();
+				}
+			} finally {
+				cr.closeEntities();
+			}
+		} else if (ResourceTypeHelper.isType(type, genericType, CollectionResource.class, Entity.class)) {
+			@SuppressWarnings("unchecked")
+			CollectionResource<Entity> cr = (CollectionResource<Entity>) resource;
+			writeEmbedded(embedded, resource, links, ITEM);
+			try {
+				for (EntityResource<Entity> er : cr.streamEntities()) {
+					Map<String, Object> itemProperties = new HashMap<String, Object>();
+					provider.buildFromEntity(itemProperties, er.getEntity(), cr.getEntityName());
+					embedded.start(ITEM);
+					writeLinks(null, er.getLinks(), null, true);
+					writeProperties(itemProperties);
+					embedded.end();
+				}
+			} finally {
+				cr.closeEntities();
+			}
+		} else if (ResourceTypeHelper.isType(type, genericType, CollectionResource.class)) {
+			@SuppressWarnings("unchecked")
+			CollectionResource<Object> cr = (CollectionResource<Object>) resource;
+			String rel = "collection." + cr.getEntityName();
+			writeEmbedded(embedded, resource, links, rel);
+			try {
+				for (EntityResource<Object> er : cr.streamEntities()) {
+					Link itemSelfLink = provider.findSelfLink(er.getLinks());
+					if (itemSelfLink != null) {
+						Map<String, Object> itemProperties = new HashMap<String, Object>();
+						provider.buildFromBean(itemProperties, er.getEntity(), cr.getEntityName());
+						embedded.start(rel);
+						// the rel of each item link is used whole, as when building the representation
+						writeLinks(itemSelfLink.getHref(), er.getLinks(), itemSelfLink, false);
+						writeProperties(itemProperties);
+						embedded.end();
+					}
+				}
+			} finally {
+				cr.closeEntities();
+			}
+		} else {
+			logger.error("Accepted object for writing in isWriteable, but type not supported in writeTo method");
+			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+		}
+		embedded.close();
+	}
+
+	/*
+	 * Write the _links object, if there are any links.
+	 * @param self href of the self link, or null if there is none
+	 * @param splitRels whether a link with several space separated rels is written once for each
+	 */
+	private void writeLinks(String self, Collection<Link> links, Link selfLink, boolean splitRels) throws IOException {
+		Map<String, List<Link>> byRel = new LinkedHashMap<String, List<Link>>();
+		if (self != null) {
+			group(byRel, SELF).add(null);
+		}
+		if (links != null) {
+			for (Link l : links) {
+				if (l.equals(selfLink) || l.getRel() == null)
+					continue;
+				if (splitRels) {
+					for (String rel : l.getRel().split(" ")) {
+						group(byRel, rel).add(l);
+					}
+				} else {
+					group(byRel, l.getRel()).add(l);
+				}
+			}
+		}
+		if (byRel.isEmpty()) {
+			return;
+		}
+		generator.writeObjectFieldStart("_links");
+		for (Map.Entry<String, List<Link>> entry : byRel.entrySet()) {
+			List<Link> rels = entry.getValue();
+			if (SELF.equals(entry.getKey()) && rels.size() == 1) {
+				generator.writeFieldName(SELF);
+				writeLink(self, rels.get(0));
+			} else {
+				generator.writeArrayFieldStart(entry.getKey());
+				for (Link l : rels) {
+					writeLink(self, l);
+				}
+				generator.writeEndArray();
+			}
+		}
+		generator.writeEndObject();
+	}
+
+	private static List<Link> group(Map<String, List<Link>> byRel, String rel) {
+		List<Link> links = byRel.get(rel);
+		if (links == null) {
+			links = new ArrayList<Link>();
+			byRel.put(rel, links);
+		}
+		return links;
+	}
+
+	/*
+	 * A null link stands for the self link of the resource, which carries only its href.
+	 */
+	private void writeLink(String self, Link link) throws IOException {
+		String href = link == null ? self : link.getHref();
+		generator.writeStartObject();
+		generator.writeStringField("href", href);
+		if (link != null) {
+			if (link.getId() != null && !link.getId().isEmpty()) {
+				generator.writeStringField("name", link.getId());
+			}
+			if (link.getTitle() != null && !link.getTitle().isEmpty()) {
+				generator.writeStringField("title", link.getTitle());
+			}
+		}
+		if (href != null && TEMPLATE.matcher(href).find()) {
+			generator.writeBooleanField("templated", true);
+		}
+		generator.writeEndObject();
+	}
+
+	private void writeProperties(Map<String, Object> propertyMap) throws IOException {
+		for (Map.Entry<String, Object> property : new TreeMap<String, Object>(propertyMap).entrySet()) {
+			if (property.getValue() == null) {
+				generator.writeNullField(property.getKey());
+			} else {
+				generator.writeObjectField(property.getKey(), property.getValue());
+			}
+		}
+	}
+
+	/*
+	 * Write the embedded resources of a resource grouped by rel.  The group
+	 * sharing the rel of the collection items, if any, is written last so the
+	 * items can follow on in the same array.
+	 */
+	private void writeEmbedded(EmbeddedWriter embedded, RESTResource resource, Collection<Link> links, String itemRel) throws IOException, URISyntaxException {
+		Map<Transition, RESTResource> resources = resource.getEmbedded();
+		if (resources == null || resources.isEmpty()) {
+			return;
+		}
+		Map<String, List<Map.Entry<Link, RESTResource>>> byRel = new LinkedHashMap<String, List<Map.Entry<Link, RESTResource>>>();
+		for (Map.Entry<Transition, RESTResource> entry : resources.entrySet()) {
+			Link link = provider.findLinkByTransition(links, entry.getKey());
+			if (link != null) {
+				RESTResource embeddedResource = entry.getValue();
+				String rel = link.getRel() != null ? link.getRel() : "embedded/" + embeddedResource.getEntityName();
+				List<Map.Entry<Link, RESTResource>> group = byRel.get(rel);
+				if (group == null) {
+					group = new ArrayList<Map.Entry<Link, RESTResource>>();
+					byRel.put(rel, group);
+				}
+				group.add(new AbstractMap.SimpleImmutableEntry<Link, RESTResource>(link, embeddedResource));
+			}
+		}
+		List<Map.Entry<Link, RESTResource>> itemGroup = itemRel != null ? byRel.remove(itemRel) : null;
+		if (itemGroup != null) {
+			byRel.put(itemRel, itemGroup);
+		}
+		for (Map.Entry<String, List<Map.Entry<Link, RESTResource>>> group : byRel.entrySet()) {
+			for (Map.Entry<Link, RESTResource> entry : group.getValue()) {
+				Link link = entry.getKey();
+				RESTResource embeddedResource = entry.getValue();
+				logger.debug("Embedded resource: rel=[" + group.getKey() + "] href=[" + link.getHref() + "]");
+				URI id = new URI(link.getHref());
+				Class<?> type = embeddedResource.getGenericEntity().getRawType();
+				Type genericType = embeddedResource.getGenericEntity().getType();
+				checkWriteable(type, genericType);
+				embedded.start(group.getKey());
+				writeResource(id.toString(), embeddedResource, type, genericType);
+				embedded.end();
+			}
+		}
+	}
+
+	/*
+	 * Opens the _embedded object and the array for each rel only when the
+	 * first resource is written to it, as an empty collection has no _embedded.
+	 */
+	private class EmbeddedWriter {
+		private boolean open;
+		private String rel;
+
+		void start(String nextRel) throws IOException {
+			if (!open) {
+				generator.writeObjectFieldStart("_embedded");
+				open = true;
+			}
+			if (!nextRel.equals(rel)) {
+				if (rel != null) {
+					generator.writeEndArray();
+				}
+				generator.writeArrayFieldStart(nextRel);
+				rel = nextRel;
+			}
+			generator.writeStartObject();
+		}
+
+		void end() throws IOException {
+			generator.writeEndObject();
+		}
+
+		void close() throws IOException {
+			if (rel != null) {
+				generator.writeEndArray();
+			}
+			if (open) {
+				generator.writeEndObject();
+			}
+		}
+	}
+}
@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PushbackInputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
@@ -109,6 +110,8 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
 	private Metadata metadata = null;
 	private ResourceStateProvider resourceStateProvider;
     private RepresentationFactory representationFactory;
+	// JSON is written by HALJsonStreamWriter unless a RepresentationFactory is supplied
+	private boolean streamJson = false;
 
 	public HALProvider(Metadata metadata, ResourceStateProvider resourceStateProvider) {
 		this(metadata);
@@ -129,6 +132,7 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
 	public HALProvider(Metadata metadata) {
 		this(metadata, irisRepresentationFactory());
 		this.metadata = metadata;
+		this.streamJson = true;
 		assert(metadata != null);
 	}
 
@@ -137,6 +141,15 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
 		this.representationFactory = representationFactory;
 	}
 
+	/**
+	 * Choose whether HAL+JSON is streamed to the response or rendered by
+	 * the halbuilder {@link RepresentationFactory}.  Streaming is the default
+	 * unless a RepresentationFactory was supplied to the constructor.
+	 */
+	public void setStreamJson(boolean streamJson) {
+		this.streamJson = streamJson;
+	}
+
 	private static RepresentationFactory irisRepresentationFactory() {
 		return new StandardRepresentationFactory().
 			withReader(MediaType.APPLICATION_JSON, JsonRepresentationReader.class).
@@ -247,24 +260,35 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
 			OutputStream entityStream) throws IOException,
 			WebApplicationException {
 		logger.debug("Writing " + mediaType);
+		String baseMediaType = HALMediaType.baseMediaType( mediaType );
+		String charset = HALMediaType.charset( mediaType, "UTF-8" );
 		Representation halResource;
 		try {
+			if (streamJson && (HALMediaType.APPLICATION_HAL_JSON.equals(baseMediaType) || MediaType.APPLICATION_JSON.equals(baseMediaType))) {
+				new HALJsonStreamWriter(this, new OutputStreamWriter(entityStream, charset))
+					.write(uriInfo.getBaseUri(), resource, type, genericType);
+				return;
+			}
 			halResource = buildHalResource(uriInfo.getBaseUri(), resource, type, genericType);
 		}
 		catch(URISyntaxException e) {
 			logger.error("Invalid link syntax", e);
 			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
 		}
-		String baseMediaType = HALMediaType.baseMediaType( mediaType );
+		finally {
+			// entities streamed from an open source must be released even if writing fails
+			if (resource instanceof CollectionResource) {
+				((CollectionResource<?>) resource).closeEntities();
+			}
+		}
 		String representation = halResource.toString(baseMediaType);
-		String charset = HALMediaType.charset( mediaType, "UTF-8" );
 
 		logger.debug("Produced [" + representation + "]");
 
 		entityStream.write(representation.getBytes(charset));
 	}
 
-	private Link findLinkByTransition(Collection<Link> links, Transition transition) {
+	Link findLinkByTransition(Collection<Link> links, Transition transition) {
 		Link link = null;
 		if (links != null) {
 			for (Link l : links) {
@@ -544,7 +568,7 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
 		} else if(ResourceTypeHelper.isType(type, genericType, CollectionResource.class, OEntity.class)) {
 			@SuppressWarnings("unchecked")
 			CollectionResource<OEntity> cr = (CollectionResource<OEntity>) resource;
-			List<EntityResource<OEntity>> entities = (List<EntityResource<OEntity>>) cr.getEntities();
+			Iterable<EntityResource<OEntity>> entities = cr.streamEntities();
 			Integer inlineCount = cr.getInlineCount();
 			if (inlineCount != null) {
 				halResource.withProperty("count", inlineCount.toString());
@@ -566,7 +590,7 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
       logger.debug("Transforming CollectionResource<Entity>");
 			@SuppressWarnings("unchecked")
 			CollectionResource<Entity> cr = (CollectionResource<Entity>) resource;
-			List<EntityResource<Entity>> entities = (List<EntityResource<Entity>>) cr.getEntities();
+			Iterable<EntityResource<Entity>> entities = cr.streamEntities();
 			for (EntityResource<Entity> er : entities) {
 				// Make property Map
 				Map<String, Object> propertyMap = new HashMap<String, Object>();
@@ -580,7 +604,7 @@ public class HALProvider implements MessageBodyReader<RESTResource>, MessageBody
 		} else if (ResourceTypeHelper.isType(type, genericType, CollectionResource.class)) {
 			@SuppressWarnings("unchecked")
 			CollectionResource<Object> cr = (CollectionResource<Object>) resource;
-			List<EntityResource<Object>> entities = (List<EntityResource<Object>>) cr.getEntities();
+			Iterable<EntityResource<Object>> entities = cr.streamEntities();
 			for (EntityResource<Object> er : entities) {
 				Object entity = er.getEntity();
 				// the subresource is part of a collection (maybe this link rel should be an 'item')
@@ -709,6 +709,40 @@ public class TestHALProvider {
 		assertEquals(expectedData, actualData);
 	}
 
+	@Test
+	public void testStreamedJSONMatchesRepresentation() throws Exception {
+		List<OProperty<?>> properties = new ArrayList<OProperty<?>>();
+		properties.add(OProperties.string("name", "noah"));
+		properties.add(OProperties.string("age", "2"));
+
+		Collection<EntityResource<OEntity>> entities = new ArrayList<EntityResource<OEntity>>();
+		for (int i = 1; i <= 3; i++) {
+			EntityResource<OEntity> item = createEntityResourceWithSelfLink(OEntityKey.create("" + i), properties, "http://www.temenos.com/rest.svc/children/" + i);
+			item.getLinks().add(new Link("edit", "edit", "http://www.temenos.com/rest.svc/children/" + i + "/edit", null, null));
+			entities.add(item);
+		}
+		CollectionResource<OEntity> cr = new CollectionResource<OEntity>("Children", entities);
+		cr.setEntityName("Children");
+		cr.setInlineCount(3);
+		List<Link> links = new ArrayList<Link>();
+		links.add(mockLink("children", "self", "/children", null));
+		links.add(mockLink("search", "search next", "/children?name={name}", null));
+		cr.setLinks(links);
+
+		HALProvider hp = new HALProvider(createMockChildVocabMetadata());
+		UriInfo mockUriInfo = mock(UriInfo.class);
+		when(mockUriInfo.getBaseUri()).thenReturn(new URI("http://www.temenos.com/rest.svc/"));
+		hp.setUriInfo(mockUriInfo);
+
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		hp.writeTo(cr, CollectionResource.class, OEntity.class, null, MediaType.APPLICATION_HAL_JSON_TYPE, null, streamed);
+		hp.setStreamJson(false);
+		ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+		hp.writeTo(cr, CollectionResource.class, OEntity.class, null, MediaType.APPLICATION_HAL_JSON_TYPE, null, rendered);
+
+		assertEquals(parseJson(new String(rendered.toByteArray(), "UTF-8")), parseJson(new String(streamed.toByteArray(), "UTF-8")));
+	}
+
 	private EntityResource<OEntity> createEntityResourceWithSelfLink(OEntityKey entityKey, List<OProperty<?>> properties, String selfLink) {
 		OEntity oentity = OEntities.create(createMockChildrenEntitySet(), entityKey, properties, new ArrayList<OLink>());
 		EntityResource<OEntity> entityResource = new EntityResource<OEntity>(oentity);
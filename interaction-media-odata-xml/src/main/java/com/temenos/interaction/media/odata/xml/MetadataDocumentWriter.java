@@ -0,0 +1,125 @@
+package com.temenos.interaction.media.odata.xml;
+
+/*
+ * #%L
+ * interaction-media-odata-xml
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.odata4j.edm.EdmDataServices;
+
+import com.temenos.interaction.odataext.entity.EdmDataServicesAdapter;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
+
+/**
+ * Writes the metadata documents held in a {@link MetadataDocumentCache},
+ * rendering them only when the cache does not hold the current version.
+ */
+public final class MetadataDocumentWriter {
+
+	/**
+	 * Renders a metadata document.
+	 */
+	public interface Renderer {
+		String render() throws IOException;
+	}
+
+	private MetadataDocumentWriter() {}
+
+	/**
+	 * @return the cache of documents rendered from the supplied metadata, or null if it has none
+	 */
+	public static MetadataDocumentCache getDocumentCache(EdmDataServices metadata) {
+		return metadata instanceof EdmDataServicesAdapter ? ((EdmDataServicesAdapter) metadata).getDocumentCache() : null;
+	}
+
+	/**
+	 * Write a cached document, in its gzip encoding if the request accepts it and
+	 * nothing else has already encoded the response.  The response carries the
+	 * entity tag of the encoding written.
+	 * @param requestHeaders headers of the request, may be null
+	 * @param httpHeaders headers of the response, may be null
+	 */
+	public static void write(MetadataDocumentCache cache, String key, Renderer renderer,
+			HttpHeaders requestHeaders, MultivaluedMap<String, Object> httpHeaders,
+			OutputStream outputStream) throws IOException {
+		MetadataDocumentCache.Document document = cache.get(key);
+		if (document == null) {
+			long version = cache.getVersion();
+			document = cache.put(key, version, renderer.render().getBytes("UTF-8"));
+		}
+		byte[] content = document.getContent();
+		if (httpHeaders != null) {
+			String entityTag = document.getEntityTag();
+			if (!httpHeaders.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+				httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+				if (requestHeaders != null && acceptsGzip(requestHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING))) {
+					httpHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+					content = document.getGzipContent();
+					entityTag = document.getGzipEntityTag();
+				}
+			}
+			// replace a tag of this document with the tag of the encoding served, keep any other
+			Object current = httpHeaders.getFirst(HttpHeaders.ETAG);
+			if (current == null || document.getEntityTag().equals(current.toString())
+					|| document.getGzipEntityTag().equals(current.toString())) {
+				httpHeaders.putSingle(HttpHeaders.ETAG, entityTag);
+			}
+		}
+		outputStream.write(content);
+		outputStream.flush();
+	}
+
+	static boolean acceptsGzip(Iterable<String> acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String header : acceptEncoding) {
+			for (String coding : header.split(",")) {
+				String[] parameters = coding.split(";");
+				String name = parameters[0].trim();
+				if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+					continue;
+				}
+				boolean accepted = true;
+				for (int i = 1; i < parameters.length; i++) {
+					String parameter = parameters[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							accepted = Double.parseDouble(parameter.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							accepted = false;
+						}
+					}
+				}
+				if (name.equals("*") && !accepted) {
+					continue;
+				}
+				return accepted;
+			}
+		}
+		return false;
+	}
+}
@@ -114,7 +114,7 @@ public class AtomEntityFeedFormatWriter {
 	    }
 	    
 	    //Write entries
-	    for (EntityResource<Entity> entityResource : collectionResource.getEntities()) {
+	    for (EntityResource<Entity> entityResource : collectionResource.streamEntities()) {
 			assert(collectionResource.getEntityName().equals(entityResource.getEntityName()));
 	    	entryWriter.writeEntry(writer, entitySetName, entityResource.getEntityName(), entityResource.getEntity(), entityResource.getLinks(), entityResource.getEmbedded(), uriInfo, updated);
 	    }
@@ -46,6 +46,7 @@ import org.odata4j.stax2.XMLWriter2;
 
 import com.temenos.interaction.core.hypermedia.Link;
 import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.resource.EntityResource;
 
 public class AtomFeedFormatWriter extends XmlFormatWriter implements FormatWriter<EntitiesResponse> {
 	
@@ -72,10 +73,30 @@ public class AtomFeedFormatWriter extends XmlFormatWriter implements FormatWrite
   }
   
   public void write(UriInfo uriInfo, Writer w, Collection<Link> links, EntitiesResponse response, String modelName, Map<OEntity, Collection<Link>> linkId) {
+    List<EntityResource<OEntity>> entries = new ArrayList<EntityResource<OEntity>>();
+    for (OEntity entity : response.getEntities()) {
+      EntityResource<OEntity> entry = new EntityResource<OEntity>(entity);
+      entry.setLinks(linkId != null ? linkId.get(entity) : null);
+      entries.add(entry);
+    }
+    write(uriInfo, w, links, response.getEntitySet(), response.getInlineCount(), response.getSkipToken(), entries);
+  }
+
+  /**
+   * Write a feed, one entry at a time as the entries are iterated, so that
+   * they need not all be held in memory.
+   * @param uriInfo Current URI
+   * @param w Java writer to stream to atom+xml output
+   * @param links links of the feed
+   * @param ees entity set of the entries
+   * @param inlineCount inline count
+   * @param skipToken skip token
+   * @param entries the entities to write, each with the links of its entry
+   */
+  public void write(UriInfo uriInfo, Writer w, Collection<Link> links, EdmEntitySet ees, Integer inlineCount, String skipToken, Iterable<EntityResource<OEntity>> entries) {
 	String baseUri = AtomXMLProvider.getBaseUri(serviceDocument, uriInfo);
 	String absolutePath = AtomXMLProvider.getAbsolutePath(uriInfo);
 
-    EdmEntitySet ees = response.getEntitySet();
     String entitySetName = ees.getName();
     DateTime utc = new DateTime().withZone(DateTimeZone.UTC);
     String updated = InternalUtil.toString(utc);
@@ -102,13 +123,13 @@ public class AtomFeedFormatWriter extends XmlFormatWriter implements FormatWrite
         writeElement(writer, "link", null, "rel", rel, "title", title, "href", href);
     }
 
-    Integer inlineCount = response.getInlineCount();
     if (inlineCount != null) {
       writeElement(writer, "m:count", inlineCount.toString());
     }
 
-    for (OEntity entity : response.getEntities()) {
-    	Collection<Link> link =  linkId.get(entity);
+    for (EntityResource<OEntity> entry : entries) {
+    	OEntity entity = entry.getEntity();
+    	Collection<Link> link = entry.getLinks();
     	writer.startElement("entry");
     	
     	String etag = entity.getEntityTag();
@@ -121,9 +142,9 @@ public class AtomFeedFormatWriter extends XmlFormatWriter implements FormatWrite
     	writer.endElement("entry");
     }
 
-    if (response.getSkipToken() != null) {
+    if (skipToken != null) {
       //<link rel="next" href="https://odata.sqlazurelabs.com/OData.svc/v0.1/rp1uiewita/StackOverflow/Tags/?$filter=TagName%20gt%20'a'&amp;$skiptoken=52" />
-      String nextHref = uriInfo.getRequestUriBuilder().replaceQueryParam("$skiptoken", response.getSkipToken()).build().toString();
+      String nextHref = uriInfo.getRequestUriBuilder().replaceQueryParam("$skiptoken", skipToken).build().toString();
       writeElement(writer, "link", null, "rel", "next", "href", nextHref);
     }
 
@@ -22,8 +22,6 @@ package com.temenos.interaction.media.odata.xml.atom;
  */
 
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -31,12 +29,14 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PushbackInputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,7 +57,6 @@ import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
 
-import org.apache.commons.io.IOUtils;
 import org.odata4j.core.OEntities;
 import org.odata4j.core.OEntity;
 import org.odata4j.core.OEntityKey;
@@ -96,6 +95,7 @@ import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.RESTResource;
 import com.temenos.interaction.core.resource.ResourceTypeHelper;
+import com.temenos.interaction.core.resource.StreamedCollection;
 import com.temenos.interaction.core.rim.URLHelper;
 import com.temenos.interaction.core.web.RequestContext;
 import com.temenos.interaction.odataext.entity.MetadataOData4j;
@@ -108,6 +108,9 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
 	private static final Logger LOGGER = LoggerFactory.getLogger(AtomXMLProvider.class);
 	private static final Pattern STRING_KEY_RESOURCE_PATTERN = Pattern.compile("(\\('.*'\\))");
 
+	/** Size up to which a streamed response is still buffered and sent with a Content-Length */
+	public static final int DEFAULT_BUFFER_THRESHOLD = 64 * 1024;
+
 	@Context
 	private UriInfo uriInfo;
 	@Context
@@ -124,6 +127,12 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
 
     private ResourceStateProvider resourceStateProvider;	
 
+	// Streaming writes the response as it is rendered, see setStreaming
+	private boolean streaming = false;
+	private Set<String> streamedMediaTypes = new HashSet<String>();
+	private Set<String> streamedEntities = new HashSet<String>();
+	private int bufferThreshold = DEFAULT_BUFFER_THRESHOLD;
+
 	/**
 	 * Construct the jax-rs Provider for OData media type.
 	 * @param metadataOData4j
@@ -184,7 +193,6 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
 	 * @postcondition non null Atom (OData) XML document written to OutputStream
 	 * @invariant valid OutputStream
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public void writeTo(RESTResource resource, Class<?> type, Type genericType,
 			Annotation[] annotations, MediaType mediaType,
@@ -193,7 +201,85 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
 			WebApplicationException {
 		assert resource != null;
 		assert uriInfo != null;
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();  		
+		// Without streaming the whole response is buffered so that Content-Length can be set
+		int threshold = isStreamed(resource, mediaType) ? bufferThreshold : Integer.MAX_VALUE;
+		ThresholdOutputStream out = new ThresholdOutputStream(entityStream, httpHeaders, threshold);
+        //Set response headers
+        if(httpHeaders != null) {
+            httpHeaders.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_ATOM_XML);        //Workaround for https://issues.apache.org/jira/browse/WINK-374
+        }
+		try {
+			writeResource(resource, type, genericType, out);
+		} finally {
+			// entities streamed from an open source must be released even if writing fails
+			if (resource instanceof CollectionResource) {
+				((CollectionResource<?>) resource).closeEntities();
+			}
+		}
+		out.finish();
+	}
+
+	/*
+	 * A response is streamed if streaming is on for all responses, for its
+	 * media type or for its entity.
+	 */
+	private boolean isStreamed(RESTResource resource, MediaType mediaType) {
+		if (streaming) {
+			return true;
+		}
+		if (mediaType != null && streamedMediaTypes.contains(mediaType.getType() + "/" + mediaType.getSubtype())) {
+			return true;
+		}
+		return resource.getEntityName() != null && streamedEntities.contains(resource.getEntityName());
+	}
+
+	/**
+	 * Stream all responses.  Output is written to the response as it is rendered,
+	 * using chunked transfer encoding, once it exceeds the buffer threshold.
+	 * By default responses are buffered in full and sent with a Content-Length.
+	 * @param streaming
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Stream responses of these media types, e.g. application/atom+xml.
+	 * @see #setStreaming(boolean)
+	 */
+	public void setStreamedMediaTypes(Collection<String> mediaTypes) {
+		Set<String> types = new HashSet<String>();
+		for (String mediaType : mediaTypes) {
+			MediaType parsed = MediaType.valueOf(mediaType);
+			types.add(parsed.getType() + "/" + parsed.getSubtype());
+		}
+		this.streamedMediaTypes = types;
+	}
+
+	/**
+	 * Stream responses for resources of these entities.
+	 * @see #setStreaming(boolean)
+	 */
+	public void setStreamedEntities(Collection<String> entityNames) {
+		this.streamedEntities = new HashSet<String>(entityNames);
+	}
+
+	/**
+	 * Number of bytes of a streamed response held back so that small
+	 * responses are still sent with a Content-Length.
+	 * @param bufferThreshold number of bytes, greater than zero
+	 * @throws IllegalArgumentException if the threshold is not positive
+	 */
+	public void setBufferThreshold(int bufferThreshold) {
+		if (bufferThreshold <= 0) {
+			throw new IllegalArgumentException("Buffer threshold must be greater than zero: " + bufferThreshold);
+		}
+		this.bufferThreshold = bufferThreshold;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeResource(RESTResource resource, Class<?> type, Type genericType, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, UTF_8);
         RESTResource restResource = processLinks((RESTResource) resource);
         Collection<Link> processedLinks = restResource.getLinks();
         if(ResourceTypeHelper.isType(type, genericType, EntityResource.class, OEntity.class)) {
@@ -204,14 +290,14 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
             //Write entry
             // create OEntity with our EdmEntitySet see issue https://github.com/aphethean/IRIS/issues/20
             OEntity oentity = OEntities.create(entitySet, tempEntity.getEntityKey(), tempEntity.getProperties(), null);
-            entryWriter.write(uriInfo, new OutputStreamWriter(buffer, UTF_8), Responses.entity(oentity), entitySet, olinks);
+            entryWriter.write(uriInfo, writer, Responses.entity(oentity), entitySet, olinks);
         } else if(ResourceTypeHelper.isType(type, genericType, EntityResource.class, Entity.class)) {
             EntityResource<Entity> entityResource = (EntityResource<Entity>) resource;
             //Write entry
             Entity entity = entityResource.getEntity();
             String entityName = entityResource.getEntityName();
             // Write Entity object with Abdera implementation
-            entityEntryWriter.write(uriInfo, new OutputStreamWriter(buffer, UTF_8), entityName, entity, processedLinks, entityResource.getEmbedded());
+            entityEntryWriter.write(uriInfo, writer, entityName, entity, processedLinks, entityResource.getEmbedded());
         } else if(ResourceTypeHelper.isType(type, genericType, EntityResource.class)) {
             EntityResource<Object> entityResource = (EntityResource<Object>) resource;
             //Links and entity properties
@@ -226,51 +312,64 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
                     }
                 }
             }
-            entityEntryWriter.write(uriInfo, new OutputStreamWriter(buffer, UTF_8), entityName, new Entity(entityName, props), processedLinks, entityResource.getEmbedded());
+            entityEntryWriter.write(uriInfo, writer, entityName, new Entity(entityName, props), processedLinks, entityResource.getEmbedded());
         } else if(ResourceTypeHelper.isType(type, genericType, CollectionResource.class, OEntity.class)) {
             CollectionResource<OEntity> collectionResource = ((CollectionResource<OEntity>) resource);
-            EdmEntitySet entitySet = getEdmEntitySet(collectionResource.getEntityName());
-            List<EntityResource<OEntity>> collectionEntities = (List<EntityResource<OEntity>>) collectionResource.getEntities();
-            List<OEntity> entities = new ArrayList<OEntity>();
-            Map<OEntity, Collection<Link>> linkId = new HashMap<OEntity, Collection<Link>>();
-            for (EntityResource<OEntity> collectionEntity : collectionEntities) {
-                // create OEntity with our EdmEntitySet see issue https://github.com/aphethean/IRIS/issues/20
-                OEntity tempEntity = collectionEntity.getEntity();
-                List<OLink> olinks = formOLinks(collectionEntity);
-                Collection<Link> links = collectionEntity.getLinks();
-                OEntity entity = OEntities.create(entitySet, null, tempEntity.getEntityKey(), tempEntity.getEntityTag(), tempEntity.getProperties(), olinks);
-                entities.add(entity);
-                linkId.put(entity, links);
-            }
-            // TODO implement collection properties and get transient value for skiptoken
+            final EdmEntitySet entitySet = getEdmEntitySet(collectionResource.getEntityName());
+            final Iterable<EntityResource<OEntity>> collectionEntities = collectionResource.streamEntities();
+            // entries are converted as the feed writer reaches them rather than all up front
+            Iterable<EntityResource<OEntity>> entries = new Iterable<EntityResource<OEntity>>() {
+                @Override
+                public Iterator<EntityResource<OEntity>> iterator() {
+                    final Iterator<EntityResource<OEntity>> it = collectionEntities.iterator();
+                    return new Iterator<EntityResource<OEntity>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public EntityResource<OEntity> next() {
+                            return createFeedEntry(entitySet, it.next());
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
             Integer inlineCount = collectionResource.getInlineCount();
-            String skipToken = null;
-            feedWriter.write(uriInfo, new OutputStreamWriter(buffer, UTF_8), 
-                    processedLinks, 
-                    Responses.entities(entities, entitySet, inlineCount, skipToken), 
-                    metadata.getModelName(), linkId);
+            String skipToken = collectionResource.getSkipToken();
+            feedWriter.write(uriInfo, writer, processedLinks, entitySet, inlineCount, skipToken, entries);
         } else if(ResourceTypeHelper.isType(type, genericType, CollectionResource.class, Entity.class)) {
             CollectionResource<Entity> collectionResource = ((CollectionResource<Entity>) resource);
             
-            // TODO implement collection properties and get transient value for skiptoken
             Integer inlineCount = collectionResource.getInlineCount();
-            String skipToken = null;
+            String skipToken = collectionResource.getSkipToken();
             //Write feed
             AtomEntityFeedFormatWriter entityFeedWriter = new AtomEntityFeedFormatWriter(serviceDocument, metadata);
-            entityFeedWriter.write(uriInfo, new OutputStreamWriter(buffer, UTF_8), collectionResource, inlineCount, skipToken, metadata.getModelName());
+            entityFeedWriter.write(uriInfo, writer, collectionResource, inlineCount, skipToken, metadata.getModelName());
         } else {
             LOGGER.error("Accepted object for writing in isWriteable, but type not supported in writeTo method");
             throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
         }
-        
-        //Set response headers
-        if(httpHeaders != null) {
-            httpHeaders.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_ATOM_XML);        //Workaround for https://issues.apache.org/jira/browse/WINK-374
-            httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, Integer.toString(buffer.size()));
-        }
-        IOUtils.copy(new ByteArrayInputStream(buffer.toByteArray()), entityStream);
+        writer.flush();
 	}
 	
+	/*
+	 * create OEntity with our EdmEntitySet see issue https://github.com/aphethean/IRIS/issues/20
+	 */
+	private EntityResource<OEntity> createFeedEntry(EdmEntitySet entitySet, EntityResource<OEntity> collectionEntity) {
+		OEntity tempEntity = collectionEntity.getEntity();
+		List<OLink> olinks = formOLinks(collectionEntity);
+		OEntity entity = OEntities.create(entitySet, null, tempEntity.getEntityKey(), tempEntity.getEntityTag(), tempEntity.getProperties(), olinks);
+		EntityResource<OEntity> entry = new EntityResource<OEntity>(entity);
+		entry.setLinks(collectionEntity.getLinks());
+		return entry;
+	}
+
 	public RESTResource processLinks(RESTResource restResource) {
 		Collection<Link> linksCollection = restResource.getLinks();
 		List<Link> processedLinks = new ArrayList<Link>();
@@ -292,12 +391,15 @@ public class AtomXMLProvider implements MessageBodyReader<RESTResource>, Message
 			}
 		}
 		
-		// process entities in collection resource
+		// process entities in collection resource, as they are read if they are streamed
 		if (restResource instanceof CollectionResource) {
 			CollectionResource<?> collectionResource = (CollectionResource<?>) restResource;
-			for (EntityResource<?> entityResource : collectionResource.getEntities()) {
-				processLinks(entityResource);
-			}
+			collectionResource.forEachEntity(new StreamedCollection.ReadListener<EntityResource<?>>() {
+				@Override
+				public void read(EntityResource<?> entityResource) {
+					processLinks(entityResource);
+				}
+			});
 		}
 		return restResource;
 	}
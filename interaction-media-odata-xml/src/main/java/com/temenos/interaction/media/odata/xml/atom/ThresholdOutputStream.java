@@ -0,0 +1,107 @@
+package com.temenos.interaction.media.odata.xml.atom;
+
+/*
+ * #%L
+ * interaction-media-odata-xml
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Holds back output until more than a threshold number of bytes have been
+ * written, then passes everything through to the target stream.
+ * <p>
+ * If {@link #finish()} is reached first the response is small enough to be
+ * sent with a Content-Length header. Otherwise no length is set and the
+ * container sends the response with chunked transfer encoding as it is
+ * written. The target stream is never closed.
+ */
+final class ThresholdOutputStream extends OutputStream {
+
+	private final OutputStream target;
+	private final MultivaluedMap<String, Object> httpHeaders;
+	private final int threshold;
+	// null once the threshold has been passed
+	private ByteArrayOutputStream buffer;
+
+	/**
+	 * @param target the response stream
+	 * @param httpHeaders response headers, may be null
+	 * @param threshold number of bytes that may be held back
+	 */
+	ThresholdOutputStream(OutputStream target, MultivaluedMap<String, Object> httpHeaders, int threshold) {
+		this.target = target;
+		this.httpHeaders = httpHeaders;
+		this.threshold = threshold;
+		this.buffer = new ByteArrayOutputStream(Math.min(threshold, 8192));
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (buffer == null) {
+			target.write(b, off, len);
+		} else if (len <= threshold - buffer.size()) {
+			buffer.write(b, off, len);
+		} else {
+			buffer.writeTo(target);
+			buffer = null;
+			target.write(b, off, len);
+		}
+	}
+
+	/*
+	 * Flushing while buffering would commit the response without its length.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (buffer == null) {
+			target.flush();
+		}
+	}
+
+	/**
+	 * Write out whatever is held back, setting Content-Length if the
+	 * threshold was never passed.
+	 */
+	void finish() throws IOException {
+		if (buffer != null) {
+			if (httpHeaders != null) {
+				httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, Integer.toString(buffer.size()));
+			}
+			buffer.writeTo(target);
+			buffer = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
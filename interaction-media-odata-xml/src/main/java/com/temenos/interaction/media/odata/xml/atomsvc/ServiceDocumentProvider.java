@@ -53,6 +53,8 @@ import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.RESTResource;
 import com.temenos.interaction.core.resource.ResourceTypeHelper;
+import com.temenos.interaction.media.odata.xml.MetadataDocumentWriter;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
 
 /**
  * JAX-RS Provider class for marshalling Service document resources.
@@ -60,6 +62,9 @@ import com.temenos.interaction.core.resource.ResourceTypeHelper;
  * Service document representations are atomsvc+xml media types but we allow 
  * atom+xml accept headers to cater for OData clients which provide '* / *' 
  * accept headers.
+ * 
+ * The document rendered from a {@link MetadataDocumentCache} backed metadata is
+ * kept, pre-encoded, for each base uri until the metadata changes.
  */
 @Provider
 @Consumes({ExtendedMediaTypes.APPLICATION_ATOMSVC_XML})
@@ -67,6 +72,8 @@ import com.temenos.interaction.core.resource.ResourceTypeHelper;
 public class ServiceDocumentProvider implements MessageBodyReader<RESTResource>, MessageBodyWriter<RESTResource> {
 	@Context
 	private UriInfo uriInfo;
+	@Context
+	private HttpHeaders requestHeaders;
 	private final ResourceState serviceDocument;
 
 	public ServiceDocumentProvider(ResourceStateMachine hypermediaEngine) {
@@ -112,18 +119,24 @@ public class ServiceDocumentProvider implements MessageBodyReader<RESTResource>,
 		final String svcDocString;
 		if(ResourceTypeHelper.isType(type, genericType, EntityResource.class, EdmDataServices.class)) {
 			EntityResource<EdmDataServices> serviceDocumentResource = (EntityResource<EdmDataServices>) resource;
-		    EdmDataServices metadata = (EdmDataServices) serviceDocumentResource.getEntity();
-		    StringWriter sw = new StringWriter();
-		    MediaType[] acceptedMediaTypes = { ExtendedMediaTypes.APPLICATION_ATOMSVC_XML_TYPE };
-		    FormatWriter<EdmDataServices> fw = FormatWriterFactory.getFormatWriter(EdmDataServices.class, Arrays.asList(acceptedMediaTypes), "atom", null);
-		    ExUriInfo extUriInfo = new ExUriInfo(serviceDocument, uriInfo);
-		    fw.write(extUriInfo, sw, metadata);
-			svcDocString = sw.toString();
+		    final EdmDataServices metadata = (EdmDataServices) serviceDocumentResource.getEntity();
 			
 			//Set HTTP response headers
 			if(httpHeaders != null) {
 				httpHeaders.putSingle(HttpHeaders.CONTENT_TYPE, ExtendedMediaTypes.APPLICATION_ATOMSVC_XML_TYPE);
 			}
+			MetadataDocumentCache cache = MetadataDocumentWriter.getDocumentCache(metadata);
+			if (cache != null) {
+				String baseUri = uriInfo != null ? String.valueOf(uriInfo.getBaseUri()) : null;
+				MetadataDocumentWriter.write(cache, MetadataDocumentCache.serviceDocumentKey(baseUri), new MetadataDocumentWriter.Renderer() {
+					@Override
+					public String render() {
+						return writeServiceDocument(metadata);
+					}
+				}, requestHeaders, httpHeaders, outputStream);
+				return;
+			}
+			svcDocString = writeServiceDocument(metadata);
 		}
 		else {
 			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
@@ -132,6 +145,15 @@ public class ServiceDocumentProvider implements MessageBodyReader<RESTResource>,
 		outputStream.flush();
 	}
 
+	private String writeServiceDocument(EdmDataServices metadata) {
+	    StringWriter sw = new StringWriter();
+	    MediaType[] acceptedMediaTypes = { ExtendedMediaTypes.APPLICATION_ATOMSVC_XML_TYPE };
+	    FormatWriter<EdmDataServices> fw = FormatWriterFactory.getFormatWriter(EdmDataServices.class, Arrays.asList(acceptedMediaTypes), "atom", null);
+	    ExUriInfo extUriInfo = new ExUriInfo(serviceDocument, uriInfo);
+	    fw.write(extUriInfo, sw, metadata);
+		return sw.toString();
+	}
+
 	@Override
 	public boolean isReadable(Class<?> type, Type genericType,
 			Annotation[] annotations, MediaType mediaType) {
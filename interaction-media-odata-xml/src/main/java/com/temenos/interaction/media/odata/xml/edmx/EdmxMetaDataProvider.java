@@ -32,6 +32,7 @@ import java.lang.reflect.Type;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
@@ -45,17 +46,24 @@ import org.odata4j.edm.EdmDataServices;
 import com.temenos.interaction.core.resource.MetaDataResource;
 import com.temenos.interaction.core.resource.RESTResource;
 import com.temenos.interaction.core.resource.ResourceTypeHelper;
+import com.temenos.interaction.media.odata.xml.MetadataDocumentWriter;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
 
 /**
  * JAX-RS Provider class for marshalling EDMX metadata resources.
  * 
  * EDMX representations have an xml media type but we allow atom+xml accept headers to cater
  * for OData clients which provide '* / *' accept headers.
+ * 
+ * The document rendered from a {@link MetadataDocumentCache} backed metadata is
+ * kept, pre-encoded, until the metadata changes.
  */
 @Provider
 @Consumes({MediaType.APPLICATION_XML})
 @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_ATOM_XML, MediaType.APPLICATION_XHTML_XML, MediaType.TEXT_HTML})
 public class EdmxMetaDataProvider implements MessageBodyReader<RESTResource>, MessageBodyWriter<RESTResource> {
+	@Context
+	private HttpHeaders requestHeaders;
 	
 	public EdmxMetaDataProvider() {}
 	
@@ -95,9 +103,18 @@ public class EdmxMetaDataProvider implements MessageBodyReader<RESTResource>, Me
 				httpHeaders.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_XML);
 			}
 			MetaDataResource<EdmDataServices> metadataResource = (MetaDataResource<EdmDataServices>) resource;
-			StringWriter sw = new StringWriter();
-			EdmxMetaDataWriter.write(metadataResource.getMetadata(), sw);
-			edmxString = sw.toString();
+			final EdmDataServices metadata = metadataResource.getMetadata();
+			MetadataDocumentCache cache = MetadataDocumentWriter.getDocumentCache(metadata);
+			if (cache != null) {
+				MetadataDocumentWriter.write(cache, MetadataDocumentCache.METADATA, new MetadataDocumentWriter.Renderer() {
+					@Override
+					public String render() {
+						return writeEdmx(metadata);
+					}
+				}, requestHeaders, httpHeaders, outputStream);
+				return;
+			}
+			edmxString = writeEdmx(metadata);
 		}
 		else {
 			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
@@ -106,6 +123,12 @@ public class EdmxMetaDataProvider implements MessageBodyReader<RESTResource>, Me
 		outputStream.flush();
 	}
 
+	private static String writeEdmx(EdmDataServices metadata) {
+		StringWriter sw = new StringWriter();
+		EdmxMetaDataWriter.write(metadata, sw);
+		return sw.toString();
+	}
+
 	@Override
 	public boolean isReadable(Class<?> type, Type genericType,
 			Annotation[] annotations, MediaType mediaType) {
@@ -0,0 +1,92 @@
+package com.temenos.interaction.media.odata.xml;
+
+/*
+ * #%L
+ * interaction-media-odata-xml
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.Test;
+
+import com.temenos.interaction.core.MultivaluedMapImpl;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
+
+public class TestMetadataDocumentWriter {
+
+	private final MetadataDocumentWriter.Renderer renderer = new MetadataDocumentWriter.Renderer() {
+		@Override
+		public String render() {
+			return "<edmx/>";
+		}
+	};
+
+	@Test
+	public void testAcceptsGzip() {
+		assertTrue(MetadataDocumentWriter.acceptsGzip(Collections.singletonList("gzip, deflate")));
+		assertTrue(MetadataDocumentWriter.acceptsGzip(Collections.singletonList("*")));
+		assertTrue(MetadataDocumentWriter.acceptsGzip(Collections.singletonList("*;q=0, GZIP;q=0.5")));
+		assertFalse(MetadataDocumentWriter.acceptsGzip(Collections.singletonList("gzip;q=0, *")));
+		assertFalse(MetadataDocumentWriter.acceptsGzip(Collections.singletonList("deflate")));
+		assertFalse(MetadataDocumentWriter.acceptsGzip(null));
+	}
+
+	@Test
+	public void testWriteGzipDocumentEntityTag() throws Exception {
+		MetadataDocumentCache cache = new MetadataDocumentCache();
+		HttpHeaders requestHeaders = mock(HttpHeaders.class);
+		when(requestHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(Collections.singletonList("gzip, deflate"));
+
+		// the tag of the identity encoding set by the RIM is replaced
+		MultivaluedMap<String, Object> httpHeaders = new MultivaluedMapImpl<Object>();
+		MetadataDocumentCache.Document document = cache.put(MetadataDocumentCache.METADATA, cache.getVersion(), "<edmx/>".getBytes("UTF-8"));
+		httpHeaders.putSingle(HttpHeaders.ETAG, document.getEntityTag());
+		MetadataDocumentWriter.write(cache, MetadataDocumentCache.METADATA, renderer, requestHeaders, httpHeaders, new ByteArrayOutputStream());
+		assertEquals("gzip", httpHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(document.getGzipEntityTag(), httpHeaders.getFirst(HttpHeaders.ETAG));
+		assertFalse(document.getEntityTag().equals(document.getGzipEntityTag()));
+
+		// and the identity encoding keeps its own tag
+		httpHeaders = new MultivaluedMapImpl<Object>();
+		MetadataDocumentWriter.write(cache, MetadataDocumentCache.METADATA, renderer, null, httpHeaders, new ByteArrayOutputStream());
+		assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(document.getEntityTag(), httpHeaders.getFirst(HttpHeaders.ETAG));
+	}
+
+	@Test
+	public void testWriteKeepsOtherEntityTag() throws Exception {
+		MetadataDocumentCache cache = new MetadataDocumentCache();
+		MultivaluedMap<String, Object> httpHeaders = new MultivaluedMapImpl<Object>();
+		httpHeaders.putSingle(HttpHeaders.ETAG, "\"other\"");
+		MetadataDocumentWriter.write(cache, MetadataDocumentCache.METADATA, renderer, null, httpHeaders, new ByteArrayOutputStream());
+		assertEquals("\"other\"", httpHeaders.getFirst(HttpHeaders.ETAG));
+	}
+}
@@ -27,6 +27,7 @@ import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -47,6 +48,7 @@ import java.lang.annotation.Annotation;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.AbstractCollection;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -122,6 +124,7 @@ import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.EntityResource;
 import com.temenos.interaction.core.resource.MetaDataResource;
 import com.temenos.interaction.core.resource.RESTResource;
+import com.temenos.interaction.core.resource.StreamedCollection;
 import com.temenos.interaction.core.web.RequestContext;
 import com.temenos.interaction.media.odata.xml.CustomError;
 import com.temenos.interaction.media.odata.xml.Flight;
@@ -1524,7 +1527,182 @@ public class TestAtomXMLProvider {
 		//content length must be greater than zero
 		assertThat(Integer.parseInt((String)httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH)), greaterThan(0));
 	}
+
+	@Test
+	public void testWriteEntityResourceStreamed() throws Exception {
+		EdmEntitySet ees = createMockEdmEntitySet();
+		EdmDataServices mockEDS = createMockFlightEdmDataServices();		
+		when(mockEDS.getEdmEntitySet(anyString())).thenReturn(ees);
+		Metadata mockMetadata = createMockFlightMetadata();
+
+		//Create provider
+		MockAtomXMLProvider p = new MockAtomXMLProvider(createMockMetadataOData4j(mockEDS), mockMetadata);
+		UriInfo uriInfo = mock(UriInfo.class);
+		URI uri = new URI("http://localhost:8080/responder/rest/");
+		when(uriInfo.getBaseUri()).thenReturn(uri);
+		when(uriInfo.getPath()).thenReturn("Flight(123)");
+		p.setUriInfo(uriInfo);
+		p.setStreamedMediaTypes(Arrays.asList(MediaType.APPLICATION_ATOM_XML));
+
+		//Under the threshold the response is still sent with its length
+		MultivaluedMap<String, Object> httpHeaders = new MultivaluedMapImpl<Object>();
+		ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+		EntityResource<GenericError> er = createMockEntityResourceGenericError();
+		GenericEntity<EntityResource<GenericError>> ge = new GenericEntity<EntityResource<GenericError>>(er) {};
+		p.writeTo(ge.getEntity(), ge.getRawType(), ge.getType(), null, MediaType.APPLICATION_ATOM_XML_TYPE, httpHeaders, buffered);
+		assertEquals(Integer.toString(buffered.size()), httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+
+		//Over the threshold it is written as it is rendered, without a length
+		p.setBufferThreshold(16);
+		httpHeaders = new MultivaluedMapImpl<Object>();
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		er = createMockEntityResourceGenericError();
+		ge = new GenericEntity<EntityResource<GenericError>>(er) {};
+		p.writeTo(ge.getEntity(), ge.getRawType(), ge.getType(), null, MediaType.APPLICATION_ATOM_XML_TYPE, httpHeaders, streamed);
+		assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+		assertEquals(MediaType.APPLICATION_ATOM_XML, httpHeaders.getFirst(HttpHeaders.CONTENT_TYPE));
+		XMLUnit.setIgnoreWhitespace(true);
+		Diff myDiff = XMLUnit.compareXML(buffered.toString("UTF-8"), streamed.toString("UTF-8"));
+		myDiff.overrideDifferenceListener(new IgnoreNamedElementsXMLDifferenceListener("updated"));
+		if(!myDiff.similar()) {
+			fail(myDiff.toString());
+		}
+	}
 		
+	/*
+	 * Entities read once, as a database cursor would be, recording how much of
+	 * the response had been written by the time the last of them was read.
+	 */
+	private static class ReadOnceCollection<E> extends AbstractCollection<E> implements StreamedCollection<E> {
+		private final List<E> elements;
+		private final ByteArrayOutputStream response;
+		private final List<ReadListener<? super E>> listeners = new ArrayList<ReadListener<? super E>>();
+		private int writtenBeforeLastRead = -1;
+
+		ReadOnceCollection(List<E> elements, ByteArrayOutputStream response) {
+			this.elements = elements;
+			this.response = response;
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			throw new UnsupportedOperationException("Entities must only be read once");
+		}
+
+		@Override
+		public int size() {
+			return elements.size();
+		}
+
+		@Override
+		public void addReadListener(ReadListener<? super E> listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public Iterator<E> consume() {
+			final Iterator<E> it = elements.iterator();
+			return new Iterator<E>() {
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				@Override
+				public E next() {
+					E element = it.next();
+					if (!it.hasNext()) {
+						writtenBeforeLastRead = response.size();
+					}
+					for (ReadListener<? super E> listener : listeners) {
+						listener.read(element);
+					}
+					return element;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static int countEntries(String feed) {
+		int count = 0;
+		for (int i = feed.indexOf("<entry"); i >= 0; i = feed.indexOf("<entry", i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	@Test
+	public void testWriteCollectionResourceOEntityStreamed() throws Exception {
+		EdmDataServices mockEDS = createMockFlightEdmDataServices();
+		MockAtomXMLProvider p = new MockAtomXMLProvider(createMockMetadataOData4j(mockEDS), createMockFlightMetadata());
+		UriInfo uriInfo = mock(UriInfo.class);
+		when(uriInfo.getBaseUri()).thenReturn(new URI("http://localhost:8080/responder/rest/"));
+		when(uriInfo.getPath()).thenReturn("Flight()");
+		p.setUriInfo(uriInfo);
+		p.setStreaming(true);
+		p.setBufferThreshold(16);
+
+		List<EntityResource<OEntity>> entities = new ArrayList<EntityResource<OEntity>>();
+		for (int i = 0; i < 1000; i++) {
+			entities.add(createMockEntityResourceOEntity(mockEDS.findEdmEntitySet("Flight")));
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ReadOnceCollection<EntityResource<OEntity>> streamed = new ReadOnceCollection<EntityResource<OEntity>>(entities, bos);
+		CollectionResource<OEntity> cr = new CollectionResource<OEntity>("Flight", streamed);
+		GenericEntity<CollectionResource<OEntity>> ge = new GenericEntity<CollectionResource<OEntity>>(cr) {};
+		MultivaluedMap<String, Object> httpHeaders = new MultivaluedMapImpl<Object>();
+		p.writeTo(ge.getEntity(), ge.getRawType(), ge.getType(), null, MediaType.APPLICATION_ATOM_XML_TYPE, httpHeaders, bos);
+
+		// the first entries were written before the last was read
+		assertThat(streamed.writtenBeforeLastRead, greaterThan(0));
+		assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+		assertEquals(1000, countEntries(new String(bos.toByteArray(), "UTF-8")));
+	}
+
+	@Test
+	public void testWriteCollectionResourceEntityStreamed() throws Exception {
+		EdmDataServices mockEDS = createMockFlightEdmDataServices();
+		when(mockEDS.getEdmEntitySet(anyString())).thenReturn(createMockEdmEntitySet());
+		MockAtomXMLProvider p = new MockAtomXMLProvider(createMockMetadataOData4j(mockEDS), createMockFlightMetadata());
+		UriInfo uriInfo = mock(UriInfo.class);
+		when(uriInfo.getBaseUri()).thenReturn(new URI("http://localhost:8080/responder/rest/"));
+		when(uriInfo.getPath()).thenReturn("Flight()");
+		p.setUriInfo(uriInfo);
+		p.setStreaming(true);
+		p.setBufferThreshold(16);
+
+		List<EntityResource<Entity>> entities = new ArrayList<EntityResource<Entity>>();
+		for (int i = 0; i < 1000; i++) {
+			entities.add(createMockEntityResourceEntity("Flight"));
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ReadOnceCollection<EntityResource<Entity>> streamed = new ReadOnceCollection<EntityResource<Entity>>(entities, bos);
+		CollectionResource<Entity> cr = new CollectionResource<Entity>("Flights", streamed);
+		cr.setEntityName("Flight");
+		GenericEntity<CollectionResource<Entity>> ge = new GenericEntity<CollectionResource<Entity>>(cr) {};
+		MultivaluedMap<String, Object> httpHeaders = new MultivaluedMapImpl<Object>();
+		p.writeTo(ge.getEntity(), ge.getRawType(), ge.getType(), null, MediaType.APPLICATION_ATOM_XML_TYPE, httpHeaders, bos);
+
+		// the first entries were written before the last was read
+		assertThat(streamed.writtenBeforeLastRead, greaterThan(0));
+		assertNull(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+		assertEquals(1000, countEntries(new String(bos.toByteArray(), "UTF-8")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetBufferThresholdNotPositive() {
+		new AtomXMLProvider(mock(MetadataOData4j.class), mock(Metadata.class), mockResourceStateMachine(), mock(Transformer.class)).setBufferThreshold(0);
+	}
+
 	@Test
 	public void testWriteEntityResourceCustomError_AtomXML() throws Exception {
 		EdmEntitySet ees = createMockEdmEntitySet();
@@ -22,16 +22,22 @@ package com.temenos.interaction.media.odata.xml.edmx;
  */
 
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Writer;
+import java.util.ArrayList;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,8 +45,15 @@ import org.odata4j.edm.EdmDataServices;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.temenos.interaction.core.MultivaluedMapImpl;
+import com.temenos.interaction.core.entity.Metadata;
+import com.temenos.interaction.core.hypermedia.Action;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
 import com.temenos.interaction.core.resource.CollectionResource;
 import com.temenos.interaction.core.resource.MetaDataResource;
+import com.temenos.interaction.odataext.entity.MetadataDocumentCache;
+import com.temenos.interaction.odataext.entity.MetadataOData4j;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({EdmxMetaDataWriter.class})
@@ -73,4 +86,24 @@ public class TestEdmxMetadataProvider {
 		// verify our method called correctly
 		EdmxMetaDataWriter.write(any(EdmDataServices.class), any(Writer.class));
 	}
+
+	@Test
+	public void testWriteCachedDocument() throws Exception {
+		MetadataOData4j metadataOData4j = new MetadataOData4j(mock(Metadata.class),
+				new ResourceStateMachine(new ResourceState("SD", "ServiceDocument", new ArrayList<Action>(), "/")));
+		MetaDataResource<EdmDataServices> mr = new MetaDataResource<EdmDataServices>(metadataOData4j.getMetadata());
+		EdmxMetaDataProvider provider = new EdmxMetaDataProvider();
+		mockStatic(EdmxMetaDataWriter.class);
+
+		MultivaluedMap<String, Object> httpHeaders = new MultivaluedMapImpl<Object>();
+		provider.writeTo(mr, MetaDataResource.class, EdmDataServices.class, null, MediaType.APPLICATION_XML_TYPE, httpHeaders, new ByteArrayOutputStream());
+		MetadataDocumentCache.Document document = metadataOData4j.getDocumentCache().get(MetadataDocumentCache.METADATA);
+		assertNotNull(document);
+		assertEquals(document.getEntityTag(), httpHeaders.getFirst(HttpHeaders.ETAG));
+
+		// the second request is served from the cache
+		provider.writeTo(mr, MetaDataResource.class, EdmDataServices.class, null, MediaType.APPLICATION_XML_TYPE, new MultivaluedMapImpl<Object>(), new ByteArrayOutputStream());
+		verifyStatic(times(1));
+		EdmxMetaDataWriter.write(any(EdmDataServices.class), any(Writer.class));
+	}
 }
@@ -208,7 +208,7 @@ public class XHTMLProvider implements MessageBodyReader<RESTResource>, MessageBo
 					CollectionResource<Entity> collectionResource = (CollectionResource<Entity>) resource;
 					EntityMetadata entityMetadata = metadata.getEntityMetadata(collectionResource.getEntityName());
 					Set<String> entityPropertyNames = entityMetadata.getTopLevelProperties();
-					List<EntityResource<Entity>> entityResources = (List<EntityResource<Entity>>) collectionResource.getEntities();
+					Collection<EntityResource<Entity>> entityResources = collectionResource.getEntities();
 					List<EntityResourceWrapperXHTML> entities = new ArrayList<EntityResourceWrapperXHTML>();
 					for (EntityResource<Entity> er : entityResources) {
 						entities.add(new EntityResourceWrapperXHTML(entityMetadata, entityPropertyNames, buildFromEntity(er)));
@@ -221,7 +221,7 @@ public class XHTMLProvider implements MessageBodyReader<RESTResource>, MessageBo
 					CollectionResource<OEntity> collectionResource = ((CollectionResource<OEntity>) resource);
 					EntityMetadata entityMetadata = metadata.getEntityMetadata(collectionResource.getEntityName());
 					Set<String> entityPropertyNames = entityMetadata.getTopLevelProperties();
-					List<EntityResource<OEntity>> entityResources = (List<EntityResource<OEntity>>) collectionResource.getEntities();
+					Collection<EntityResource<OEntity>> entityResources = collectionResource.getEntities();
 					List<EntityResourceWrapperXHTML> entities = new ArrayList<EntityResourceWrapperXHTML>();
 					for (EntityResource<OEntity> er : entityResources) {
 						entities.add(new EntityResourceWrapperXHTML(entityMetadata, entityPropertyNames, buildFromOEntity(er)));
@@ -232,7 +232,7 @@ public class XHTMLProvider implements MessageBodyReader<RESTResource>, MessageBo
 				} else if (ResourceTypeHelper.isType(type, genericType, CollectionResource.class)) {
 					//JAXB collection resource
 					CollectionResource<Object> collectionResource = (CollectionResource<Object>) resource;
-					List<EntityResource<Object>> entityResources = (List<EntityResource<Object>>) collectionResource.getEntities();
+					Collection<EntityResource<Object>> entityResources = collectionResource.getEntities();
 					List<EntityResourceWrapperXHTML> entities = new ArrayList<EntityResourceWrapperXHTML>();
 					EntityMetadata entityMetadata = metadata.getEntityMetadata(collectionResource.getEntityName());
 					Set<String> entityPropertyNames = entityMetadata.getTopLevelProperties();
@@ -55,6 +55,13 @@ public final class EdmDataServicesAdapter extends EdmDataServices {
 		
 		this.metadataOData4j = metadataOData4j;
 	}
+
+	/**
+	 * @return the documents rendered from this metadata
+	 */
+	public MetadataDocumentCache getDocumentCache() {
+		return metadataOData4j.getDocumentCache();
+	}
 			
 	@Override
 	public EdmComplexType findEdmComplexType(String typeName) {
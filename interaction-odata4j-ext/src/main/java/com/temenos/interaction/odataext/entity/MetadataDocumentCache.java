@@ -0,0 +1,206 @@
+package com.temenos.interaction.odataext.entity;
+
+/*
+ * #%L
+ * interaction-odata4j-ext
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds the $metadata and service documents rendered from a {@link MetadataOData4j},
+ * encoded once per version of the metadata together with their gzip encoding and
+ * strong entity tags derived from the content.  The two encodings are different
+ * representations, so each has its own entity tag.
+ * <p>
+ * The version moves on whenever the metadata is unloaded, after which documents
+ * rendered from the previous version are no longer returned.
+ */
+public class MetadataDocumentCache {
+
+	/** Key of the $metadata document */
+	public static final String METADATA = "metadata";
+
+	// a few base uris per deployment, so this is only a safety net
+	private static final int CACHE_LIMIT = 100;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final AtomicLong version = new AtomicLong();
+	private final AtomicLong renders = new AtomicLong();
+	private final ConcurrentMap<String, Document> documents = new ConcurrentHashMap<String, Document>();
+
+	/**
+	 * The service document refers to the base uri of the request,
+	 * so it is cached separately for each base uri.
+	 * @return key of the service document
+	 */
+	public static String serviceDocumentKey(String baseUri) {
+		return "servicedocument:" + baseUri;
+	}
+
+	/**
+	 * @return the version documents are currently rendered for
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Discard the documents rendered so far.
+	 */
+	public void invalidate() {
+		version.incrementAndGet();
+		documents.clear();
+	}
+
+	/**
+	 * @return the document rendered for the current version, or null
+	 */
+	public Document get(String key) {
+		Document document = documents.get(key);
+		if (document != null && document.version != version.get()) {
+			documents.remove(key, document);
+			return null;
+		}
+		return document;
+	}
+
+	/**
+	 * Encode a rendered document, keeping it unless the metadata
+	 * has changed since the supplied version was read.
+	 * @param version value of {@link #getVersion()} read before rendering
+	 * @return the encoded document
+	 */
+	public Document put(String key, long version, byte[] content) {
+		renders.incrementAndGet();
+		Document document = new Document(version, content);
+		if (version == this.version.get()) {
+			if (documents.size() >= CACHE_LIMIT) {
+				documents.clear();
+			}
+			documents.put(key, document);
+		}
+		return document;
+	}
+
+	/**
+	 * @return number of documents rendered and encoded
+	 */
+	public long getRenderCount() {
+		return renders.get();
+	}
+
+	/**
+	 * A rendered document.  The byte arrays are shared and must not be modified.
+	 */
+	public static final class Document {
+		private final long version;
+		private final byte[] content;
+		private final byte[] gzipContent;
+		private final String entityTag;
+		private final String gzipEntityTag;
+
+		Document(long version, byte[] content) {
+			this.version = version;
+			this.content = content;
+			this.gzipContent = gzip(content);
+			String hash = sha1(content);
+			this.entityTag = '"' + hash + '"';
+			this.gzipEntityTag = '"' + hash + "-gzip\"";
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public byte[] getGzipContent() {
+			return gzipContent;
+		}
+
+		/**
+		 * @return the quoted strong entity tag of the content
+		 */
+		public String getEntityTag() {
+			return entityTag;
+		}
+
+		/**
+		 * @return the quoted strong entity tag of the gzip encoded content
+		 */
+		public String getGzipEntityTag() {
+			return gzipEntityTag;
+		}
+
+		/**
+		 * @return the tag of this document, identity or gzip, listed in the supplied
+		 * If-None-Match header, or null if it lists neither
+		 */
+		public String getMatchingEntityTag(String ifNoneMatch) {
+			if (ifNoneMatch == null) {
+				return null;
+			}
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					// If-None-Match compares weakly
+					tag = tag.substring(2);
+				}
+				if (tag.equals(entityTag)) {
+					return entityTag;
+				} else if (tag.equals(gzipEntityTag)) {
+					return gzipEntityTag;
+				}
+			}
+			return null;
+		}
+
+		private static byte[] gzip(byte[] content) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+			try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+				out.write(content);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return bytes.toByteArray();
+		}
+
+		private static String sha1(byte[] content) {
+			byte[] digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-1").digest(content);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(hex);
+		}
+	}
+}
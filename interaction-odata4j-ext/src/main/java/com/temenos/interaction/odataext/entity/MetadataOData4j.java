@@ -33,6 +33,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.ws.rs.HttpMethod;
 
@@ -106,7 +107,15 @@ public class MetadataOData4j {
 	private String SERVICE_DOCUMENT = "ServiceDocument";
 	private ODataVersion odataVersion = ODataVersion.V1;
 	private EdmDataServicesAdapter edmDataServicesAdapter;
-	private EdmDataServices edmDataServices;
+	// published once complete, so that readers need not lock
+	private volatile EdmDataServices edmDataServices;
+	// set when an entity of edmDataServices is unloaded, until its replacement is published
+	private volatile boolean edmDataServicesStale;
+	// elects the one reader that assembles the replacement while the others are served the previous metadata
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+	// what each entity in the service document contributes to edmDataServices, guarded by this
+	private final Map<String, EntityTypeDefinition> entityTypeDefinitions = new HashMap<String, EntityTypeDefinition>();
+	private final MetadataDocumentCache documentCache = new MetadataDocumentCache();
 
 	/**
 	 * Construct the odata metadata ({@link EdmDataServices}) by looking up a resource 
@@ -143,7 +152,11 @@ public class MetadataOData4j {
 	 */
 	public void setOdataVersion(ODataVersion odataVersion) {
 		LOGGER.debug("OData Version set to {}", odataVersion);
-		this.odataVersion = odataVersion;
+		synchronized (this) {
+			this.odataVersion = odataVersion;
+			// annotations depend on the version
+			entityTypeDefinitions.clear();
+		}
 	}
 	
 	/**
@@ -159,23 +172,58 @@ public class MetadataOData4j {
 		return edmDataServicesAdapter;
 	}
 
+	/**
+	 * Returns the documents rendered from the service document metadata,
+	 * invalidated whenever that metadata is unloaded.
+	 */
+	public MetadataDocumentCache getDocumentCache() {
+		return documentCache;
+	}
+
 	/**
 	 * Returns EDM metadata ONLY - i.e. only meta data relating to resources in the service document
+	 * <p>
+	 * After an entity is unloaded the metadata is assembled again on the next request,
+	 * deriving only that entity's type from its {@link EntityMetadata}. Metadata is
+	 * published once complete, so readers do not lock.  While the replacement is
+	 * assembled other readers are served the previous metadata, only the first
+	 * build is waited for.
 	 * @return edmdataservices object
 	 */	
 	EdmDataServices getEdmMetadata() {
-		EdmDataServices result = null;
+		EdmDataServices result = edmDataServices;
+		if (result != null && !edmDataServicesStale) {
+			return result;
+		}
 		
-		synchronized(this) {
-			if(edmDataServices == null) {
-			    try {
-			        edmDataServices = createOData4jMetadata(metadata, hypermediaEngine, serviceDocument);
-			    } catch (Exception e) {
-			        LOGGER.error("Error creating odata4j metadata for resources in service document", e);
-			    }
+		boolean rebuilder = false;
+		if (result != null) {
+			rebuilder = rebuilding.compareAndSet(false, true);
+			if (!rebuilder) {
+				// another request is assembling the replacement
+				return result;
+			}
+		}
+		try {
+			synchronized(this) {
+				if(edmDataServices == null || edmDataServicesStale) {
+				    try {
+				        EdmDataServices replacement = buildOData4jMetadata(metadata, hypermediaEngine, serviceDocument, entityTypeDefinitions);
+				        edmDataServices = replacement;
+				        edmDataServicesStale = false;
+				        // documents rendered from the previous metadata meanwhile
+				        documentCache.invalidate();
+				    } catch (Exception e) {
+				        LOGGER.error("Error creating odata4j metadata for resources in service document", e);
+				    }
+				}
+				
+				result = edmDataServices;
+			}
+		} finally {
+			if (rebuilder) {
+				rebuilding.set(false);
 			}
-			
-			result = edmDataServices;
 		}
 		
 		return result;		
@@ -293,16 +341,19 @@ public class MetadataOData4j {
 			// Non service document resource - Remove nonSrvDocEdmEntitySetMap entry so that it's meta data cannot be referenced
 			nonSrvDocEdmEntitySetMap.remove(entitySetName);
 		} else {
-			/* This may be a service document resource, if it is - Unload the internal reference to the real EDM data services 
-			 * so that it is completely rebuilt on the next request to it
+			/* This may be a service document resource, if it is - Mark the real EDM data services as stale so that
+			 * it is rebuilt on the next request to it, deriving this entity's type again.  Until the rebuilt metadata
+			 * replaces it the current one is still served.
 			 */
 			synchronized (this) {
+				boolean definedEntity = entityTypeDefinitions.remove(entityName) != null;
 				if (edmDataServices != null) {
 					// EDM data services has already been initialized
 
-					if (edmDataServices.findEdmEntitySet(entitySetName) != null) {
+					if (definedEntity || edmDataServices.findEdmEntitySet(entitySetName) != null) {
 						// EDM data services, i.e. service document, contains entity set therefore it needs to be rebuilt
-						edmDataServices = null;
+						edmDataServicesStale = true;
+						documentCache.invalidate();
 					}
 				}
 			}
@@ -396,6 +447,15 @@ public class MetadataOData4j {
 	 * @return
 	 */
 	public EdmDataServices createOData4jMetadata(Metadata metadata, ResourceStateMachine hypermediaEngine, ResourceState serviceDocument) {
+		return buildOData4jMetadata(metadata, hypermediaEngine, serviceDocument, new HashMap<String, EntityTypeDefinition>());
+	}
+
+	/*
+	 * Assemble EDM metadata, deriving entity types only for entities missing from
+	 * the supplied definitions and adding them to it.
+	 */
+	private EdmDataServices buildOData4jMetadata(Metadata metadata, ResourceStateMachine hypermediaEngine, ResourceState serviceDocument,
+			Map<String, EntityTypeDefinition> definitions) {
 		String serviceName = metadata.getModelName();
 		String namespace = serviceName + Metadata.MODEL_SUFFIX;
 		Builder mdBuilder = EdmDataServices.newBuilder();
@@ -420,25 +480,32 @@ public class MetadataOData4j {
 			if (serviceDocument.equals(state))
 				continue;
 			
-			EntityMetadata entityMetadata = null;
-			try {
-			    entityMetadata = metadata.getEntityMetadata(state.getEntityName());
-			} catch (Exception e) {
-	             LOGGER.warn("Failed to get metadata for state name '{}' / entity name '{}'", state.getName(), state.getEntityName(), e);
-	             continue;
-			}
-			
-			if(entityMetadata == null) {
-			    LOGGER.warn("Failed to get metadata for state name '{}' / entity name '{}'", state.getName(), state.getEntityName());
-			    continue;
+			EntityTypeDefinition definition = definitions.get(state.getEntityName());
+			if (definition == null) {
+				EntityMetadata entityMetadata = null;
+				try {
+				    entityMetadata = metadata.getEntityMetadata(state.getEntityName());
+				} catch (Exception e) {
+		             LOGGER.warn("Failed to get metadata for state name '{}' / entity name '{}'", state.getName(), state.getEntityName(), e);
+		             continue;
+				}
+				
+				if(entityMetadata == null) {
+				    LOGGER.warn("Failed to get metadata for state name '{}' / entity name '{}'", state.getName(), state.getEntityName());
+				    continue;
+				}
+				
+				// Always strictKeyCheck here because we will be building EdmDataServices from this
+				definition = defineEntityType(entityMetadata, true);
+				definitions.put(state.getEntityName(), definition);
 			}
 			
-			// Always strictKeyCheck here because we will be building EdmDataServices from this
-			EdmEntityType.Builder bEntityType = getEdmTypeBuilder(entityMetadata, bComplexTypeMap, true);
-			if (bEntityType != null) {
-				bEntityTypeMap.put(state.getEntityName(), bEntityType);					
-			} else {
-				LOGGER.warn("Entity name '{}' does not have type. entityMetadata={}", state.getEntityName(), entityMetadata);
+			bComplexTypeMap.putAll(definition.complexTypes);
+			if (!definition.hasEntityType()) {
+				LOGGER.warn("Entity name '{}' does not have type", state.getEntityName());
+			} else if (!bEntityTypeMap.containsKey(state.getEntityName())) {
+				// entity type builders collect navigation properties, so each metadata needs its own
+				bEntityTypeMap.put(state.getEntityName(), definition.newBuilder());
 			}
 		}
 					
@@ -447,8 +514,24 @@ public class MetadataOData4j {
 		// build associations		
 		Map<EdmEntityType.Builder, Map<String, EdmAssociation.Builder>> entityTypeToStateAssociations = new HashMap<EdmEntityType.Builder, Map<String, EdmAssociation.Builder>>();
 		
+		// Group the transitions by source entity once, rather than scanning all of them for each entity type
+		Map<String, List<Transition>> transitionsBySourceEntity = new HashMap<String, List<Transition>>();
+		for (Transition transition : hypermediaEngine.getTransitionsById().values()) {
+			String sourceEntityName = transition.getSource().getEntityName();
+			List<Transition> sourceTransitions = transitionsBySourceEntity.get(sourceEntityName);
+			if (sourceTransitions == null) {
+				sourceTransitions = new ArrayList<Transition>();
+				transitionsBySourceEntity.put(sourceEntityName, sourceTransitions);
+			}
+			sourceTransitions.add(transition);
+		}
+		
 		for (EdmEntityType.Builder bEntityType : bEntityTypeMap.values()) {
-			Map<String, EdmAssociation.Builder> bAssociationMap = buildAssociations(namespace, bEntityType, bEntityTypeMap, hypermediaEngine, serviceDocument);
+			List<Transition> entityTransitions = transitionsBySourceEntity.get(bEntityType.getName());
+			if (entityTransitions == null) {
+				entityTransitions = Collections.emptyList();
+			}
+			Map<String, EdmAssociation.Builder> bAssociationMap = buildAssociations(namespace, bEntityType, bEntityTypeMap, entityTransitions, serviceDocument);
 			entityTypeToStateAssociations.put(bEntityType, bAssociationMap);
 			bAssociations.addAll(bAssociationMap.values());
 		}
@@ -570,8 +653,21 @@ public class MetadataOData4j {
 	 * @return
 	 */
 	private EdmEntityType.Builder getEdmTypeBuilder(EntityMetadata entityMetadata, Map<String, EdmComplexType.Builder> bComplexTypeMap, boolean strictKeyCheck) {
+		EntityTypeDefinition definition = defineEntityType(entityMetadata, strictKeyCheck);
+		if (bComplexTypeMap != null) {
+			bComplexTypeMap.putAll(definition.complexTypes);
+		}
+		return definition.hasEntityType() ? definition.newBuilder() : null;
+	}
+
+	/**
+	 * Method to derive the entity type and complex types of an entity from EntityMetadata
+	 * @param entityMetadata
+	 * @return
+	 */
+	private EntityTypeDefinition defineEntityType(EntityMetadata entityMetadata, boolean strictKeyCheck) {
 		String namespace = metadata.getModelName() + Metadata.MODEL_SUFFIX;
-		bComplexTypeMap = bComplexTypeMap == null ? new HashMap<String, EdmComplexType.Builder>() : bComplexTypeMap;
+		Map<String, EdmComplexType.Builder> bComplexTypeMap = new HashMap<String, EdmComplexType.Builder>();
 		List<EdmProperty.Builder> bProperties = new ArrayList<EdmProperty.Builder>();
 		List<String> keys = new ArrayList<String>();
 		
@@ -672,34 +768,33 @@ public class MetadataOData4j {
 		// strictKeyCheck will help us in this regard where we can skip the type generated for 
 		// EdmDataServices but we can keep the one generated for an individual entity
 		if (keys.size() > 0 || !strictKeyCheck) {
-			EdmEntityType.Builder bEntityType = EdmEntityType.newBuilder().setNamespace(namespace).setAlias(entityMetadata.getEntityName()).setName(entityMetadata.getEntityName()).addKeys(keys).addProperties(bProperties);
-			
+			List<EdmAnnotation<?>> edmEntityTypeAnnotations = null;
 			if (annotationAllowed()) {
 				// Append additional metadata as annotations
-				List<EdmAnnotation<?>> edmEntityTypeAnnotations = new LinkedList<EdmAnnotation<?>>();
+				edmEntityTypeAnnotations = new LinkedList<EdmAnnotation<?>>();
 				if (displayOnlyProps.size() > 0) 
 					edmEntityTypeAnnotations.add((EdmAnnotation.attribute(TermRestriction.NAMESPACE, TermRestriction.PREFIX, Restriction.DISPLAYONLY.getValue(), getPropertiesAsCSV(displayOnlyProps))));
 				if (filterOnlyProps.size() > 0)
 					edmEntityTypeAnnotations.add((EdmAnnotation.attribute(TermRestriction.NAMESPACE, TermRestriction.PREFIX, Restriction.FILTEREONLY.getValue(), getPropertiesAsCSV(filterOnlyProps))));
-				
-				bEntityType.setAnnotations(edmEntityTypeAnnotations);
 			}
 		
-			return bEntityType;
+			return new EntityTypeDefinition(namespace, entityMetadata.getEntityName(), keys, bProperties, edmEntityTypeAnnotations, bComplexTypeMap);
 		} else {
 			LOGGER.error("Unable to add EntityType for [{}] - no ID column defined", entityMetadata.getEntityName());
-			return null;
+			return new EntityTypeDefinition(bComplexTypeMap);
 		}
 	}
 	
-	private Map<String, EdmAssociation.Builder> buildAssociations(String namespace, EdmEntityType.Builder entityType, Map<String, EdmEntityType.Builder> bEntityTypeMap, ResourceStateMachine hypermediaEngine, ResourceState serviceDocument) {
+	/**
+	 * @param entityTransitions transitions from states of the entity
+	 */
+	private Map<String, EdmAssociation.Builder> buildAssociations(String namespace, EdmEntityType.Builder entityType, Map<String, EdmEntityType.Builder> bEntityTypeMap, Collection<Transition> entityTransitions, ResourceState serviceDocument) {
 		// Obtain the relation between entities and write navigation properties
 		Map<String, EdmAssociation.Builder> bAssociationMap = new HashMap<String, EdmAssociation.Builder>();
 		//Map<Association name, Entity relation>
 		Map<String, EdmAssociation.Builder> relations = new HashMap<String, EdmAssociation.Builder>();
 
 		String entityName = entityType.getName();
-		Collection<Transition> entityTransitions = hypermediaEngine.getTransitionsById().values();
 		if (entityTransitions != null) {
 			//Find out which target entities have more than one transition from this state
 			Set<String> targetStateNames = new HashSet<String>();
@@ -923,4 +1018,44 @@ public class MetadataOData4j {
 	private String getPropertiesAsCSV(List<String> properties) {
 		return StringUtils.join(properties.toArray(), ",");
 	}
+
+	/*
+	 * What an entity contributes to the EDM metadata, derived once from its EntityMetadata
+	 * and kept until the entity is unloaded.  Complex types are contributed even when the
+	 * entity has no type.
+	 */
+	private static final class EntityTypeDefinition {
+		private final String namespace;
+		private final String name;
+		private final List<String> keys;
+		private final List<EdmProperty.Builder> properties;
+		private final List<EdmAnnotation<?>> annotations;
+		private final Map<String, EdmComplexType.Builder> complexTypes;
+
+		EntityTypeDefinition(String namespace, String name, List<String> keys, List<EdmProperty.Builder> properties,
+				List<EdmAnnotation<?>> annotations, Map<String, EdmComplexType.Builder> complexTypes) {
+			this.namespace = namespace;
+			this.name = name;
+			this.keys = keys;
+			this.properties = properties;
+			this.annotations = annotations;
+			this.complexTypes = complexTypes;
+		}
+
+		EntityTypeDefinition(Map<String, EdmComplexType.Builder> complexTypes) {
+			this(null, null, null, null, null, complexTypes);
+		}
+
+		boolean hasEntityType() {
+			return name != null;
+		}
+
+		EdmEntityType.Builder newBuilder() {
+			EdmEntityType.Builder bEntityType = EdmEntityType.newBuilder().setNamespace(namespace).setAlias(name).setName(name).addKeys(keys).addProperties(properties);
+			if (annotations != null) {
+				bEntityType.setAnnotations(annotations);
+			}
+			return bEntityType;
+		}
+	}
 }
@@ -0,0 +1,320 @@
+package com.temenos.interaction.odataext.odataparser;
+
+/*
+ * #%L
+ * interaction-odata4j-ext
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.EntitySimpleProperty;
+import org.odata4j.expression.OrderByExpression;
+import org.odata4j.producer.resources.OptionsQueryParser;
+
+import com.temenos.interaction.core.command.AttributeKey;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.odataext.odataparser.data.FieldName;
+import com.temenos.interaction.odataext.odataparser.data.OrderBy;
+import com.temenos.interaction.odataext.odataparser.data.RowFilters;
+
+/*
+ * The OData query options of a request, parsed once.
+ * 
+ * Commands find the query of the current request through get(), which stores it in an InteractionContext attribute.
+ * A query is immutable. Commands that change it, such as authorization, derive a new one and publish it with set(),
+ * which also writes the changed options back to the query parameters for code that still reads them as strings,
+ * such as producers forwarding the query to another service.
+ * 
+ * The query remembers the parameter values it corresponds to. If something else changes those parameters the query is
+ * parsed again rather than used stale.
+ */
+public final class ODataQuery {
+
+    // InteractionContext attribute holding the query of the current request.
+    public static final AttributeKey<ODataQuery> ATTRIBUTE = new AttributeKey<ODataQuery>("ODataQuery", ODataQuery.class);
+
+    public static final String SKIPTOKEN_KEY = "$skiptoken";
+
+    // Query parameters the options are read from, indexed as below.
+    private static final String[] KEYS = { ODataParser.FILTER_KEY, ODataParser.SELECT_KEY, ODataParser.ORDERBY_KEY,
+            ODataParser.TOP_KEY, ODataParser.SKIP_KEY, SKIPTOKEN_KEY };
+    private static final int FILTER = 0;
+    private static final int SELECT = 1;
+    private static final int ORDERBY = 2;
+    private static final int TOP = 3;
+    private static final int SKIP = 4;
+    private static final int SKIPTOKEN = 5;
+
+    // Null means no filter.
+    private final BoolCommonExpression filter;
+    // Empty means all properties.
+    private final List<EntitySimpleProperty> select;
+    // Parsed on first use, shared with the copies of this query.
+    private final LazyOrderBy orderBy;
+    private final Integer top;
+    private final Integer skip;
+    private final String skipToken;
+
+    // Parameter values this query was parsed from or written back as.
+    private final String[] source;
+    // Options changed since, which set() must write back.
+    private final boolean filterChanged;
+    private final boolean selectChanged;
+
+    private ODataQuery(BoolCommonExpression filter, List<EntitySimpleProperty> select,
+            LazyOrderBy orderBy, Integer top, Integer skip, String skipToken, String[] source,
+            boolean filterChanged, boolean selectChanged) {
+        this.filter = filter;
+        this.select = select;
+        this.orderBy = orderBy;
+        this.top = top;
+        this.skip = skip;
+        this.skipToken = skipToken;
+        this.source = source;
+        this.filterChanged = filterChanged;
+        this.selectChanged = selectChanged;
+    }
+
+    /*
+     * Parse the OData query options of a set of query parameters.
+     * 
+     * Throws a RuntimeException, as the odata4j parser does, if $filter or
+     * $select are invalid. $orderby is only parsed when it is asked for, so
+     * that commands such as authorization, which do not order, do not fail
+     * on it.
+     */
+    public static ODataQuery parse(MultivaluedMap<String, String> queryParams) {
+        String[] source = read(queryParams);
+
+        BoolCommonExpression filter = null;
+        if (null != source[FILTER] && !source[FILTER].isEmpty()) {
+            filter = OptionsQueryParser.parseFilter(source[FILTER]);
+        }
+        List<EntitySimpleProperty> select = Collections.emptyList();
+        List<EntitySimpleProperty> parsedSelect = OptionsQueryParser.parseSelect(source[SELECT]);
+        if (null != parsedSelect) {
+            select = Collections.unmodifiableList(new ArrayList<EntitySimpleProperty>(parsedSelect));
+        }
+        return new ODataQuery(filter, select, new LazyOrderBy(source[ORDERBY]), parseInteger(source[TOP]), parseInteger(source[SKIP]),
+                source[SKIPTOKEN], source, false, false);
+    }
+
+    /*
+     * Get the query of the current request, parsing the query parameters on
+     * first use.
+     */
+    public static ODataQuery get(InteractionContext ctx) {
+        ODataQuery attribute = ctx.getAttribute(ATTRIBUTE);
+        if (attribute != null && attribute.matches(ctx.getQueryParameters())) {
+            return attribute;
+        }
+        ODataQuery query = parse(ctx.getQueryParameters());
+        ctx.setAttribute(ATTRIBUTE, query);
+        return query;
+    }
+
+    /*
+     * Make a query the query of the current request. Changed options are
+     * written back to the query parameters.
+     */
+    public static void set(InteractionContext ctx, ODataQuery query) {
+        MultivaluedMap<String, String> queryParams = ctx.getQueryParameters();
+        String[] source = query.source.clone();
+        if (query.filterChanged) {
+            // No filter means no filtering, so no parameter.
+            source[FILTER] = null == query.filter ? null : ODataParser.toFilters(new RowFilters(query.filter));
+            write(queryParams, FILTER, source[FILTER]);
+        }
+        if (query.selectChanged) {
+            source[SELECT] = ODataParser.toSelect(query.getFieldNames());
+            write(queryParams, SELECT, source[SELECT]);
+        }
+        ctx.setAttribute(ATTRIBUTE, new ODataQuery(query.filter, query.select, query.orderBy, query.top, query.skip,
+                query.skipToken, source, false, false));
+    }
+
+    /*
+     * A copy of this query with another filter. A null or empty filter means
+     * no filtering.
+     */
+    public ODataQuery withFilter(RowFilters filters) {
+        BoolCommonExpression newFilter = null == filters ? null : filters.getOData4jExpression();
+        return new ODataQuery(newFilter, select, orderBy, top, skip, skipToken, source, true, selectChanged);
+    }
+
+    /*
+     * A copy of this query with another $select. An empty set means all
+     * properties.
+     */
+    public ODataQuery withSelect(Set<FieldName> fieldNames) {
+        List<EntitySimpleProperty> newSelect = new ArrayList<EntitySimpleProperty>();
+        for (FieldName fieldName : fieldNames) {
+            newSelect.add(fieldName.getOData4jExpression());
+        }
+        return new ODataQuery(filter, Collections.unmodifiableList(newSelect), orderBy, top, skip, skipToken, source,
+                filterChanged, true);
+    }
+
+    private static String[] read(MultivaluedMap<String, String> queryParams) {
+        String[] values = new String[KEYS.length];
+        for (int i = 0; i < KEYS.length; i++) {
+            values[i] = queryParams.getFirst(KEYS[i]);
+        }
+        return values;
+    }
+
+    private static void write(MultivaluedMap<String, String> queryParams, int index, String value) {
+        if (null == value) {
+            queryParams.remove(KEYS[index]);
+        } else {
+            queryParams.putSingle(KEYS[index], value);
+        }
+    }
+
+    private boolean matches(MultivaluedMap<String, String> queryParams) {
+        for (int i = 0; i < KEYS.length; i++) {
+            String value = queryParams.getFirst(KEYS[i]);
+            if (null == source[i] ? null != value : !source[i].equals(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Integer parseInteger(String value) {
+        if (null == value) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * The $filter expression, null if there is none.
+     */
+    public BoolCommonExpression getFilter() {
+        return filter;
+    }
+
+    /*
+     * The $filter as editable RowFilters. Changes do not affect this query.
+     */
+    public RowFilters getRowFilters() {
+        return new RowFilters(filter);
+    }
+
+    /*
+     * The $select properties, empty if there is no $select.
+     */
+    public List<EntitySimpleProperty> getSelect() {
+        return select;
+    }
+
+    /*
+     * The $select as an editable set of field names, empty if there is no
+     * $select.
+     */
+    public Set<FieldName> getFieldNames() {
+        Set<FieldName> fieldNames = new HashSet<FieldName>();
+        for (EntitySimpleProperty property : select) {
+            fieldNames.add(new FieldName(property));
+        }
+        return fieldNames;
+    }
+
+    /*
+     * The $orderby terms, null if there is no $orderby.
+     * 
+     * Throws a RuntimeException, as the odata4j parser does, if $orderby is
+     * invalid.
+     */
+    public List<OrderBy> getOrderBy() {
+        List<OrderByExpression> expressions = getOrderByExpressions();
+        if (null == expressions) {
+            return null;
+        }
+        List<OrderBy> orderBys = new ArrayList<OrderBy>();
+        for (OrderByExpression expression : expressions) {
+            orderBys.add(new OrderBy(expression));
+        }
+        return orderBys;
+    }
+
+    /*
+     * The $orderby terms as parsed by odata4j, null if there is no $orderby.
+     * 
+     * Throws a RuntimeException, as the odata4j parser does, if $orderby is
+     * invalid.
+     */
+    public List<OrderByExpression> getOrderByExpressions() {
+        return orderBy.get();
+    }
+
+    /*
+     * $top, null if absent or not a number.
+     */
+    public Integer getTop() {
+        return top;
+    }
+
+    /*
+     * $skip, null if absent or not a number.
+     */
+    public Integer getSkip() {
+        return skip;
+    }
+
+    public String getSkipToken() {
+        return skipToken;
+    }
+
+    /*
+     * The $orderby of a query, parsed the first time any of the queries
+     * sharing it asks for it.
+     */
+    private static final class LazyOrderBy {
+        private final String value;
+        // Null until parsed, or if there is no $orderby.
+        private volatile List<OrderByExpression> parsed;
+
+        LazyOrderBy(String value) {
+            this.value = value;
+        }
+
+        List<OrderByExpression> get() {
+            List<OrderByExpression> expressions = parsed;
+            if (null == expressions && null != value) {
+                expressions = Collections.unmodifiableList(new ArrayList<OrderByExpression>(
+                        OptionsQueryParser.parseOrderBy(value)));
+                parsed = expressions;
+            }
+            return expressions;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.temenos.interaction.odataext.entity;
+
+/*
+ * #%L
+ * interaction-odata4j-ext
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.odata4j.edm.EdmDataServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.temenos.interaction.core.entity.EntityMetadata;
+import com.temenos.interaction.core.entity.Metadata;
+import com.temenos.interaction.core.entity.vocabulary.Vocabulary;
+import com.temenos.interaction.core.entity.vocabulary.terms.TermComplexGroup;
+import com.temenos.interaction.core.entity.vocabulary.terms.TermComplexType;
+import com.temenos.interaction.core.entity.vocabulary.terms.TermIdField;
+import com.temenos.interaction.core.entity.vocabulary.terms.TermValueType;
+import com.temenos.interaction.core.hypermedia.Action;
+import com.temenos.interaction.core.hypermedia.CollectionResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
+import com.temenos.interaction.core.hypermedia.Transition;
+
+/**
+ * Cost of building the EDM metadata of a service document with a couple of
+ * thousand entities, each with a complex type and a navigation property,
+ * from scratch and after one entity has been unloaded.
+ * <p>
+ * Not run by the build; run {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataOData4jBenchmark {
+
+	@Param({ "2000" })
+	int entities;
+
+	private Metadata metadata;
+	private ResourceState serviceDocument;
+	private ResourceStateMachine stateMachine;
+	private MetadataOData4j metadataOData4j;
+	private int next;
+
+	@Setup
+	public void setup() {
+		metadata = new Metadata("Benchmark");
+		serviceDocument = new ResourceState("ROOT", "ServiceDocument", new ArrayList<Action>(), "/");
+		ResourceState[] items = new ResourceState[entities];
+		for (int i = 0; i < entities; i++) {
+			String entity = "Entity" + i;
+			metadata.setEntityMetadata(createEntityMetadata(entity));
+			CollectionResourceState collection = new CollectionResourceState(entity, entity + "s", new ArrayList<Action>(), "/" + entity + "s");
+			items[i] = new ResourceState(entity, "entity" + i, new ArrayList<Action>(), "/" + entity + "s({id})");
+			serviceDocument.addTransition(new Transition.Builder().target(collection).build());
+			collection.addTransition(new Transition.Builder().flags(Transition.FOR_EACH).method("GET").target(items[i]).build());
+		}
+		for (int i = 0; i < entities; i++) {
+			ResourceState related = items[(i + 1) % entities];
+			ResourceState relatedState = new ResourceState(related.getEntityName(), "related" + i, new ArrayList<Action>(), "/Entity" + i + "s({id})/related");
+			items[i].addTransition(new Transition.Builder().method("GET").target(relatedState).build());
+		}
+		stateMachine = new ResourceStateMachine(serviceDocument);
+		metadataOData4j = new MetadataOData4j(metadata, stateMachine);
+		metadataOData4j.getEdmMetadata();
+	}
+
+	private EntityMetadata createEntityMetadata(String entity) {
+		EntityMetadata entityMetadata = new EntityMetadata(entity);
+		Vocabulary id = new Vocabulary();
+		id.setTerm(new TermComplexType(false));
+		id.setTerm(new TermIdField(true));
+		id.setTerm(new TermValueType(TermValueType.TEXT));
+		entityMetadata.setPropertyVocabulary("id", id);
+		Vocabulary amount = new Vocabulary();
+		amount.setTerm(new TermComplexType(false));
+		amount.setTerm(new TermValueType(TermValueType.NUMBER));
+		entityMetadata.setPropertyVocabulary("amount", amount);
+		Vocabulary address = new Vocabulary();
+		address.setTerm(new TermComplexType(true));
+		entityMetadata.setPropertyVocabulary("address", address);
+		for (String line : new String[] { "street", "town", "postCode" }) {
+			Vocabulary vocabulary = new Vocabulary();
+			vocabulary.setTerm(new TermComplexGroup("address"));
+			vocabulary.setTerm(new TermValueType(TermValueType.TEXT));
+			entityMetadata.setPropertyVocabulary(line, vocabulary);
+		}
+		return entityMetadata;
+	}
+
+	@Benchmark
+	public EdmDataServices fullBuild() {
+		return metadataOData4j.createOData4jMetadata(metadata, stateMachine, serviceDocument);
+	}
+
+	@Benchmark
+	public EdmDataServices rebuildAfterUnload() {
+		// what the dynamic loader does when an entity has changed
+		next = (next + 1) % entities;
+		metadataOData4j.unloadMetadata("Entity" + next);
+		return metadataOData4j.getEdmMetadata();
+	}
+
+	@Benchmark
+	public EdmDataServices read() {
+		return metadataOData4j.getEdmMetadata();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(MetadataOData4jBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
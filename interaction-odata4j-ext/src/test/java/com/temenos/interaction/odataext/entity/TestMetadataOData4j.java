@@ -24,16 +24,28 @@ package com.temenos.interaction.odataext.entity;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -53,7 +65,9 @@ import org.odata4j.edm.EdmProperty.CollectionKind;
 import org.odata4j.edm.EdmSimpleType;
 import org.odata4j.edm.EdmType;
 import org.odata4j.exceptions.NotFoundException;
+import org.odata4j.format.xml.EdmxFormatWriter;
 
+import com.temenos.interaction.core.entity.EntityMetadata;
 import com.temenos.interaction.core.entity.Metadata;
 import com.temenos.interaction.core.entity.MetadataParser;
 import com.temenos.interaction.core.entity.vocabulary.Term;
@@ -73,6 +87,7 @@ public class TestMetadataOData4j {
 	
 	private static String AIRLINE_NAMESPACE = "FlightResponderModel";
 	private static Metadata metadataAirline;
+	private static Metadata metadataCustomer;
 	private static MetadataOData4j metadataOdata4j;
 	private static MetadataOData4j metadataAirlineOdata4j;
 	private static MetadataOData4j metadataCustomerNonExpandableModelOdata4j;
@@ -109,6 +124,7 @@ public class TestMetadataOData4j {
 		InputStream is = parser.getClass().getClassLoader().getResourceAsStream(METADATA_XML_FILE);
 		Metadata metadata = parser.parse(is);
 		Assert.assertNotNull(metadata);
+		metadataCustomer = metadata;
 
 		// Convert TestMetadataParser to odata4j metadata
 		metadataOdata4j = new MetadataOData4j(metadata, defaultHypermediaEngine);
@@ -708,6 +724,136 @@ public class TestMetadataOData4j {
 		return eesb.build();
 	}
 	
+	@Test
+	public void testUnloadMetadataInvalidatesDocuments() {
+		ResourceState serviceRoot = new ResourceState("SD", "ServiceDocument", new ArrayList<Action>(), "/");
+		serviceRoot.addTransition(new Transition.Builder().target(new CollectionResourceState("Flight", "Flights", new ArrayList<Action>(), "/Flights")).build());
+		MetadataOData4j metadataOData4j = new MetadataOData4j(metadataAirline, new ResourceStateMachine(serviceRoot));
+		assertNotNull(metadataOData4j.getMetadata().findEdmEntitySet("Flights"));
+
+		MetadataDocumentCache cache = metadataOData4j.getDocumentCache();
+		cache.put(MetadataDocumentCache.METADATA, cache.getVersion(), "<edmx/>".getBytes());
+		assertNotNull(cache.get(MetadataDocumentCache.METADATA));
+		metadataOData4j.unloadMetadata("Flight");
+		assertNull(cache.get(MetadataDocumentCache.METADATA));
+	}
+
+	@Test
+	public void testRebuildAfterUnloadMetadata() {
+		ResourceState initial = new ResourceState("ROOT", "ServiceDocument", new ArrayList<Action>(), "/");
+		CollectionResourceState flights = new CollectionResourceState("Flight", "Flights", new ArrayList<Action>(), "/Flights");
+		ResourceState flight = new ResourceState("Flight", "flight", new ArrayList<Action>(), "/Flights({id})");
+		CollectionResourceState airports = new CollectionResourceState("Airport", "Airports", new ArrayList<Action>(), "/Airports");
+		ResourceState flightDepartureAirport = new ResourceState("Airport", "departureAirport", new ArrayList<Action>(), "/Flights({id})/departureAirport");
+		initial.addTransition(new Transition.Builder().target(flights).build());
+		initial.addTransition(new Transition.Builder().target(airports).build());
+		flights.addTransition(new Transition.Builder().flags(Transition.FOR_EACH).method("GET").target(flight).build());
+		flight.addTransition(new Transition.Builder().target(flightDepartureAirport).build());
+		MetadataOData4j metadataOData4j = new MetadataOData4j(metadataAirline, new ResourceStateMachine(initial));
+
+		EdmDataServices loaded = metadataOData4j.getEdmMetadata();
+		assertSame(loaded, metadataOData4j.getEdmMetadata());
+		metadataOData4j.unloadMetadata("Airport");
+		EdmDataServices rebuilt = metadataOData4j.getEdmMetadata();
+		assertNotSame(loaded, rebuilt);
+
+		// the rebuilt metadata is the same as a full build
+		EdmDataServices full = metadataOData4j.createOData4jMetadata(metadataAirline, new ResourceStateMachine(initial), initial);
+		for (EdmDataServices edmMetadata : Arrays.asList(rebuilt, full)) {
+			EdmEntityType entityType = (EdmEntityType) edmMetadata.findEdmEntityType(AIRLINE_NAMESPACE + ".Flight");
+			EdmNavigationProperty navProperty = entityType.findNavigationProperty("departureAirport");
+			assertEquals("Flight_Airport", navProperty.getRelationship().getName());
+			assertEquals(AIRLINE_NAMESPACE + ".Airport", navProperty.getToRole().getType().getFullyQualifiedTypeName());
+			assertNotNull(edmMetadata.findEdmEntityType(AIRLINE_NAMESPACE + ".Airport"));
+			assertNotNull(edmMetadata.findEdmEntitySet("Flights"));
+			assertNotNull(edmMetadata.findEdmEntitySet("Airports"));
+		}
+		assertEquals(full.getSchemas().get(0).getEntityTypes().size(), rebuilt.getSchemas().get(0).getEntityTypes().size());
+		assertEquals(full.getSchemas().get(0).getAssociations().size(), rebuilt.getSchemas().get(0).getAssociations().size());
+	}
+
+	@Test
+	public void testRebuildWithEntityTypeDefinitionsOfPreviousBuild() {
+		ResourceState serviceRoot = new ResourceState("SD", "ServiceDocument", new ArrayList<Action>(), "/");
+		serviceRoot.addTransition(new Transition.Builder().target(new CollectionResourceState("Customer", "Customer", new ArrayList<Action>(), "/Customer")).build());
+		serviceRoot.addTransition(new Transition.Builder().target(new CollectionResourceState("CustomerWithTermList", "CustomerWithTermList", new ArrayList<Action>(), "/CustomerWithTermList")).build());
+		serviceRoot.addTransition(new Transition.Builder().target(new CollectionResourceState("EntityWithRestriction", "EntityWithRestriction", new ArrayList<Action>(), "/EntityWithRestriction")).build());
+		MetadataOData4j metadataOData4j = new MetadataOData4j(metadataCustomer, new ResourceStateMachine(serviceRoot));
+		metadataOData4j.setOdataVersion(ODataVersion.V2);
+
+		EdmDataServices first = metadataOData4j.getEdmMetadata();
+		String firstEdmx = writeEdmx(first);
+		metadataOData4j.unloadMetadata("EntityWithRestriction");
+		EdmDataServices second = metadataOData4j.getEdmMetadata();
+		assertNotSame(first, second);
+
+		// the Customer properties and complex types built again from the same builders
+		assertEquals(firstEdmx, writeEdmx(second));
+		assertEquals(writeEdmx(metadataOData4j.createOData4jMetadata(metadataCustomer, new ResourceStateMachine(serviceRoot), serviceRoot)), writeEdmx(second));
+		// and building again did not change the first metadata
+		assertEquals(firstEdmx, writeEdmx(first));
+		EdmEntityType firstCustomer = (EdmEntityType) first.findEdmEntityType("CustomerServiceTestModel.Customer");
+		EdmEntityType secondCustomer = (EdmEntityType) second.findEdmEntityType("CustomerServiceTestModel.Customer");
+		assertEquals(firstCustomer.getKeys(), secondCustomer.getKeys());
+		assertEquals(firstCustomer.findProperty("Customer_address").getType().getFullyQualifiedTypeName(),
+				secondCustomer.findProperty("Customer_address").getType().getFullyQualifiedTypeName());
+	}
+
+	@Test
+	public void testPreviousMetadataServedWhileRebuilding() throws Exception {
+		final CountDownLatch building = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean block = new AtomicBoolean();
+		Metadata slowMetadata = new Metadata(metadataAirline.getModelName()) {
+			@Override
+			public EntityMetadata getEntityMetadata(String entityName) {
+				if (entityName.equals("Airport") && block.get()) {
+					building.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return metadataAirline.getEntityMetadata(entityName);
+			}
+		};
+		ResourceState serviceRoot = new ResourceState("SD", "ServiceDocument", new ArrayList<Action>(), "/");
+		serviceRoot.addTransition(new Transition.Builder().target(new CollectionResourceState("Flight", "Flights", new ArrayList<Action>(), "/Flights")).build());
+		serviceRoot.addTransition(new Transition.Builder().target(new CollectionResourceState("Airport", "Airports", new ArrayList<Action>(), "/Airports")).build());
+		final MetadataOData4j metadataOData4j = new MetadataOData4j(slowMetadata, new ResourceStateMachine(serviceRoot));
+		EdmDataServices loaded = metadataOData4j.getEdmMetadata();
+		assertNotNull(loaded.findEdmEntitySet("Airports"));
+
+		metadataOData4j.unloadMetadata("Airport");
+		block.set(true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<EdmDataServices> rebuild = executor.submit(new Callable<EdmDataServices>() {
+				@Override
+				public EdmDataServices call() {
+					return metadataOData4j.getEdmMetadata();
+				}
+			});
+			assertTrue(building.await(5, TimeUnit.SECONDS));
+			// the metadata being replaced is still served, without waiting
+			assertSame(loaded, metadataOData4j.getEdmMetadata());
+			release.countDown();
+			EdmDataServices rebuilt = rebuild.get(5, TimeUnit.SECONDS);
+			assertNotSame(loaded, rebuilt);
+			assertSame(rebuilt, metadataOData4j.getEdmMetadata());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	private static String writeEdmx(EdmDataServices edmMetadata) {
+		StringWriter sw = new StringWriter();
+		EdmxFormatWriter.write(edmMetadata, sw);
+		return sw.toString();
+	}
+
 	/**
 	 * test for getEdmEntitySet function
 	 */
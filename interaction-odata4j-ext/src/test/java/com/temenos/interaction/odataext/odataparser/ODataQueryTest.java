@@ -0,0 +1,185 @@
+package com.temenos.interaction.odataext.odataparser;
+
+/*
+ * #%L
+ * interaction-odata4j-ext
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.Test;
+import org.odata4j.expression.OrderByExpression;
+
+import com.temenos.interaction.core.MultivaluedMapImpl;
+import com.temenos.interaction.core.command.InteractionContext;
+import com.temenos.interaction.core.entity.Metadata;
+import com.temenos.interaction.core.hypermedia.ResourceState;
+import com.temenos.interaction.odataext.odataparser.data.FieldName;
+import com.temenos.interaction.odataext.odataparser.data.RowFilters;
+
+/*
+ * Test class for the query options parsed once per request.
+ */
+public class ODataQueryTest {
+
+    private InteractionContext createContext(MultivaluedMap<String, String> queryParams) {
+        return new InteractionContext(mock(UriInfo.class), mock(HttpHeaders.class),
+                new MultivaluedMapImpl<String>(), queryParams, mock(ResourceState.class), mock(Metadata.class));
+    }
+
+    /*
+     * Test all options are parsed.
+     */
+    @Test
+    public void testParse() {
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        queryParams.add(ODataParser.FILTER_KEY, "a eq 'x'");
+        queryParams.add(ODataParser.SELECT_KEY, "a");
+        queryParams.add(ODataParser.ORDERBY_KEY, "a desc");
+        queryParams.add(ODataParser.TOP_KEY, "10");
+        queryParams.add(ODataParser.SKIP_KEY, "bad");
+        queryParams.add(ODataQuery.SKIPTOKEN_KEY, "token");
+
+        ODataQuery query = ODataQuery.parse(queryParams);
+        assertEquals("a eq 'x'", ODataParser.toFilters(query.getRowFilters()));
+        assertEquals(Collections.singleton(new FieldName("a")), query.getFieldNames());
+        assertEquals("a desc", ODataParser.toOrderBy(query.getOrderBy()));
+        assertEquals(Integer.valueOf(10), query.getTop());
+        assertNull(query.getSkip());
+        assertEquals("token", query.getSkipToken());
+    }
+
+    /*
+     * Test an empty query.
+     */
+    @Test
+    public void testParseEmpty() {
+        ODataQuery query = ODataQuery.parse(new MultivaluedMapImpl<String>());
+        assertNull(query.getFilter());
+        assertTrue(query.getRowFilters().isEmpty());
+        assertTrue(query.getSelect().isEmpty());
+        assertNull(query.getOrderBy());
+        assertNull(query.getTop());
+    }
+
+    /*
+     * Test copies of a query share the $orderby parsed by any of them.
+     */
+    @Test
+    public void testCopiesShareParsedOrderBy() {
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        queryParams.add(ODataParser.ORDERBY_KEY, "a desc");
+        InteractionContext ctx = createContext(queryParams);
+
+        ODataQuery query = ODataQuery.get(ctx);
+        ODataQuery filtered = query.withFilter(new RowFilters("b eq 'y'"));
+        ODataQuery selected = filtered.withSelect(Collections.singleton(new FieldName("a")));
+        List<OrderByExpression> expressions = selected.getOrderByExpressions();
+        assertSame(expressions, query.getOrderByExpressions());
+        assertSame(expressions, filtered.getOrderByExpressions());
+
+        ODataQuery.set(ctx, selected);
+        assertSame(expressions, ODataQuery.get(ctx).getOrderByExpressions());
+    }
+
+    /*
+     * Test an invalid $orderby only fails whoever asks for it.
+     */
+    @Test
+    public void testInvalidOrderByParsedOnUse() {
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        queryParams.add(ODataParser.FILTER_KEY, "a eq 'x'");
+        queryParams.add(ODataParser.ORDERBY_KEY, "(a desc");
+        InteractionContext ctx = createContext(queryParams);
+
+        ODataQuery query = ODataQuery.get(ctx);
+        ODataQuery.set(ctx, query.withFilter(new RowFilters("b eq 'y'")));
+        assertEquals("(a desc", queryParams.getFirst(ODataParser.ORDERBY_KEY));
+
+        try {
+            ODataQuery.get(ctx).getOrderBy();
+            fail("Invalid $orderby should not parse");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    /*
+     * Test the query is parsed once per request, and again if the parameters
+     * change.
+     */
+    @Test
+    public void testGetParsesOnce() {
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        queryParams.add(ODataParser.FILTER_KEY, "a eq 'x'");
+        InteractionContext ctx = createContext(queryParams);
+
+        ODataQuery query = ODataQuery.get(ctx);
+        assertSame(query, ODataQuery.get(ctx));
+
+        queryParams.putSingle(ODataParser.FILTER_KEY, "a eq 'y'");
+        ODataQuery changed = ODataQuery.get(ctx);
+        assertNotSame(query, changed);
+        assertEquals("a eq 'y'", ODataParser.toFilters(changed.getRowFilters()));
+    }
+
+    /*
+     * Test a changed query is written back to the parameters and shared.
+     */
+    @Test
+    public void testSet() {
+        MultivaluedMap<String, String> queryParams = new MultivaluedMapImpl<String>();
+        queryParams.add(ODataParser.FILTER_KEY, "a eq 'x'");
+        queryParams.add(ODataParser.SELECT_KEY, "a");
+        InteractionContext ctx = createContext(queryParams);
+
+        ODataQuery query = ODataQuery.get(ctx);
+        RowFilters filters = query.getRowFilters();
+        filters.addFilters("b eq 'y'");
+        ODataQuery changed = query.withFilter(filters).withSelect(Collections.singleton(new FieldName("b")));
+
+        // The original is unchanged
+        assertEquals("a eq 'x'", ODataParser.toFilters(query.getRowFilters()));
+
+        ODataQuery.set(ctx, changed);
+        assertEquals("a eq 'x' and b eq 'y'", queryParams.getFirst(ODataParser.FILTER_KEY));
+        assertEquals("b", queryParams.getFirst(ODataParser.SELECT_KEY));
+        ODataQuery shared = ODataQuery.get(ctx);
+        assertSame(changed.getFilter(), shared.getFilter());
+        assertSame(shared, ODataQuery.get(ctx));
+
+        // No filter removes the parameter
+        ODataQuery.set(ctx, shared.withFilter(new RowFilters()));
+        assertNull(queryParams.getFirst(ODataParser.FILTER_KEY));
+        assertNull(ODataQuery.get(ctx).getFilter());
+    }
+}
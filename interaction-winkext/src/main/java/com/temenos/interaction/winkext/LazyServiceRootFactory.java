@@ -35,6 +35,7 @@ import com.temenos.interaction.core.hypermedia.ResourceStateMachine;
 import com.temenos.interaction.core.hypermedia.ResourceStateProvider;
 import com.temenos.interaction.core.hypermedia.Transformer;
 import com.temenos.interaction.core.rim.HTTPResourceInteractionModel;
+import com.temenos.interaction.core.rim.ResourceRequestHandler;
 
 /**
  * A resource factory that uses the beans and configuration files from the SpringDSL implementation
@@ -52,6 +53,7 @@ public class LazyServiceRootFactory implements ServiceRootFactory {
 	private ResourceLocatorProvider resourceLocatorProvider;
 	private ResourceParameterResolverProvider parameterResolverProvider;
 	private Cache cacheImpl;
+	private ResourceRequestHandler resourceRequestHandler;
 	private ResourceState exception;
 	private Transformer transformer;
 
@@ -65,6 +67,7 @@ public class LazyServiceRootFactory implements ServiceRootFactory {
 				.resourceStateProvider(resourceStateProvider)
 				.parameterResolverProvider(parameterResolverProvider)
 				.responseCache(cacheImpl)
+				.resourceRequestHandler(resourceRequestHandler)
 				.build();
 
 		Set<HTTPResourceInteractionModel> services = new HashSet<HTTPResourceInteractionModel>();		
@@ -148,4 +151,12 @@ public class LazyServiceRootFactory implements ServiceRootFactory {
 	public void setCacheImpl(Cache cache) {
 		cacheImpl = cache;
 	}
+
+	public ResourceRequestHandler getResourceRequestHandler() {
+		return resourceRequestHandler;
+	}
+
+	public void setResourceRequestHandler(ResourceRequestHandler resourceRequestHandler) {
+		this.resourceRequestHandler = resourceRequestHandler;
+	}
 }
@@ -51,6 +51,11 @@ public class BaseConnectionConfig implements ConnectionConfig {
 		baseConnprops.setProperty(ConnectionConfig.SERVICE_ROOT, "GB0010001");
 		baseConnprops.setProperty(ConnectionConfig.USER_NAME, "INPUTT");
 		baseConnprops.setProperty(ConnectionConfig.PASS_WORD, "123456");
+		baseConnprops.setProperty(ConnectionConfig.MAX_CONNECTIONS, "50");
+		baseConnprops.setProperty(ConnectionConfig.MAX_CONNECTIONS_PER_ROUTE, "20");
+		baseConnprops.setProperty(ConnectionConfig.CONNECT_TIMEOUT, "0");
+		baseConnprops.setProperty(ConnectionConfig.SOCKET_TIMEOUT, "0");
+		baseConnprops.setProperty(ConnectionConfig.IDLE_TIMEOUT, "30000");
 		return baseConnprops;
 	}
 }
@@ -34,6 +34,16 @@ public interface ConnectionConfig {
 	public static final String USER_NAME = "USERNAME";
 	public static final String PASS_WORD = "PASSWORD";
 	public static final String SERVICE_ROOT = "COMPANY";
+	/** Maximum number of pooled connections, shared by all sessions */
+	public static final String MAX_CONNECTIONS = "MAX_CONNECTIONS";
+	/** Maximum number of pooled connections to one host */
+	public static final String MAX_CONNECTIONS_PER_ROUTE = "MAX_CONNECTIONS_PER_ROUTE";
+	/** Connect timeout in milliseconds, zero for none */
+	public static final String CONNECT_TIMEOUT = "CONNECT_TIMEOUT";
+	/** Socket (read) timeout in milliseconds, zero for none */
+	public static final String SOCKET_TIMEOUT = "SOCKET_TIMEOUT";
+	/** Time in milliseconds after which idle pooled connections are closed */
+	public static final String IDLE_TIMEOUT = "IDLE_TIMEOUT";
 
 	/**
 	 * Gets the value for a given property name.
@@ -32,9 +32,9 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,82 +49,79 @@ public class DefaultHttpClient implements HttpClient {
 
 	private Logger logger = LoggerFactory.getLogger(DefaultHttpClient.class);
 
+	private final HttpConnectionPool pool;
+
+	/**
+	 * Creates a client executing requests on the
+	 * {@link HttpConnectionPool#getSharedPool() shared connection pool}.
+	 */
+	public DefaultHttpClient() {
+		this(HttpConnectionPool.getSharedPool());
+	}
+
+	/**
+	 * Creates a client executing requests on the given connection pool.
+	 * 
+	 * @param pool
+	 */
+	public DefaultHttpClient(HttpConnectionPool pool) {
+		this.pool = pool;
+	}
+
 	@Override
 	public HttpResponse get(String url, HttpRequest request) {
 		logHttpRequest(url, request);
-		CloseableHttpClient client = HttpClientBuilder
-				.create()
-				.setDefaultCredentialsProvider(
-						DefaultHttpClientHelper.getBasicCredentialProvider())
-				.build();
 		HttpGet getRequest = new HttpGet(url);
 		DefaultHttpClientHelper.buildRequestHeaders(request, getRequest);
-		try {
-		    CloseableHttpResponse httpResponse = client.execute(getRequest);
-            HttpEntity responseEntity = httpResponse.getEntity();
-            return handleResponse(httpResponse, responseEntity);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return execute(getRequest);
 	}
 
 	@Override
 	public HttpResponse post(String url, HttpRequest request) {
 		logHttpRequest(url, request);
-		CloseableHttpClient client = HttpClientBuilder
-				.create()
-				.setDefaultCredentialsProvider(
-						DefaultHttpClientHelper.getBasicCredentialProvider())
-				.build();
 		HttpPost postRequest = new HttpPost(url);
 		DefaultHttpClientHelper.buildRequestHeaders(request, postRequest);
 		postRequest.setEntity(new StringEntity(request.payload(), "UTF-8"));
-		try {
-		    CloseableHttpResponse httpResponse = client.execute(postRequest);
-            HttpEntity responseEntity = httpResponse.getEntity();
-            return handleResponse(httpResponse, responseEntity);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return execute(postRequest);
 	}
 
 	@Override
 	public HttpResponse put(String url, HttpRequest request) {
 		logHttpRequest(url, request);
-		CloseableHttpClient client = HttpClientBuilder
-				.create()
-				.setDefaultCredentialsProvider(
-						DefaultHttpClientHelper.getBasicCredentialProvider())
-				.build();
 		HttpPut putRequest = new HttpPut(url);
 		DefaultHttpClientHelper.buildRequestHeaders(request, putRequest);
 		putRequest.setEntity(new StringEntity(request.payload(), "UTF-8"));
-		try {
-		    CloseableHttpResponse httpResponse = client.execute(putRequest);
-            HttpEntity responseEntity = httpResponse.getEntity();
-            return handleResponse(httpResponse, responseEntity);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return execute(putRequest);
 	}
 	
 	@Override
 	public HttpResponse delete(String url, HttpRequest request) {
 	    logHttpRequest(url, request);
-        CloseableHttpClient client = HttpClientBuilder
-                .create()
-                .setDefaultCredentialsProvider(
-                        DefaultHttpClientHelper.getBasicCredentialProvider())
-                .build();
         HttpDelete deleteRequest = new HttpDelete(url);
         DefaultHttpClientHelper.buildRequestHeaders(request, deleteRequest);
-        try {
-            CloseableHttpResponse httpResponse = client.execute(deleteRequest);
-            HttpEntity responseEntity = httpResponse.getEntity();
-            return handleResponse(httpResponse, responseEntity);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return execute(deleteRequest);
+	}
+
+	/*
+	 * The credentials are read per request, since sessions on other threads
+	 * may connect as other users over the same pool. The response is always
+	 * closed so that its connection goes back to the pool.
+	 */
+	private HttpResponse execute(HttpUriRequest httpRequest) {
+		HttpClientContext context = HttpClientContext.create();
+		context.setCredentialsProvider(DefaultHttpClientHelper
+				.getBasicCredentialProvider());
+		try {
+			CloseableHttpResponse httpResponse = pool.getClient().execute(
+					httpRequest, context);
+			try {
+				return handleResponse(httpResponse, httpResponse.getEntity());
+			} finally {
+				httpResponse.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
     private HttpResponse handleResponse(CloseableHttpResponse httpResponse, HttpEntity responseEntity)
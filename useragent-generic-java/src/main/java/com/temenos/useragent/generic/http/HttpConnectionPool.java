@@ -0,0 +1,169 @@
+package com.temenos.useragent.generic.http;
+
+/*
+ * #%L
+ * useragent-generic-java
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.temenos.useragent.generic.context.ConnectionConfig;
+import com.temenos.useragent.generic.context.ContextFactory;
+
+/**
+ * Pool of keep-alive connections shared by all {@link DefaultHttpClient http
+ * clients}, and therefore by all interaction sessions.
+ * <p>
+ * The pool is sized and its timeouts set from the {@link ConnectionConfig
+ * connection configuration} in effect when it is first used. Connections left
+ * idle for longer than {@link ConnectionConfig#IDLE_TIMEOUT} are closed by a
+ * background thread.
+ * </p>
+ * 
+ */
+public class HttpConnectionPool {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(HttpConnectionPool.class);
+
+	private static volatile HttpConnectionPool sharedPool;
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient client;
+
+	/**
+	 * Creates a pool configured from the given connection configuration.
+	 * 
+	 * @param config
+	 */
+	public HttpConnectionPool(ConnectionConfig config) {
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(getInt(config,
+				ConnectionConfig.MAX_CONNECTIONS, 50));
+		connectionManager.setDefaultMaxPerRoute(getInt(config,
+				ConnectionConfig.MAX_CONNECTIONS_PER_ROUTE, 20));
+		RequestConfig requestConfig = RequestConfig
+				.custom()
+				.setConnectTimeout(
+						getInt(config, ConnectionConfig.CONNECT_TIMEOUT, 0))
+				.setSocketTimeout(
+						getInt(config, ConnectionConfig.SOCKET_TIMEOUT, 0))
+				.build();
+		HttpClientBuilder builder = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig);
+		int idleTimeout = getInt(config, ConnectionConfig.IDLE_TIMEOUT, 30000);
+		if (idleTimeout > 0) {
+			builder.evictExpiredConnections().evictIdleConnections(
+					idleTimeout, TimeUnit.MILLISECONDS);
+		}
+		client = builder.build();
+		logger.debug("Http connection pool created, max {} connections, {} per route",
+				connectionManager.getMaxTotal(),
+				connectionManager.getDefaultMaxPerRoute());
+	}
+
+	/**
+	 * Returns the pool shared by all sessions, creating it on first use.
+	 * 
+	 * @return shared pool
+	 */
+	public static HttpConnectionPool getSharedPool() {
+		HttpConnectionPool pool = sharedPool;
+		if (pool == null) {
+			synchronized (HttpConnectionPool.class) {
+				pool = sharedPool;
+				if (pool == null) {
+					pool = new HttpConnectionPool(ContextFactory.get()
+							.getContext().connectionCongfig());
+					sharedPool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Closes the shared pool, if created. The next use creates a new pool
+	 * from the configuration then in effect.
+	 */
+	public static void shutdownSharedPool() {
+		HttpConnectionPool pool;
+		synchronized (HttpConnectionPool.class) {
+			pool = sharedPool;
+			sharedPool = null;
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the client executing requests on this pool's connections.
+	 * 
+	 * @return http client
+	 */
+	public CloseableHttpClient getClient() {
+		return client;
+	}
+
+	/**
+	 * Returns the statistics of the whole pool.
+	 * 
+	 * @return leased, pending, available and maximum connections
+	 */
+	public PoolStats getStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Closes the client and all pooled connections.
+	 */
+	public void shutdown() {
+		try {
+			client.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close http client", e);
+		}
+	}
+
+	private static int getInt(ConnectionConfig config, String name,
+			int defaultValue) {
+		String value = config.getValue(name);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid value '{}' for {}, using {}", value, name,
+					defaultValue);
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.temenos.useragent.generic.http;
+
+/*
+ * #%L
+ * useragent-generic-java
+ * %%
+ * Copyright (C) 2012 - 2016 Temenos Holdings N.V.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Test;
+
+import com.temenos.useragent.generic.context.BaseConnectionConfig;
+import com.temenos.useragent.generic.context.ConnectionConfig;
+import com.temenos.useragent.generic.context.SessionConnectionConfig;
+
+public class HttpConnectionPoolTest {
+
+	@After
+	public void tearDown() {
+		HttpConnectionPool.shutdownSharedPool();
+	}
+
+	@Test
+	public void testConfiguredPool() {
+		SessionConnectionConfig config = new SessionConnectionConfig(
+				new BaseConnectionConfig());
+		config.setValue(ConnectionConfig.MAX_CONNECTIONS, "7");
+		HttpConnectionPool pool = new HttpConnectionPool(config);
+		try {
+			PoolStats stats = pool.getStats();
+			assertEquals(7, stats.getMax());
+			assertEquals(0, stats.getLeased());
+			assertEquals(0, stats.getAvailable());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testInvalidValueUsesDefault() {
+		SessionConnectionConfig config = new SessionConnectionConfig(
+				new BaseConnectionConfig());
+		config.setValue(ConnectionConfig.MAX_CONNECTIONS, "many");
+		HttpConnectionPool pool = new HttpConnectionPool(config);
+		try {
+			assertEquals(50, pool.getStats().getMax());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSharedPool() {
+		HttpConnectionPool pool = HttpConnectionPool.getSharedPool();
+		assertSame(pool, HttpConnectionPool.getSharedPool());
+		HttpConnectionPool.shutdownSharedPool();
+		assertNotSame(pool, HttpConnectionPool.getSharedPool());
+	}
+}